@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2015 Hamburg Sud and the contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aludratest.service.xmlfile.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.aludratest.service.ComponentId;
+import org.aludratest.service.xmlfile.XmlFileService;
+import org.aludratest.testing.service.AbstractAludraServiceTest;
+
+/**
+ * Parent class of benchmarks which use the {@link XmlFileService}. The service is created like in the service tests, using the
+ * configuration of the <code>benchmark</code> instance, whose file service is rooted in the benchmark data directory. The
+ * non-logging service is used, so the measurements contain the operations themselves, but no test step logging.
+ */
+public abstract class AbstractXmlFileServiceBenchmark extends AbstractAludraServiceTest {
+
+	/** System property defining the directory of the generated documents */
+	public static final String DATA_DIR_PROPERTY = "xml.benchmark.dir";
+
+	protected static final String ELEMENT_TYPE = "benchmark";
+
+	protected static final String ELEMENT_NAME = "document";
+
+	protected XmlFileService service;
+
+	protected File dataDir;
+
+	/**
+	 * Starts the framework and creates the service. Must be called by the setup method of the benchmark state.
+	 * 
+	 * @throws Exception
+	 *             If the framework could not be started.
+	 */
+	protected void startService() throws Exception {
+		dataDir = new File(System.getProperty(DATA_DIR_PROPERTY, "target/benchmark-data")).getAbsoluteFile();
+		if (!dataDir.isDirectory() && !dataDir.mkdirs()) {
+			throw new IOException("Could not create benchmark data directory " + dataDir);
+		}
+		// referenced by the file service configuration
+		System.setProperty(DATA_DIR_PROPERTY, dataDir.getAbsolutePath());
+		initializeAludra();
+		service = context.getNonLoggingService(ComponentId.create(XmlFileService.class, "benchmark"));
+	}
+
+	/** Closes the service and stops the framework. Must be called by the teardown method of the benchmark state. */
+	protected void stopService() {
+		if (service != null) {
+			service.close();
+			service = null;
+		}
+		deinitializeAludra();
+	}
+
+	/**
+	 * Returns the path of a generated document, relative to the root of the file service.
+	 * 
+	 * @param shape
+	 *            Shape of the document.
+	 * @param size
+	 *            Size of the document.
+	 * @param actual
+	 *            If <code>true</code>, the actual variant of the document is returned, otherwise the expected variant.
+	 * @return The path of the document.
+	 * @throws IOException
+	 *             If the document had to be generated, and could not be written.
+	 */
+	protected String documentPath(DocumentShape shape, String size, boolean actual) throws IOException {
+		return BenchmarkDocuments.getFile(dataDir, shape, size, actual).getName();
+	}
+
+}
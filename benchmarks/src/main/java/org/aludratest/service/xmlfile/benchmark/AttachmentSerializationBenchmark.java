@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2015 Hamburg Sud and the contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aludratest.service.xmlfile.benchmark;
+
+import java.io.StringWriter;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+
+import org.aludratest.service.xmlfile.impl.TransformerPool;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+/**
+ * Measures the cost of rendering one XML attachment, comparing a new TransformerFactory and Transformer per attachment (the
+ * former behaviour) with the per-thread Transformers of {@link TransformerPool}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class AttachmentSerializationBenchmark {
+
+	@Param({ "10", "1000" })
+	public int elementCount;
+
+	private Document document;
+
+	private TransformerPool transformerPool;
+
+	@Setup
+	public void setUp() throws Exception {
+		document = DocumentBuilderFactory.newInstance().newDocumentBuilder().newDocument();
+		Element root = document.createElement("doc");
+		document.appendChild(root);
+		for (int i = 0; i < elementCount; i++) {
+			Element item = document.createElement("item");
+			item.setAttribute("id", String.valueOf(i));
+			item.setTextContent("Item number " + i);
+			root.appendChild(item);
+		}
+		transformerPool = new TransformerPool();
+	}
+
+	@Benchmark
+	public String newTransformerPerAttachment() throws Exception {
+		StringWriter sw = new StringWriter();
+		Transformer transformer = TransformerFactory.newInstance().newTransformer();
+		transformer.transform(new DOMSource(document), new StreamResult(sw));
+		return sw.toString();
+	}
+
+	@Benchmark
+	public String pooledTransformer() throws Exception {
+		StringWriter sw = new StringWriter();
+		transformerPool.transform(document, sw);
+		return sw.toString();
+	}
+
+}
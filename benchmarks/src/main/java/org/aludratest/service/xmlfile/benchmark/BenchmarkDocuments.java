@@ -0,0 +1,218 @@
+/*
+ * Copyright (C) 2015 Hamburg Sud and the contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aludratest.service.xmlfile.benchmark;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Generates the documents of the benchmarks. A document of a given shape and size consists of as many records as fit into the
+ * size, so documents of all sizes have the same structure. Each document exists in an expected and an actual variant: for the
+ * flat and deep shapes, the actual variant differs in the value of the last record only, so comparisons have to process the
+ * whole document; for the keyed shape, the actual variant contains the same records in reverse order. Generated files are
+ * streamed to disk and kept for later runs, as generating the largest documents takes a while.
+ */
+public final class BenchmarkDocuments {
+
+	/** Number of nested elements in each record of the deep shape */
+	static final int DEEP_NESTING = 32;
+
+	private static final String HEADER = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<records>\n";
+
+	private static final String FOOTER = "</records>\n";
+
+	/** Record IDs are padded to a fixed length, so all records of a shape have the same size */
+	private static final int ID_LENGTH = 9;
+
+	private BenchmarkDocuments() {
+	}
+
+	/**
+	 * Parses a document size like <code>1KB</code>, <code>50MB</code> or <code>2GB</code>. A size without unit is taken as
+	 * number of bytes.
+	 * 
+	 * @param size
+	 *            The size to parse.
+	 * @return The size in bytes.
+	 */
+	public static long parseSize(String size) {
+		String s = size.trim().toUpperCase(Locale.ROOT);
+		long factor = 1;
+		if (s.endsWith("KB")) {
+			factor = 1024L;
+		}
+		else if (s.endsWith("MB")) {
+			factor = 1024L * 1024L;
+		}
+		else if (s.endsWith("GB")) {
+			factor = 1024L * 1024L * 1024L;
+		}
+		if (factor > 1) {
+			s = s.substring(0, s.length() - 2).trim();
+		}
+		return Long.parseLong(s) * factor;
+	}
+
+	/**
+	 * Calculates the number of records of a document of the given shape and size.
+	 * 
+	 * @param shape
+	 *            Shape of the document.
+	 * @param size
+	 *            Size of the document, in bytes.
+	 * @return The number of records, at least 1.
+	 */
+	public static int recordCount(DocumentShape shape, long size) {
+		// the largest record of the first thousand, as the amount of keyed records varies in length
+		StringBuilder sb = new StringBuilder();
+		appendRecord(sb, shape, 999, false);
+		long count = (size - HEADER.length() - FOOTER.length()) / sb.length();
+		return (int) Math.max(1, Math.min(Integer.MAX_VALUE, count));
+	}
+
+	/**
+	 * Returns the file containing the given document, generating it if it does not exist yet.
+	 * 
+	 * @param directory
+	 *            Directory to keep the generated files in.
+	 * @param shape
+	 *            Shape of the document.
+	 * @param size
+	 *            Size of the document, as accepted by {@link #parseSize(String)}.
+	 * @param actual
+	 *            If <code>true</code>, the actual variant of the document is returned, otherwise the expected variant.
+	 * @return The file containing the document.
+	 * @throws IOException
+	 *             If the file could not be written.
+	 */
+	public static File getFile(File directory, DocumentShape shape, String size, boolean actual) throws IOException {
+		String name = shape.name().toLowerCase(Locale.ROOT) + "-" + size.trim() + (actual ? "-actual" : "-expected") + ".xml";
+		File file = new File(directory, name);
+		if (file.isFile()) {
+			return file;
+		}
+
+		// write to a temporary file first, so an interrupted run does not leave a truncated document behind
+		File tempFile = new File(directory, name + ".tmp");
+		Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tempFile), "UTF-8"), 64 * 1024);
+		try {
+			write(writer, shape, recordCount(shape, parseSize(size)), actual);
+		}
+		finally {
+			writer.close();
+		}
+		if (!tempFile.renameTo(file)) {
+			throw new IOException("Could not rename " + tempFile + " to " + file);
+		}
+		return file;
+	}
+
+	/**
+	 * Writes a document of the given shape.
+	 * 
+	 * @param writer
+	 *            Writer to write the document to.
+	 * @param shape
+	 *            Shape of the document.
+	 * @param recordCount
+	 *            Number of records of the document.
+	 * @param actual
+	 *            If <code>true</code>, the actual variant of the document is written, otherwise the expected variant.
+	 * @throws IOException
+	 *             If the document could not be written.
+	 */
+	public static void write(Writer writer, DocumentShape shape, int recordCount, boolean actual) throws IOException {
+		writer.write(HEADER);
+		StringBuilder sb = new StringBuilder(1024);
+		boolean reverse = actual && shape == DocumentShape.KEYED;
+		for (int i = 0; i < recordCount; i++) {
+			int index = reverse ? recordCount - 1 - i : i;
+			sb.setLength(0);
+			appendRecord(sb, shape, index, actual && !reverse && index == recordCount - 1);
+			writer.write(sb.toString());
+		}
+		writer.write(FOOTER);
+	}
+
+	/**
+	 * Creates the variables of the benchmark template, which renders a document similar to the keyed shape.
+	 * 
+	 * @param recordCount
+	 *            Number of records to create.
+	 * @return The template variables.
+	 */
+	public static Map<String, Object> templateVariables(int recordCount) {
+		List<Map<String, Object>> records = new ArrayList<Map<String, Object>>(recordCount);
+		for (int i = 0; i < recordCount; i++) {
+			Map<String, Object> record = new HashMap<String, Object>();
+			String id = id(i);
+			record.put("id", id);
+			record.put("name", "Name " + id);
+			record.put("amount", String.valueOf(i % 1000) + ".50");
+			records.add(record);
+		}
+		Map<String, Object> variables = new HashMap<String, Object>();
+		variables.put("records", records);
+		return variables;
+	}
+
+	private static void appendRecord(StringBuilder sb, DocumentShape shape, int index, boolean changed) {
+		String id = id(index);
+		String value = (changed ? "Changed value " : "Value of record ") + id;
+		sb.append("\t<record id=\"").append(id).append("\">");
+		switch (shape) {
+			case FLAT:
+				sb.append(value);
+				break;
+			case DEEP:
+				for (int i = 0; i < DEEP_NESTING; i++) {
+					sb.append("<level>");
+				}
+				sb.append("<value>").append(value).append("</value>");
+				for (int i = 0; i < DEEP_NESTING; i++) {
+					sb.append("</level>");
+				}
+				break;
+			case KEYED:
+				sb.append("<name>Name ").append(id).append("</name>");
+				sb.append("<amount>").append(index % 1000).append(".50</amount>");
+				sb.append("<status>OPEN</status>");
+				break;
+			default:
+				throw new IllegalArgumentException("Unsupported shape: " + shape);
+		}
+		sb.append("</record>\n");
+	}
+
+	private static String id(int index) {
+		String digits = String.valueOf(index);
+		StringBuilder sb = new StringBuilder(ID_LENGTH);
+		for (int i = digits.length(); i < ID_LENGTH; i++) {
+			sb.append('0');
+		}
+		return sb.append(digits).toString();
+	}
+
+}
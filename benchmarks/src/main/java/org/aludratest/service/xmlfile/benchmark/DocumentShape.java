@@ -0,0 +1,33 @@
+/*
+ * Copyright (C) 2015 Hamburg Sud and the contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aludratest.service.xmlfile.benchmark;
+
+/**
+ * The structures of the generated benchmark documents. All shapes consist of <code>record</code> elements with an
+ * <code>id</code> attribute below the document element, so the same XPath queries and key expressions apply to each shape.
+ */
+public enum DocumentShape {
+
+	/** Many small sibling records containing only text. */
+	FLAT,
+
+	/** Records containing a deeply nested element chain each. */
+	DEEP,
+
+	/** Records with several child elements, in reverse order in the actual document, for matching by key. */
+	KEYED
+
+}
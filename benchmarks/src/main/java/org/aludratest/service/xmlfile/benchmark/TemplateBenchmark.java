@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2015 Hamburg Sud and the contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aludratest.service.xmlfile.benchmark;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.w3c.dom.Document;
+
+/**
+ * Measures the template operations of the XmlFileService, rendering documents of different sizes which are structured like
+ * the keyed documents of {@link XmlFileActionBenchmark}.
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-Xms4g", "-Xmx4g" })
+@State(Scope.Thread)
+public class TemplateBenchmark extends AbstractXmlFileServiceBenchmark {
+
+	private static final String TEMPLATE = "benchmark/records.ftl";
+
+	@Param({ "1KB", "1MB", "50MB" })
+	public String size;
+
+	private Map<String, Object> variables;
+
+	private String outputPath;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		startService();
+		variables = BenchmarkDocuments.templateVariables(BenchmarkDocuments.recordCount(DocumentShape.KEYED,
+				BenchmarkDocuments.parseSize(size)));
+		outputPath = "output-template-" + size + ".xml";
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		service.perform().delete(ELEMENT_TYPE, ELEMENT_NAME, outputPath);
+		stopService();
+	}
+
+	@Benchmark
+	public Document createDocument() {
+		return service.perform().createDocument(ELEMENT_TYPE, ELEMENT_NAME, TEMPLATE, "UTF-8", variables);
+	}
+
+	@Benchmark
+	public void writeDocumentFromTemplate() {
+		service.perform().writeDocumentFromTemplate(ELEMENT_TYPE, ELEMENT_NAME, TEMPLATE, "UTF-8", variables, outputPath, true);
+	}
+
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2015 Hamburg Sud and the contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aludratest.service.xmlfile.benchmark;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.xpath.XPathConstants;
+
+import org.aludratest.content.xml.AggregateXmlDiff;
+import org.aludratest.service.xmlfile.XmlFileComparisonSettings;
+import org.aludratest.service.xmlfile.XmlKeyedDiff;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.w3c.dom.Document;
+
+/**
+ * Measures the document operations of the XmlFileService on generated documents of different shapes and sizes, reporting
+ * throughput as well as latency percentiles. The allocation rate is reported when running with the GC profiler, as
+ * {@link XmlBenchmarks} does. The default sizes keep a complete run within a 4 GB heap; larger documents, up to 500 MB, can be
+ * measured with e.g. <code>-p size=500MB -jvmArgsAppend -Xmx48g</code>, as the parsed documents need several times the file size.
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-Xms4g", "-Xmx4g" })
+@State(Scope.Thread)
+public class XmlFileActionBenchmark extends AbstractXmlFileServiceBenchmark {
+
+	@Param({ "FLAT", "DEEP", "KEYED" })
+	public DocumentShape shape;
+
+	@Param({ "1KB", "1MB", "50MB" })
+	public String size;
+
+	private String expectedPath;
+
+	private String actualPath;
+
+	private String outputPath;
+
+	private Document expected;
+
+	private Document actual;
+
+	private XmlFileComparisonSettings settings;
+
+	private Map<String, String> keyExpressions;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		startService();
+		expectedPath = documentPath(shape, size, false);
+		actualPath = documentPath(shape, size, true);
+		outputPath = "output-" + expectedPath;
+		expected = service.perform().readDocument(ELEMENT_TYPE, ELEMENT_NAME, expectedPath);
+		actual = service.perform().readDocument(ELEMENT_TYPE, ELEMENT_NAME, actualPath);
+		settings = new XmlFileComparisonSettings();
+		keyExpressions = Collections.singletonMap("record", "@id");
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		service.perform().delete(ELEMENT_TYPE, ELEMENT_NAME, outputPath);
+		stopService();
+	}
+
+	@Benchmark
+	public Document readDocument() {
+		return service.perform().readDocument(ELEMENT_TYPE, ELEMENT_NAME, expectedPath);
+	}
+
+	@Benchmark
+	public Document readReferenceDocument() {
+		return service.perform().readReferenceDocument(ELEMENT_TYPE, ELEMENT_NAME, expectedPath);
+	}
+
+	@Benchmark
+	public void writeXml() {
+		service.perform().writeXml(ELEMENT_TYPE, ELEMENT_NAME, expected, outputPath, true);
+	}
+
+	@Benchmark
+	public Object queryXml() {
+		return service.perform().queryXml(ELEMENT_TYPE, ELEMENT_NAME, expected, "/records/record[last()]/@id",
+				XPathConstants.STRING);
+	}
+
+	@Benchmark
+	public String queryXmlInFile() {
+		return service.perform().queryXmlInFile(ELEMENT_TYPE, ELEMENT_NAME, expectedPath, "/records/record/@id");
+	}
+
+	@Benchmark
+	public AggregateXmlDiff diff() {
+		return service.perform().diff(ELEMENT_TYPE, ELEMENT_NAME, expected, actual, settings);
+	}
+
+	@Benchmark
+	public XmlKeyedDiff diffByKeys() {
+		return service.perform().diffByKeys(ELEMENT_TYPE, ELEMENT_NAME, expected, actual, keyExpressions, settings);
+	}
+
+	@Benchmark
+	public boolean areDocumentsEqual() {
+		return service.check().areDocumentsEqual(ELEMENT_TYPE, ELEMENT_NAME, expected, actual, settings);
+	}
+
+	@Benchmark
+	public String canonicalHash() {
+		return service.perform().canonicalHash(ELEMENT_TYPE, ELEMENT_NAME, expectedPath, settings);
+	}
+
+}
@@ -0,0 +1,6 @@
+<?xml version="1.0" encoding="UTF-8"?>
+<records>
+<#list records as record>
+	<record id="${record.id}"><name>${record.name}</name><amount>${record.amount}</amount><status>OPEN</status></record>
+</#list>
+</records>
@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2015 Hamburg Sud and the contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aludratest.service.xmlfile;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The aggregated result of comparing multiple actual XML files with their reference files.
+ * 
+ * @see XmlFileInteraction#compareFiles(String, String, java.util.Map, java.util.Map, org.aludratest.content.xml.XmlComparisonSettings)
+ */
+public class XmlFileComparisonResult {
+
+	private final List<XmlFilePairResult> pairResults;
+
+	/**
+	 * Creates a new result.
+	 * 
+	 * @param pairResults
+	 *            The results of the single file pairs.
+	 */
+	public XmlFileComparisonResult(List<XmlFilePairResult> pairResults) {
+		this.pairResults = Collections.unmodifiableList(new ArrayList<XmlFilePairResult>(pairResults));
+	}
+
+	/** @return The results of all file pairs, in the order they were passed for comparison. */
+	public List<XmlFilePairResult> getPairResults() {
+		return pairResults;
+	}
+
+	/** @return The results of all file pairs which did not pass. */
+	public List<XmlFilePairResult> getFailedPairs() {
+		List<XmlFilePairResult> result = new ArrayList<XmlFilePairResult>();
+		for (XmlFilePairResult pair : pairResults) {
+			if (!pair.isPassed()) {
+				result.add(pair);
+			}
+		}
+		return result;
+	}
+
+	/** @return <code>true</code> if all file pairs passed, <code>false</code> otherwise. */
+	public boolean isPassed() {
+		for (XmlFilePairResult pair : pairResults) {
+			if (!pair.isPassed()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public String toString() {
+		List<XmlFilePairResult> failed = getFailedPairs();
+		StringBuilder sb = new StringBuilder();
+		sb.append(pairResults.size() - failed.size()).append(" of ").append(pairResults.size()).append(" file pairs passed");
+		for (XmlFilePairResult pair : failed) {
+			sb.append("\n").append(pair);
+		}
+		return sb.toString();
+	}
+
+}
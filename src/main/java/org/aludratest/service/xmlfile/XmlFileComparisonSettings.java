@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2015 Hamburg Sud and the contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aludratest.service.xmlfile;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.aludratest.content.xml.XmlDiffDetailType;
+import org.aludratest.content.xml.util.DatabeneXmlComparisonSettings;
+
+/**
+ * XML comparison settings which keep track of the configured tolerances, so the {@link XmlFileService} can evaluate them
+ * itself. This enables fail-fast comparisons which stop at the first difference that is not tolerated, instead of collecting
+ * all differences. All settings are passed on to the XML content handler as well.
+ */
+public class XmlFileComparisonSettings extends DatabeneXmlComparisonSettings {
+
+	/** The declared whitespace relevance, or <code>null</code> if not declared */
+	private Boolean whitespaceRelevant;
+
+	private final List<String> anyDiffPaths = new ArrayList<String>();
+
+	private final List<String> differentPaths = new ArrayList<String>();
+
+	private final Map<XmlDiffDetailType, List<String>> genericDiffPaths = new EnumMap<XmlDiffDetailType, List<String>>(
+			XmlDiffDetailType.class);
+
+	private final Map<String, String> keyExpressions = new LinkedHashMap<String, String>();
+
+	@Override
+	public void setWhitespaceRelevant(boolean whitespaceRelevant) {
+		super.setWhitespaceRelevant(whitespaceRelevant);
+		this.whitespaceRelevant = Boolean.valueOf(whitespaceRelevant);
+	}
+
+	@Override
+	public void tolerateAnyDiffAt(String locator) {
+		super.tolerateAnyDiffAt(locator);
+		anyDiffPaths.add(locator);
+	}
+
+	@Override
+	public void tolerateDifferentAt(String locator) {
+		super.tolerateDifferentAt(locator);
+		differentPaths.add(locator);
+	}
+
+	@Override
+	public void tolerateGenericDiff(XmlDiffDetailType type, String locator) {
+		super.tolerateGenericDiff(type, locator);
+		List<String> paths = genericDiffPaths.get(type);
+		if (paths == null) {
+			paths = new ArrayList<String>();
+			genericDiffPaths.put(type, paths);
+		}
+		paths.add(locator);
+	}
+
+	@Override
+	public void addKeyExpression(String elementName, String keyExpression) {
+		super.addKeyExpression(elementName, keyExpression);
+		keyExpressions.put(elementName, keyExpression);
+	}
+
+	/**
+	 * @return <code>true</code> if whitespace has been declared relevant, <code>false</code> if it has not been set or has
+	 *         been declared irrelevant.
+	 */
+	public boolean isWhitespaceRelevant() {
+		return Boolean.TRUE.equals(whitespaceRelevant);
+	}
+
+	/**
+	 * @return <code>true</code> if whitespace has been declared irrelevant, <code>false</code> if it has not been set or has
+	 *         been declared relevant.
+	 */
+	public boolean isWhitespaceIrrelevant() {
+		return Boolean.FALSE.equals(whitespaceRelevant);
+	}
+
+	/** @return The XPath expressions of the nodes at which any difference is tolerated. */
+	public List<String> getAnyDiffPaths() {
+		return Collections.unmodifiableList(anyDiffPaths);
+	}
+
+	/** @return The XPath expressions of the nodes whose values may differ. */
+	public List<String> getDifferentPaths() {
+		return Collections.unmodifiableList(differentPaths);
+	}
+
+	/**
+	 * @param type
+	 *            The type of difference.
+	 * @return The XPath expressions of the nodes at which the given type of difference is tolerated.
+	 */
+	public List<String> getGenericDiffPaths(XmlDiffDetailType type) {
+		List<String> paths = genericDiffPaths.get(type);
+		return paths == null ? Collections.<String> emptyList() : Collections.unmodifiableList(paths);
+	}
+
+	/** @return The key expressions of elements, mapped by element name. */
+	public Map<String, String> getKeyExpressions() {
+		return Collections.unmodifiableMap(keyExpressions);
+	}
+
+	/**
+	 * Creates a copy of these settings without the key expressions, so the XML content handler compares elements which have
+	 * already been matched by key by their position.
+	 * 
+	 * @return A new settings object with the same whitespace relevance and tolerances, but without key expressions.
+	 */
+	public XmlFileComparisonSettings copyWithoutKeyExpressions() {
+		XmlFileComparisonSettings copy = new XmlFileComparisonSettings();
+		if (whitespaceRelevant != null) {
+			copy.setWhitespaceRelevant(whitespaceRelevant.booleanValue());
+		}
+		for (String path : anyDiffPaths) {
+			copy.tolerateAnyDiffAt(path);
+		}
+		for (String path : differentPaths) {
+			copy.tolerateDifferentAt(path);
+		}
+		for (Map.Entry<XmlDiffDetailType, List<String>> entry : genericDiffPaths.entrySet()) {
+			for (String path : entry.getValue()) {
+				copy.tolerateGenericDiff(entry.getKey(), path);
+			}
+		}
+		return copy;
+	}
+
+}
@@ -15,6 +15,8 @@
  */
 package org.aludratest.service.xmlfile;
 
+import java.util.Map;
+
 import org.aludratest.content.xml.XmlComparisonSettings;
 import org.aludratest.service.Condition;
 import org.aludratest.service.ElementName;
@@ -38,7 +40,9 @@ public interface XmlFileCondition extends Condition {
 	boolean exists(@ElementType String elementType, @ElementName String elementName, @TechnicalLocator String filePath);
 
 	/**
-	 * Tells if the two documents are equal, compared using the given comparison settings.
+	 * Tells if the two documents are equal, compared using the given comparison settings. If the settings are
+	 * {@link XmlFileComparisonSettings} without key expressions, the comparison stops at the first difference which is not
+	 * tolerated, unless disabled by the service configuration.
 	 * 
 	 * @param elementType
 	 * @param elementName
@@ -56,7 +60,8 @@ public interface XmlFileCondition extends Condition {
 			Document actual, @TechnicalArgument XmlComparisonSettings settings);
 
 	/**
-	 * Tells if the given XPath node in the document exists.
+	 * Tells if the given XPath node in the document exists. Prefixed names in the XPath are resolved with the namespace prefixes
+	 * configured for the service.
 	 * 
 	 * @param elementType
 	 * @param elementName
@@ -84,4 +89,79 @@ public interface XmlFileCondition extends Condition {
 	 */
 	boolean nodeMatches(@ElementType String elementType, @ElementName String elementName, Document document,
 			@TechnicalLocator String xpath, Validator<String> validator);
+
+	/**
+	 * Tells if the String representations of several nodes (located by XPath) match their validators. All XPath expressions
+	 * are evaluated like in {@link XmlFileInteraction#queryXmlBatch(String, String, Document, Map)}.
+	 * 
+	 * @param elementType
+	 * @param elementName
+	 * @param document
+	 *            Document to check.
+	 * @param xpaths
+	 *            XPath expressions locating the nodes to check, mapped by a name identifying them.
+	 * @param validators
+	 *            Validators to match the string representations of the nodes against, mapped by the names of the XPath
+	 *            expressions. Nodes without a validator are not checked.
+	 * @return <code>true</code> if the string representations of all nodes match their validators, <code>false</code>
+	 *         otherwise.
+	 */
+	boolean nodesMatch(@ElementType String elementType, @ElementName String elementName, Document document,
+			@TechnicalLocator Map<String, String> xpaths, Map<String, Validator<String>> validators);
+
+	/**
+	 * Tells if the given XPath node exists in an XML file. The file is evaluated while it is read, without building a
+	 * document tree, and reading stops as soon as the result is known. This works for absolute location paths with child
+	 * and descendant steps, attribute predicates, a trailing position predicate and a final attribute or <code>text()</code>
+	 * step; other expressions are evaluated on the completely parsed document.
+	 * 
+	 * @param elementType
+	 * @param elementName
+	 * @param filePath
+	 *            Path of the file to check.
+	 * @param xpath
+	 *            XPath locating the node to check.
+	 * @return <code>true</code> if a node with the given XPath exists in the file, <code>false</code> otherwise.
+	 */
+	boolean nodeExistsInFile(@ElementType String elementType, @ElementName String elementName,
+			@TechnicalLocator String filePath, @TechnicalArgument String xpath);
+
+	/**
+	 * Tells if the String representation of the given node (located by XPath) in an XML file matches the given validator. The
+	 * file is evaluated like in {@link #nodeExistsInFile(String, String, String, String)}.
+	 * 
+	 * @param elementType
+	 * @param elementName
+	 * @param filePath
+	 *            Path of the file to check.
+	 * @param xpath
+	 *            XPath locating the node to check.
+	 * @param validator
+	 *            Validator to match the string representation of the node against.
+	 * @return <code>true</code> if the string representation of the node matches the Validator, <code>false</code> otherwise.
+	 */
+	boolean nodeMatchesInFile(@ElementType String elementType, @ElementName String elementName,
+			@TechnicalLocator String filePath, @TechnicalArgument String xpath, Validator<String> validator);
+
+	/**
+	 * Tells if an XML file has the same canonical hash as a reference file, which proves that both documents are equal
+	 * regarding to the given comparison settings. Both files are hashed while being parsed, without building document trees,
+	 * and the hashes of reference files are cached. If the hashes differ, or if the settings cannot be applied to hashes, the
+	 * documents have to be compared in detail.
+	 * 
+	 * @param elementType
+	 * @param elementName
+	 * @param referenceFileName
+	 *            Path of the reference file.
+	 * @param actualFileName
+	 *            Path of the file to check.
+	 * @param settings
+	 *            Comparison settings. Only {@link XmlFileComparisonSettings} without key expressions and without tolerated
+	 *            missing, unexpected or moved nodes can be applied to hashes.
+	 * @return <code>true</code> if the canonical hashes of both files are equal, <code>false</code> if they differ or could
+	 *         not be computed.
+	 */
+	boolean canonicalHashesMatch(@ElementType String elementType, @ElementName String elementName,
+			@TechnicalArgument String referenceFileName, @TechnicalLocator String actualFileName,
+			@TechnicalArgument XmlComparisonSettings settings);
 }
@@ -15,6 +15,7 @@
  */
 package org.aludratest.service.xmlfile;
 
+import java.util.List;
 import java.util.Map;
 
 import javax.xml.namespace.QName;
@@ -29,6 +30,7 @@ import org.aludratest.service.ElementType;
 import org.aludratest.service.Interaction;
 import org.aludratest.service.TechnicalArgument;
 import org.aludratest.service.TechnicalLocator;
+import org.databene.commons.Validator;
 import org.w3c.dom.Document;
 
 public interface XmlFileInteraction extends Interaction {
@@ -51,6 +53,42 @@ public interface XmlFileInteraction extends Interaction {
 	 */
 	void waitUntilNotExists(@ElementType String elementType, @ElementName String elementName, @TechnicalLocator String filePath);
 
+	/**
+	 * Waits until a file exists and contains a complete XML document, i.e. until its document element has been closed. The
+	 * file is parsed incrementally while it grows, so each part of it is only read once, and the method returns as soon as
+	 * the document element is closed. Use this instead of {@link #waitUntilExists(String, String, String)} if the file is
+	 * written by another process and must not be read before it is complete.
+	 * 
+	 * @param elementType
+	 * @param elementName
+	 * @param filePath
+	 *            Path of the file to wait for.
+	 * @param timeout
+	 *            The maximum time to wait for the complete document, in milliseconds.
+	 */
+	void waitUntilComplete(@ElementType String elementType, @ElementName String elementName,
+			@TechnicalLocator String filePath, @TechnicalArgument long timeout);
+
+	/**
+	 * Waits until the String representation of a node (located by XPath) in an XML file matches the given validator. The
+	 * file is polled, but only parsed again when it has changed, and the XPath expression is compiled only once. Files which
+	 * are not well-formed, e.g. because they are currently being written, are skipped until they change again.
+	 * 
+	 * @param elementType
+	 * @param elementName
+	 * @param filePath
+	 *            Path of the file to check.
+	 * @param xpath
+	 *            XPath locating the node to check.
+	 * @param validator
+	 *            Validator to match the string representation of the node against.
+	 * @param timeout
+	 *            The maximum time to wait, in milliseconds.
+	 */
+	void waitUntilNodeMatches(@ElementType String elementType, @ElementName String elementName,
+			@TechnicalLocator String filePath, @TechnicalArgument String xpath, Validator<String> validator,
+			@TechnicalArgument long timeout);
+
 	/**
 	 * Deletes a file.
 	 * 
@@ -62,7 +100,8 @@ public interface XmlFileInteraction extends Interaction {
 	void delete(@ElementType String elementType, @ElementName String elementName, @TechnicalLocator String filePath);
 
 	/**
-	 * Writes an XML document to a file.
+	 * Writes an XML document to a file. The document is serialized directly into the file through a bounded buffer, so the
+	 * serialized form is never held completely in memory. If serialization fails, a pre-existing file is left as it is.
 	 * 
 	 * @param elementType
 	 * @param elementName
@@ -98,7 +137,34 @@ public interface XmlFileInteraction extends Interaction {
 			@TechnicalArgument Map<String, Object> variables);
 
 	/**
-	 * Reads an XML document from the underlying file service. The XML document must exist.
+	 * Renders a template and writes the output directly to a file, without building an XML document in memory. The template
+	 * file must be located on the classpath of the Classloader, and must have a valid FreeMarker template format. The output
+	 * is encoded like in {@link #createDocument(String, String, String, String, Map)}, in the encoding of its XML
+	 * declaration, or in UTF-8 if it has none. The output is checked for well-formedness while it is written; if it is not
+	 * well-formed, the file is not written, and a pre-existing file is left as it is.
+	 * 
+	 * @param elementType
+	 * @param elementName
+	 * @param templateUri
+	 *            The path of the template file.
+	 * @param templateEncoding
+	 *            The encoding of the template file.
+	 * @param variables
+	 *            the variables for the FreeMarker template engine.
+	 * @param filePath
+	 *            The path of the file to write.
+	 * @param overwrite
+	 *            Flag that indicates whether a pre-existing file may be overwritten. If <code>false</code>, an existing file with
+	 *            the file path will cause the method to fail.
+	 */
+	void writeDocumentFromTemplate(@ElementType String elementType, @ElementName String elementName,
+			@TechnicalArgument String templateUri, @TechnicalArgument String templateEncoding,
+			@TechnicalArgument Map<String, Object> variables, @TechnicalLocator String filePath,
+			@TechnicalArgument boolean overwrite);
+
+	/**
+	 * Reads an XML document from the underlying file service. The XML document must exist. The file contents are streamed
+	 * directly into the parser, so no intermediate copy of the raw file data is held in memory.
 	 * 
 	 * @param elementType
 	 * @param elementName
@@ -111,7 +177,78 @@ public interface XmlFileInteraction extends Interaction {
 	Document readDocument(@ElementType String elementType, @ElementName String elementName, @TechnicalLocator String fileName);
 
 	/**
-	 * Performs an XPath query on the given XML document.
+	 * Reads an XML document from the underlying file service into a compact, read-only representation. Works like
+	 * {@link #readDocument(String, String, String)}, but the document needs several times less memory than a regular
+	 * document, so it suits large documents which are only queried, compared and verified. The document can be passed to all
+	 * operations of the service which do not modify it. Any attempt to modify the document fails with a
+	 * {@link org.w3c.dom.DOMException}, while cloning a node creates a regular, modifiable copy. The document type declaration
+	 * is not kept, and adjacent text is always merged into a single text node.
+	 * 
+	 * @param elementType
+	 * @param elementName
+	 * @param fileName
+	 *            Name of the file, which is passed to the underlying file service.
+	 * 
+	 * @return The read XML document.
+	 */
+	@AttachResult("Read Document")
+	Document readCompactDocument(@ElementType String elementType, @ElementName String elementName,
+			@TechnicalLocator String fileName);
+
+	/**
+	 * Reads multiple XML documents from the underlying file service. The files are read and parsed in parallel, using the
+	 * number of threads configured for the service. All XML documents must exist; if any file cannot be read, the failure is
+	 * reported for each failed file.
+	 * 
+	 * @param elementType
+	 * @param elementName
+	 * @param fileNames
+	 *            Names of the files, which are passed to the underlying file service.
+	 * 
+	 * @return The read XML documents, in the order of the given file names.
+	 */
+	@AttachResult("Read Document")
+	List<Document> readDocuments(@ElementType String elementType, @ElementName String elementName,
+			@TechnicalLocator List<String> fileNames);
+
+	/**
+	 * Reads a reference XML document from the underlying file service. Works like
+	 * {@link #readDocument(String, String, String)}, but parsed documents are cached by the checksum of their file contents,
+	 * so reading the same unmodified reference file again only requires a checksum pass instead of a full parse. Each call
+	 * returns a private copy of the document, which may safely be modified.
+	 * 
+	 * @param elementType
+	 * @param elementName
+	 * @param fileName
+	 *            Name of the file, which is passed to the underlying file service.
+	 * 
+	 * @return A copy of the read XML document.
+	 */
+	@AttachResult("Read Document")
+	Document readReferenceDocument(@ElementType String elementType, @ElementName String elementName,
+			@TechnicalLocator String fileName);
+
+	/**
+	 * Reads a reference XML document and an actual XML document concurrently. The reference document is read like in
+	 * {@link #readReferenceDocument(String, String, String)} in a separate thread, while the actual document is read like in
+	 * {@link #readDocument(String, String, String)} in the calling thread, so reading and parsing of both files overlap.
+	 * 
+	 * @param elementType
+	 * @param elementName
+	 * @param referenceFileName
+	 *            Name of the reference file, which is passed to the underlying file service.
+	 * @param actualFileName
+	 *            Name of the actual file, which is passed to the underlying file service.
+	 * 
+	 * @return A list containing the reference document at index 0 and the actual document at index 1.
+	 */
+	@AttachResult("Read Document")
+	List<Document> readDocumentPair(@ElementType String elementType, @ElementName String elementName,
+			@TechnicalArgument String referenceFileName, @TechnicalLocator String actualFileName);
+
+	/**
+	 * Performs an XPath query on the given XML document. Prefixed names in the query are resolved with the namespace prefixes
+	 * configured for the service, e.g. <code>/soap:Envelope/soap:Body</code>, independent of the prefixes used in the document.
 	 * 
 	 * @param elementType
 	 * @param elementName
@@ -128,6 +265,25 @@ public interface XmlFileInteraction extends Interaction {
 	Object queryXml(@ElementType String elementType, @ElementName String elementName, Document document,
 			@TechnicalLocator String xpathQuery, @TechnicalArgument QName returnType);
 
+	/**
+	 * Performs a batch of XPath queries on the given XML document, evaluating them to the string values of the selected nodes.
+	 * Queries using absolute location paths with child and descendant steps, attribute predicates, a trailing position
+	 * predicate and a final attribute or <code>text()</code> step are evaluated together in a single traversal of the
+	 * document, which ends as soon as each of them has selected a node; other queries are evaluated one by one. Prefixed names
+	 * are resolved like in {@link #queryXml(String, String, Document, String, QName)}.
+	 * 
+	 * @param elementType
+	 * @param elementName
+	 * @param document
+	 *            the XML document to query
+	 * @param xpathQueries
+	 *            the XPath queries to perform, mapped by a name identifying them in the result
+	 * @return the string values of the query results, mapped by the names of the queries, in the order of the given map. The
+	 *         value of a query which selects no node is an empty string.
+	 */
+	Map<String, String> queryXmlBatch(@ElementType String elementType, @ElementName String elementName, Document document,
+			@TechnicalLocator Map<String, String> xpathQueries);
+
 	/**
 	 * Reports the differences between two XML documents.
 	 * 
@@ -144,4 +300,122 @@ public interface XmlFileInteraction extends Interaction {
 	AggregateXmlDiff diff(@ElementType String elementType, @ElementName String elementName, Document expected, Document actual,
 			XmlComparisonSettings settings);
 
+	/**
+	 * Reports the differences between two XML documents, matching sibling elements by key. The key expression of each
+	 * element is evaluated once, and elements are matched through a hash index, so the matching time grows linearly with the
+	 * number of elements. Keyed elements found in only one of both documents are reported as missing or unexpected; the
+	 * matched elements are compared like in {@link #diff(String, String, Document, Document, XmlComparisonSettings)}.
+	 * Elements without key expression are matched by their position, and matched elements which changed their relative order
+	 * are reported as moved. The tolerated paths of the settings apply to these differences as well. This requires
+	 * {@link XmlFileComparisonSettings}, whose tolerances are known to the service; other settings cause an automation error
+	 * if key expressions are given. Neither the given documents nor the settings are modified.
+	 * 
+	 * @param elementType
+	 * @param elementName
+	 * @param expected
+	 *            the expected document structure.
+	 * @param actual
+	 *            the actual document structure.
+	 * @param keyExpressions
+	 *            XPath expressions relative to the element which provide the key of an element, mapped by element name.
+	 * @param settings
+	 *            the settings for XML comparison. Key expressions of {@link XmlFileComparisonSettings} are matched like the
+	 *            given ones. Must be {@link XmlFileComparisonSettings} if key expressions are given.
+	 * @return the differences, and how many keyed elements were matched, missing and extra.
+	 */
+	XmlKeyedDiff diffByKeys(@ElementType String elementType, @ElementName String elementName, Document expected,
+			Document actual, @TechnicalArgument Map<String, String> keyExpressions,
+			@TechnicalArgument XmlComparisonSettings settings);
+
+	/**
+	 * Compares multiple actual XML files with their reference files. The file pairs are read, parsed and compared in
+	 * parallel, using the number of threads configured for the service. Reference documents are read like in
+	 * {@link #readReferenceDocument(String, String, String)}.
+	 * 
+	 * @param elementType
+	 * @param elementName
+	 * @param referenceFilesByActualFile
+	 *            The paths of the reference files, mapped by the paths of the related actual files.
+	 * @param keyExpressions
+	 *            XPath expressions providing the keys of elements, mapped by element name. If not empty, elements are
+	 *            matched like in {@link #diffByKeys(String, String, Document, Document, Map, XmlComparisonSettings)}.
+	 * @param settings
+	 *            the settings for XML comparison. Must be {@link XmlFileComparisonSettings} if key expressions are given.
+	 * @return The differences per file pair, and whether all pairs passed.
+	 */
+	XmlFileComparisonResult compareFiles(@ElementType String elementType, @ElementName String elementName,
+			@TechnicalArgument Map<String, String> referenceFilesByActualFile,
+			@TechnicalArgument Map<String, String> keyExpressions, @TechnicalArgument XmlComparisonSettings settings);
+
+	/**
+	 * Compares all files of a directory with the files of the same name in a reference directory. The file pairs are
+	 * compared like in {@link #compareFiles(String, String, Map, Map, XmlComparisonSettings)}. Files which exist in only one of
+	 * both directories are reported as failed pairs.
+	 * 
+	 * @param elementType
+	 * @param elementName
+	 * @param actualDirectory
+	 *            The path of the directory containing the actual files.
+	 * @param referenceDirectory
+	 *            The path of the directory containing the reference files.
+	 * @param keyExpressions
+	 *            XPath expressions providing the keys of elements, mapped by element name.
+	 * @param settings
+	 *            the settings for XML comparison. Must be {@link XmlFileComparisonSettings} if key expressions are given.
+	 * @return The differences per file pair, and whether all pairs passed.
+	 */
+	XmlFileComparisonResult compareDirectories(@ElementType String elementType, @ElementName String elementName,
+			@TechnicalLocator String actualDirectory, @TechnicalArgument String referenceDirectory,
+			@TechnicalArgument Map<String, String> keyExpressions, @TechnicalArgument XmlComparisonSettings settings);
+
+	/**
+	 * Performs an XPath query on an XML file and returns the String representation of the first selected node. The file is
+	 * evaluated like in {@link XmlFileCondition#nodeExistsInFile(String, String, String, String)}.
+	 * 
+	 * @param elementType
+	 * @param elementName
+	 * @param filePath
+	 *            Path of the file to query.
+	 * @param xpathQuery
+	 *            the XPath query to perform
+	 * @return the String representation of the first selected node, or an empty string if no node is selected.
+	 */
+	String queryXmlInFile(@ElementType String elementType, @ElementName String elementName,
+			@TechnicalLocator String filePath, @TechnicalArgument String xpathQuery);
+
+	/**
+	 * Computes the hash of the canonical form of an XML file, which leaves out comments and the nodes at which the given
+	 * settings tolerate any difference. The file is hashed while being parsed, without building a document tree.
+	 * 
+	 * @param elementType
+	 * @param elementName
+	 * @param filePath
+	 *            Path of the file to hash.
+	 * @param settings
+	 *            Comparison settings defining the canonical form.
+	 * @return The hash, or <code>null</code> if the settings cannot be applied to hashes, as described in
+	 *         {@link XmlFileCondition#canonicalHashesMatch(String, String, String, String, XmlComparisonSettings)}.
+	 */
+	String canonicalHash(@ElementType String elementType, @ElementName String elementName,
+			@TechnicalLocator String filePath, @TechnicalArgument XmlComparisonSettings settings);
+
+	/**
+	 * Compares two XML files which mainly consist of a list of records, like large exports, without parsing them into
+	 * documents. Both files are read in lockstep with streaming parsers, and records are matched by position or by key, as
+	 * defined by the settings. Keyed records which cannot be matched immediately are spilled to disk when they exceed the
+	 * configured memory limit, so memory usage does not depend on the file size.
+	 * 
+	 * @param elementType
+	 * @param elementName
+	 * @param expectedFile
+	 *            Path of the file with the expected contents.
+	 * @param actualFile
+	 *            Path of the file with the actual contents.
+	 * @param settings
+	 *            Settings describing the records.
+	 * @return The differences between both files, and how their records were matched.
+	 */
+	XmlRecordDiff diffFiles(@ElementType String elementType, @ElementName String elementName,
+			@TechnicalArgument String expectedFile, @TechnicalLocator String actualFile,
+			@TechnicalArgument XmlRecordDiffSettings settings);
 }
@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2015 Hamburg Sud and the contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aludratest.service.xmlfile;
+
+import java.util.List;
+
+import org.aludratest.content.xml.AggregateXmlDiff;
+import org.aludratest.content.xml.XmlDiffDetail;
+
+/**
+ * The result of comparing one actual XML file with its reference file.
+ * 
+ * @see XmlFileComparisonResult
+ */
+public class XmlFilePairResult {
+
+	private final String actualFile;
+
+	private final String referenceFile;
+
+	private final AggregateXmlDiff diff;
+
+	private final List<XmlDiffDetail> details;
+
+	private final String errorMessage;
+
+	/**
+	 * Creates a result for a pair of files which could be compared.
+	 * 
+	 * @param actualFile
+	 *            Path of the actual file.
+	 * @param referenceFile
+	 *            Path of the reference file.
+	 * @param diff
+	 *            Differences between the two documents.
+	 */
+	public XmlFilePairResult(String actualFile, String referenceFile, AggregateXmlDiff diff) {
+		this(actualFile, referenceFile, diff, diff.getXmlDetails(), null);
+	}
+
+	/**
+	 * Creates a result for a pair of files which were compared matching elements by key.
+	 * 
+	 * @param actualFile
+	 *            Path of the actual file.
+	 * @param referenceFile
+	 *            Path of the reference file.
+	 * @param keyedDiff
+	 *            Differences between the two documents, including the unmatched keyed elements.
+	 */
+	public XmlFilePairResult(String actualFile, String referenceFile, XmlKeyedDiff keyedDiff) {
+		this(actualFile, referenceFile, keyedDiff.getDiff(), keyedDiff.getXmlDetails(), null);
+	}
+
+	/**
+	 * Creates a result for a pair of files which could not be compared, e.g. because one of them is missing.
+	 * 
+	 * @param actualFile
+	 *            Path of the actual file, or <code>null</code> if there is no actual file for the reference file.
+	 * @param referenceFile
+	 *            Path of the reference file, or <code>null</code> if there is no reference file for the actual file.
+	 * @param errorMessage
+	 *            Message describing why the files could not be compared.
+	 */
+	public XmlFilePairResult(String actualFile, String referenceFile, String errorMessage) {
+		this(actualFile, referenceFile, null, null, errorMessage);
+	}
+
+	private XmlFilePairResult(String actualFile, String referenceFile, AggregateXmlDiff diff, List<XmlDiffDetail> details,
+			String errorMessage) {
+		this.actualFile = actualFile;
+		this.referenceFile = referenceFile;
+		this.diff = diff;
+		this.details = details;
+		this.errorMessage = errorMessage;
+	}
+
+	/** @return The path of the actual file. */
+	public String getActualFile() {
+		return actualFile;
+	}
+
+	/** @return The path of the reference file. */
+	public String getReferenceFile() {
+		return referenceFile;
+	}
+
+	/**
+	 * @return The differences between the two documents, or <code>null</code> if the files could not be compared. If
+	 *         elements were matched by key, this does not contain the unmatched keyed elements; see {@link #getXmlDetails()}.
+	 */
+	public AggregateXmlDiff getDiff() {
+		return diff;
+	}
+
+	/**
+	 * @return All difference details, including keyed elements found in only one of both documents, or <code>null</code>
+	 *         if the files could not be compared.
+	 */
+	public List<XmlDiffDetail> getXmlDetails() {
+		return details;
+	}
+
+	/** @return The message describing why the files could not be compared, or <code>null</code> if they were compared. */
+	public String getErrorMessage() {
+		return errorMessage;
+	}
+
+	/** @return <code>true</code> if the files could be compared and no differences were found, <code>false</code> otherwise. */
+	public boolean isPassed() {
+		return errorMessage == null && details != null && details.isEmpty();
+	}
+
+	@Override
+	public String toString() {
+		String result;
+		if (errorMessage != null) {
+			result = errorMessage;
+		}
+		else if (isPassed()) {
+			result = "equal";
+		}
+		else {
+			result = details.size() + " difference(s)";
+		}
+		return actualFile + " <-> " + referenceFile + ": " + result;
+	}
+
+}
@@ -17,6 +17,7 @@ package org.aludratest.service.xmlfile;
 
 import org.aludratest.config.ConfigProperties;
 import org.aludratest.config.ConfigProperty;
+import org.aludratest.content.xml.XmlComparisonSettings;
 import org.aludratest.service.AludraService;
 import org.aludratest.service.ServiceInterface;
 import org.aludratest.service.file.FileService;
@@ -27,7 +28,25 @@ import org.aludratest.service.file.FileService;
  * @author falbrech
  */
 @ServiceInterface(name = "XML File Service", description = "Offers XML related access and verifaction methods.")
-@ConfigProperties({ @ConfigProperty(name = "encoding", description = "The encoding to use for XML file creation. This MUST be equal to the encoding used for the file service configuration.", defaultValue = "UTF-8", required = true, type = String.class) })
+@ConfigProperties({
+		@ConfigProperty(name = "encoding", description = "The encoding to use for XML file creation. This MUST be equal to the encoding used for the file service configuration.", defaultValue = "UTF-8", required = true, type = String.class),
+		@ConfigProperty(name = "xpath.cache.size", description = "The maximum number of compiled XPath expressions to cache per thread. 0 disables caching.", defaultValue = "256", required = false, type = int.class),
+		@ConfigProperty(name = "attachment.max.size", description = "The maximum number of characters of XML document attachments. Larger documents are truncated and summarized. 0 disables truncation.", defaultValue = "1048576", required = false, type = int.class),
+		@ConfigProperty(name = "reference.cache.memory", description = "The estimated heap size, in megabytes, available for caching parsed reference documents. 0 disables caching.", defaultValue = "64", required = false, type = int.class),
+		@ConfigProperty(name = "template.cache.size", description = "The maximum number of compiled FreeMarker templates to cache. 0 disables caching.", defaultValue = "64", required = false, type = int.class),
+		@ConfigProperty(name = "template.cache.check.modified", description = "If true, cached templates are compiled again when their source file has been modified.", defaultValue = "false", required = false, type = boolean.class),
+		@ConfigProperty(name = "parallel.threads", description = "The number of threads for reading and comparing multiple files in parallel. 0 uses one thread per available processor.", defaultValue = "0", required = false, type = int.class),
+		@ConfigProperty(name = "diff.spill.memory", description = "The estimated heap size, in megabytes, for unmatched records of streaming file comparisons. Further records are spilled to disk.", defaultValue = "32", required = false, type = int.class),
+		@ConfigProperty(name = "watch.base.dir", description = "The local directory which corresponds to the root of the file service. If set, waiting for files is based on file system events instead of polling. Leave empty for remote file services.", required = false, type = String.class),
+		@ConfigProperty(name = "watch.timeout", description = "The maximum time, in milliseconds, to wait for files when watching the local directory.", defaultValue = "30000", required = false, type = int.class),
+		@ConfigProperty(name = "compare.fail.fast", description = "If true, document comparisons with XmlFileComparisonSettings stop at the first difference which is not tolerated.", defaultValue = "false", required = false, type = boolean.class),
+		@ConfigProperty(name = "compare.failure.details", description = "The number of differences to report in the failure message of a failed document assertion. 0 reports a generic message.", defaultValue = "0", required = false, type = int.class),
+		@ConfigProperty(name = "compare.hash", description = "If true, documents compared with XmlFileComparisonSettings are first compared by hashes of their canonical form, and only compared in detail if the hashes differ.", defaultValue = "false", required = false, type = boolean.class),
+		@ConfigProperty(name = "hash.cache.file", description = "A local file in which the canonical hashes of reference files are persisted across test runs. Leave empty to keep the hashes in memory only.", required = false, type = String.class),
+		@ConfigProperty(name = "namespaces", description = "Namespace prefixes which can be used in XPath expressions, as comma-separated list of prefix=uri entries. The prefixes need not match the ones used in the documents.", required = false, type = String.class),
+		@ConfigProperty(name = "metrics.enabled", description = "If true, the durations, allocations and transferred bytes of the service operations are recorded.", defaultValue = "false", required = false, type = boolean.class),
+		@ConfigProperty(name = "metrics.jmx", description = "If true, enabled metrics are published as MBean org.aludratest:type=XmlFileService,name=<instance name>.", defaultValue = "true", required = false, type = boolean.class),
+		@ConfigProperty(name = "metrics.listener", description = "The fully qualified name of an XmlFileMetricsListener class which is notified of each recorded operation. Leave empty for none.", required = false, type = String.class) })
 public interface XmlFileService extends AludraService {
 
 	/** Provides an object to parse and save XML documents from and to streams. */
@@ -51,4 +70,16 @@ public interface XmlFileService extends AludraService {
 	 */
 	FileService getFileService();
 
+	/**
+	 * Tells if documents compared with the given settings are first compared by the hashes of their canonical forms,
+	 * i.e. if <code>compare.hash</code> is enabled and the settings can be applied to hashes.
+	 * 
+	 * @param settings
+	 *            The comparison settings.
+	 * @return <code>true</code> if
+	 *         {@link XmlFileCondition#canonicalHashesMatch(String, String, String, String, XmlComparisonSettings)} can
+	 *         return <code>true</code> for the given settings, <code>false</code> otherwise.
+	 */
+	boolean isHashComparable(XmlComparisonSettings settings);
+
 }
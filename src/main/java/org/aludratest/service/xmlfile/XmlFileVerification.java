@@ -15,6 +15,8 @@
  */
 package org.aludratest.service.xmlfile;
 
+import java.util.Map;
+
 import org.aludratest.content.xml.XmlComparisonSettings;
 import org.aludratest.service.ElementName;
 import org.aludratest.service.ElementType;
@@ -27,7 +29,9 @@ import org.w3c.dom.Document;
 public interface XmlFileVerification extends Verification {
 
 	/**
-	 * Asserts that two XML documents are equal.
+	 * Asserts that two XML documents are equal. The documents are compared like in
+	 * {@link XmlFileCondition#areDocumentsEqual(String, String, Document, Document, XmlComparisonSettings)}. If configured
+	 * by the service property <code>compare.failure.details</code>, the failure message reports the first differences.
 	 * 
 	 * @param elementType
 	 * @param elementName
@@ -41,6 +45,25 @@ public interface XmlFileVerification extends Verification {
 	void assertDocumentsEqual(@ElementType String elementType, @ElementName String elementName, Document expected,
 			Document actual, @TechnicalArgument XmlComparisonSettings settings);
 
+	/**
+	 * Asserts that two XML documents are equal, matching sibling elements by key like in
+	 * {@link XmlFileInteraction#diffByKeys(String, String, Document, Document, Map, XmlComparisonSettings)}.
+	 * 
+	 * @param elementType
+	 * @param elementName
+	 * @param expected
+	 *            the expected document.
+	 * @param actual
+	 *            the actual document.
+	 * @param keyExpressions
+	 *            XPath expressions providing the keys of elements, mapped by element name.
+	 * @param settings
+	 *            the {@link XmlComparisonSettings} to apply.
+	 */
+	void assertDocumentsEqualByKeys(@ElementType String elementType, @ElementName String elementName, Document expected,
+			Document actual, @TechnicalArgument Map<String, String> keyExpressions,
+			@TechnicalArgument XmlComparisonSettings settings);
+
 	/**
 	 * Asserts that the given XPath node in the document exists.
 	 * 
@@ -81,4 +104,80 @@ public interface XmlFileVerification extends Verification {
 	 */
 	void assertNodeMatches(@ElementType String elementType, @ElementName String elementName, Document document,
 			@TechnicalLocator String xpath, Validator<String> validator);
+
+	/**
+	 * Asserts that the String representations of several nodes (located by XPath) match their validators. All XPath
+	 * expressions are evaluated like in {@link XmlFileInteraction#queryXmlBatch(String, String, Document, Map)}, and all
+	 * mismatches are reported together.
+	 * 
+	 * @param elementType
+	 * @param elementName
+	 * @param document
+	 *            Document to check.
+	 * @param xpaths
+	 *            XPath expressions locating the nodes to check, mapped by a name identifying them.
+	 * @param validators
+	 *            Validators to match the string representations of the nodes against, mapped by the names of the XPath
+	 *            expressions. Nodes without a validator are not checked.
+	 */
+	void assertNodesMatch(@ElementType String elementType, @ElementName String elementName, Document document,
+			@TechnicalLocator Map<String, String> xpaths, Map<String, Validator<String>> validators);
+
+	/**
+	 * Asserts that all file pairs of a multi-file comparison passed.
+	 * 
+	 * @param elementType
+	 * @param elementName
+	 * @param result
+	 *            The result of a multi-file comparison.
+	 */
+	void assertComparisonPassed(@ElementType String elementType, @ElementName String elementName,
+			@TechnicalArgument XmlFileComparisonResult result);
+
+	/**
+	 * Asserts that the given XPath node exists in an XML file. The file is evaluated like in
+	 * {@link XmlFileCondition#nodeExistsInFile(String, String, String, String)}.
+	 * 
+	 * @param elementType
+	 * @param elementName
+	 * @param filePath
+	 *            Path of the file to check.
+	 * @param xpath
+	 *            XPath locating the node to check.
+	 */
+	void assertNodeExistsInFile(@ElementType String elementType, @ElementName String elementName,
+			@TechnicalLocator String filePath, @TechnicalArgument String xpath);
+
+	/**
+	 * Asserts that the String representation of the given node (located by XPath) in an XML file matches the given
+	 * validator. The file is evaluated like in {@link XmlFileCondition#nodeExistsInFile(String, String, String, String)}.
+	 * 
+	 * @param elementType
+	 * @param elementName
+	 * @param filePath
+	 *            Path of the file to check.
+	 * @param xpath
+	 *            XPath locating the node to check.
+	 * @param validator
+	 *            Validator to match the string representation of the node against.
+	 */
+	void assertNodeMatchesInFile(@ElementType String elementType, @ElementName String elementName,
+			@TechnicalLocator String filePath, @TechnicalArgument String xpath, Validator<String> validator);
+
+	/**
+	 * Asserts that two record-based XML files are equal. The files are compared like in
+	 * {@link XmlFileInteraction#diffFiles(String, String, String, String, XmlRecordDiffSettings)}.
+	 * 
+	 * @param elementType
+	 * @param elementName
+	 * @param expectedFile
+	 *            Path of the file with the expected contents.
+	 * @param actualFile
+	 *            Path of the file with the actual contents.
+	 * @param settings
+	 *            Settings describing the records.
+	 */
+	void assertFilesEqual(@ElementType String elementType, @ElementName String elementName,
+			@TechnicalArgument String expectedFile, @TechnicalLocator String actualFile,
+			@TechnicalArgument XmlRecordDiffSettings settings);
 }
@@ -16,11 +16,16 @@
 
 package org.aludratest.service.xmlfile;
 
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
 import org.aludratest.content.xml.XmlComparisonSettings;
 import org.aludratest.content.xml.XmlDiffDetailType;
 import org.aludratest.dict.ActionWordLibrary;
 import org.aludratest.service.xmlfile.data.XmlKeyExpressionData;
 import org.aludratest.util.data.StringData;
+import org.databene.commons.Validator;
 import org.w3c.dom.Document;
 
 /**
@@ -64,7 +69,9 @@ public class XmlFileVerifier<E extends XmlFileVerifier<E>> implements ActionWord
     }
 
     /** Adds a key expression to the verifier. It is an XPath expression by which XmlContent
-     *  can determine the identity of an XML element
+     *  can determine the identity of an XML element. If the settings are {@link XmlFileComparisonSettings},
+     *  the service evaluates the key expressions once per element and matches the elements through
+     *  a hash index, so verifying many keyed sibling elements takes linear time.
      *  @param keyExpression the XPath expression that provides the id
      *  @return a reference to the invoked XmlFileVerifier instance
      */
@@ -95,16 +102,87 @@ public class XmlFileVerifier<E extends XmlFileVerifier<E>> implements ActionWord
         return (E) this;
     }
 
+    /** Waits until the file exists and contains a complete XML document, 
+     *  so it can safely be read while another process is writing it.
+     *  @param timeout the maximum time to wait, in milliseconds
+     *  @return a reference to the FileStream object itself */
+    public E waitUntilComplete(long timeout) {
+        service.perform().waitUntilComplete(elementType, null, filePath, timeout);
+        return (E) this;
+    }
+
+    /** Waits until the string representation of the node located by the given XPath
+     *  matches the validator. The file is only parsed again when it has changed.
+     *  @param xpath XPath locating the node to check
+     *  @param validator the validator to match the node against
+     *  @param timeout the maximum time to wait, in milliseconds
+     *  @return a reference to the FileStream object itself */
+    public E waitUntilNodeMatches(String xpath, Validator<String> validator, long timeout) {
+        service.perform().waitUntilNodeMatches(elementType, null, filePath, xpath, validator, timeout);
+        return (E) this;
+    }
+
     /** Asserts that the interchange stored in this document is equals to the provided
-     *  interchange, ignoring the provided paths.
+     *  interchange, ignoring the provided paths. The parsed reference document is cached
+     *  by the service, so verifying against the same reference file repeatedly is cheap.
+     *  Both files are read and parsed concurrently. If hashing is enabled and applicable to the settings
+     *  (see {@link XmlFileService#isHashComparable(XmlComparisonSettings)}), the files are first compared
+     *  by the hashes of their canonical forms, and only parsed if these differ.
      *  @param referenceFileName the name of the reference file to verify against
      *  @return a reference to the invoked XmlFileVerifier instance */
     public E verifyWith(StringData referenceFileName) {
-        Document expected = service.perform().readDocument(
-                elementType, "reference file", referenceFileName.getValue());
-        Document actual = service.perform().readDocument(
-                elementType, "actual file", this.filePath);
-        service.verify().assertDocumentsEqual(elementType, null, expected, actual, settings);
+        Map<String, String> keyExpressions = indexedKeyExpressions();
+        if (keyExpressions.isEmpty() && service.isHashComparable(settings) && service.check().canonicalHashesMatch(
+                elementType, "reference file, actual file", referenceFileName.getValue(), this.filePath, settings)) {
+            return (E) this;
+        }
+        List<Document> documents = service.perform().readDocumentPair(
+                elementType, "reference file, actual file", referenceFileName.getValue(), this.filePath);
+        if (keyExpressions.isEmpty()) {
+            service.verify().assertDocumentsEqual(elementType, null, documents.get(0), documents.get(1), settings);
+        } else {
+            service.verify().assertDocumentsEqualByKeys(
+                    elementType, null, documents.get(0), documents.get(1), keyExpressions, settings);
+        }
+        return (E) this;
+    }
+
+    /** Asserts that this file is equal to the provided reference file, where both files
+     *  mainly consist of a list of records. The files are compared by streaming, without 
+     *  parsing them into documents, so this works for files of any size. Note that the paths
+     *  to ignore do not apply to this comparison.
+     *  @param referenceFileName the name of the reference file to verify against
+     *  @param recordPath the absolute path of the record elements, e.g. /export/record
+     *  @param keyPath the path of the record key relative to the record element, e.g. @id,
+     *      or null to match records by their position
+     *  @return a reference to the invoked XmlFileVerifier instance */
+    public E verifyRecordsWith(StringData referenceFileName, String recordPath, String keyPath) {
+        service.verify().assertFilesEqual(elementType, null, referenceFileName.getValue(), this.filePath,
+                new XmlRecordDiffSettings(recordPath, keyPath));
+        return (E) this;
+    }
+
+    /** Asserts that each file in the directory at this verifier's path is equal to the file
+     *  of the same name in the given reference directory, ignoring the provided paths. 
+     *  The file pairs are compared in parallel by the service.
+     *  @param referenceDirectory the path of the directory containing the reference files
+     *  @return a reference to the invoked XmlFileVerifier instance */
+    public E verifyDirectoryWith(StringData referenceDirectory) {
+        XmlFileComparisonResult result = service.perform().compareDirectories(
+                elementType, null, this.filePath, referenceDirectory.getValue(), indexedKeyExpressions(), settings);
+        service.verify().assertComparisonPassed(elementType, null, result);
+        return (E) this;
+    }
+
+    /** Asserts that each actual file of the given manifest is equal to its reference file, 
+     *  ignoring the provided paths. The file pairs are compared in parallel by the service.
+     *  @param referenceFilesByActualFile the paths of the reference files, mapped by the paths 
+     *      of the related actual files
+     *  @return a reference to the invoked XmlFileVerifier instance */
+    public E verifyAllWith(Map<String, String> referenceFilesByActualFile) {
+        XmlFileComparisonResult result = service.perform().compareFiles(
+                elementType, null, referenceFilesByActualFile, indexedKeyExpressions(), settings);
+        service.verify().assertComparisonPassed(elementType, null, result);
         return (E) this;
     }
 
@@ -113,4 +191,13 @@ public class XmlFileVerifier<E extends XmlFileVerifier<E>> implements ActionWord
         return (E) this;
     }
 
+    /** @return the key expressions which the service matches through a hash index, i.e. those of
+     *      {@link XmlFileComparisonSettings}; other settings pass them on to XmlContent */
+    private Map<String, String> indexedKeyExpressions() {
+        if (settings instanceof XmlFileComparisonSettings) {
+            return ((XmlFileComparisonSettings) settings).getKeyExpressions();
+        }
+        return Collections.emptyMap();
+    }
+
 }
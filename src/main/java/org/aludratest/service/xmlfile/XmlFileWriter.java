@@ -38,6 +38,7 @@ public class XmlFileWriter<C extends AbstractXmlData, E extends XmlFileWriter<C,
     protected final String templateEncoding;
     protected final boolean overwrite;
     protected final XmlFileService service;
+    protected final boolean streaming;
     
     private State state;
     
@@ -50,11 +51,28 @@ public class XmlFileWriter<C extends AbstractXmlData, E extends XmlFileWriter<C,
      * @param service A reference to the underlying {@link FlatFileService}
      */
     public XmlFileWriter(String filePath, boolean overwrite, String templateUri, String templateEncoding, XmlFileService service) {
+        this(filePath, overwrite, templateUri, templateEncoding, service, false);
+    }
+    
+    /**
+     * Constructor
+     * @param filePath The file path of the XML file to create
+     * @param overwrite A flag indicating if an existing files of the same name may be overwritten 
+     * @param templateUri the URI of the template to use for file formatting
+     * @param templateEncoding the character encoding of the template to use for file formatting
+     * @param service A reference to the underlying {@link FlatFileService}
+     * @param streaming A flag indicating if the template output shall be streamed directly into the file 
+     *     instead of being parsed into a document and serialized again. The output is then only checked 
+     *     for well-formedness, and written in the encoding of its XML declaration.
+     */
+    public XmlFileWriter(String filePath, boolean overwrite, String templateUri, String templateEncoding, XmlFileService service, 
+            boolean streaming) {
         super(filePath, service.getFileService());
         this.overwrite = overwrite;
         this.templateUri = templateUri;
         this.templateEncoding = templateEncoding;
         this.service = service;
+        this.streaming = streaming;
         this.state = State.CREATED;
     }
     
@@ -75,8 +93,12 @@ public class XmlFileWriter<C extends AbstractXmlData, E extends XmlFileWriter<C,
         assertState(State.CREATED);
         Map<String, Object> variables = new HashMap<String, Object>();
         variables.put("data", content);
-        Document document = service.perform().createDocument(elementType, null, templateUri, templateEncoding, variables);
-        service.perform().writeXml(elementType, null, document, filePath, overwrite);
+        if (streaming) {
+            service.perform().writeDocumentFromTemplate(elementType, null, templateUri, templateEncoding, variables, filePath, overwrite);
+        } else {
+            Document document = service.perform().createDocument(elementType, null, templateUri, templateEncoding, variables);
+            service.perform().writeXml(elementType, null, document, filePath, overwrite);
+        }
         this.state = State.CLOSED;
         return (E) this;
     }
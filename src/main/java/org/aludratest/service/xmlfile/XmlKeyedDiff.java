@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2015 Hamburg Sud and the contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aludratest.service.xmlfile;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.aludratest.content.xml.AggregateXmlDiff;
+import org.aludratest.content.xml.XmlDiffDetail;
+
+/**
+ * The result of comparing two XML documents whose elements are matched by key expressions. Besides the difference details, it
+ * reports how many keyed elements were matched, missing or extra.
+ * 
+ * @see XmlFileInteraction#diffByKeys(String, String, org.w3c.dom.Document, org.w3c.dom.Document, java.util.Map,
+ *      org.aludratest.content.xml.XmlComparisonSettings)
+ */
+public class XmlKeyedDiff {
+
+	private final AggregateXmlDiff diff;
+
+	private final List<XmlDiffDetail> details;
+
+	private final int matchedKeys;
+
+	private final int missingKeys;
+
+	private final int extraKeys;
+
+	/**
+	 * Creates a new result.
+	 * 
+	 * @param diff
+	 *            The differences between the matched elements.
+	 * @param keyDetails
+	 *            The details of the keyed elements which were found in only one of both documents.
+	 * @param matchedKeys
+	 *            The number of keyed elements which were found in both documents.
+	 * @param missingKeys
+	 *            The number of keyed expected elements without counterpart in the actual document.
+	 * @param extraKeys
+	 *            The number of keyed actual elements without counterpart in the expected document.
+	 */
+	public XmlKeyedDiff(AggregateXmlDiff diff, List<XmlDiffDetail> keyDetails, int matchedKeys, int missingKeys,
+			int extraKeys) {
+		this.diff = diff;
+		List<XmlDiffDetail> allDetails = new ArrayList<XmlDiffDetail>(keyDetails);
+		allDetails.addAll(diff.getXmlDetails());
+		this.details = Collections.unmodifiableList(allDetails);
+		this.matchedKeys = matchedKeys;
+		this.missingKeys = missingKeys;
+		this.extraKeys = extraKeys;
+	}
+
+	/** @return The differences between the matched elements, as reported by the XML content handler. */
+	public AggregateXmlDiff getDiff() {
+		return diff;
+	}
+
+	/** @return All difference details, starting with the missing and extra keyed elements. */
+	public List<XmlDiffDetail> getXmlDetails() {
+		return details;
+	}
+
+	/** @return The number of keyed elements which were found in both documents, regardless of their contents being equal. */
+	public int getMatchedKeys() {
+		return matchedKeys;
+	}
+
+	/** @return The number of keyed expected elements without counterpart in the actual document. */
+	public int getMissingKeys() {
+		return missingKeys;
+	}
+
+	/** @return The number of keyed actual elements without counterpart in the expected document. */
+	public int getExtraKeys() {
+		return extraKeys;
+	}
+
+	/** @return <code>true</code> if no differences were found, <code>false</code> otherwise. */
+	public boolean isEqual() {
+		return details.isEmpty();
+	}
+
+	@Override
+	public String toString() {
+		return details.size() + " difference(s); keys: " + matchedKeys + " matched, " + missingKeys + " missing, " + extraKeys
+				+ " extra";
+	}
+
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2015 Hamburg Sud and the contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aludratest.service.xmlfile;
+
+import java.util.Collections;
+import java.util.List;
+
+import org.aludratest.content.xml.XmlDiffDetail;
+
+/**
+ * The result of a streaming comparison of two record-based XML files. Besides the difference details, it reports how the
+ * records of both files were matched. At most {@link XmlRecordDiffSettings#getMaxDetails()} details are contained; the total
+ * number of differences is available from {@link #getDifferenceCount()}.
+ * 
+ * @see XmlFileInteraction#diffFiles(String, String, String, String, XmlRecordDiffSettings)
+ */
+public class XmlRecordDiff {
+
+	private final List<XmlDiffDetail> details;
+
+	private final long differenceCount;
+
+	private final long expectedRecords;
+
+	private final long actualRecords;
+
+	private final long matchedRecords;
+
+	private final long spilledRecords;
+
+	/**
+	 * Creates a new result.
+	 * 
+	 * @param details
+	 *            The collected difference details.
+	 * @param differenceCount
+	 *            The total number of differences.
+	 * @param expectedRecords
+	 *            The number of records in the expected file.
+	 * @param actualRecords
+	 *            The number of records in the actual file.
+	 * @param matchedRecords
+	 *            The number of records which were found in both files.
+	 * @param spilledRecords
+	 *            The number of records which were temporarily moved to disk while waiting for their counterpart.
+	 */
+	public XmlRecordDiff(List<XmlDiffDetail> details, long differenceCount, long expectedRecords, long actualRecords,
+			long matchedRecords, long spilledRecords) {
+		this.details = Collections.unmodifiableList(details);
+		this.differenceCount = differenceCount;
+		this.expectedRecords = expectedRecords;
+		this.actualRecords = actualRecords;
+		this.matchedRecords = matchedRecords;
+		this.spilledRecords = spilledRecords;
+	}
+
+	/** @return The collected difference details, at most {@link XmlRecordDiffSettings#getMaxDetails()}. */
+	public List<XmlDiffDetail> getXmlDetails() {
+		return details;
+	}
+
+	/** @return The total number of differences, which may exceed the number of collected details. */
+	public long getDifferenceCount() {
+		return differenceCount;
+	}
+
+	/** @return The number of records in the expected file. */
+	public long getExpectedRecords() {
+		return expectedRecords;
+	}
+
+	/** @return The number of records in the actual file. */
+	public long getActualRecords() {
+		return actualRecords;
+	}
+
+	/** @return The number of records which were found in both files, regardless of their contents being equal. */
+	public long getMatchedRecords() {
+		return matchedRecords;
+	}
+
+	/** @return The number of expected records without counterpart in the actual file. */
+	public long getMissingRecords() {
+		return expectedRecords - matchedRecords;
+	}
+
+	/** @return The number of actual records without counterpart in the expected file. */
+	public long getUnexpectedRecords() {
+		return actualRecords - matchedRecords;
+	}
+
+	/** @return The number of records which were temporarily moved to disk while waiting for their counterpart. */
+	public long getSpilledRecords() {
+		return spilledRecords;
+	}
+
+	/** @return <code>true</code> if no differences were found, <code>false</code> otherwise. */
+	public boolean isEqual() {
+		return differenceCount == 0;
+	}
+
+	@Override
+	public String toString() {
+		return differenceCount + " difference(s); records: " + expectedRecords + " expected, " + actualRecords + " actual, "
+				+ matchedRecords + " matched, " + getMissingRecords() + " missing, " + getUnexpectedRecords() + " unexpected";
+	}
+
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2015 Hamburg Sud and the contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aludratest.service.xmlfile;
+
+/**
+ * Settings for the streaming comparison of XML files which mainly consist of a list of records, like exports. Records are
+ * the elements located by the record path. They are matched either by their position, or by a key, and compared as a whole;
+ * the content outside of records is compared node by node.
+ * 
+ * @see XmlFileInteraction#diffFiles(String, String, String, String, XmlRecordDiffSettings)
+ */
+public class XmlRecordDiffSettings {
+
+	private final String recordPath;
+
+	private final String keyPath;
+
+	private boolean whitespaceRelevant;
+
+	private int maxDetails = 100;
+
+	/**
+	 * Creates settings for a record list.
+	 * 
+	 * @param recordPath
+	 *            Absolute path of the record elements, consisting of element names only, e.g. <code>/export/record</code>,
+	 *            or a path starting with <code>//</code>, like <code>//record</code> or <code>//records/record</code>, to
+	 *            match record elements at any depth.
+	 * @param keyPath
+	 *            Path of the record key relative to the record element, e.g. <code>@id</code> or <code>header/id</code>. If
+	 *            <code>null</code>, records are matched by their position.
+	 */
+	public XmlRecordDiffSettings(String recordPath, String keyPath) {
+		this.recordPath = recordPath;
+		this.keyPath = keyPath;
+	}
+
+	/** @return The absolute path of the record elements. */
+	public String getRecordPath() {
+		return recordPath;
+	}
+
+	/** @return The path of the record key relative to the record element, or <code>null</code> if records are ordered. */
+	public String getKeyPath() {
+		return keyPath;
+	}
+
+	/** @return <code>true</code> if leading and trailing whitespace of texts is compared, <code>false</code> otherwise. */
+	public boolean isWhitespaceRelevant() {
+		return whitespaceRelevant;
+	}
+
+	/**
+	 * Sets if leading and trailing whitespace of texts is compared. Defaults to <code>false</code>.
+	 * 
+	 * @param whitespaceRelevant
+	 *            <code>true</code> to compare whitespace, <code>false</code> to ignore it.
+	 */
+	public void setWhitespaceRelevant(boolean whitespaceRelevant) {
+		this.whitespaceRelevant = whitespaceRelevant;
+	}
+
+	/** @return The maximum number of difference details to collect. */
+	public int getMaxDetails() {
+		return maxDetails;
+	}
+
+	/**
+	 * Sets the maximum number of difference details to collect. Further differences are only counted, which keeps the memory
+	 * usage of the result bounded. Defaults to 100.
+	 * 
+	 * @param maxDetails
+	 *            The maximum number of difference details to collect.
+	 */
+	public void setMaxDetails(int maxDetails) {
+		this.maxDetails = maxDetails;
+	}
+
+}
@@ -0,0 +1,216 @@
+/*
+ * Copyright (C) 2015 Hamburg Sud and the contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aludratest.service.xmlfile.impl;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.xml.namespace.NamespaceContext;
+import javax.xml.xpath.XPathConstants;
+
+import org.w3c.dom.Attr;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+
+/**
+ * Evaluates many XPath expressions on one document to the string values of their first selected nodes. Expressions in the
+ * streamable subset of {@link StreamingXPath} are evaluated together in a single traversal of the document, which stops as
+ * soon as each of them has selected a node; other expressions are evaluated one by one with the XPath engine. <br>
+ * Like the XPath engine on a namespace-aware document, the traversal only matches unprefixed names with elements and
+ * attributes in no namespace.
+ */
+final class BatchXPathEvaluator {
+
+	private final XPathExpressionCache xpathCache;
+
+	private final NamespaceContext namespaceContext;
+
+	/**
+	 * Creates a new evaluator.
+	 * 
+	 * @param xpathCache
+	 *            Cache to compile the expressions which cannot be evaluated in the shared traversal with.
+	 * @param namespaceContext
+	 *            Namespace context to resolve prefixes in the expressions with, or <code>null</code>.
+	 */
+	BatchXPathEvaluator(XPathExpressionCache xpathCache, NamespaceContext namespaceContext) {
+		this.xpathCache = xpathCache;
+		this.namespaceContext = namespaceContext;
+	}
+
+	/**
+	 * Evaluates the given expressions like XPath's <code>string()</code> function.
+	 * 
+	 * @param document
+	 *            Document to evaluate the expressions on.
+	 * @param xpathsByName
+	 *            XPath expressions, mapped by a name identifying them in the result.
+	 * @return The string values of the first nodes selected by the expressions, mapped by the names of the expressions, in
+	 *         the order of the given map. The value is an empty string if an expression selects no node.
+	 */
+	Map<String, String> evaluate(Document document, Map<String, String> xpathsByName) {
+		Map<String, String> values = new LinkedHashMap<String, String>();
+		List<Query> streamable = new ArrayList<Query>();
+		Set<String> streamed = new HashSet<String>();
+		for (Map.Entry<String, String> entry : xpathsByName.entrySet()) {
+			values.put(entry.getKey(), null);
+			StreamingXPath expression = StreamingXPath.compile(entry.getValue());
+			if (expression != null) {
+				streamable.add(new Query(entry.getKey(), expression.matcher()));
+				streamed.add(entry.getKey());
+			}
+		}
+
+		if (!streamable.isEmpty()) {
+			traverse(document, streamable, values);
+		}
+		for (Map.Entry<String, String> entry : values.entrySet()) {
+			if (entry.getValue() == null && streamed.contains(entry.getKey())) {
+				entry.setValue("");
+			}
+			else if (entry.getValue() == null) {
+				String xpath = xpathsByName.get(entry.getKey());
+				entry.setValue((String) xpathCache.evaluate(document, xpath, namespaceContext, XPathConstants.STRING));
+			}
+		}
+		return values;
+	}
+
+	/** Walks the document in document order, feeding all pending queries, until each of them has selected a node. */
+	private static void traverse(Document document, List<Query> pending, Map<String, String> values) {
+		Node node = document.getDocumentElement();
+		while (node != null && !pending.isEmpty()) {
+			boolean descend = false;
+			if (node.getNodeType() == Node.ELEMENT_NODE) {
+				startElement((Element) node, pending, values);
+				descend = true;
+			}
+			else if (isText(node)) {
+				selectText(node, pending, values);
+			}
+
+			if (descend && node.getFirstChild() != null) {
+				node = node.getFirstChild();
+				continue;
+			}
+			if (descend) {
+				endElement(pending);
+			}
+			while (node.getNextSibling() == null) {
+				node = node.getParentNode();
+				if (node == null || node.getNodeType() != Node.ELEMENT_NODE) {
+					return;
+				}
+				endElement(pending);
+			}
+			node = node.getNextSibling();
+		}
+	}
+
+	private static void startElement(Element element, List<Query> pending, Map<String, String> values) {
+		DomAttributes attributes = new DomAttributes(element);
+		String name = element.getNamespaceURI() == null ? element.getNodeName() : null;
+		Iterator<Query> iter = pending.iterator();
+		while (iter.hasNext()) {
+			Query query = iter.next();
+			query.matcher.startElement(name, attributes);
+			String value = null;
+			if (query.matcher.isElementSelected()) {
+				value = element.getTextContent();
+			}
+			else {
+				NamedNodeMap attributeNodes = element.getAttributes();
+				for (int i = 0; i < attributeNodes.getLength() && value == null; i++) {
+					Node attribute = attributeNodes.item(i);
+					if (attribute.getNamespaceURI() == null && query.matcher.isAttributeSelected(attribute.getNodeName())) {
+						value = attribute.getNodeValue();
+					}
+				}
+			}
+			if (value != null) {
+				values.put(query.name, value);
+				iter.remove();
+			}
+		}
+	}
+
+	private static void endElement(List<Query> pending) {
+		for (Query query : pending) {
+			query.matcher.endElement();
+		}
+	}
+
+	private static void selectText(Node text, List<Query> pending, Map<String, String> values) {
+		// the XPath data model merges adjacent text and CDATA nodes, so only the first of them is a text node of its own
+		Node previous = text.getPreviousSibling();
+		if (previous != null && isText(previous)) {
+			return;
+		}
+		Iterator<Query> iter = pending.iterator();
+		while (iter.hasNext()) {
+			Query query = iter.next();
+			if (query.matcher.isTextSelected()) {
+				StringBuilder sb = new StringBuilder();
+				for (Node node = text; node != null && isText(node); node = node.getNextSibling()) {
+					sb.append(node.getNodeValue());
+				}
+				values.put(query.name, sb.toString());
+				iter.remove();
+			}
+		}
+	}
+
+	private static boolean isText(Node node) {
+		return node.getNodeType() == Node.TEXT_NODE || node.getNodeType() == Node.CDATA_SECTION_NODE;
+	}
+
+	/** An expression of the shared traversal which has not selected a node yet. */
+	private static final class Query {
+
+		private final String name;
+
+		private final StreamingXPath.Matcher matcher;
+
+		private Query(String name, StreamingXPath.Matcher matcher) {
+			this.name = name;
+			this.matcher = matcher;
+		}
+	}
+
+	/** Provides the attributes in no namespace of a DOM element. */
+	private static final class DomAttributes implements StreamingXPath.Attributes {
+
+		private final Element element;
+
+		private DomAttributes(Element element) {
+			this.element = element;
+		}
+
+		@Override
+		public String getValue(String qualifiedName) {
+			Attr attribute = element.getAttributeNode(qualifiedName);
+			return attribute == null || attribute.getNamespaceURI() != null ? null : attribute.getValue();
+		}
+	}
+
+}
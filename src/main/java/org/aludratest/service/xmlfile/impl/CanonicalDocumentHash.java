@@ -0,0 +1,458 @@
+/*
+ * Copyright (C) 2015 Hamburg Sud and the contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aludratest.service.xmlfile.impl;
+
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.aludratest.content.xml.XmlComparisonSettings;
+import org.aludratest.content.xml.XmlDiffDetailType;
+import org.aludratest.service.xmlfile.XmlFileComparisonSettings;
+import org.w3c.dom.Attr;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+
+/**
+ * Computes a hash of the canonical form of a document, so documents can be compared by their hashes. The canonical form
+ * contains elements, attributes sorted by name, namespace declarations, text and processing instructions; comments are left
+ * out. Nodes at which any difference is tolerated are left out as well, and values which may differ are replaced by a
+ * placeholder. Text is trimmed, and whitespace-only text is left out, only if whitespace has been declared irrelevant.
+ * Like all streamed path evaluations, the tolerated paths only select elements and attributes in no namespace.
+ * <br>
+ * The canonical form is at least as strict as the comparison of the XML content handler, so equal hashes imply equal
+ * documents, while different hashes do not prove a difference. Documents can be hashed while being parsed by a StAX reader,
+ * or from a DOM; hashes of both sources must not be compared with each other.
+ */
+final class CanonicalDocumentHash {
+
+	/** Version of the canonical form, part of the fingerprint to invalidate persisted hashes on changes */
+	private static final String FORMAT_VERSION = "1";
+
+	private static final String DIGEST_ALGORITHM = "SHA-1";
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static final XMLInputFactory INPUT_FACTORY = createInputFactory();
+
+	private static final Comparator<String[]> ATTRIBUTE_ORDER = new Comparator<String[]>() {
+		@Override
+		public int compare(String[] attribute1, String[] attribute2) {
+			return attribute1[0].compareTo(attribute2[0]);
+		}
+	};
+
+	private final boolean whitespaceIrrelevant;
+
+	/** Nodes at which any difference is tolerated */
+	private final List<StreamingXPath> skipPaths;
+
+	/** Nodes whose values may differ */
+	private final List<StreamingXPath> valuePaths;
+
+	private final String fingerprint;
+
+	private CanonicalDocumentHash(boolean whitespaceIrrelevant, List<StreamingXPath> skipPaths,
+			List<StreamingXPath> valuePaths, String fingerprint) {
+		this.whitespaceIrrelevant = whitespaceIrrelevant;
+		this.skipPaths = skipPaths;
+		this.valuePaths = valuePaths;
+		this.fingerprint = fingerprint;
+	}
+
+	/**
+	 * Creates a hash function for the given comparison settings.
+	 * 
+	 * @param settings
+	 *            The comparison settings.
+	 * @return The hash function, or <code>null</code> if the settings are not {@link XmlFileComparisonSettings}, contain key
+	 *         expressions or tolerances of missing, unexpected or moved nodes, or tolerated paths which cannot be evaluated by
+	 *         {@link StreamingXPath}.
+	 */
+	static CanonicalDocumentHash create(XmlComparisonSettings settings) {
+		if (!(settings instanceof XmlFileComparisonSettings)) {
+			return null;
+		}
+		XmlFileComparisonSettings fileSettings = (XmlFileComparisonSettings) settings;
+		if (!fileSettings.getKeyExpressions().isEmpty()
+				|| !fileSettings.getGenericDiffPaths(XmlDiffDetailType.MISSING).isEmpty()
+				|| !fileSettings.getGenericDiffPaths(XmlDiffDetailType.UNEXPECTED).isEmpty()
+				|| !fileSettings.getGenericDiffPaths(XmlDiffDetailType.MOVED).isEmpty()) {
+			return null;
+		}
+
+		StringBuilder fingerprint = new StringBuilder(FORMAT_VERSION).append(fileSettings.isWhitespaceIrrelevant() ? 'I' : 'R');
+		List<StreamingXPath> skipPaths = compile(fileSettings.getAnyDiffPaths(), 'S', fingerprint);
+		List<String> values = new ArrayList<String>(fileSettings.getDifferentPaths());
+		values.addAll(fileSettings.getGenericDiffPaths(XmlDiffDetailType.DIFFERENT));
+		List<StreamingXPath> valuePaths = compile(values, 'V', fingerprint);
+		if (skipPaths == null || valuePaths == null) {
+			return null;
+		}
+		return new CanonicalDocumentHash(fileSettings.isWhitespaceIrrelevant(), skipPaths, valuePaths,
+				toHex(newDigest().digest(fingerprint.toString().getBytes(UTF8))));
+	}
+
+	/**
+	 * @return A checksum of the settings which determine the canonical form, for keeping persisted hashes of different
+	 *         settings apart.
+	 */
+	String getFingerprint() {
+		return fingerprint;
+	}
+
+	/**
+	 * Hashes the document provided by the given stream, without building a document tree.
+	 * 
+	 * @param in
+	 *            Stream providing the document. It is not closed.
+	 * @return The hash of the canonical form of the document.
+	 * @throws XMLStreamException
+	 *             If the document is not well-formed XML.
+	 */
+	String hash(InputStream in) throws XMLStreamException {
+		Canonicalizer canonicalizer = new Canonicalizer();
+		XMLStreamReader reader = INPUT_FACTORY.createXMLStreamReader(in);
+		try {
+			int depth = 0;
+			while (reader.hasNext()) {
+				switch (reader.next()) {
+					case XMLStreamConstants.START_ELEMENT:
+						depth++;
+						canonicalizer.startElement(qualifiedName(reader.getPrefix(), reader.getLocalName()),
+								StreamingXPath.name(reader.getNamespaceURI(), reader.getLocalName()), attributes(reader));
+						break;
+					case XMLStreamConstants.END_ELEMENT:
+						depth--;
+						canonicalizer.endElement();
+						break;
+					case XMLStreamConstants.CHARACTERS:
+					case XMLStreamConstants.CDATA:
+					case XMLStreamConstants.SPACE:
+						if (depth > 0) {
+							canonicalizer.text(reader.getText());
+						}
+						break;
+					case XMLStreamConstants.PROCESSING_INSTRUCTION:
+						if (depth > 0) {
+							canonicalizer.processingInstruction(reader.getPITarget(), reader.getPIData());
+						}
+						break;
+					default:
+						break;
+				}
+			}
+		}
+		finally {
+			reader.close();
+		}
+		return canonicalizer.getHash();
+	}
+
+	/**
+	 * Hashes a parsed document.
+	 * 
+	 * @param document
+	 *            The document to hash.
+	 * @return The hash of the canonical form of the document.
+	 */
+	String hash(Document document) {
+		Canonicalizer canonicalizer = new Canonicalizer();
+		if (document.getDocumentElement() != null) {
+			walk(document.getDocumentElement(), canonicalizer);
+		}
+		return canonicalizer.getHash();
+	}
+
+	private static void walk(Element element, Canonicalizer canonicalizer) {
+		List<String[]> attributes = new ArrayList<String[]>();
+		NamedNodeMap attributeNodes = element.getAttributes();
+		for (int i = 0; i < attributeNodes.getLength(); i++) {
+			Attr attribute = (Attr) attributeNodes.item(i);
+			String name = attribute.getName();
+			boolean matchable = attribute.getNamespaceURI() == null && !name.equals("xmlns") && !name.startsWith("xmlns:");
+			attributes.add(new String[] { name, attribute.getValue(), matchable ? name : null });
+		}
+		canonicalizer.startElement(element.getNodeName(), element.getNamespaceURI() == null ? element.getNodeName() : null,
+				attributes);
+		walkChildren(element, canonicalizer);
+		canonicalizer.endElement();
+	}
+
+	private static void walkChildren(Node parent, Canonicalizer canonicalizer) {
+		for (Node child = parent.getFirstChild(); child != null; child = child.getNextSibling()) {
+			switch (child.getNodeType()) {
+				case Node.ELEMENT_NODE:
+					walk((Element) child, canonicalizer);
+					break;
+				case Node.TEXT_NODE:
+				case Node.CDATA_SECTION_NODE:
+					canonicalizer.text(child.getNodeValue());
+					break;
+				case Node.ENTITY_REFERENCE_NODE:
+					walkChildren(child, canonicalizer);
+					break;
+				case Node.PROCESSING_INSTRUCTION_NODE:
+					canonicalizer.processingInstruction(child.getNodeName(), child.getNodeValue());
+					break;
+				default:
+					break;
+			}
+		}
+	}
+
+	/**
+	 * Collects the attributes and namespace declarations of the current element of the reader, as triples of the qualified
+	 * name, the value, and the name to match tolerated paths against, which is <code>null</code> for namespaced attributes
+	 * and namespace declarations.
+	 */
+	private static List<String[]> attributes(XMLStreamReader reader) {
+		List<String[]> attributes = new ArrayList<String[]>(reader.getAttributeCount() + reader.getNamespaceCount());
+		for (int i = 0; i < reader.getNamespaceCount(); i++) {
+			String prefix = reader.getNamespacePrefix(i);
+			attributes.add(new String[] { prefix == null || prefix.length() == 0 ? "xmlns" : "xmlns:" + prefix,
+					reader.getNamespaceURI(i), null });
+		}
+		for (int i = 0; i < reader.getAttributeCount(); i++) {
+			attributes.add(new String[] { qualifiedName(reader.getAttributePrefix(i), reader.getAttributeLocalName(i)),
+					reader.getAttributeValue(i),
+					StreamingXPath.name(reader.getAttributeNamespace(i), reader.getAttributeLocalName(i)) });
+		}
+		return attributes;
+	}
+
+	private static List<StreamingXPath> compile(List<String> paths, char kind, StringBuilder fingerprint) {
+		List<StreamingXPath> result = new ArrayList<StreamingXPath>(paths.size());
+		for (String path : paths) {
+			StreamingXPath compiled = StreamingXPath.compile(path);
+			if (compiled == null) {
+				return null;
+			}
+			result.add(compiled);
+			fingerprint.append('\n').append(kind).append(path);
+		}
+		return result;
+	}
+
+	private static String qualifiedName(String prefix, String localName) {
+		return prefix == null || prefix.length() == 0 ? localName : prefix + ":" + localName;
+	}
+
+	private static MessageDigest newDigest() {
+		try {
+			return MessageDigest.getInstance(DIGEST_ALGORITHM);
+		}
+		catch (NoSuchAlgorithmException e) {
+			// SHA-1 is always available
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static String toHex(byte[] bytes) {
+		StringBuilder sb = new StringBuilder(bytes.length * 2);
+		for (byte b : bytes) {
+			sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+		}
+		return sb.toString();
+	}
+
+	private static XMLInputFactory createInputFactory() {
+		XMLInputFactory factory = XMLInputFactory.newInstance();
+		factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+		factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+		return factory;
+	}
+
+	/**
+	 * Feeds the canonical form of a document into a digest, applying the tolerances. Adjacent text is collected and written as
+	 * one token. Each token is written with its length, so different token sequences cannot produce the same digest input.
+	 */
+	private final class Canonicalizer {
+
+		private final MessageDigest digest = newDigest();
+
+		private final List<StreamingXPath.Matcher> skipMatchers = matchers(skipPaths);
+
+		private final List<StreamingXPath.Matcher> valueMatchers = matchers(valuePaths);
+
+		/** Per open element, the token of its text: 'T' for the text itself, '?' for a placeholder, '-' to leave it out */
+		private final Deque<Character> textTokens = new ArrayDeque<Character>();
+
+		private final StringBuilder text = new StringBuilder();
+
+		/** Depth within a left out element, or 0 */
+		private int skipDepth;
+
+		/** The match names of the element and its attributes are <code>null</code> for nodes in a namespace. */
+		private void startElement(String name, String matchName, final List<String[]> attributes) {
+			if (skipDepth > 0) {
+				skipDepth++;
+				return;
+			}
+			flushText();
+
+			StreamingXPath.Attributes attributeValues = new StreamingXPath.Attributes() {
+				@Override
+				public String getValue(String qualifiedName) {
+					for (String[] attribute : attributes) {
+						if (qualifiedName.equals(attribute[2])) {
+							return attribute[1];
+						}
+					}
+					return null;
+				}
+			};
+			for (StreamingXPath.Matcher matcher : skipMatchers) {
+				matcher.startElement(matchName, attributeValues);
+			}
+			for (StreamingXPath.Matcher matcher : valueMatchers) {
+				matcher.startElement(matchName, attributeValues);
+			}
+			for (StreamingXPath.Matcher matcher : skipMatchers) {
+				if (matcher.isElementSelected()) {
+					skipDepth = 1;
+					return;
+				}
+			}
+
+			write('S', name);
+			Collections.sort(attributes, ATTRIBUTE_ORDER);
+			for (String[] attribute : attributes) {
+				if (!isAttributeSelected(skipMatchers, attribute[2])) {
+					write('A', attribute[0]);
+					if (isAttributeSelected(valueMatchers, attribute[2])) {
+						write('?', "");
+					}
+					else {
+						write('V', attribute[1]);
+					}
+				}
+			}
+
+			char textToken = 'T';
+			for (StreamingXPath.Matcher matcher : valueMatchers) {
+				if (matcher.isElementSelected() || matcher.isTextSelected()) {
+					textToken = '?';
+				}
+			}
+			for (StreamingXPath.Matcher matcher : skipMatchers) {
+				if (matcher.isTextSelected()) {
+					textToken = '-';
+				}
+			}
+			textTokens.push(Character.valueOf(textToken));
+		}
+
+		private void endElement() {
+			if (skipDepth > 0) {
+				if (--skipDepth == 0) {
+					// the left out element is complete, the matchers have seen its start
+					popMatchers();
+				}
+				return;
+			}
+			flushText();
+			write('E', "");
+			textTokens.pop();
+			popMatchers();
+		}
+
+		private void text(String value) {
+			if (skipDepth == 0) {
+				text.append(value);
+			}
+		}
+
+		private void processingInstruction(String target, String data) {
+			if (skipDepth == 0) {
+				flushText();
+				write('P', target);
+				write('D', data == null ? "" : data);
+			}
+		}
+
+		private String getHash() {
+			return toHex(digest.digest());
+		}
+
+		private void flushText() {
+			if (text.length() == 0 || textTokens.isEmpty()) {
+				text.setLength(0);
+				return;
+			}
+			String value = whitespaceIrrelevant ? text.toString().trim() : text.toString();
+			text.setLength(0);
+			char textToken = textTokens.peek().charValue();
+			if (value.length() > 0 && textToken != '-') {
+				write(textToken, textToken == 'T' ? value : "");
+			}
+		}
+
+		private void popMatchers() {
+			for (StreamingXPath.Matcher matcher : skipMatchers) {
+				matcher.endElement();
+			}
+			for (StreamingXPath.Matcher matcher : valueMatchers) {
+				matcher.endElement();
+			}
+		}
+
+		private void write(char tag, String value) {
+			byte[] bytes = value.getBytes(UTF8);
+			digest.update((byte) tag);
+			digest.update((byte) (bytes.length >>> 24));
+			digest.update((byte) (bytes.length >>> 16));
+			digest.update((byte) (bytes.length >>> 8));
+			digest.update((byte) bytes.length);
+			digest.update(bytes);
+		}
+	}
+
+	private static boolean isAttributeSelected(List<StreamingXPath.Matcher> matchers, String name) {
+		if (name == null) {
+			return false;
+		}
+		for (StreamingXPath.Matcher matcher : matchers) {
+			if (matcher.isAttributeSelected(name)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static List<StreamingXPath.Matcher> matchers(List<StreamingXPath> paths) {
+		List<StreamingXPath.Matcher> matchers = new ArrayList<StreamingXPath.Matcher>(paths.size());
+		for (StreamingXPath path : paths) {
+			matchers.add(path.matcher());
+		}
+		return matchers;
+	}
+
+}
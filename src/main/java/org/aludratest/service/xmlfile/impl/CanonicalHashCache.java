@@ -0,0 +1,218 @@
+/*
+ * Copyright (C) 2015 Hamburg Sud and the contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aludratest.service.xmlfile.impl;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.xml.stream.XMLStreamException;
+
+import org.aludratest.exception.AutomationException;
+import org.aludratest.service.file.FileService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Cache of canonical hashes of reference files. Hashes are keyed by the checksum of the raw file contents and the fingerprint
+ * of the comparison settings, so a cached hash is only used for unchanged files and equivalent settings. Checksumming the raw
+ * contents is much cheaper than parsing them; the contents are read once and only parsed if their hash is not cached yet.
+ * Optionally, hashes are persisted in a properties file, so they survive test runs; new hashes are appended to the file.
+ */
+public class CanonicalHashCache {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(CanonicalHashCache.class);
+
+	private static final String DIGEST_ALGORITHM = "SHA-1";
+
+	private final FileService fileService;
+
+	/** File to persist the hashes in, or <code>null</code> */
+	private final File storeFile;
+
+	private final Map<String, String> hashes = new HashMap<String, String>();
+
+	private final AtomicLong hits = new AtomicLong();
+
+	private final AtomicLong misses = new AtomicLong();
+
+	/**
+	 * Creates a new cache.
+	 * 
+	 * @param fileService
+	 *            File service to read reference files with.
+	 * @param storeFile
+	 *            Local file to persist the hashes in, or <code>null</code> to keep them in memory only. Hashes persisted by
+	 *            earlier runs are loaded from the file.
+	 */
+	public CanonicalHashCache(FileService fileService, File storeFile) {
+		this.fileService = fileService;
+		this.storeFile = storeFile;
+		if (storeFile != null && storeFile.isFile()) {
+			load(storeFile);
+		}
+	}
+
+	/**
+	 * Returns the canonical hash of a reference file, computing it only if the current file contents have not been hashed
+	 * with equivalent settings before.
+	 * 
+	 * @param filePath
+	 *            Path of the reference file.
+	 * @param hashFunction
+	 *            The hash function, providing the fingerprint of the settings.
+	 * @return The canonical hash of the file.
+	 * @throws XMLStreamException
+	 *             If the file is not well-formed XML.
+	 */
+	String getReferenceHash(String filePath, CanonicalDocumentHash hashFunction) throws XMLStreamException {
+		// the file is read only once, so the checksum always belongs to the hashed contents
+		byte[] contents = read(filePath);
+		String key = checksum(contents) + "/" + hashFunction.getFingerprint();
+		synchronized (this) {
+			String hash = hashes.get(key);
+			if (hash != null) {
+				hits.incrementAndGet();
+				return hash;
+			}
+		}
+
+		misses.incrementAndGet();
+		String hash = hashFunction.hash(new ByteArrayInputStream(contents));
+		store(key, hash);
+		return hash;
+	}
+
+	/** @return The number of requests which were served from the cache. */
+	public long getHitCount() {
+		return hits.get();
+	}
+
+	/** @return The number of requests which required hashing the file. */
+	public long getMissCount() {
+		return misses.get();
+	}
+
+	/** @return The number of currently cached hashes. */
+	public synchronized int size() {
+		return hashes.size();
+	}
+
+	/** Removes all cached hashes, including the persisted ones. */
+	public synchronized void clear() {
+		hashes.clear();
+		if (storeFile != null && storeFile.isFile() && !storeFile.delete()) {
+			LOGGER.warn("Could not delete canonical hash store {}", storeFile);
+		}
+	}
+
+	private synchronized void store(String key, String hash) {
+		if (hashes.put(key, hash) != null || storeFile == null) {
+			return;
+		}
+		try {
+			OutputStream out = new FileOutputStream(storeFile, true);
+			try {
+				// keys and hashes consist of hex digits and separators, so they need no escaping
+				Writer writer = new OutputStreamWriter(out, "ISO-8859-1");
+				writer.write(key + "=" + hash + "\n");
+				writer.flush();
+			}
+			finally {
+				out.close();
+			}
+		}
+		catch (IOException e) {
+			LOGGER.warn("Could not persist canonical hash in " + storeFile, e);
+		}
+	}
+
+	private void load(File file) {
+		Properties properties = new Properties();
+		try {
+			InputStream in = new FileInputStream(file);
+			try {
+				properties.load(in);
+			}
+			finally {
+				in.close();
+			}
+		}
+		catch (IOException e) {
+			LOGGER.warn("Could not load canonical hashes from " + file, e);
+			return;
+		}
+		for (String key : properties.stringPropertyNames()) {
+			hashes.put(key, properties.getProperty(key));
+		}
+	}
+
+	private byte[] read(String filePath) {
+		InputStream in = fileService.perform().getInputStreamForBinaryFile(filePath);
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buffer = new byte[8192];
+			int read;
+			while ((read = in.read(buffer, 0, buffer.length)) != -1) {
+				out.write(buffer, 0, read);
+			}
+			return out.toByteArray();
+		}
+		catch (IOException e) {
+			throw new AutomationException("Could not read " + filePath, e);
+		}
+		finally {
+			try {
+				in.close();
+			}
+			catch (IOException e) {
+				// ignore
+			}
+		}
+	}
+
+	/** @return The checksum of the raw file contents, consisting of their digest and length. */
+	private static String checksum(byte[] contents) {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance(DIGEST_ALGORITHM);
+		}
+		catch (NoSuchAlgorithmException e) {
+			// SHA-1 is always available
+			throw new IllegalStateException(e);
+		}
+		byte[] bytes = digest.digest(contents);
+		StringBuilder sb = new StringBuilder(bytes.length * 2 + 20);
+		for (byte b : bytes) {
+			sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+		}
+		return sb.append('-').append(contents.length).toString();
+	}
+
+}
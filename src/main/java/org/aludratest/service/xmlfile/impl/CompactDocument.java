@@ -0,0 +1,714 @@
+/*
+ * Copyright (C) 2015 Hamburg Sud and the contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aludratest.service.xmlfile.impl;
+
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.xml.XMLConstants;
+import javax.xml.namespace.QName;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.w3c.dom.Attr;
+import org.w3c.dom.CDATASection;
+import org.w3c.dom.Comment;
+import org.w3c.dom.DOMConfiguration;
+import org.w3c.dom.DOMException;
+import org.w3c.dom.DOMImplementation;
+import org.w3c.dom.Document;
+import org.w3c.dom.DocumentFragment;
+import org.w3c.dom.DocumentType;
+import org.w3c.dom.Element;
+import org.w3c.dom.EntityReference;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import org.w3c.dom.ProcessingInstruction;
+import org.w3c.dom.Text;
+
+/**
+ * Read-only DOM document which needs only a fraction of the memory of a regular DOM tree. All nodes are stored in a table of
+ * parallel arrays in document order, so the attributes and then the children of an element directly follow it. Names are
+ * interned and stored once per distinct name, and equal short text and attribute values share a single string. Node objects
+ * are only created when a node is accessed, and are kept so that each node is represented by a single object. <br>
+ * Adjacent text is stored as a single text node, so the document is always normalized, and entity references are replaced by
+ * their content. The document type declaration is not kept. Any attempt to modify the document fails with a
+ * {@link DOMException}; cloning a node creates a regular, modifiable copy. Like regular DOM trees, compact documents must
+ * not be read concurrently.
+ */
+final class CompactDocument extends CompactNode implements Document {
+
+	/** Values up to this length are shared between equal values; longer values are most likely unique anyway. */
+	static final int MAX_POOLED_VALUE_LENGTH = 64;
+
+	private static final String REPORT_CDATA_PROPERTY = "http://java.sun.com/xml/stream/properties/report-cdata-event";
+
+	private static final XMLInputFactory INPUT_FACTORY = createInputFactory();
+
+	private static final DOMImplementation IMPLEMENTATION = createImplementation();
+
+	private final byte[] types;
+
+	private final int[] parents;
+
+	private final int[] nextSiblings;
+
+	private final int[] previousSiblings;
+
+	private final int[] names;
+
+	private final int[] values;
+
+	private final String[] qualifiedNames;
+
+	private final String[] localNames;
+
+	private final String[] namespaceUris;
+
+	private final String[] strings;
+
+	private final CompactNode[] nodes;
+
+	private final String inputEncoding;
+
+	private final String xmlEncoding;
+
+	private final String xmlVersion;
+
+	private final boolean xmlStandalone;
+
+	private CompactDocument(Builder builder) {
+		super(null, 0);
+		int size = builder.size;
+		this.types = Arrays.copyOf(builder.types, size);
+		this.parents = Arrays.copyOf(builder.parents, size);
+		this.nextSiblings = Arrays.copyOf(builder.nextSiblings, size);
+		this.previousSiblings = Arrays.copyOf(builder.previousSiblings, size);
+		this.names = Arrays.copyOf(builder.names, size);
+		this.values = Arrays.copyOf(builder.values, size);
+		this.qualifiedNames = Arrays.copyOf(builder.qualifiedNames, builder.nameCount);
+		this.localNames = Arrays.copyOf(builder.localNames, builder.nameCount);
+		this.namespaceUris = Arrays.copyOf(builder.namespaceUris, builder.nameCount);
+		this.strings = Arrays.copyOf(builder.strings, builder.stringCount);
+		this.nodes = new CompactNode[size];
+		this.nodes[0] = this;
+		this.inputEncoding = builder.inputEncoding;
+		this.xmlEncoding = builder.xmlEncoding;
+		this.xmlVersion = builder.xmlVersion;
+		this.xmlStandalone = builder.xmlStandalone;
+	}
+
+	/**
+	 * Parses a compact document from the given stream. The stream is not closed.
+	 * 
+	 * @param in
+	 *            Stream to read the XML data from.
+	 * @return The parsed document.
+	 * @throws XMLStreamException
+	 *             If the data is not well-formed XML.
+	 */
+	static CompactDocument parse(InputStream in) throws XMLStreamException {
+		XMLStreamReader reader = INPUT_FACTORY.createXMLStreamReader(in);
+		try {
+			Builder builder = new Builder();
+			builder.read(reader);
+			return new CompactDocument(builder);
+		}
+		finally {
+			reader.close();
+		}
+	}
+
+	/** @return A new, empty and modifiable regular DOM document. */
+	static Document createModifiableDocument() {
+		return IMPLEMENTATION.createDocument(null, null, null);
+	}
+
+	static DOMException readOnly() {
+		return new DOMException(DOMException.NO_MODIFICATION_ALLOWED_ERR, "Compact documents are read-only");
+	}
+
+	/** @return The number of nodes in the document, including the document node and attributes. */
+	int size() {
+		return types.length;
+	}
+
+	/**
+	 * Returns the object representing the node at the given index, creating it on first access.
+	 * 
+	 * @param index
+	 *            Index of the node, or <code>-1</code>.
+	 * @return The node, or <code>null</code> if the index is <code>-1</code>.
+	 */
+	CompactNode node(int index) {
+		if (index < 0) {
+			return null;
+		}
+		CompactNode node = nodes[index];
+		if (node == null) {
+			node = createNode(index);
+			nodes[index] = node;
+		}
+		return node;
+	}
+
+	short type(int index) {
+		return types[index];
+	}
+
+	/** @return The index of the parent of the node, or of the owner element of an attribute; <code>-1</code> if none. */
+	int parent(int index) {
+		return parents[index];
+	}
+
+	int firstChild(int index) {
+		// children directly follow their parent and its attributes, so the first child needs not be stored
+		int child = index + 1;
+		while (child < types.length && types[child] == ATTRIBUTE_NODE) {
+			child++;
+		}
+		return child < types.length && parents[child] == index ? child : -1;
+	}
+
+	int nextSibling(int index) {
+		return nextSiblings[index];
+	}
+
+	int previousSibling(int index) {
+		return previousSiblings[index];
+	}
+
+	int lastChild(int index) {
+		if (firstChild(index) < 0) {
+			return -1;
+		}
+		// the last node of the subtree is the last child or one of its descendants, so the path up from it is short
+		int last = subtreeEnd(index) - 1;
+		while (parents[last] != index) {
+			last = parents[last];
+		}
+		return last;
+	}
+
+	String qualifiedName(int index) {
+		return names[index] < 0 ? null : qualifiedNames[names[index]];
+	}
+
+	String localName(int index) {
+		return names[index] < 0 ? null : localNames[names[index]];
+	}
+
+	String namespaceUri(int index) {
+		return names[index] < 0 ? null : namespaceUris[names[index]];
+	}
+
+	String value(int index) {
+		return values[index] < 0 ? null : strings[values[index]];
+	}
+
+	/** @return The number of attributes of the element with the given index. */
+	int attributeCount(int index) {
+		int count = 0;
+		while (index + count + 1 < types.length && types[index + count + 1] == ATTRIBUTE_NODE) {
+			count++;
+		}
+		return count;
+	}
+
+	/** @return The index after the last descendant of the node with the given index. */
+	int subtreeEnd(int index) {
+		if (types[index] == ATTRIBUTE_NODE) {
+			return index + 1;
+		}
+		for (int i = index; i >= 0; i = parents[i]) {
+			if (nextSiblings[i] >= 0) {
+				return nextSiblings[i];
+			}
+		}
+		return types.length;
+	}
+
+	private CompactNode createNode(int index) {
+		switch (types[index]) {
+			case ELEMENT_NODE:
+				return new CompactNode.CompactElement(this, index);
+			case ATTRIBUTE_NODE:
+				return new CompactNode.CompactAttr(this, index);
+			case TEXT_NODE:
+				return new CompactNode.CompactText(this, index);
+			case CDATA_SECTION_NODE:
+				return new CompactNode.CompactCDATASection(this, index);
+			case COMMENT_NODE:
+				return new CompactNode.CompactComment(this, index);
+			case PROCESSING_INSTRUCTION_NODE:
+				return new CompactNode.CompactProcessingInstruction(this, index);
+			default:
+				throw new IllegalStateException("Unexpected node type " + types[index]);
+		}
+	}
+
+	// Node
+
+	@Override
+	public String getNodeName() {
+		return "#document";
+	}
+
+	@Override
+	public Document getOwnerDocument() {
+		return null;
+	}
+
+	@Override
+	public String getTextContent() {
+		return null;
+	}
+
+	@Override
+	public Node cloneNode(boolean deep) {
+		Document copy = createModifiableDocument();
+		copy.setXmlStandalone(xmlStandalone);
+		if (xmlVersion != null) {
+			copy.setXmlVersion(xmlVersion);
+		}
+		if (deep) {
+			for (Node child = getFirstChild(); child != null; child = child.getNextSibling()) {
+				copy.appendChild(copy.importNode(child, true));
+			}
+		}
+		return copy;
+	}
+
+	@Override
+	public String getBaseURI() {
+		return null;
+	}
+
+	// Document
+
+	@Override
+	public DocumentType getDoctype() {
+		return null;
+	}
+
+	@Override
+	public DOMImplementation getImplementation() {
+		return IMPLEMENTATION;
+	}
+
+	@Override
+	public Element getDocumentElement() {
+		for (int i = firstChild(0); i >= 0; i = nextSibling(i)) {
+			if (types[i] == ELEMENT_NODE) {
+				return (Element) node(i);
+			}
+		}
+		return null;
+	}
+
+	@Override
+	public Element createElement(String tagName) {
+		throw readOnly();
+	}
+
+	@Override
+	public DocumentFragment createDocumentFragment() {
+		throw readOnly();
+	}
+
+	@Override
+	public Text createTextNode(String data) {
+		throw readOnly();
+	}
+
+	@Override
+	public Comment createComment(String data) {
+		throw readOnly();
+	}
+
+	@Override
+	public CDATASection createCDATASection(String data) {
+		throw readOnly();
+	}
+
+	@Override
+	public ProcessingInstruction createProcessingInstruction(String target, String data) {
+		throw readOnly();
+	}
+
+	@Override
+	public Attr createAttribute(String name) {
+		throw readOnly();
+	}
+
+	@Override
+	public EntityReference createEntityReference(String name) {
+		throw readOnly();
+	}
+
+	@Override
+	public NodeList getElementsByTagName(String tagname) {
+		return getElementsByTagName(null, tagname);
+	}
+
+	@Override
+	public Node importNode(Node importedNode, boolean deep) {
+		throw readOnly();
+	}
+
+	@Override
+	public Element createElementNS(String namespaceURI, String qualifiedName) {
+		throw readOnly();
+	}
+
+	@Override
+	public Attr createAttributeNS(String namespaceURI, String qualifiedName) {
+		throw readOnly();
+	}
+
+	@Override
+	public NodeList getElementsByTagNameNS(String namespaceURI, String localName) {
+		return getElementsByTagName(namespaceURI == null ? "" : namespaceURI, localName);
+	}
+
+	@Override
+	public Element getElementById(String elementId) {
+		// IDs are only known from a DTD or schema, which is not kept
+		return null;
+	}
+
+	@Override
+	public String getInputEncoding() {
+		return inputEncoding;
+	}
+
+	@Override
+	public String getXmlEncoding() {
+		return xmlEncoding;
+	}
+
+	@Override
+	public boolean getXmlStandalone() {
+		return xmlStandalone;
+	}
+
+	@Override
+	public void setXmlStandalone(boolean xmlStandalone) {
+		throw readOnly();
+	}
+
+	@Override
+	public String getXmlVersion() {
+		return xmlVersion == null ? "1.0" : xmlVersion;
+	}
+
+	@Override
+	public void setXmlVersion(String xmlVersion) {
+		throw readOnly();
+	}
+
+	@Override
+	public boolean getStrictErrorChecking() {
+		return true;
+	}
+
+	@Override
+	public void setStrictErrorChecking(boolean strictErrorChecking) {
+		// nothing is ever modified, so there is nothing to check
+	}
+
+	@Override
+	public String getDocumentURI() {
+		return null;
+	}
+
+	@Override
+	public void setDocumentURI(String documentURI) {
+		throw readOnly();
+	}
+
+	@Override
+	public Node adoptNode(Node source) {
+		throw readOnly();
+	}
+
+	@Override
+	public DOMConfiguration getDomConfig() {
+		throw new DOMException(DOMException.NOT_SUPPORTED_ERR, "Compact documents have no DOM configuration");
+	}
+
+	@Override
+	public void normalizeDocument() {
+		// compact documents are always normalized
+	}
+
+	@Override
+	public Node renameNode(Node n, String namespaceURI, String qualifiedName) {
+		throw readOnly();
+	}
+
+	private static XMLInputFactory createInputFactory() {
+		XMLInputFactory factory = XMLInputFactory.newInstance();
+		factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.TRUE);
+		factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+		factory.setProperty(XMLInputFactory.IS_REPLACING_ENTITY_REFERENCES, Boolean.TRUE);
+		factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.FALSE);
+		// CDATA sections are kept like in regular documents, where the parser supports reporting them
+		if (factory.isPropertySupported(REPORT_CDATA_PROPERTY)) {
+			factory.setProperty(REPORT_CDATA_PROPERTY, Boolean.TRUE);
+		}
+		return factory;
+	}
+
+	private static DOMImplementation createImplementation() {
+		try {
+			DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+			factory.setNamespaceAware(true);
+			return factory.newDocumentBuilder().getDOMImplementation();
+		}
+		catch (ParserConfigurationException e) {
+			// the default configuration is always supported
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/** Fills the node table from a StAX reader. */
+	private static final class Builder {
+
+		private byte[] types = new byte[256];
+
+		private int[] parents = new int[256];
+
+		private int[] nextSiblings = new int[256];
+
+		private int[] previousSiblings = new int[256];
+
+		private int[] names = new int[256];
+
+		private int[] values = new int[256];
+
+		private int size;
+
+		private String[] qualifiedNames = new String[32];
+
+		private String[] localNames = new String[32];
+
+		private String[] namespaceUris = new String[32];
+
+		private int nameCount;
+
+		private final Map<String, Integer> nameIndexes = new HashMap<String, Integer>();
+
+		private String[] strings = new String[256];
+
+		private int stringCount;
+
+		private final Map<String, Integer> stringIndexes = new HashMap<String, Integer>();
+
+		/** Open elements, starting with the document node */
+		private int[] openNodes = new int[32];
+
+		/** Last child of each open element, or <code>-1</code> */
+		private int[] lastChildren = new int[32];
+
+		private int depth;
+
+		private final StringBuilder text = new StringBuilder();
+
+		private short textType;
+
+		private String inputEncoding;
+
+		private String xmlEncoding;
+
+		private String xmlVersion;
+
+		private boolean xmlStandalone;
+
+		private void read(XMLStreamReader reader) throws XMLStreamException {
+			inputEncoding = reader.getEncoding();
+			xmlEncoding = reader.getCharacterEncodingScheme();
+			xmlVersion = reader.getVersion();
+			xmlStandalone = reader.standaloneSet() && reader.isStandalone();
+			add(DOCUMENT_NODE, -1, -1);
+			openNodes[0] = 0;
+			lastChildren[0] = -1;
+
+			while (reader.hasNext()) {
+				switch (reader.next()) {
+					case XMLStreamConstants.START_ELEMENT:
+						flushText();
+						startElement(reader);
+						break;
+					case XMLStreamConstants.END_ELEMENT:
+						flushText();
+						depth--;
+						break;
+					case XMLStreamConstants.CHARACTERS:
+					case XMLStreamConstants.SPACE:
+						// text outside of the document element is not part of the DOM
+						if (depth > 0) {
+							appendText(TEXT_NODE, reader);
+						}
+						break;
+					case XMLStreamConstants.CDATA:
+						// the parser may report a long CDATA section in several chunks
+						appendText(CDATA_SECTION_NODE, reader);
+						break;
+					case XMLStreamConstants.COMMENT:
+						flushText();
+						addChild(COMMENT_NODE, -1, string(reader.getText()));
+						break;
+					case XMLStreamConstants.PROCESSING_INSTRUCTION:
+						flushText();
+						String data = reader.getPIData();
+						addChild(PROCESSING_INSTRUCTION_NODE, name(null, reader.getPITarget()), string(data == null ? ""
+								: data));
+						break;
+					default:
+						// the document type declaration is not kept
+						break;
+				}
+			}
+		}
+
+		private void startElement(XMLStreamReader reader) {
+			int element = addChild(ELEMENT_NODE, name(reader.getName()), -1);
+			for (int i = 0; i < reader.getNamespaceCount(); i++) {
+				String prefix = reader.getNamespacePrefix(i);
+				String qualifiedName = prefix == null || prefix.isEmpty() ? XMLConstants.XMLNS_ATTRIBUTE
+						: XMLConstants.XMLNS_ATTRIBUTE + ":" + prefix;
+				String uri = reader.getNamespaceURI(i);
+				addAttribute(element, name(XMLConstants.XMLNS_ATTRIBUTE_NS_URI, qualifiedName), uri == null ? "" : uri);
+			}
+			for (int i = 0; i < reader.getAttributeCount(); i++) {
+				addAttribute(element, name(reader.getAttributeName(i)), reader.getAttributeValue(i));
+			}
+
+			depth++;
+			if (depth == openNodes.length) {
+				openNodes = Arrays.copyOf(openNodes, depth * 2);
+				lastChildren = Arrays.copyOf(lastChildren, depth * 2);
+			}
+			openNodes[depth] = element;
+			lastChildren[depth] = -1;
+		}
+
+		private void appendText(short type, XMLStreamReader reader) {
+			if (textType != type) {
+				flushText();
+				textType = type;
+			}
+			text.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+		}
+
+		private void flushText() {
+			if (textType == CDATA_SECTION_NODE || text.length() > 0) {
+				addChild(textType, -1, string(text.toString()));
+			}
+			text.setLength(0);
+			textType = 0;
+		}
+
+		private int addChild(short type, int name, int value) {
+			int index = add(type, name, value);
+			parents[index] = openNodes[depth];
+			int previous = lastChildren[depth];
+			if (previous >= 0) {
+				nextSiblings[previous] = index;
+			}
+			previousSiblings[index] = previous;
+			lastChildren[depth] = index;
+			return index;
+		}
+
+		private void addAttribute(int element, int name, String value) {
+			int index = add(ATTRIBUTE_NODE, name, string(value));
+			parents[index] = element;
+		}
+
+		private int add(short type, int name, int value) {
+			if (size == types.length) {
+				int capacity = size + (size >> 1);
+				types = Arrays.copyOf(types, capacity);
+				parents = Arrays.copyOf(parents, capacity);
+				nextSiblings = Arrays.copyOf(nextSiblings, capacity);
+				previousSiblings = Arrays.copyOf(previousSiblings, capacity);
+				names = Arrays.copyOf(names, capacity);
+				values = Arrays.copyOf(values, capacity);
+			}
+			types[size] = (byte) type;
+			parents[size] = -1;
+			nextSiblings[size] = -1;
+			previousSiblings[size] = -1;
+			names[size] = name;
+			values[size] = value;
+			return size++;
+		}
+
+		private int name(QName name) {
+			String prefix = name.getPrefix();
+			String qualifiedName = prefix == null || prefix.isEmpty() ? name.getLocalPart() : prefix + ":"
+					+ name.getLocalPart();
+			String uri = name.getNamespaceURI();
+			return name(uri == null || uri.isEmpty() ? null : uri, qualifiedName);
+		}
+
+		private int name(String namespaceUri, String qualifiedName) {
+			String key = namespaceUri == null ? qualifiedName : qualifiedName + ' ' + namespaceUri;
+			Integer index = nameIndexes.get(key);
+			if (index != null) {
+				return index.intValue();
+			}
+
+			if (nameCount == qualifiedNames.length) {
+				qualifiedNames = Arrays.copyOf(qualifiedNames, nameCount * 2);
+				localNames = Arrays.copyOf(localNames, nameCount * 2);
+				namespaceUris = Arrays.copyOf(namespaceUris, nameCount * 2);
+			}
+			qualifiedNames[nameCount] = qualifiedName.intern();
+			int colon = qualifiedName.indexOf(':');
+			localNames[nameCount] = colon < 0 ? qualifiedNames[nameCount] : qualifiedName.substring(colon + 1).intern();
+			namespaceUris[nameCount] = namespaceUri == null ? null : namespaceUri.intern();
+			nameIndexes.put(key, Integer.valueOf(nameCount));
+			return nameCount++;
+		}
+
+		private int string(String value) {
+			boolean pooled = value.length() <= MAX_POOLED_VALUE_LENGTH;
+			if (pooled) {
+				Integer index = stringIndexes.get(value);
+				if (index != null) {
+					return index.intValue();
+				}
+				stringIndexes.put(value, Integer.valueOf(stringCount));
+			}
+
+			if (stringCount == strings.length) {
+				strings = Arrays.copyOf(strings, stringCount * 2);
+			}
+			strings[stringCount] = value;
+			return stringCount++;
+		}
+	}
+
+}
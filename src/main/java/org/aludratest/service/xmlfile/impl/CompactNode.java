@@ -0,0 +1,893 @@
+/*
+ * Copyright (C) 2015 Hamburg Sud and the contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aludratest.service.xmlfile.impl;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.XMLConstants;
+
+import org.w3c.dom.Attr;
+import org.w3c.dom.CDATASection;
+import org.w3c.dom.Comment;
+import org.w3c.dom.DOMException;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import org.w3c.dom.ProcessingInstruction;
+import org.w3c.dom.Text;
+import org.w3c.dom.TypeInfo;
+import org.w3c.dom.UserDataHandler;
+
+/**
+ * A node of a {@link CompactDocument}. The node only knows its index in the node table of its document, which stores all of
+ * its data. All modifying operations fail with a {@link DOMException}.
+ */
+abstract class CompactNode implements Node {
+
+	private static final NodeList EMPTY_LIST = new StaticNodeList(new ArrayList<Node>(0));
+
+	final CompactDocument document;
+
+	final int index;
+
+	private Map<String, Object> userData;
+
+	CompactNode(CompactDocument document, int index) {
+		// the document node is its own document, which cannot be passed to its constructor
+		this.document = document == null ? (CompactDocument) this : document;
+		this.index = index;
+	}
+
+	@Override
+	public String getNodeName() {
+		return document.qualifiedName(index);
+	}
+
+	@Override
+	public String getNodeValue() {
+		return document.value(index);
+	}
+
+	@Override
+	public void setNodeValue(String nodeValue) {
+		throw CompactDocument.readOnly();
+	}
+
+	@Override
+	public short getNodeType() {
+		return document.type(index);
+	}
+
+	@Override
+	public Node getParentNode() {
+		return document.node(document.parent(index));
+	}
+
+	@Override
+	public NodeList getChildNodes() {
+		return hasChildNodes() ? new ChildNodeList(this) : EMPTY_LIST;
+	}
+
+	@Override
+	public Node getFirstChild() {
+		return document.node(document.firstChild(index));
+	}
+
+	@Override
+	public Node getLastChild() {
+		return document.node(document.lastChild(index));
+	}
+
+	@Override
+	public Node getPreviousSibling() {
+		return document.node(document.previousSibling(index));
+	}
+
+	@Override
+	public Node getNextSibling() {
+		return document.node(document.nextSibling(index));
+	}
+
+	@Override
+	public NamedNodeMap getAttributes() {
+		return null;
+	}
+
+	@Override
+	public Document getOwnerDocument() {
+		return document;
+	}
+
+	@Override
+	public Node insertBefore(Node newChild, Node refChild) {
+		throw CompactDocument.readOnly();
+	}
+
+	@Override
+	public Node replaceChild(Node newChild, Node oldChild) {
+		throw CompactDocument.readOnly();
+	}
+
+	@Override
+	public Node removeChild(Node oldChild) {
+		throw CompactDocument.readOnly();
+	}
+
+	@Override
+	public Node appendChild(Node newChild) {
+		throw CompactDocument.readOnly();
+	}
+
+	@Override
+	public boolean hasChildNodes() {
+		return document.firstChild(index) >= 0;
+	}
+
+	/**
+	 * Creates a regular, modifiable copy of this node. As compact documents cannot own modifiable nodes, the copy is owned by a
+	 * new, empty document.
+	 */
+	@Override
+	public Node cloneNode(boolean deep) {
+		return CompactDocument.createModifiableDocument().importNode(this, deep);
+	}
+
+	@Override
+	public void normalize() {
+		// compact documents are always normalized
+	}
+
+	@Override
+	public boolean isSupported(String feature, String version) {
+		return document.getImplementation().hasFeature(feature, version);
+	}
+
+	@Override
+	public String getNamespaceURI() {
+		return document.namespaceUri(index);
+	}
+
+	@Override
+	public String getPrefix() {
+		String qualifiedName = document.qualifiedName(index);
+		int colon = qualifiedName == null ? -1 : qualifiedName.indexOf(':');
+		return colon < 0 ? null : qualifiedName.substring(0, colon);
+	}
+
+	@Override
+	public void setPrefix(String prefix) {
+		throw CompactDocument.readOnly();
+	}
+
+	@Override
+	public String getLocalName() {
+		return document.localName(index);
+	}
+
+	@Override
+	public boolean hasAttributes() {
+		return false;
+	}
+
+	@Override
+	public String getBaseURI() {
+		return document.getBaseURI();
+	}
+
+	@Override
+	public short compareDocumentPosition(Node other) {
+		if (other == this) {
+			return 0;
+		}
+		if (!(other instanceof CompactNode) || ((CompactNode) other).document != document) {
+			short order = System.identityHashCode(other) < System.identityHashCode(this) ? DOCUMENT_POSITION_PRECEDING
+					: DOCUMENT_POSITION_FOLLOWING;
+			return (short) (DOCUMENT_POSITION_DISCONNECTED | DOCUMENT_POSITION_IMPLEMENTATION_SPECIFIC | order);
+		}
+
+		int otherIndex = ((CompactNode) other).index;
+		if (isAncestor(otherIndex, index)) {
+			return DOCUMENT_POSITION_CONTAINS | DOCUMENT_POSITION_PRECEDING;
+		}
+		if (isAncestor(index, otherIndex)) {
+			return DOCUMENT_POSITION_CONTAINED_BY | DOCUMENT_POSITION_FOLLOWING;
+		}
+		// nodes are indexed in document order, with attributes directly following their owner elements
+		short order = otherIndex < index ? DOCUMENT_POSITION_PRECEDING : DOCUMENT_POSITION_FOLLOWING;
+		if (getNodeType() == ATTRIBUTE_NODE && other.getNodeType() == ATTRIBUTE_NODE
+				&& document.parent(index) == document.parent(otherIndex)) {
+			return (short) (DOCUMENT_POSITION_IMPLEMENTATION_SPECIFIC | order);
+		}
+		return order;
+	}
+
+	@Override
+	public String getTextContent() {
+		return getNodeValue();
+	}
+
+	@Override
+	public void setTextContent(String textContent) {
+		throw CompactDocument.readOnly();
+	}
+
+	@Override
+	public boolean isSameNode(Node other) {
+		return other == this;
+	}
+
+	@Override
+	public String lookupPrefix(String namespaceURI) {
+		if (namespaceURI == null || namespaceURI.isEmpty()) {
+			return null;
+		}
+		for (int element = contextElement(); element >= 0; element = parentElement(element)) {
+			if (namespaceURI.equals(document.namespaceUri(element)) && document.node(element).getPrefix() != null) {
+				return document.node(element).getPrefix();
+			}
+			int count = document.attributeCount(element);
+			for (int i = element + 1; i <= element + count; i++) {
+				String name = document.qualifiedName(i);
+				if (name.startsWith(XMLConstants.XMLNS_ATTRIBUTE + ":") && namespaceURI.equals(document.value(i))) {
+					return document.localName(i);
+				}
+			}
+		}
+		return null;
+	}
+
+	@Override
+	public boolean isDefaultNamespace(String namespaceURI) {
+		String defaultNamespace = lookupNamespaceURI(null);
+		return defaultNamespace == null ? namespaceURI == null || namespaceURI.isEmpty() : defaultNamespace
+				.equals(namespaceURI);
+	}
+
+	@Override
+	public String lookupNamespaceURI(String prefix) {
+		String declaration = prefix == null || prefix.isEmpty() ? XMLConstants.XMLNS_ATTRIBUTE : XMLConstants.XMLNS_ATTRIBUTE
+				+ ":" + prefix;
+		for (int element = contextElement(); element >= 0; element = parentElement(element)) {
+			String elementPrefix = document.node(element).getPrefix();
+			if (document.namespaceUri(element) != null && equal(prefix == null || prefix.isEmpty() ? null : prefix,
+					elementPrefix)) {
+				return document.namespaceUri(element);
+			}
+			int count = document.attributeCount(element);
+			for (int i = element + 1; i <= element + count; i++) {
+				if (declaration.equals(document.qualifiedName(i))) {
+					String uri = document.value(i);
+					return uri.isEmpty() ? null : uri;
+				}
+			}
+		}
+		return null;
+	}
+
+	@Override
+	public boolean isEqualNode(Node other) {
+		if (!hasEqualProperties(other)) {
+			return false;
+		}
+
+		NamedNodeMap attributes = getAttributes();
+		NamedNodeMap otherAttributes = other.getAttributes();
+		if (attributes != null) {
+			if (otherAttributes == null || attributes.getLength() != otherAttributes.getLength()) {
+				return false;
+			}
+			for (int i = 0; i < attributes.getLength(); i++) {
+				Node attribute = attributes.item(i);
+				Node otherAttribute = attribute.getLocalName() == null ? otherAttributes.getNamedItem(attribute
+						.getNodeName()) : otherAttributes.getNamedItemNS(attribute.getNamespaceURI(),
+						attribute.getLocalName());
+				if (!attribute.isEqualNode(otherAttribute)) {
+					return false;
+				}
+			}
+		}
+
+		Node child = getFirstChild();
+		Node otherChild = other.getFirstChild();
+		while (child != null && otherChild != null) {
+			if (!child.isEqualNode(otherChild)) {
+				return false;
+			}
+			child = child.getNextSibling();
+			otherChild = otherChild.getNextSibling();
+		}
+		return child == null && otherChild == null;
+	}
+
+	/** @return <code>true</code> if the other node has the same type, names and value as this node. */
+	boolean hasEqualProperties(Node other) {
+		return other == this || other != null && other.getNodeType() == getNodeType()
+				&& equal(getNodeName(), other.getNodeName()) && equal(getLocalName(), other.getLocalName())
+				&& equal(getNamespaceURI(), other.getNamespaceURI()) && equal(getPrefix(), other.getPrefix())
+				&& equal(getNodeValue(), other.getNodeValue());
+	}
+
+	@Override
+	public Object getFeature(String feature, String version) {
+		return isSupported(feature, version) ? this : null;
+	}
+
+	@Override
+	public Object setUserData(String key, Object data, UserDataHandler handler) {
+		// user data is no content of the document, and the handler is never called as nodes are never cloned or imported
+		if (userData == null) {
+			userData = new HashMap<String, Object>();
+		}
+		return data == null ? userData.remove(key) : userData.put(key, data);
+	}
+
+	@Override
+	public Object getUserData(String key) {
+		return userData == null ? null : userData.get(key);
+	}
+
+	@Override
+	public String toString() {
+		return "[" + getNodeName() + ": " + getNodeValue() + "]";
+	}
+
+	/** @return The concatenated values of all text nodes in the subtree of this node. */
+	String getDescendantText() {
+		StringBuilder sb = new StringBuilder();
+		int end = document.subtreeEnd(index);
+		for (int i = index + 1; i < end; i++) {
+			short type = document.type(i);
+			if (type == TEXT_NODE || type == CDATA_SECTION_NODE) {
+				sb.append(document.value(i));
+			}
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Returns all elements in the subtree of this node, excluding the node itself, which match the given name.
+	 * 
+	 * @param namespaceUri
+	 *            Namespace URI to match, <code>""</code> for no namespace, or <code>*</code> for any. If <code>null</code>, the
+	 *            name is matched against the qualified names of the elements.
+	 * @param name
+	 *            Local name to match, or qualified name if no namespace URI is given. <code>*</code> matches any name.
+	 * @return The matching elements in document order.
+	 */
+	NodeList getElementsByTagName(String namespaceUri, String name) {
+		List<Node> elements = new ArrayList<Node>();
+		int end = document.subtreeEnd(index);
+		for (int i = index + 1; i < end; i++) {
+			if (document.type(i) == ELEMENT_NODE && matches(i, namespaceUri, name)) {
+				elements.add(document.node(i));
+			}
+		}
+		return new StaticNodeList(elements);
+	}
+
+	private boolean matches(int node, String namespaceUri, String name) {
+		if (namespaceUri == null) {
+			return "*".equals(name) || name.equals(document.qualifiedName(node));
+		}
+		String uri = document.namespaceUri(node);
+		return ("*".equals(namespaceUri) || namespaceUri.equals(uri == null ? "" : uri))
+				&& ("*".equals(name) || name.equals(document.localName(node)));
+	}
+
+	/** @return The index of the element to look up namespaces from, or <code>-1</code>. */
+	private int contextElement() {
+		switch (getNodeType()) {
+			case ELEMENT_NODE:
+				return index;
+			case DOCUMENT_NODE:
+				Element root = document.getDocumentElement();
+				return root == null ? -1 : ((CompactNode) root).index;
+			default:
+				// the parent of an attribute is its owner element
+				return parentElement(index);
+		}
+	}
+
+	private int parentElement(int node) {
+		int parent = document.parent(node);
+		return parent >= 0 && document.type(parent) == ELEMENT_NODE ? parent : -1;
+	}
+
+	private boolean isAncestor(int ancestor, int node) {
+		for (int i = document.parent(node); i >= 0; i = document.parent(i)) {
+			if (i == ancestor) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static boolean equal(Object o1, Object o2) {
+		return o1 == null ? o2 == null : o1.equals(o2);
+	}
+
+	/** An element of a compact document. */
+	static final class CompactElement extends CompactNode implements Element {
+
+		CompactElement(CompactDocument document, int index) {
+			super(document, index);
+		}
+
+		@Override
+		public NamedNodeMap getAttributes() {
+			return new AttributeMap(this);
+		}
+
+		@Override
+		public boolean hasAttributes() {
+			return document.attributeCount(index) > 0;
+		}
+
+		@Override
+		public String getTextContent() {
+			return getDescendantText();
+		}
+
+		@Override
+		public String getTagName() {
+			return getNodeName();
+		}
+
+		@Override
+		public String getAttribute(String name) {
+			Attr attribute = getAttributeNode(name);
+			return attribute == null ? "" : attribute.getValue();
+		}
+
+		@Override
+		public void setAttribute(String name, String value) {
+			throw CompactDocument.readOnly();
+		}
+
+		@Override
+		public void removeAttribute(String name) {
+			throw CompactDocument.readOnly();
+		}
+
+		@Override
+		public Attr getAttributeNode(String name) {
+			return (Attr) getAttributes().getNamedItem(name);
+		}
+
+		@Override
+		public Attr setAttributeNode(Attr newAttr) {
+			throw CompactDocument.readOnly();
+		}
+
+		@Override
+		public Attr removeAttributeNode(Attr oldAttr) {
+			throw CompactDocument.readOnly();
+		}
+
+		@Override
+		public NodeList getElementsByTagName(String name) {
+			return getElementsByTagName(null, name);
+		}
+
+		@Override
+		public String getAttributeNS(String namespaceURI, String localName) {
+			Attr attribute = getAttributeNodeNS(namespaceURI, localName);
+			return attribute == null ? "" : attribute.getValue();
+		}
+
+		@Override
+		public void setAttributeNS(String namespaceURI, String qualifiedName, String value) {
+			throw CompactDocument.readOnly();
+		}
+
+		@Override
+		public void removeAttributeNS(String namespaceURI, String localName) {
+			throw CompactDocument.readOnly();
+		}
+
+		@Override
+		public Attr getAttributeNodeNS(String namespaceURI, String localName) {
+			return (Attr) getAttributes().getNamedItemNS(namespaceURI, localName);
+		}
+
+		@Override
+		public Attr setAttributeNodeNS(Attr newAttr) {
+			throw CompactDocument.readOnly();
+		}
+
+		@Override
+		public NodeList getElementsByTagNameNS(String namespaceURI, String localName) {
+			return getElementsByTagName(namespaceURI == null ? "" : namespaceURI, localName);
+		}
+
+		@Override
+		public boolean hasAttribute(String name) {
+			return getAttributeNode(name) != null;
+		}
+
+		@Override
+		public boolean hasAttributeNS(String namespaceURI, String localName) {
+			return getAttributeNodeNS(namespaceURI, localName) != null;
+		}
+
+		@Override
+		public TypeInfo getSchemaTypeInfo() {
+			return null;
+		}
+
+		@Override
+		public void setIdAttribute(String name, boolean isId) {
+			throw CompactDocument.readOnly();
+		}
+
+		@Override
+		public void setIdAttributeNS(String namespaceURI, String localName, boolean isId) {
+			throw CompactDocument.readOnly();
+		}
+
+		@Override
+		public void setIdAttributeNode(Attr idAttr, boolean isId) {
+			throw CompactDocument.readOnly();
+		}
+	}
+
+	/** An attribute of a compact document. Like in regular documents, attributes have no parent and no siblings. */
+	static final class CompactAttr extends CompactNode implements Attr {
+
+		CompactAttr(CompactDocument document, int index) {
+			super(document, index);
+		}
+
+		@Override
+		public Node getParentNode() {
+			return null;
+		}
+
+		@Override
+		public Node getPreviousSibling() {
+			return null;
+		}
+
+		@Override
+		public Node getNextSibling() {
+			return null;
+		}
+
+		@Override
+		public boolean isEqualNode(Node other) {
+			// the value is not stored as text child like in regular documents, so it is compared instead of the children
+			return hasEqualProperties(other);
+		}
+
+		@Override
+		public String getName() {
+			return getNodeName();
+		}
+
+		@Override
+		public boolean getSpecified() {
+			return true;
+		}
+
+		@Override
+		public String getValue() {
+			return getNodeValue();
+		}
+
+		@Override
+		public void setValue(String value) {
+			throw CompactDocument.readOnly();
+		}
+
+		@Override
+		public Element getOwnerElement() {
+			return (Element) document.node(document.parent(index));
+		}
+
+		@Override
+		public TypeInfo getSchemaTypeInfo() {
+			return null;
+		}
+
+		@Override
+		public boolean isId() {
+			return false;
+		}
+	}
+
+	/** Text, CDATA sections and comments of a compact document. */
+	abstract static class CompactCharacterData extends CompactNode {
+
+		CompactCharacterData(CompactDocument document, int index) {
+			super(document, index);
+		}
+
+		public String getData() {
+			return getNodeValue();
+		}
+
+		public void setData(String data) {
+			throw CompactDocument.readOnly();
+		}
+
+		public int getLength() {
+			return getNodeValue().length();
+		}
+
+		public String substringData(int offset, int count) {
+			String data = getNodeValue();
+			if (offset < 0 || offset > data.length() || count < 0) {
+				throw new DOMException(DOMException.INDEX_SIZE_ERR, "Invalid offset or count");
+			}
+			return data.substring(offset, Math.min(data.length(), offset + count));
+		}
+
+		public void appendData(String arg) {
+			throw CompactDocument.readOnly();
+		}
+
+		public void insertData(int offset, String arg) {
+			throw CompactDocument.readOnly();
+		}
+
+		public void deleteData(int offset, int count) {
+			throw CompactDocument.readOnly();
+		}
+
+		public void replaceData(int offset, int count, String arg) {
+			throw CompactDocument.readOnly();
+		}
+	}
+
+	/** A text node of a compact document. */
+	static class CompactText extends CompactCharacterData implements Text {
+
+		CompactText(CompactDocument document, int index) {
+			super(document, index);
+		}
+
+		@Override
+		public String getNodeName() {
+			return "#text";
+		}
+
+		@Override
+		public Text splitText(int offset) {
+			throw CompactDocument.readOnly();
+		}
+
+		@Override
+		public boolean isElementContentWhitespace() {
+			return false;
+		}
+
+		@Override
+		public String getWholeText() {
+			// only text nodes and CDATA sections can be adjacent, as adjacent text is stored in one node
+			StringBuilder sb = new StringBuilder();
+			Node first = this;
+			while (first.getPreviousSibling() instanceof Text) {
+				first = first.getPreviousSibling();
+			}
+			for (Node node = first; node instanceof Text; node = node.getNextSibling()) {
+				sb.append(node.getNodeValue());
+			}
+			return sb.toString();
+		}
+
+		@Override
+		public Text replaceWholeText(String content) {
+			throw CompactDocument.readOnly();
+		}
+	}
+
+	/** A CDATA section of a compact document. */
+	static final class CompactCDATASection extends CompactText implements CDATASection {
+
+		CompactCDATASection(CompactDocument document, int index) {
+			super(document, index);
+		}
+
+		@Override
+		public String getNodeName() {
+			return "#cdata-section";
+		}
+	}
+
+	/** A comment of a compact document. */
+	static final class CompactComment extends CompactCharacterData implements Comment {
+
+		CompactComment(CompactDocument document, int index) {
+			super(document, index);
+		}
+
+		@Override
+		public String getNodeName() {
+			return "#comment";
+		}
+	}
+
+	/** A processing instruction of a compact document. */
+	static final class CompactProcessingInstruction extends CompactNode implements ProcessingInstruction {
+
+		CompactProcessingInstruction(CompactDocument document, int index) {
+			super(document, index);
+		}
+
+		@Override
+		public String getLocalName() {
+			// the target is stored as name, but only elements and attributes have local names
+			return null;
+		}
+
+		@Override
+		public String getPrefix() {
+			return null;
+		}
+
+		@Override
+		public String getTarget() {
+			return getNodeName();
+		}
+
+		@Override
+		public String getData() {
+			return getNodeValue();
+		}
+
+		@Override
+		public void setData(String data) {
+			throw CompactDocument.readOnly();
+		}
+	}
+
+	/** The children of a node. Optimized for accessing the children in order. */
+	private static final class ChildNodeList implements NodeList {
+
+		private final CompactNode parent;
+
+		private int length = -1;
+
+		private int lastPosition = -1;
+
+		private int lastIndex = -1;
+
+		private ChildNodeList(CompactNode parent) {
+			this.parent = parent;
+		}
+
+		@Override
+		public Node item(int position) {
+			CompactDocument document = parent.document;
+			int i = document.firstChild(parent.index);
+			int p = 0;
+			if (lastPosition >= 0 && position >= lastPosition) {
+				i = lastIndex;
+				p = lastPosition;
+			}
+			for (; i >= 0 && p < position; p++) {
+				i = document.nextSibling(i);
+			}
+			if (i < 0 || position < 0) {
+				return null;
+			}
+			lastPosition = position;
+			lastIndex = i;
+			return document.node(i);
+		}
+
+		@Override
+		public int getLength() {
+			if (length < 0) {
+				length = 0;
+				for (int i = parent.document.firstChild(parent.index); i >= 0; i = parent.document.nextSibling(i)) {
+					length++;
+				}
+			}
+			return length;
+		}
+	}
+
+	/** A list of nodes which have been collected in advance, which is possible as compact documents never change. */
+	private static final class StaticNodeList implements NodeList {
+
+		private final List<Node> nodes;
+
+		private StaticNodeList(List<Node> nodes) {
+			this.nodes = nodes;
+		}
+
+		@Override
+		public Node item(int index) {
+			return index >= 0 && index < nodes.size() ? nodes.get(index) : null;
+		}
+
+		@Override
+		public int getLength() {
+			return nodes.size();
+		}
+	}
+
+	/** The attributes of an element, which directly follow the element in the node table. */
+	private static final class AttributeMap implements NamedNodeMap {
+
+		private final CompactElement element;
+
+		private final int length;
+
+		private AttributeMap(CompactElement element) {
+			this.element = element;
+			this.length = element.document.attributeCount(element.index);
+		}
+
+		@Override
+		public Node getNamedItem(String name) {
+			for (int i = element.index + 1; i <= element.index + length; i++) {
+				if (name.equals(element.document.qualifiedName(i))) {
+					return element.document.node(i);
+				}
+			}
+			return null;
+		}
+
+		@Override
+		public Node setNamedItem(Node arg) {
+			throw CompactDocument.readOnly();
+		}
+
+		@Override
+		public Node removeNamedItem(String name) {
+			throw CompactDocument.readOnly();
+		}
+
+		@Override
+		public Node item(int index) {
+			return index >= 0 && index < length ? element.document.node(element.index + 1 + index) : null;
+		}
+
+		@Override
+		public int getLength() {
+			return length;
+		}
+
+		@Override
+		public Node getNamedItemNS(String namespaceURI, String localName) {
+			String uri = namespaceURI == null || namespaceURI.isEmpty() ? null : namespaceURI;
+			for (int i = element.index + 1; i <= element.index + length; i++) {
+				if (localName.equals(element.document.localName(i)) && equal(uri, element.document.namespaceUri(i))) {
+					return element.document.node(i);
+				}
+			}
+			return null;
+		}
+
+		@Override
+		public Node setNamedItemNS(Node arg) {
+			throw CompactDocument.readOnly();
+		}
+
+		@Override
+		public Node removeNamedItemNS(String namespaceURI, String localName) {
+			throw CompactDocument.readOnly();
+		}
+	}
+
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2015 Hamburg Sud and the contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aludratest.service.xmlfile.impl;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Encodes XML text in the encoding of its XML declaration, or in UTF-8 if it has none, so parsers decode the bytes correctly.
+ * The start of the text is buffered until the XML declaration is complete; then the encoding is determined and all text is
+ * passed on. Flushing determines the encoding as well, so the writer must not be flushed before the declaration is complete.
+ */
+final class DeclaredEncodingWriter extends Writer {
+
+	/** Matches the encoding pseudo-attribute of an XML declaration */
+	private static final Pattern XML_DECLARATION_ENCODING = Pattern.compile(
+			"\\s*<\\?xml\\s[^>]*?encoding\\s*=\\s*(['\"])([A-Za-z][\\w.\\-]*)\\1");
+
+	/** The maximum number of characters to buffer while waiting for the end of the XML declaration */
+	private static final int MAX_DECLARATION_LENGTH = 1024;
+
+	private final OutputStream out;
+
+	/** The buffered start of the text, or <code>null</code> once the encoding has been determined */
+	private StringBuilder start = new StringBuilder();
+
+	private Writer writer;
+
+	/**
+	 * Creates a new writer.
+	 *
+	 * @param out
+	 *            Stream to write the encoded text to. It is closed when this writer is closed.
+	 */
+	DeclaredEncodingWriter(OutputStream out) {
+		this.out = out;
+	}
+
+	@Override
+	public void write(char[] cbuf, int off, int len) throws IOException {
+		if (writer != null) {
+			writer.write(cbuf, off, len);
+			return;
+		}
+		start.append(cbuf, off, len);
+		if (start.indexOf(">") >= 0 || start.length() >= MAX_DECLARATION_LENGTH) {
+			startWriter();
+		}
+	}
+
+	@Override
+	public void flush() throws IOException {
+		if (writer == null) {
+			startWriter();
+		}
+		writer.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		flush();
+		writer.close();
+	}
+
+	private void startWriter() throws IOException {
+		String text = start.toString();
+		start = null;
+		writer = new OutputStreamWriter(out, declaredEncoding(text));
+		writer.write(text);
+	}
+
+	/** @return The encoding in the XML declaration of the given XML text, or UTF-8 if it does not declare one. */
+	static String declaredEncoding(String xml) {
+		Matcher matcher = XML_DECLARATION_ENCODING.matcher(xml);
+		return matcher.lookingAt() ? matcher.group(2) : "UTF-8";
+	}
+
+}
@@ -0,0 +1,326 @@
+/*
+ * Copyright (C) 2015 Hamburg Sud and the contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aludratest.service.xmlfile.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.xml.xpath.XPathConstants;
+
+import org.aludratest.content.xml.XmlComparisonSettings;
+import org.aludratest.content.xml.XmlDiffDetail;
+import org.aludratest.content.xml.XmlDiffDetailType;
+import org.aludratest.content.xml.util.DatabeneXmlDiffDetail;
+import org.aludratest.service.xmlfile.XmlFileComparisonSettings;
+import org.databene.formats.compare.DiffDetailType;
+import org.w3c.dom.Attr;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+/**
+ * Compares two documents node by node and stops as soon as a given number of differences has been found. Elements are matched
+ * by position, attributes by name, and the direct text of an element is compared as a whole; comments and processing
+ * instructions are ignored. Names are compared by namespace URI and local name, so prefixes do not make a difference.
+ * Tolerances are applied more leniently than by the XML content handler: tolerated differences of a specific type skip the
+ * complete node, and tolerated moves skip the parent of the node. So any difference found here is a difference for the
+ * content handler as well, while finding no difference does not prove equality.
+ */
+final class FastDocumentComparator {
+
+	private static final int MAX_VALUE_LENGTH = 80;
+
+	private final XmlFileComparisonSettings settings;
+
+	private final XPathExpressionCache xpathCache;
+
+	private final int maxDifferences;
+
+	private final List<XmlDiffDetail> details = new ArrayList<XmlDiffDetail>();
+
+	/** Nodes whose subtrees are not compared */
+	private final Set<Node> skipped = Collections.newSetFromMap(new IdentityHashMap<Node, Boolean>());
+
+	/** Nodes whose values may differ */
+	private final Set<Node> valueTolerated = Collections.newSetFromMap(new IdentityHashMap<Node, Boolean>());
+
+	/**
+	 * Creates a new comparator.
+	 * 
+	 * @param settings
+	 *            Settings providing the tolerances. Must be applicable according to {@link #isApplicable(XmlComparisonSettings)}.
+	 * @param xpathCache
+	 *            Cache to compile the tolerated paths with.
+	 * @param maxDifferences
+	 *            Number of differences after which the comparison stops.
+	 */
+	FastDocumentComparator(XmlComparisonSettings settings, XPathExpressionCache xpathCache, int maxDifferences) {
+		this.settings = (XmlFileComparisonSettings) settings;
+		this.xpathCache = xpathCache;
+		this.maxDifferences = maxDifferences;
+	}
+
+	/**
+	 * Checks if the tolerances of the given settings can be evaluated by this comparator. Settings with key expressions are not
+	 * supported, as elements are matched by position.
+	 * 
+	 * @param settings
+	 *            Settings to check.
+	 * @return <code>true</code> if the settings are applicable, <code>false</code> otherwise.
+	 */
+	static boolean isApplicable(XmlComparisonSettings settings) {
+		return settings instanceof XmlFileComparisonSettings
+				&& ((XmlFileComparisonSettings) settings).getKeyExpressions().isEmpty();
+	}
+
+	/**
+	 * Compares the given documents until the maximum number of differences has been found.
+	 * 
+	 * @param expected
+	 *            The expected document.
+	 * @param actual
+	 *            The actual document.
+	 * @return The differences found, at most the maximum number. An empty list does not prove that the documents are equal.
+	 */
+	List<XmlDiffDetail> compare(Document expected, Document actual) {
+		collectTolerances(expected);
+		collectTolerances(actual);
+		Element expectedRoot = expected.getDocumentElement();
+		Element actualRoot = actual.getDocumentElement();
+		if (expectedRoot != null && actualRoot != null) {
+			compareElements(expectedRoot, actualRoot, "/" + expectedRoot.getNodeName());
+		}
+		return details;
+	}
+
+	private void collectTolerances(Document document) {
+		for (String path : settings.getAnyDiffPaths()) {
+			skipped.addAll(select(document, path));
+		}
+		for (String path : settings.getDifferentPaths()) {
+			valueTolerated.addAll(select(document, path));
+		}
+		for (XmlDiffDetailType type : XmlDiffDetailType.values()) {
+			for (String path : settings.getGenericDiffPaths(type)) {
+				for (Node node : select(document, path)) {
+					if (type == XmlDiffDetailType.DIFFERENT) {
+						valueTolerated.add(node);
+					}
+					else if (type == XmlDiffDetailType.MOVED && node.getParentNode() != null) {
+						skipped.add(node.getParentNode());
+					}
+					else {
+						skipped.add(node);
+					}
+				}
+			}
+		}
+	}
+
+	private List<Node> select(Document document, String path) {
+		NodeList nodes = (NodeList) xpathCache.evaluate(document, path, null, XPathConstants.NODESET);
+		List<Node> result = new ArrayList<Node>(nodes.getLength());
+		for (int i = 0; i < nodes.getLength(); i++) {
+			result.add(nodes.item(i));
+		}
+		return result;
+	}
+
+	/** @return <code>false</code> if the maximum number of differences has been reached. */
+	private boolean compareElements(Element expected, Element actual, String locator) {
+		if (skipped.contains(expected) || skipped.contains(actual)) {
+			return true;
+		}
+		if (!haveSameName(expected, actual)) {
+			return report(expected.getNodeName(), actual.getNodeName(), "element", DiffDetailType.DIFFERENT, locator, locator);
+		}
+		if (!compareAttributes(expected, actual, locator)) {
+			return false;
+		}
+
+		DirectText expectedText = new DirectText(expected);
+		DirectText actualText = new DirectText(actual);
+		if (!expectedText.tolerated && !actualText.tolerated && !textEquals(expectedText.text, actualText.text)
+				&& !report(expectedText.text, actualText.text, "text", DiffDetailType.DIFFERENT, locator, locator)) {
+			return false;
+		}
+
+		List<Element> expectedChildren = childElements(expected);
+		List<Element> actualChildren = childElements(actual);
+		Map<String, Integer> indexByName = new HashMap<String, Integer>();
+		int count = Math.min(expectedChildren.size(), actualChildren.size());
+		for (int i = 0; i < expectedChildren.size(); i++) {
+			Element child = expectedChildren.get(i);
+			String childLocator = childLocator(locator, child, indexByName);
+			boolean proceed = i < count ? compareElements(child, actualChildren.get(i), childLocator) : report(child, null,
+					"element", DiffDetailType.MISSING, childLocator, null);
+			if (!proceed) {
+				return false;
+			}
+		}
+		indexByName.clear();
+		for (int i = 0; i < actualChildren.size(); i++) {
+			Element child = actualChildren.get(i);
+			String childLocator = childLocator(locator, child, indexByName);
+			if (i >= count && !report(null, child, "element", DiffDetailType.UNEXPECTED, null, childLocator)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private boolean compareAttributes(Element expected, Element actual, String locator) {
+		NamedNodeMap expectedAttributes = expected.getAttributes();
+		NamedNodeMap actualAttributes = actual.getAttributes();
+		for (int i = 0; i < expectedAttributes.getLength(); i++) {
+			Attr attribute = (Attr) expectedAttributes.item(i);
+			if (isNamespaceDeclaration(attribute) || skipped.contains(attribute)) {
+				continue;
+			}
+			Attr other = counterpart(attribute, actualAttributes);
+			String attributeLocator = locator + "/@" + attribute.getName();
+			if (other == null) {
+				if (!report(attribute.getValue(), null, "attribute", DiffDetailType.MISSING, attributeLocator, null)) {
+					return false;
+				}
+			}
+			else if (!skipped.contains(other) && !valueTolerated.contains(attribute) && !valueTolerated.contains(other)
+					&& !attribute.getValue().equals(other.getValue())
+					&& !report(attribute.getValue(), other.getValue(), "attribute", DiffDetailType.DIFFERENT, attributeLocator,
+							attributeLocator)) {
+				return false;
+			}
+		}
+		for (int i = 0; i < actualAttributes.getLength(); i++) {
+			Attr attribute = (Attr) actualAttributes.item(i);
+			if (!isNamespaceDeclaration(attribute) && !skipped.contains(attribute)
+					&& counterpart(attribute, expectedAttributes) == null
+					&& !report(null, attribute.getValue(), "attribute", DiffDetailType.UNEXPECTED, null,
+							locator + "/@" + attribute.getName())) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private boolean textEquals(String expected, String actual) {
+		if (isBlank(expected) && isBlank(actual)) {
+			// whitespace between elements
+			return true;
+		}
+		if (expected.equals(actual)) {
+			return true;
+		}
+		return !settings.isWhitespaceRelevant() && normalize(expected).equals(normalize(actual));
+	}
+
+	private List<Element> childElements(Element parent) {
+		List<Element> result = new ArrayList<Element>();
+		for (Node child = parent.getFirstChild(); child != null; child = child.getNextSibling()) {
+			// skipped elements are left out on both sides, so tolerated missing elements do not shift the positions
+			if (child.getNodeType() == Node.ELEMENT_NODE && !skipped.contains(child)) {
+				result.add((Element) child);
+			}
+		}
+		return result;
+	}
+
+	private boolean report(Object expected, Object actual, String classifier, DiffDetailType type, String locatorOfExpected,
+			String locatorOfActual) {
+		details.add(new DatabeneXmlDiffDetail(abbreviate(expected), abbreviate(actual), classifier, type, locatorOfExpected,
+				locatorOfActual));
+		return details.size() < maxDifferences;
+	}
+
+	private static Object abbreviate(Object value) {
+		if (value instanceof String && ((String) value).length() > MAX_VALUE_LENGTH) {
+			return ((String) value).substring(0, MAX_VALUE_LENGTH) + "...";
+		}
+		return value;
+	}
+
+	private static String childLocator(String parentLocator, Element child, Map<String, Integer> indexByName) {
+		Integer index = indexByName.get(child.getNodeName());
+		index = Integer.valueOf(index == null ? 1 : index.intValue() + 1);
+		indexByName.put(child.getNodeName(), index);
+		return parentLocator + "/" + child.getNodeName() + "[" + index + "]";
+	}
+
+	/**
+	 * Checks if two nodes have the same name. Nodes of namespace aware documents are compared by namespace URI and local name,
+	 * so different prefixes for the same namespace do not make a difference.
+	 */
+	private static boolean haveSameName(Node expected, Node actual) {
+		if (expected.getLocalName() == null || actual.getLocalName() == null) {
+			return expected.getNodeName().equals(actual.getNodeName());
+		}
+		return expected.getLocalName().equals(actual.getLocalName())
+				&& equal(expected.getNamespaceURI(), actual.getNamespaceURI());
+	}
+
+	/** @return The attribute of the same name as the given one, or <code>null</code> if there is none. */
+	private static Attr counterpart(Attr attribute, NamedNodeMap attributes) {
+		if (attribute.getLocalName() == null) {
+			return (Attr) attributes.getNamedItem(attribute.getName());
+		}
+		return (Attr) attributes.getNamedItemNS(attribute.getNamespaceURI(), attribute.getLocalName());
+	}
+
+	private static boolean equal(String s1, String s2) {
+		return s1 == null ? s2 == null : s1.equals(s2);
+	}
+
+	private static boolean isNamespaceDeclaration(Attr attribute) {
+		return "xmlns".equals(attribute.getName()) || attribute.getName().startsWith("xmlns:");
+	}
+
+	private static boolean isBlank(String text) {
+		return text.trim().isEmpty();
+	}
+
+	private static String normalize(String text) {
+		return text.trim().replaceAll("\\s+", " ");
+	}
+
+	/** The concatenated text and CDATA children of an element. */
+	private final class DirectText {
+
+		private final String text;
+
+		private boolean tolerated;
+
+		private DirectText(Element element) {
+			tolerated = valueTolerated.contains(element);
+			StringBuilder sb = new StringBuilder();
+			for (Node child = element.getFirstChild(); child != null; child = child.getNextSibling()) {
+				short type = child.getNodeType();
+				if (type == Node.TEXT_NODE || type == Node.CDATA_SECTION_NODE) {
+					tolerated |= skipped.contains(child) || valueTolerated.contains(child);
+					sb.append(child.getNodeValue());
+				}
+			}
+			this.text = sb.toString();
+		}
+	}
+
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2015 Hamburg Sud and the contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aludratest.service.xmlfile.impl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+
+import org.aludratest.service.file.FileService;
+
+/**
+ * Stream on a file which is still being written. When the end of the currently available data is reached, the stream waits
+ * for the file to grow and continues reading at the previous position, so a consumer sees the complete file contents as one
+ * stream and each byte is read only once. A file which does not exist yet is treated like an empty file. If the file does not
+ * grow until the deadline, reading fails with an {@link InterruptedIOException}.
+ */
+final class GrowingFileInputStream extends InputStream {
+
+	/** Time between two checks for new data, in milliseconds. */
+	static final long POLL_INTERVAL_MILLIS = 100;
+
+	private final FileService fileService;
+
+	private final String filePath;
+
+	private final long deadline;
+
+	private InputStream in;
+
+	private long position;
+
+	private boolean timedOut;
+
+	/**
+	 * Creates a new stream.
+	 *
+	 * @param fileService
+	 *            File service to read the file with.
+	 * @param filePath
+	 *            Path of the file.
+	 * @param timeoutMillis
+	 *            Maximum time to wait for data, in milliseconds, starting now.
+	 */
+	GrowingFileInputStream(FileService fileService, String filePath, long timeoutMillis) {
+		this.fileService = fileService;
+		this.filePath = filePath;
+		this.deadline = System.currentTimeMillis() + timeoutMillis;
+	}
+
+	@Override
+	public int read() throws IOException {
+		byte[] b = new byte[1];
+		return read(b, 0, 1) == -1 ? -1 : b[0] & 0xFF;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0) {
+			return 0;
+		}
+		while (true) {
+			if (in == null) {
+				open();
+			}
+			if (in != null) {
+				int read = in.read(b, off, len);
+				if (read > 0) {
+					position += read;
+					return read;
+				}
+				// end of the currently available data; reopen later to see appended data
+				in.close();
+				in = null;
+			}
+			awaitGrowth();
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (in != null) {
+			in.close();
+			in = null;
+		}
+	}
+
+	/** @return The number of bytes read so far. */
+	long getPosition() {
+		return position;
+	}
+
+	/** @return <code>true</code> if reading failed because the file did not grow until the deadline. */
+	boolean isTimedOut() {
+		return timedOut;
+	}
+
+	private void open() throws IOException {
+		if (!fileService.check().exists(filePath)) {
+			return;
+		}
+		in = fileService.perform().getInputStreamForBinaryFile(filePath);
+		long skipped = 0;
+		while (skipped < position) {
+			long n = in.skip(position - skipped);
+			if (n <= 0) {
+				// skip() may return 0 before the end of the stream
+				n = in.read() == -1 ? 0 : 1;
+			}
+			if (n == 0) {
+				// the file is shorter than before, i.e. it is being rewritten
+				in.close();
+				in = null;
+				throw new IOException("File " + filePath + " has been truncated while waiting for it to be completed");
+			}
+			skipped += n;
+		}
+	}
+
+	private void awaitGrowth() throws IOException {
+		long remaining = deadline - System.currentTimeMillis();
+		if (remaining <= 0) {
+			timedOut = true;
+			throw new InterruptedIOException("File " + filePath + " did not grow beyond " + position + " bytes");
+		}
+		try {
+			Thread.sleep(Math.min(remaining, POLL_INTERVAL_MILLIS));
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for " + filePath);
+		}
+	}
+
+}
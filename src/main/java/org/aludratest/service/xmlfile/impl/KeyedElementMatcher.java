@@ -0,0 +1,422 @@
+/*
+ * Copyright (C) 2015 Hamburg Sud and the contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aludratest.service.xmlfile.impl;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.xml.namespace.NamespaceContext;
+import javax.xml.xpath.XPathConstants;
+
+import org.aludratest.content.xml.XmlDiffDetail;
+import org.aludratest.content.xml.XmlDiffDetailType;
+import org.aludratest.content.xml.util.DatabeneXmlDiffDetail;
+import org.aludratest.service.xmlfile.XmlFileComparisonSettings;
+import org.databene.formats.compare.DiffDetailType;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+/**
+ * Matches keyed sibling elements of two documents by their keys, so they can be compared by position afterwards. The key
+ * expression of an element is evaluated exactly once, and the keys of the actual elements are put into a hash index, so
+ * matching takes linear time instead of evaluating the key expressions for each pair of elements. Key expressions which are a
+ * plain attribute or child element name are evaluated directly on the DOM; other expressions must only refer to the element
+ * and its descendants. Matched actual elements are moved into the order of their expected counterparts, and those which
+ * changed their relative order are reported as moved. Keyed elements without counterpart are removed from both documents
+ * and reported as missing or unexpected; elements without key expression are matched by their position among the siblings of
+ * the same name. Differences at paths tolerated by the comparison settings are not reported, and the children of elements
+ * at which any difference is tolerated are not matched at all. Both documents are modified, so callers pass private copies.
+ */
+final class KeyedElementMatcher {
+
+	private final Map<String, String> keyExpressions;
+
+	private final XPathExpressionCache xpathCache;
+
+	private final NamespaceContext namespaceContext;
+
+	private final XmlFileComparisonSettings settings;
+
+	/** Elements at which any difference is tolerated */
+	private final Set<Node> skipped = newNodeSet();
+
+	/** Elements at which the given type of difference is tolerated */
+	private final Map<XmlDiffDetailType, Set<Node>> toleratedByType = new HashMap<XmlDiffDetailType, Set<Node>>();
+
+	private final List<XmlDiffDetail> details = new ArrayList<XmlDiffDetail>();
+
+	private int matchedKeys;
+
+	private int missingKeys;
+
+	private int extraKeys;
+
+	/**
+	 * Creates a new matcher.
+	 * 
+	 * @param keyExpressions
+	 *            XPath expressions relative to the element which provide the key, mapped by element name.
+	 * @param xpathCache
+	 *            Cache to compile the key expressions with.
+	 */
+	KeyedElementMatcher(Map<String, String> keyExpressions, XPathExpressionCache xpathCache) {
+		this(keyExpressions, xpathCache, null);
+	}
+
+	/**
+	 * Creates a new matcher resolving prefixes in the key expressions with the given namespace context.
+	 * 
+	 * @param keyExpressions
+	 *            XPath expressions relative to the element which provide the key, mapped by element name.
+	 * @param xpathCache
+	 *            Cache to compile the key expressions with.
+	 * @param namespaceContext
+	 *            Namespace context to resolve prefixes in the key expressions with, or <code>null</code>.
+	 */
+	KeyedElementMatcher(Map<String, String> keyExpressions, XPathExpressionCache xpathCache,
+			NamespaceContext namespaceContext) {
+		this(keyExpressions, xpathCache, namespaceContext, null);
+	}
+
+	/**
+	 * Creates a new matcher which applies the tolerances of the given comparison settings to the matched elements.
+	 * 
+	 * @param keyExpressions
+	 *            XPath expressions relative to the element which provide the key, mapped by element name.
+	 * @param xpathCache
+	 *            Cache to compile the key expressions and tolerated paths with.
+	 * @param namespaceContext
+	 *            Namespace context to resolve prefixes in the key expressions with, or <code>null</code>.
+	 * @param settings
+	 *            Settings providing the tolerated paths, or <code>null</code> if no differences are tolerated.
+	 */
+	KeyedElementMatcher(Map<String, String> keyExpressions, XPathExpressionCache xpathCache,
+			NamespaceContext namespaceContext, XmlFileComparisonSettings settings) {
+		this.keyExpressions = keyExpressions;
+		this.xpathCache = xpathCache;
+		this.namespaceContext = namespaceContext;
+		this.settings = settings;
+	}
+
+	/**
+	 * Matches the elements of both documents, starting at their document elements, and aligns the actual document with the
+	 * expected one.
+	 * 
+	 * @param expected
+	 *            The expected document. Unmatched keyed elements are removed.
+	 * @param actual
+	 *            The actual document. Unmatched keyed elements are removed, and matched ones reordered.
+	 */
+	void align(Document expected, Document actual) {
+		Element expectedRoot = expected.getDocumentElement();
+		Element actualRoot = actual.getDocumentElement();
+		if (expectedRoot == null || actualRoot == null || !expectedRoot.getNodeName().equals(actualRoot.getNodeName())) {
+			// nothing to match, the comparison reports the difference
+			return;
+		}
+		// tolerated paths refer to the unmodified documents
+		collectTolerances(expected);
+		collectTolerances(actual);
+		Deque<ElementPair> pending = new ArrayDeque<ElementPair>();
+		pending.add(new ElementPair(expectedRoot, actualRoot, "/" + expectedRoot.getNodeName()));
+		while (!pending.isEmpty()) {
+			alignChildren(pending.poll(), pending);
+		}
+	}
+
+	/** @return The reported missing, unexpected and moved keyed elements. */
+	List<XmlDiffDetail> getDetails() {
+		return details;
+	}
+
+	/** @return The number of keyed elements which were found in both documents. */
+	int getMatchedKeys() {
+		return matchedKeys;
+	}
+
+	/** @return The number of keyed expected elements without counterpart in the actual document. */
+	int getMissingKeys() {
+		return missingKeys;
+	}
+
+	/** @return The number of keyed actual elements without counterpart in the expected document. */
+	int getExtraKeys() {
+		return extraKeys;
+	}
+
+	private void collectTolerances(Document document) {
+		if (settings == null) {
+			return;
+		}
+		for (String path : settings.getAnyDiffPaths()) {
+			skipped.addAll(select(document, path));
+		}
+		for (XmlDiffDetailType type : Arrays.asList(XmlDiffDetailType.MISSING, XmlDiffDetailType.UNEXPECTED,
+				XmlDiffDetailType.MOVED)) {
+			for (String path : settings.getGenericDiffPaths(type)) {
+				Set<Node> nodes = toleratedByType.get(type);
+				if (nodes == null) {
+					nodes = newNodeSet();
+					toleratedByType.put(type, nodes);
+				}
+				nodes.addAll(select(document, path));
+			}
+		}
+	}
+
+	private List<Node> select(Document document, String path) {
+		NodeList nodes = (NodeList) xpathCache.evaluate(document, path, null, XPathConstants.NODESET);
+		List<Node> result = new ArrayList<Node>(nodes.getLength());
+		for (int i = 0; i < nodes.getLength(); i++) {
+			result.add(nodes.item(i));
+		}
+		return result;
+	}
+
+	private boolean isTolerated(Element element, XmlDiffDetailType type) {
+		Set<Node> nodes = toleratedByType.get(type);
+		return skipped.contains(element) || (nodes != null && nodes.contains(element));
+	}
+
+	private void report(Element expected, Element actual, DiffDetailType type, String locatorOfExpected,
+			String locatorOfActual) {
+		details.add(new DatabeneXmlDiffDetail(expected, actual, "element", type, locatorOfExpected, locatorOfActual));
+	}
+
+	private void alignChildren(ElementPair pair, Deque<ElementPair> pending) {
+		if (skipped.contains(pair.expected) || skipped.contains(pair.actual)) {
+			// the content handler ignores any difference below these elements, so they are left as they are
+			return;
+		}
+		Map<String, List<Element>> expectedChildren = childElementsByName(pair.expected);
+		Map<String, List<Element>> actualChildren = childElementsByName(pair.actual);
+		Set<String> names = new LinkedHashSet<String>(expectedChildren.keySet());
+		names.addAll(actualChildren.keySet());
+		for (String name : names) {
+			List<Element> expectedElements = elements(expectedChildren, name);
+			List<Element> actualElements = elements(actualChildren, name);
+			String keyExpression = keyExpressions.get(name);
+			if (keyExpression == null) {
+				int count = Math.min(expectedElements.size(), actualElements.size());
+				for (int i = 0; i < count; i++) {
+					pending.add(new ElementPair(expectedElements.get(i), actualElements.get(i), locator(pair, name, i)));
+				}
+			}
+			else {
+				alignKeyed(pair, name, keyExpression, expectedElements, actualElements, pending);
+			}
+		}
+	}
+
+	private void alignKeyed(ElementPair pair, String name, String keyExpression, List<Element> expectedElements,
+			List<Element> actualElements, Deque<ElementPair> pending) {
+		Map<String, Deque<Integer>> actualIndex = new HashMap<String, Deque<Integer>>(actualElements.size() * 2);
+		for (int i = 0; i < actualElements.size(); i++) {
+			String key = key(actualElements.get(i), keyExpression);
+			Deque<Integer> positions = actualIndex.get(key);
+			if (positions == null) {
+				positions = new ArrayDeque<Integer>(1);
+				actualIndex.put(key, positions);
+			}
+			positions.add(Integer.valueOf(i));
+		}
+
+		boolean[] matched = new boolean[actualElements.size()];
+		List<Element> aligned = new ArrayList<Element>(actualElements.size());
+		List<Integer> alignedPositions = new ArrayList<Integer>(actualElements.size());
+		List<ElementPair> alignedPairs = new ArrayList<ElementPair>(actualElements.size());
+		for (int i = 0; i < expectedElements.size(); i++) {
+			Element expectedElement = expectedElements.get(i);
+			Deque<Integer> positions = actualIndex.get(key(expectedElement, keyExpression));
+			Integer position = positions == null ? null : positions.poll();
+			if (position == null) {
+				missingKeys++;
+				if (!isTolerated(expectedElement, XmlDiffDetailType.MISSING)) {
+					report(expectedElement, null, DiffDetailType.MISSING, locator(pair, name, i), null);
+				}
+				pair.expected.removeChild(expectedElement);
+			}
+			else {
+				matchedKeys++;
+				matched[position.intValue()] = true;
+				Element actualElement = actualElements.get(position.intValue());
+				aligned.add(actualElement);
+				alignedPositions.add(position);
+				ElementPair childPair = new ElementPair(expectedElement, actualElement, locator(pair, name, i));
+				alignedPairs.add(childPair);
+				pending.add(childPair);
+			}
+		}
+
+		boolean[] inOrder = inOrder(alignedPositions);
+		for (int i = 0; i < inOrder.length; i++) {
+			ElementPair childPair = alignedPairs.get(i);
+			if (!inOrder[i] && !isTolerated(childPair.expected, XmlDiffDetailType.MOVED)
+					&& !isTolerated(childPair.actual, XmlDiffDetailType.MOVED)) {
+				report(childPair.expected, childPair.actual, DiffDetailType.MOVED, childPair.locator,
+						locator(pair, name, alignedPositions.get(i).intValue()));
+			}
+		}
+
+		// replace the matched actual elements in document order by the matched ones in expected order, using placeholders,
+		// so elements of other names keep their positions
+		Document document = pair.actual.getOwnerDocument();
+		List<Node> placeholders = new ArrayList<Node>(aligned.size());
+		for (int i = 0; i < actualElements.size(); i++) {
+			Element actualElement = actualElements.get(i);
+			if (matched[i]) {
+				placeholders.add(pair.actual.insertBefore(document.createComment(""), actualElement));
+			}
+			else {
+				extraKeys++;
+				if (!isTolerated(actualElement, XmlDiffDetailType.UNEXPECTED)) {
+					report(null, actualElement, DiffDetailType.UNEXPECTED, null, locator(pair, name, i));
+				}
+			}
+			pair.actual.removeChild(actualElement);
+		}
+		for (int i = 0; i < placeholders.size(); i++) {
+			pair.actual.replaceChild(aligned.get(i), placeholders.get(i));
+		}
+	}
+
+	/**
+	 * Determines the matched elements which keep their relative order: the longest increasing subsequence of their actual
+	 * positions in expected order. All others are reported as moved, so as few elements as possible are reported.
+	 */
+	private static boolean[] inOrder(List<Integer> positions) {
+		int count = positions.size();
+		// tails[k] is the index of the smallest last position of an increasing subsequence of length k + 1
+		int[] tails = new int[count];
+		int[] predecessors = new int[count];
+		int length = 0;
+		for (int i = 0; i < count; i++) {
+			int position = positions.get(i).intValue();
+			int low = 0;
+			int high = length;
+			while (low < high) {
+				int middle = (low + high) >>> 1;
+				if (positions.get(tails[middle]).intValue() < position) {
+					low = middle + 1;
+				}
+				else {
+					high = middle;
+				}
+			}
+			predecessors[i] = low > 0 ? tails[low - 1] : -1;
+			tails[low] = i;
+			if (low == length) {
+				length++;
+			}
+		}
+		boolean[] result = new boolean[count];
+		for (int i = length > 0 ? tails[length - 1] : -1; i >= 0; i = predecessors[i]) {
+			result[i] = true;
+		}
+		return result;
+	}
+
+	private String key(Element element, String keyExpression) {
+		if (keyExpression.startsWith("@") && isName(keyExpression, 1)) {
+			return element.getAttribute(keyExpression.substring(1));
+		}
+		if (isName(keyExpression, 0)) {
+			for (Node child = element.getFirstChild(); child != null; child = child.getNextSibling()) {
+				// like the name test of the XPath expression, this only selects elements in no namespace
+				if (child.getNodeType() == Node.ELEMENT_NODE && child.getNamespaceURI() == null
+						&& keyExpression.equals(child.getNodeName())) {
+					return child.getTextContent();
+				}
+			}
+			return "";
+		}
+		// the XPath engine processes the complete document a node belongs to, so other expressions are evaluated on a
+		// detached copy of the element
+		return (String) xpathCache.evaluate(element.cloneNode(true), keyExpression, namespaceContext,
+				XPathConstants.STRING);
+	}
+
+	/** Checks if the expression is an unprefixed element or attribute name, starting at the given index. */
+	private static boolean isName(String expression, int start) {
+		if (start >= expression.length() || !Character.isLetter(expression.charAt(start)) && expression.charAt(start) != '_') {
+			return false;
+		}
+		for (int i = start + 1; i < expression.length(); i++) {
+			char c = expression.charAt(i);
+			if (!Character.isLetterOrDigit(c) && c != '_' && c != '-' && c != '.') {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static String locator(ElementPair parent, String name, int index) {
+		return parent.locator + "/" + name + "[" + (index + 1) + "]";
+	}
+
+	private static Map<String, List<Element>> childElementsByName(Element parent) {
+		Map<String, List<Element>> result = new LinkedHashMap<String, List<Element>>();
+		for (Node child = parent.getFirstChild(); child != null; child = child.getNextSibling()) {
+			if (child.getNodeType() == Node.ELEMENT_NODE) {
+				List<Element> elements = result.get(child.getNodeName());
+				if (elements == null) {
+					elements = new ArrayList<Element>();
+					result.put(child.getNodeName(), elements);
+				}
+				elements.add((Element) child);
+			}
+		}
+		return result;
+	}
+
+	private static Set<Node> newNodeSet() {
+		return Collections.newSetFromMap(new IdentityHashMap<Node, Boolean>());
+	}
+
+	private static List<Element> elements(Map<String, List<Element>> elementsByName, String name) {
+		List<Element> elements = elementsByName.get(name);
+		return elements == null ? new ArrayList<Element>(0) : elements;
+	}
+
+	private static final class ElementPair {
+
+		private final Element expected;
+
+		private final Element actual;
+
+		/** Locator of the expected element */
+		private final String locator;
+
+		private ElementPair(Element expected, Element actual, String locator) {
+			this.expected = expected;
+			this.actual = actual;
+			this.locator = locator;
+		}
+	}
+
+}
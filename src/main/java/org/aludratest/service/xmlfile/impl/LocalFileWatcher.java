@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2015 Hamburg Sud and the contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aludratest.service.xmlfile.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Waits for files in a local directory to appear or disappear, based on file system events (e.g. inotify on Linux) instead
+ * of polling. As some platforms and network file systems deliver events late or not at all, the file is additionally checked
+ * every {@link #RECHECK_INTERVAL_MILLIS} milliseconds.
+ */
+final class LocalFileWatcher {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(LocalFileWatcher.class);
+
+	/** Maximum time to wait for a file system event before checking the file again. */
+	static final long RECHECK_INTERVAL_MILLIS = 1000;
+
+	private final File baseDir;
+
+	/**
+	 * Creates a new watcher.
+	 *
+	 * @param baseDir
+	 *            Local directory which file paths are resolved against.
+	 */
+	LocalFileWatcher(File baseDir) {
+		this.baseDir = baseDir;
+	}
+
+	/**
+	 * Resolves a file path against the base directory.
+	 *
+	 * @param filePath
+	 *            Path of the file, relative to the base directory.
+	 * @return The file in the local file system.
+	 */
+	File resolve(String filePath) {
+		return new File(baseDir, filePath);
+	}
+
+	/**
+	 * Waits until the file with the given path exists or does not exist.
+	 *
+	 * @param filePath
+	 *            Path of the file, relative to the base directory.
+	 * @param exists
+	 *            <code>true</code> to wait for the file to exist, <code>false</code> to wait for it to not exist.
+	 * @param timeoutMillis
+	 *            Maximum time to wait, in milliseconds.
+	 * @return <code>true</code> if the file reached the requested state, <code>false</code> if the timeout elapsed.
+	 * @throws IOException
+	 *             If the parent directory of the file cannot be watched, e.g. because it does not exist.
+	 * @throws InterruptedException
+	 *             If the current thread was interrupted while waiting.
+	 */
+	boolean await(String filePath, boolean exists, long timeoutMillis) throws IOException, InterruptedException {
+		long start = System.nanoTime();
+		Path file = resolve(filePath).toPath();
+		Path dir = file.getParent();
+
+		WatchService watchService = FileSystems.getDefault().newWatchService();
+		try {
+			dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE);
+			// check only after registration, so no event can get lost in between
+			long deadline = start + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+			int events = 0;
+			while (Files.exists(file) != exists) {
+				long remaining = deadline - System.nanoTime();
+				if (remaining <= 0) {
+					return false;
+				}
+				WatchKey key = watchService.poll(
+						Math.min(remaining, TimeUnit.MILLISECONDS.toNanos(RECHECK_INTERVAL_MILLIS)), TimeUnit.NANOSECONDS);
+				if (key != null) {
+					// the events themselves are not evaluated, as the file is checked again anyway
+					events += key.pollEvents().size();
+					key.reset();
+				}
+			}
+
+			if (events > 0) {
+				LOGGER.debug("File {} {}, detected by file system event after waiting {} ms", filePath,
+						exists ? "appeared" : "disappeared",
+						Long.valueOf(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)));
+			}
+			return true;
+		}
+		finally {
+			watchService.close();
+		}
+	}
+
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2015 Hamburg Sud and the contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aludratest.service.xmlfile.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.XMLConstants;
+import javax.xml.namespace.NamespaceContext;
+
+import org.aludratest.exception.AutomationException;
+
+/**
+ * Immutable mapping of namespace prefixes to namespace URIs, used to resolve prefixed names in XPath expressions. One
+ * registry is shared by all operations of a service instance, and registries are equal if their mappings are equal, so
+ * expressions compiled with the registry are found in the {@link XPathExpressionCache} on each use. <br>
+ * Prefixes are bound in the expressions only; the prefixes used in the documents do not matter, as names are matched by
+ * namespace URI and local name. This requires the documents to be parsed namespace-aware.
+ */
+public final class NamespaceRegistry implements NamespaceContext {
+
+	/** A registry without any prefix besides the predefined <code>xml</code> and <code>xmlns</code> */
+	public static final NamespaceRegistry EMPTY = new NamespaceRegistry(Collections.<String, String> emptyMap());
+
+	private final Map<String, String> urisByPrefix;
+
+	private NamespaceRegistry(Map<String, String> urisByPrefix) {
+		this.urisByPrefix = urisByPrefix;
+	}
+
+	/**
+	 * Creates a registry containing the given mappings.
+	 * 
+	 * @param urisByPrefix
+	 *            Namespace URIs, mapped by prefix.
+	 * @return The new registry.
+	 */
+	public static NamespaceRegistry of(Map<String, String> urisByPrefix) {
+		Map<String, String> mappings = new LinkedHashMap<String, String>();
+		for (Map.Entry<String, String> entry : urisByPrefix.entrySet()) {
+			String prefix = entry.getKey() == null ? "" : entry.getKey().trim();
+			String uri = entry.getValue() == null ? "" : entry.getValue().trim();
+			if (prefix.length() == 0 || uri.length() == 0) {
+				throw new AutomationException("Namespace prefix and URI must not be empty: " + entry.getKey() + "="
+						+ entry.getValue());
+			}
+			if (XMLConstants.XML_NS_PREFIX.equals(prefix) || XMLConstants.XMLNS_ATTRIBUTE.equals(prefix)) {
+				throw new AutomationException("Namespace prefix " + prefix + " is predefined and cannot be bound");
+			}
+			String previous = mappings.put(prefix, uri);
+			if (previous != null && !previous.equals(uri)) {
+				throw new AutomationException("Namespace prefix " + prefix + " is bound to multiple URIs: " + previous
+						+ ", " + uri);
+			}
+		}
+		return mappings.isEmpty() ? EMPTY : new NamespaceRegistry(Collections.unmodifiableMap(mappings));
+	}
+
+	/**
+	 * Parses a registry definition like <code>soap=http://schemas.xmlsoap.org/soap/envelope/, doc=urn:example</code>. Entries
+	 * are separated by commas, and each entry maps a prefix to a namespace URI with an equals sign.
+	 * 
+	 * @param definition
+	 *            The definition to parse, or <code>null</code>.
+	 * @return The registry, which is empty if the definition is <code>null</code> or blank.
+	 */
+	public static NamespaceRegistry parse(String definition) {
+		if (definition == null || definition.trim().length() == 0) {
+			return EMPTY;
+		}
+		Map<String, String> mappings = new LinkedHashMap<String, String>();
+		for (String entry : definition.split(",")) {
+			if (entry.trim().length() == 0) {
+				continue;
+			}
+			int index = entry.indexOf('=');
+			if (index < 0) {
+				throw new AutomationException("Invalid namespace definition, expected prefix=uri: " + entry.trim());
+			}
+			String prefix = entry.substring(0, index).trim();
+			if (mappings.containsKey(prefix)) {
+				throw new AutomationException("Namespace prefix " + prefix + " is defined more than once");
+			}
+			mappings.put(prefix, entry.substring(index + 1).trim());
+		}
+		return of(mappings);
+	}
+
+	/** @return The registered namespace URIs, mapped by prefix. */
+	public Map<String, String> getMappings() {
+		return urisByPrefix;
+	}
+
+	/** @return <code>true</code> if no prefix is registered. */
+	public boolean isEmpty() {
+		return urisByPrefix.isEmpty();
+	}
+
+	@Override
+	public String getNamespaceURI(String prefix) {
+		if (prefix == null) {
+			throw new IllegalArgumentException("Prefix must not be null");
+		}
+		if (XMLConstants.XML_NS_PREFIX.equals(prefix)) {
+			return XMLConstants.XML_NS_URI;
+		}
+		if (XMLConstants.XMLNS_ATTRIBUTE.equals(prefix)) {
+			return XMLConstants.XMLNS_ATTRIBUTE_NS_URI;
+		}
+		String uri = urisByPrefix.get(prefix);
+		return uri == null ? XMLConstants.NULL_NS_URI : uri;
+	}
+
+	@Override
+	public String getPrefix(String namespaceURI) {
+		Iterator<String> prefixes = getPrefixes(namespaceURI);
+		return prefixes.hasNext() ? prefixes.next() : null;
+	}
+
+	@Override
+	public Iterator<String> getPrefixes(String namespaceURI) {
+		if (namespaceURI == null) {
+			throw new IllegalArgumentException("Namespace URI must not be null");
+		}
+		if (XMLConstants.XML_NS_URI.equals(namespaceURI)) {
+			return Collections.singletonList(XMLConstants.XML_NS_PREFIX).iterator();
+		}
+		if (XMLConstants.XMLNS_ATTRIBUTE_NS_URI.equals(namespaceURI)) {
+			return Collections.singletonList(XMLConstants.XMLNS_ATTRIBUTE).iterator();
+		}
+		List<String> prefixes = new ArrayList<String>();
+		for (Map.Entry<String, String> entry : urisByPrefix.entrySet()) {
+			if (entry.getValue().equals(namespaceURI)) {
+				prefixes.add(entry.getKey());
+			}
+		}
+		return Collections.unmodifiableList(prefixes).iterator();
+	}
+
+	@Override
+	public int hashCode() {
+		return urisByPrefix.hashCode();
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (!(obj instanceof NamespaceRegistry)) {
+			return false;
+		}
+		return urisByPrefix.equals(((NamespaceRegistry) obj).urisByPrefix);
+	}
+
+	@Override
+	public String toString() {
+		return urisByPrefix.toString();
+	}
+
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2015 Hamburg Sud and the contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aludratest.service.xmlfile.impl;
+
+/**
+ * Snapshot of the measurements of one kind of operation, as recorded by {@link XmlFileMetrics}. Percentiles are derived from a
+ * histogram with power-of-two buckets, so they are upper bounds which exceed the exact values by less than a factor of 2.
+ */
+public class OperationStatistics {
+
+	private final String operation;
+
+	private final long count;
+
+	private final long totalNanos;
+
+	private final long maxNanos;
+
+	private final long percentile50Nanos;
+
+	private final long percentile90Nanos;
+
+	private final long percentile99Nanos;
+
+	private final long allocatedBytes;
+
+	OperationStatistics(String operation, long count, long totalNanos, long maxNanos, long percentile50Nanos,
+			long percentile90Nanos, long percentile99Nanos, long allocatedBytes) {
+		this.operation = operation;
+		this.count = count;
+		this.totalNanos = totalNanos;
+		this.maxNanos = maxNanos;
+		this.percentile50Nanos = percentile50Nanos;
+		this.percentile90Nanos = percentile90Nanos;
+		this.percentile99Nanos = percentile99Nanos;
+		this.allocatedBytes = allocatedBytes;
+	}
+
+	/** @return The name of the kind of operation, see {@link XmlFileMetrics.Operation}. */
+	public String getOperation() {
+		return operation;
+	}
+
+	/** @return The number of performed operations. */
+	public long getCount() {
+		return count;
+	}
+
+	/** @return The total duration of all operations, in nanoseconds. */
+	public long getTotalNanos() {
+		return totalNanos;
+	}
+
+	/** @return The mean duration of an operation, in nanoseconds, or <code>0</code> if none has been performed. */
+	public long getMeanNanos() {
+		return count == 0 ? 0 : totalNanos / count;
+	}
+
+	/** @return The longest duration of an operation, in nanoseconds. */
+	public long getMaxNanos() {
+		return maxNanos;
+	}
+
+	/** @return The median duration of an operation, in nanoseconds. */
+	public long getPercentile50Nanos() {
+		return percentile50Nanos;
+	}
+
+	/** @return The 90th percentile of the operation durations, in nanoseconds. */
+	public long getPercentile90Nanos() {
+		return percentile90Nanos;
+	}
+
+	/** @return The 99th percentile of the operation durations, in nanoseconds. */
+	public long getPercentile99Nanos() {
+		return percentile99Nanos;
+	}
+
+	/**
+	 * @return The number of bytes allocated by the calling threads during all operations, or <code>-1</code> if not supported by
+	 *         the JVM. Allocations of helper threads, e.g. for parallel reading, are not included.
+	 */
+	public long getAllocatedBytes() {
+		return allocatedBytes;
+	}
+
+	@Override
+	public String toString() {
+		return operation + ": count=" + count + ", mean=" + getMeanNanos() + "ns, p50=" + percentile50Nanos + "ns, p90="
+				+ percentile90Nanos + "ns, p99=" + percentile99Nanos + "ns, max=" + maxNanos + "ns, allocated="
+				+ allocatedBytes + " bytes";
+	}
+
+}
@@ -0,0 +1,204 @@
+/*
+ * Copyright (C) 2015 Hamburg Sud and the contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aludratest.service.xmlfile.impl;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.util.UUID;
+
+import org.aludratest.exception.AutomationException;
+import org.aludratest.service.file.FileService;
+
+/**
+ * Streams content into a file of a {@link FileService} without materializing it in memory. The content is produced in a
+ * separate thread and handed over to the file service through a pipe with a bounded buffer, so at most
+ * {@link #DEFAULT_BUFFER_SIZE} bytes are held in memory at any time.
+ */
+final class PipedFileWriter {
+
+	/** The size of the pipe buffer between content producer and file service. */
+	static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+	private PipedFileWriter() {
+	}
+
+	/**
+	 * Writes the content provided by the given producer to the given file. The content is written to a temporary file next
+	 * to the target file first, which is moved over the target file only when it is complete. If the producer fails, the
+	 * temporary file is removed, a pre-existing target file is left as it is, and the producer's exception is rethrown. The
+	 * overwrite semantics are the ones of the file service.
+	 *
+	 * @param fileService
+	 *            File service to write the file with.
+	 * @param filePath
+	 *            Path of the file to write.
+	 * @param overwrite
+	 *            Flag that indicates whether a pre-existing file may be overwritten.
+	 * @param producer
+	 *            Producer of the file content.
+	 */
+	static void write(FileService fileService, String filePath, boolean overwrite, ContentProducer producer) {
+		String tempPath = filePath + "." + UUID.randomUUID() + ".tmp";
+		boolean moved = false;
+		try {
+			ProducerPipe pipe = ProducerPipe.start(producer);
+			try {
+				fileService.perform().writeBinaryFile(tempPath, pipe.getInputStream(), true);
+			}
+			finally {
+				// unblocks the producer if the file service stopped reading early
+				pipe.close();
+			}
+
+			Throwable error = pipe.getError();
+			if (error instanceof RuntimeException) {
+				throw (RuntimeException) error;
+			}
+			if (error instanceof Error) {
+				throw (Error) error;
+			}
+			if (error != null) {
+				throw new AutomationException("Could not write " + filePath, error);
+			}
+			fileService.perform().move(tempPath, filePath, overwrite);
+			moved = true;
+		}
+		finally {
+			if (!moved) {
+				deleteQuietly(fileService, tempPath);
+			}
+		}
+	}
+
+	/** Deletes a file if it exists, without masking the exception which caused the deletion. */
+	private static void deleteQuietly(FileService fileService, String filePath) {
+		try {
+			if (fileService.check().exists(filePath)) {
+				fileService.perform().delete(filePath);
+			}
+		}
+		catch (RuntimeException e) {
+			// ignore
+		}
+	}
+
+	private static void closeQuietly(Closeable closeable) {
+		try {
+			closeable.close();
+		}
+		catch (IOException e) {
+			// ignore
+		}
+	}
+
+	/** Produces the content of a file by writing it to an output stream. */
+	interface ContentProducer {
+
+		/**
+		 * Writes the complete content to the given stream. The stream is closed by the caller.
+		 *
+		 * @param out
+		 *            Stream to write the content to.
+		 * @throws Exception
+		 *             If the content could not be produced.
+		 */
+		void writeTo(OutputStream out) throws Exception;
+
+	}
+
+	/**
+	 * A pipe which is fed by a {@link ContentProducer} running in its own thread. The consumer reads the produced content from
+	 * {@link #getInputStream()}.
+	 */
+	static final class ProducerPipe {
+
+		private final PipedInputStream in;
+
+		private Thread producerThread;
+
+		private volatile Throwable error;
+
+		private ProducerPipe() {
+			this.in = new PipedInputStream(DEFAULT_BUFFER_SIZE);
+		}
+
+		/**
+		 * Starts the given producer in a new thread.
+		 *
+		 * @param producer
+		 *            Producer to run.
+		 * @return The pipe which receives the output of the producer.
+		 */
+		static ProducerPipe start(final ContentProducer producer) {
+			final ProducerPipe pipe = new ProducerPipe();
+			final PipedOutputStream out;
+			try {
+				out = new PipedOutputStream(pipe.in);
+			}
+			catch (IOException e) {
+				throw new AutomationException("Could not create pipe", e);
+			}
+
+			pipe.producerThread = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						producer.writeTo(out);
+					}
+					catch (Throwable t) {
+						pipe.error = t;
+					}
+					finally {
+						closeQuietly(out);
+					}
+				}
+			}, "XmlFileService-producer");
+			pipe.producerThread.setDaemon(true);
+			pipe.producerThread.start();
+			return pipe;
+		}
+
+		/** @return The stream providing the produced content. */
+		InputStream getInputStream() {
+			return in;
+		}
+
+		/**
+		 * Closes the reading end of the pipe and waits for the producer to finish. A producer which is still writing fails as
+		 * soon as the pipe is closed.
+		 */
+		void close() {
+			closeQuietly(in);
+			try {
+				producerThread.join();
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		/** @return The exception thrown by the producer, or <code>null</code> if it did not fail. */
+		Throwable getError() {
+			return error;
+		}
+
+	}
+
+}
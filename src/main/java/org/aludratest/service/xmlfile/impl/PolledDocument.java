@@ -0,0 +1,170 @@
+/*
+ * Copyright (C) 2015 Hamburg Sud and the contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aludratest.service.xmlfile.impl;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+import org.aludratest.content.xml.XmlContent;
+import org.aludratest.service.file.FileService;
+import org.w3c.dom.Document;
+
+/**
+ * XML file which is read repeatedly while another process may modify it. The file is only parsed again if it has changed
+ * since the last read: Files which are accessible locally are checked by their size and modification time without reading
+ * them; all other files are read and compared by checksum. As a file can be rewritten with the same size and modification
+ * time within the time stamp granularity of the file system, a local file modified shortly before the previous check is
+ * read and compared by checksum as well.
+ */
+final class PolledDocument {
+
+	private static final String DIGEST_ALGORITHM = "SHA-1";
+
+	/** Coarsest modification time granularity of common file systems (FAT), in milliseconds. */
+	static final long MODIFICATION_TIME_GRANULARITY_MILLIS = 2000;
+
+	private final FileService fileService;
+
+	private final String filePath;
+
+	private final File localFile;
+
+	private final XmlContent contentHandler;
+
+	private long lastLength = -1;
+
+	private long lastModified = -1;
+
+	private long lastChecked;
+
+	private byte[] lastChecksum;
+
+	private int parseCount;
+
+	/**
+	 * Creates a new polled document.
+	 *
+	 * @param fileService
+	 *            File service to read the file with.
+	 * @param filePath
+	 *            Path of the file.
+	 * @param localFile
+	 *            The file in the local file system, or <code>null</code> if it is not accessible locally.
+	 * @param contentHandler
+	 *            Content handler to parse the file with.
+	 */
+	PolledDocument(FileService fileService, String filePath, File localFile, XmlContent contentHandler) {
+		this.fileService = fileService;
+		this.filePath = filePath;
+		this.localFile = localFile;
+		this.contentHandler = contentHandler;
+	}
+
+	/**
+	 * Reads the file if it has changed since the last call.
+	 *
+	 * @return The parsed document, or <code>null</code> if the file does not exist, has not changed, or does not contain
+	 *         well-formed XML, e.g. because it is still being written.
+	 */
+	Document pollChanged() {
+		if (localFile != null && !localFileChanged()) {
+			return null;
+		}
+		if (!fileService.check().exists(filePath)) {
+			lastChecksum = null;
+			return null;
+		}
+
+		byte[] data;
+		try {
+			data = read();
+		}
+		catch (IOException e) {
+			return null;
+		}
+		catch (RuntimeException e) {
+			// the file has been removed after the existence check
+			return null;
+		}
+		byte[] checksum = newDigest().digest(data);
+		if (Arrays.equals(checksum, lastChecksum)) {
+			return null;
+		}
+		lastChecksum = checksum;
+
+		parseCount++;
+		try {
+			return contentHandler.readDocument(new ByteArrayInputStream(data));
+		}
+		catch (RuntimeException e) {
+			// incomplete or invalid content; the next change of the file is parsed again
+			return null;
+		}
+	}
+
+	/** @return The number of times the file has been parsed. */
+	int getParseCount() {
+		return parseCount;
+	}
+
+	private boolean localFileChanged() {
+		long now = System.currentTimeMillis();
+		long length = localFile.length();
+		long modified = localFile.lastModified();
+		// a rewrite after the previous check may have got the same modification time if it was that recent
+		boolean recentlyModified = modified >= lastChecked - MODIFICATION_TIME_GRANULARITY_MILLIS;
+		lastChecked = now;
+		if (length == lastLength && modified == lastModified && !recentlyModified) {
+			return false;
+		}
+		lastLength = length;
+		lastModified = modified;
+		return true;
+	}
+
+	private byte[] read() throws IOException {
+		InputStream in = fileService.perform().getInputStreamForBinaryFile(filePath);
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buffer = new byte[8192];
+			int read;
+			while ((read = in.read(buffer)) != -1) {
+				out.write(buffer, 0, read);
+			}
+			return out.toByteArray();
+		}
+		finally {
+			in.close();
+		}
+	}
+
+	private static MessageDigest newDigest() {
+		try {
+			return MessageDigest.getInstance(DIGEST_ALGORITHM);
+		}
+		catch (NoSuchAlgorithmException e) {
+			// SHA-1 is always available
+			throw new IllegalStateException(e);
+		}
+	}
+
+}
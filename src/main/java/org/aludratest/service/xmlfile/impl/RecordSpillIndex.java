@@ -0,0 +1,240 @@
+/*
+ * Copyright (C) 2015 Hamburg Sud and the contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aludratest.service.xmlfile.impl;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import org.aludratest.service.xmlfile.impl.RecordStreamReader.Record;
+
+/**
+ * Disk-backed index of records which are waiting for their counterpart in the other document of a comparison. Records are
+ * distributed to hash partitions by their key, so all records with the same key end up in the same partition of both sides,
+ * and each partition can be matched on its own.
+ */
+final class RecordSpillIndex {
+
+	/** Side of the records of the expected document */
+	static final int EXPECTED = 0;
+
+	/** Side of the records of the actual document */
+	static final int ACTUAL = 1;
+
+	private final File dir;
+
+	private final int partitions;
+
+	private final int level;
+
+	private final DataOutputStream[][] outputs;
+
+	private final long[][] sizes;
+
+	private long count;
+
+	/**
+	 * Creates a new, empty index.
+	 *
+	 * @param dir
+	 *            Directory for the partition files. It is created if it does not exist.
+	 * @param partitions
+	 *            Number of partitions.
+	 * @param level
+	 *            Partitioning level, which changes the hash function, so the records of one partition of an index are
+	 *            spread across all partitions of an index with another level.
+	 */
+	RecordSpillIndex(File dir, int partitions, int level) {
+		this.dir = dir;
+		this.partitions = partitions;
+		this.level = level;
+		this.outputs = new DataOutputStream[2][partitions];
+		this.sizes = new long[2][partitions];
+		dir.mkdirs();
+	}
+
+	/** @return The number of partitions. */
+	int getPartitions() {
+		return partitions;
+	}
+
+	/** @return The partitioning level. */
+	int getLevel() {
+		return level;
+	}
+
+	/** @return The number of records added to this index. */
+	long getCount() {
+		return count;
+	}
+
+	/**
+	 * @param side
+	 *            {@link #EXPECTED} or {@link #ACTUAL}.
+	 * @param partition
+	 *            Index of the partition.
+	 * @return The size of the partition file, in bytes.
+	 */
+	long getSize(int side, int partition) {
+		return sizes[side][partition];
+	}
+
+	/**
+	 * Adds a record to the index.
+	 *
+	 * @param side
+	 *            {@link #EXPECTED} or {@link #ACTUAL}.
+	 * @param record
+	 *            Record to add.
+	 * @throws IOException
+	 *             If the record could not be written.
+	 */
+	void add(int side, Record record) throws IOException {
+		int partition = partition(record.key);
+		DataOutputStream out = outputs[side][partition];
+		if (out == null) {
+			out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file(side, partition))));
+			outputs[side][partition] = out;
+		}
+		int before = out.size();
+		writeString(out, record.key);
+		out.writeLong(record.ordinal);
+		writeString(out, record.content);
+		sizes[side][partition] += out.size() - before;
+		count++;
+	}
+
+	/**
+	 * Finishes writing, so the partitions can be read.
+	 *
+	 * @throws IOException
+	 *             If a partition file could not be written.
+	 */
+	void finishWriting() throws IOException {
+		for (DataOutputStream[] sideOutputs : outputs) {
+			for (int i = 0; i < sideOutputs.length; i++) {
+				if (sideOutputs[i] != null) {
+					sideOutputs[i].close();
+					sideOutputs[i] = null;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Opens a partition for reading. Requires {@link #finishWriting()} to be called before.
+	 *
+	 * @param side
+	 *            {@link #EXPECTED} or {@link #ACTUAL}.
+	 * @param partition
+	 *            Index of the partition.
+	 * @return A reader for the records of the partition.
+	 * @throws IOException
+	 *             If the partition file could not be opened.
+	 */
+	PartitionReader open(int side, int partition) throws IOException {
+		File file = file(side, partition);
+		if (!file.exists()) {
+			return new PartitionReader(null);
+		}
+		return new PartitionReader(new DataInputStream(new BufferedInputStream(new FileInputStream(file))));
+	}
+
+	/** Deletes all partition files, and the directory. */
+	void delete() {
+		try {
+			finishWriting();
+		}
+		catch (IOException e) {
+			// files are deleted anyway
+		}
+		for (int side = 0; side < 2; side++) {
+			for (int i = 0; i < partitions; i++) {
+				file(side, i).delete();
+			}
+		}
+		dir.delete();
+	}
+
+	private int partition(String key) {
+		int h = key.hashCode() + level * 0x9E3779B9;
+		// spread the bits, as String hash codes of similar keys differ only in their lower bits
+		h ^= h >>> 16;
+		h *= 0x85EBCA6B;
+		h ^= h >>> 13;
+		return (h & Integer.MAX_VALUE) % partitions;
+	}
+
+	private File file(int side, int partition) {
+		return new File(dir, (side == EXPECTED ? "e" : "a") + partition + ".bin");
+	}
+
+	private static void writeString(DataOutputStream out, String s) throws IOException {
+		// writeUTF() is limited to 64 KB
+		byte[] bytes = s.getBytes("UTF-8");
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	/** Reads the records of one partition file. */
+	static final class PartitionReader {
+
+		private final DataInputStream in;
+
+		private PartitionReader(DataInputStream in) {
+			this.in = in;
+		}
+
+		/**
+		 * @return The next record of the partition, or <code>null</code> if all records have been read.
+		 * @throws IOException
+		 *             If the partition file could not be read.
+		 */
+		Record next() throws IOException {
+			if (in == null) {
+				return null;
+			}
+			String key;
+			try {
+				key = readString(in);
+			}
+			catch (EOFException e) {
+				return null;
+			}
+			long ordinal = in.readLong();
+			return new Record(key, ordinal, readString(in));
+		}
+
+		void close() throws IOException {
+			if (in != null) {
+				in.close();
+			}
+		}
+
+		private static String readString(DataInputStream in) throws IOException {
+			byte[] bytes = new byte[in.readInt()];
+			in.readFully(bytes);
+			return new String(bytes, "UTF-8");
+		}
+	}
+
+}
@@ -0,0 +1,406 @@
+/*
+ * Copyright (C) 2015 Hamburg Sud and the contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aludratest.service.xmlfile.impl;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Reads an XML document which mainly consists of a list of records with a StAX parser. The document can be read either as a
+ * sequence of records, which are serialized to a canonical string each, or as a sequence of the nodes outside of records.
+ * Only one record is held in memory at a time. Names of nodes in a namespace are written as <code>{uri}local</code>, and
+ * namespace declarations are left out, so documents which only differ in their prefixes are read equally.
+ */
+final class RecordStreamReader {
+
+	private static final XMLInputFactory INPUT_FACTORY = createInputFactory();
+
+	private final XMLStreamReader reader;
+
+	private final String[] recordPath;
+
+	private final boolean recordAtAnyDepth;
+
+	private final List<String> keySteps;
+
+	private final String keyAttribute;
+
+	private final boolean whitespaceRelevant;
+
+	/** Element names of the open elements outside of records, <code>null</code> for elements in a namespace */
+	private final List<String> path = new ArrayList<String>();
+
+	/** Locators of the open elements outside of records */
+	private final List<String> locators = new ArrayList<String>();
+
+	/** Per open element, the number of child elements by name, for positional locators */
+	private final List<Map<String, Integer>> childCounts = new ArrayList<Map<String, Integer>>();
+
+	/** Pending node items of the current element, i.e. its attributes */
+	private final List<NodeItem> pendingItems = new ArrayList<NodeItem>();
+
+	/** If <code>true</code>, the current event of the reader has not been processed yet */
+	private boolean eventPending;
+
+	private long recordCount;
+
+	/**
+	 * Creates a new reader.
+	 *
+	 * @param in
+	 *            Stream providing the document.
+	 * @param recordPath
+	 *            Absolute path of the record elements, like <code>/export/record</code>, or a path like
+	 *            <code>//record</code> or <code>//records/record</code> which matches the end of the element path.
+	 * @param keyPath
+	 *            Path of the record key relative to the record element, or <code>null</code>.
+	 * @param whitespaceRelevant
+	 *            If <code>false</code>, leading and trailing whitespace of texts is ignored.
+	 * @throws XMLStreamException
+	 *             If the stream cannot be parsed.
+	 */
+	RecordStreamReader(InputStream in, String recordPath, String keyPath, boolean whitespaceRelevant)
+			throws XMLStreamException {
+		this.recordAtAnyDepth = recordPath.startsWith("//");
+		this.recordPath = (recordAtAnyDepth ? recordPath.substring(2) : recordPath.substring(1)).split("/");
+		if (keyPath == null) {
+			this.keySteps = null;
+			this.keyAttribute = null;
+		}
+		else {
+			int attributeIndex = keyPath.lastIndexOf('@');
+			this.keyAttribute = attributeIndex < 0 ? null : keyPath.substring(attributeIndex + 1);
+			String elementPath = attributeIndex < 0 ? keyPath : keyPath.substring(0, attributeIndex);
+			if (elementPath.endsWith("/")) {
+				elementPath = elementPath.substring(0, elementPath.length() - 1);
+			}
+			this.keySteps = elementPath.length() == 0 ? Collections.<String> emptyList() : Arrays.asList(elementPath.split("/"));
+		}
+		this.whitespaceRelevant = whitespaceRelevant;
+		this.reader = INPUT_FACTORY.createXMLStreamReader(in);
+		this.childCounts.add(new HashMap<String, Integer>());
+	}
+
+	/**
+	 * Reads the next record, skipping all content outside of records.
+	 *
+	 * @return The next record, or <code>null</code> if the end of the document has been reached.
+	 * @throws XMLStreamException
+	 *             If the document is not well-formed.
+	 */
+	Record nextRecord() throws XMLStreamException {
+		while (reader.hasNext()) {
+			int event = reader.next();
+			if (event == XMLStreamConstants.START_ELEMENT) {
+				path.add(StreamingXPath.name(reader.getNamespaceURI(), reader.getLocalName()));
+				if (isRecord()) {
+					path.remove(path.size() - 1);
+					return readRecord();
+				}
+			}
+			else if (event == XMLStreamConstants.END_ELEMENT) {
+				path.remove(path.size() - 1);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Reads the next node outside of records, i.e. an element, attribute or non-empty text. Records are skipped.
+	 *
+	 * @return The next node, or <code>null</code> if the end of the document has been reached.
+	 * @throws XMLStreamException
+	 *             If the document is not well-formed.
+	 */
+	NodeItem nextNode() throws XMLStreamException {
+		while (true) {
+			if (!pendingItems.isEmpty()) {
+				return pendingItems.remove(0);
+			}
+			int event;
+			if (eventPending) {
+				event = reader.getEventType();
+				eventPending = false;
+			}
+			else if (reader.hasNext()) {
+				event = reader.next();
+			}
+			else {
+				return null;
+			}
+
+			if (event == XMLStreamConstants.START_ELEMENT) {
+				path.add(StreamingXPath.name(reader.getNamespaceURI(), reader.getLocalName()));
+				if (isRecord()) {
+					path.remove(path.size() - 1);
+					skipElement();
+					continue;
+				}
+				String name = canonicalName(reader.getNamespaceURI(), reader.getLocalName());
+				String locator = childLocator(name);
+				locators.add(locator);
+				childCounts.add(new HashMap<String, Integer>());
+				for (Map.Entry<String, String> attribute : attributes().entrySet()) {
+					pendingItems.add(new NodeItem(locator + "/@" + attribute.getKey(), "attribute value", attribute.getValue()));
+				}
+				return new NodeItem(locator, "element", name);
+			}
+			else if (event == XMLStreamConstants.END_ELEMENT) {
+				path.remove(path.size() - 1);
+				locators.remove(locators.size() - 1);
+				childCounts.remove(childCounts.size() - 1);
+			}
+			else if (isText(event) && !locators.isEmpty()) {
+				String text = normalize(readText());
+				// reading the text moved the reader to the next event
+				eventPending = true;
+				if (text.length() > 0) {
+					return new NodeItem(locators.get(locators.size() - 1) + "/text()", "element text", text);
+				}
+			}
+		}
+	}
+
+	/** @return The number of records read so far. */
+	long getRecordCount() {
+		return recordCount;
+	}
+
+	void close() {
+		try {
+			reader.close();
+		}
+		catch (XMLStreamException e) {
+			// ignore
+		}
+	}
+
+	private boolean isRecord() {
+		// a path starting with // matches the end of the element path
+		int offset = path.size() - recordPath.length;
+		if (offset < 0 || (offset > 0 && !recordAtAnyDepth)) {
+			return false;
+		}
+		for (int i = 0; i < recordPath.length; i++) {
+			if (!recordPath[i].equals(path.get(offset + i))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/** Serializes the current record element canonically, and extracts its key. */
+	private Record readRecord() throws XMLStreamException {
+		recordCount++;
+		StringBuilder content = new StringBuilder();
+		List<String> relativePath = new ArrayList<String>();
+		String key = null;
+		StringBuilder keyText = null;
+		int keyDepth = -1;
+
+		int depth = 0;
+		int event = XMLStreamConstants.START_ELEMENT;
+		do {
+			if (event == XMLStreamConstants.START_ELEMENT) {
+				String name = canonicalName(reader.getNamespaceURI(), reader.getLocalName());
+				if (depth > 0) {
+					relativePath.add(StreamingXPath.name(reader.getNamespaceURI(), reader.getLocalName()));
+				}
+				depth++;
+				Map<String, String> attributes = attributes();
+				content.append('<').append(name);
+				for (Map.Entry<String, String> attribute : attributes.entrySet()) {
+					content.append(' ').append(attribute.getKey()).append("=\"");
+					escape(attribute.getValue(), content);
+					content.append('"');
+				}
+				content.append('>');
+
+				if (key == null && keyText == null && keySteps != null && relativePath.equals(keySteps)) {
+					if (keyAttribute != null) {
+						key = attributes.get(keyAttribute);
+					}
+					else {
+						keyText = new StringBuilder();
+						keyDepth = depth;
+					}
+				}
+			}
+			else if (event == XMLStreamConstants.END_ELEMENT) {
+				content.append("</").append(canonicalName(reader.getNamespaceURI(), reader.getLocalName())).append('>');
+				if (keyText != null && depth == keyDepth) {
+					key = normalize(keyText.toString());
+					keyText = null;
+				}
+				depth--;
+				if (depth > 0) {
+					relativePath.remove(relativePath.size() - 1);
+				}
+			}
+			else if (isText(event)) {
+				String text = normalize(reader.getText());
+				escape(text, content);
+				if (keyText != null) {
+					keyText.append(reader.getText());
+				}
+			}
+			if (depth > 0) {
+				event = reader.next();
+			}
+		}
+		while (depth > 0);
+
+		return new Record(key, recordCount, content.toString());
+	}
+
+	private void skipElement() throws XMLStreamException {
+		recordCount++;
+		int depth = 1;
+		while (depth > 0) {
+			int event = reader.next();
+			if (event == XMLStreamConstants.START_ELEMENT) {
+				depth++;
+			}
+			else if (event == XMLStreamConstants.END_ELEMENT) {
+				depth--;
+			}
+		}
+	}
+
+	private String childLocator(String name) {
+		Map<String, Integer> counts = childCounts.get(childCounts.size() - 1);
+		Integer count = counts.get(name);
+		int index = count == null ? 1 : count.intValue() + 1;
+		counts.put(name, Integer.valueOf(index));
+		String parent = locators.isEmpty() ? "" : locators.get(locators.size() - 1);
+		return parent + "/" + name + "[" + index + "]";
+	}
+
+	private String readText() throws XMLStreamException {
+		StringBuilder sb = new StringBuilder(reader.getText());
+		while (isText(reader.next())) {
+			sb.append(reader.getText());
+		}
+		return sb.toString();
+	}
+
+	private Map<String, String> attributes() {
+		Map<String, String> attributes = new TreeMap<String, String>();
+		for (int i = 0; i < reader.getAttributeCount(); i++) {
+			attributes.put(canonicalName(reader.getAttributeNamespace(i), reader.getAttributeLocalName(i)),
+					reader.getAttributeValue(i));
+		}
+		return attributes;
+	}
+
+	private String normalize(String text) {
+		return whitespaceRelevant ? text : text.trim();
+	}
+
+	private static boolean isText(int event) {
+		return event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA
+				|| event == XMLStreamConstants.SPACE;
+	}
+
+	private static void escape(String text, StringBuilder sb) {
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			switch (c) {
+				case '<':
+					sb.append("&lt;");
+					break;
+				case '>':
+					sb.append("&gt;");
+					break;
+				case '&':
+					sb.append("&amp;");
+					break;
+				case '"':
+					sb.append("&quot;");
+					break;
+				default:
+					sb.append(c);
+			}
+		}
+	}
+
+	/**
+	 * @return The local name of a node in no namespace, or the local name qualified by the namespace URI in the form
+	 *         <code>{uri}local</code>, so names compare equal independent of the prefixes bound to the namespaces.
+	 */
+	private static String canonicalName(String namespaceUri, String localName) {
+		return namespaceUri == null || namespaceUri.length() == 0 ? localName : "{" + namespaceUri + "}" + localName;
+	}
+
+	private static XMLInputFactory createInputFactory() {
+		XMLInputFactory factory = XMLInputFactory.newInstance();
+		factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+		factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+		return factory;
+	}
+
+	/** A record, serialized canonically. */
+	static final class Record {
+
+		/** The key of the record, or <code>null</code> if it has none */
+		final String key;
+
+		/** The one-based position of the record in its document */
+		final long ordinal;
+
+		final String content;
+
+		Record(String key, long ordinal, String content) {
+			this.key = key;
+			this.ordinal = ordinal;
+			this.content = content;
+		}
+
+		/** @return The estimated heap size of this record, in characters. */
+		int size() {
+			return content.length() + (key == null ? 0 : key.length()) + 32;
+		}
+	}
+
+	/** A node outside of records. */
+	static final class NodeItem {
+
+		final String locator;
+
+		/** Classifier of the node, as used in XML diff details */
+		final String classifier;
+
+		final String value;
+
+		NodeItem(String locator, String classifier, String value) {
+			this.locator = locator;
+			this.classifier = classifier;
+			this.value = value;
+		}
+	}
+
+}
@@ -0,0 +1,311 @@
+/*
+ * Copyright (C) 2015 Hamburg Sud and the contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aludratest.service.xmlfile.impl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.aludratest.content.xml.XmlContent;
+import org.aludratest.exception.AutomationException;
+import org.aludratest.service.file.FileService;
+import org.w3c.dom.Document;
+
+/**
+ * Content-addressed cache of parsed reference documents. Documents are keyed by the checksum of their raw file contents, so a
+ * modified file is never served from the cache. The cache is bounded by an estimated memory budget and evicts the least
+ * recently used documents first. Callers always receive a deep copy of the cached document, so cached references cannot be
+ * modified by tests.
+ */
+public class ReferenceDocumentCache {
+
+	/** Rough factor between the raw file size and the heap size of the parsed DOM */
+	static final int DOM_SIZE_FACTOR = 8;
+
+	private static final String DIGEST_ALGORITHM = "SHA-1";
+
+	private final FileService fileService;
+
+	private final XmlContent contentHandler;
+
+	private final long memoryBudget;
+
+	private long usedMemory;
+
+	/** Cached documents by content checksum, in access order */
+	private final LinkedHashMap<String, Entry> documents = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+
+	/** Last known content checksum per file path */
+	private final Map<String, String> checksumsByPath = new HashMap<String, String>();
+
+	private final AtomicLong hits = new AtomicLong();
+
+	private final AtomicLong misses = new AtomicLong();
+
+	/**
+	 * Creates a new cache.
+	 *
+	 * @param fileService
+	 *            File service to read documents with.
+	 * @param contentHandler
+	 *            Content handler to parse documents with.
+	 * @param memoryBudget
+	 *            Maximum estimated heap size of all cached documents, in bytes. If <code>0</code> or less, nothing is cached.
+	 */
+	public ReferenceDocumentCache(FileService fileService, XmlContent contentHandler, long memoryBudget) {
+		this.fileService = fileService;
+		this.contentHandler = contentHandler;
+		this.memoryBudget = memoryBudget;
+	}
+
+	/**
+	 * Returns a copy of the parsed document at the given path, parsing it only if its current contents are not cached yet.
+	 *
+	 * @param filePath
+	 *            Path of the document to read.
+	 * @return A private copy of the parsed document.
+	 */
+	public Document getDocument(String filePath) {
+		if (memoryBudget <= 0) {
+			return parse(filePath, null);
+		}
+
+		String knownChecksum;
+		synchronized (this) {
+			knownChecksum = checksumsByPath.get(filePath);
+		}
+
+		if (knownChecksum != null) {
+			// the file has been seen before, so a hit is likely: checksum the contents without parsing them
+			ChecksumResult checksum = checksum(filePath);
+			Document cached = lookup(filePath, checksum.checksum);
+			if (cached != null) {
+				return cached;
+			}
+		}
+
+		// unknown or changed file: parse and checksum in one pass
+		misses.incrementAndGet();
+		ChecksumResult checksum = new ChecksumResult();
+		Document document = parse(filePath, checksum);
+		if (!store(filePath, checksum, document)) {
+			// nobody else holds the document, so it needs no copy
+			return document;
+		}
+		synchronized (document) {
+			return (Document) document.cloneNode(true);
+		}
+	}
+
+	/** @return The number of requests which were served from the cache. */
+	public long getHitCount() {
+		return hits.get();
+	}
+
+	/** @return The number of requests which required parsing the document. */
+	public long getMissCount() {
+		return misses.get();
+	}
+
+	/** @return The number of currently cached documents. */
+	public synchronized int size() {
+		return documents.size();
+	}
+
+	/** Removes all cached documents. */
+	public synchronized void clear() {
+		documents.clear();
+		checksumsByPath.clear();
+		usedMemory = 0;
+	}
+
+	private Document lookup(String filePath, String checksum) {
+		Document cached;
+		synchronized (this) {
+			checksumsByPath.put(filePath, checksum);
+			Entry entry = documents.get(checksum);
+			if (entry == null) {
+				return null;
+			}
+			cached = entry.document;
+		}
+		hits.incrementAndGet();
+		// cloning must not happen concurrently with other clones of the same document, as DOM reads are not thread-safe
+		synchronized (cached) {
+			return (Document) cached.cloneNode(true);
+		}
+	}
+
+	/** @return <code>true</code> if the document has been cached, <code>false</code> if it is too large or cached already. */
+	private synchronized boolean store(String filePath, ChecksumResult checksum, Document document) {
+		checksumsByPath.put(filePath, checksum.checksum);
+		long size = checksum.length * DOM_SIZE_FACTOR;
+		if (size > memoryBudget || documents.containsKey(checksum.checksum)) {
+			return false;
+		}
+
+		Iterator<Entry> iter = documents.values().iterator();
+		while (usedMemory + size > memoryBudget && iter.hasNext()) {
+			usedMemory -= iter.next().size;
+			iter.remove();
+		}
+
+		documents.put(checksum.checksum, new Entry(document, size));
+		usedMemory += size;
+		return true;
+	}
+
+	private Document parse(String filePath, ChecksumResult checksum) {
+		InputStream in = fileService.perform().getInputStreamForBinaryFile(filePath);
+		try {
+			if (checksum == null) {
+				return contentHandler.readDocument(in);
+			}
+			CountingDigestInputStream din = new CountingDigestInputStream(in, newDigest());
+			Document document = contentHandler.readDocument(din);
+			// the parser may stop before the end of the file, e.g. before trailing whitespace
+			din.consumeRemaining();
+			checksum.checksum = din.getChecksum();
+			checksum.length = din.getLength();
+			return document;
+		}
+		catch (IOException e) {
+			throw new AutomationException("Could not read " + filePath, e);
+		}
+		finally {
+			closeQuietly(in);
+		}
+	}
+
+	private ChecksumResult checksum(String filePath) {
+		InputStream in = fileService.perform().getInputStreamForBinaryFile(filePath);
+		try {
+			CountingDigestInputStream din = new CountingDigestInputStream(in, newDigest());
+			din.consumeRemaining();
+			ChecksumResult result = new ChecksumResult();
+			result.checksum = din.getChecksum();
+			result.length = din.getLength();
+			return result;
+		}
+		catch (IOException e) {
+			throw new AutomationException("Could not read " + filePath, e);
+		}
+		finally {
+			closeQuietly(in);
+		}
+	}
+
+	private static MessageDigest newDigest() {
+		try {
+			return MessageDigest.getInstance(DIGEST_ALGORITHM);
+		}
+		catch (NoSuchAlgorithmException e) {
+			// SHA-1 is always available
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static void closeQuietly(InputStream in) {
+		try {
+			in.close();
+		}
+		catch (IOException e) {
+			// ignore
+		}
+	}
+
+	private static final class Entry {
+
+		private final Document document;
+
+		private final long size;
+
+		private Entry(Document document, long size) {
+			this.document = document;
+			this.size = size;
+		}
+	}
+
+	private static final class ChecksumResult {
+
+		private String checksum;
+
+		private long length;
+
+	}
+
+	/** Computes a digest of all bytes read, and counts them. */
+	private static final class CountingDigestInputStream extends DigestInputStream {
+
+		private long length;
+
+		private CountingDigestInputStream(InputStream in, MessageDigest digest) {
+			super(in, digest);
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = super.read();
+			if (b != -1) {
+				length++;
+			}
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int read = super.read(b, off, len);
+			if (read > 0) {
+				length += read;
+			}
+			return read;
+		}
+
+		@Override
+		public void close() {
+			// closed by the owner of the underlying stream, as the parser may close its input early
+		}
+
+		void consumeRemaining() throws IOException {
+			byte[] buffer = new byte[8192];
+			while (read(buffer, 0, buffer.length) != -1) {
+				// only digest the data
+			}
+		}
+
+		long getLength() {
+			return length;
+		}
+
+		String getChecksum() {
+			byte[] digest = getMessageDigest().digest();
+			StringBuilder sb = new StringBuilder(digest.length * 2 + 20);
+			for (byte b : digest) {
+				sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+			}
+			// the length makes checksum collisions between files of different size impossible
+			return sb.append('-').append(length).toString();
+		}
+	}
+
+}
@@ -0,0 +1,408 @@
+/*
+ * Copyright (C) 2015 Hamburg Sud and the contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aludratest.service.xmlfile.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.stream.XMLStreamException;
+
+import org.aludratest.content.xml.XmlDiffDetail;
+import org.aludratest.content.xml.util.DatabeneXmlDiffDetail;
+import org.aludratest.service.xmlfile.XmlRecordDiff;
+import org.aludratest.service.xmlfile.XmlRecordDiffSettings;
+import org.aludratest.service.xmlfile.impl.RecordSpillIndex.PartitionReader;
+import org.aludratest.service.xmlfile.impl.RecordStreamReader.NodeItem;
+import org.aludratest.service.xmlfile.impl.RecordStreamReader.Record;
+import org.databene.formats.compare.DiffDetailType;
+
+/**
+ * Compares two record-based XML documents with StAX readers, so memory usage does not depend on the document size. The
+ * content outside of records is compared node by node in a first pass. In a second pass, records are read from both
+ * documents in lockstep and matched by position or by key. Keyed records whose counterpart has not been read yet are kept in
+ * memory up to a limit, and spilled to a disk-backed hash index beyond; spilled records are matched partition by partition
+ * after both documents have been read.
+ */
+final class StreamingRecordDiffer {
+
+	private static final int PARTITIONS = 64;
+
+	/** Maximum partitioning level; beyond, partitions are matched in memory regardless of their size */
+	private static final int MAX_LEVEL = 3;
+
+	private final XmlRecordDiffSettings settings;
+
+	private final long memoryLimit;
+
+	private final List<XmlDiffDetail> details = new ArrayList<XmlDiffDetail>();
+
+	private long differenceCount;
+
+	private long matchedRecords;
+
+	private long spilledRecords;
+
+	/**
+	 * Creates a new differ. Each differ can only be used for one comparison.
+	 *
+	 * @param settings
+	 *            Settings describing the records.
+	 * @param memoryLimit
+	 *            Estimated heap size, in bytes, of keyed records to keep in memory before spilling them to disk.
+	 */
+	StreamingRecordDiffer(XmlRecordDiffSettings settings, long memoryLimit) {
+		this.settings = settings;
+		this.memoryLimit = memoryLimit;
+	}
+
+	/**
+	 * Compares two documents.
+	 *
+	 * @param expected
+	 *            Source of the expected document.
+	 * @param actual
+	 *            Source of the actual document.
+	 * @return The differences.
+	 * @throws XMLStreamException
+	 *             If a document is not well-formed XML.
+	 * @throws IOException
+	 *             If a document could not be read, or spilled records could not be written.
+	 */
+	XmlRecordDiff diff(DocumentSource expected, DocumentSource actual) throws XMLStreamException, IOException {
+		compareNodes(expected, actual);
+
+		InputStream expectedIn = expected.open();
+		InputStream actualIn = null;
+		try {
+			actualIn = actual.open();
+			RecordStreamReader expectedReader = createReader(expectedIn);
+			RecordStreamReader actualReader = createReader(actualIn);
+			if (settings.getKeyPath() == null) {
+				compareOrderedRecords(expectedReader, actualReader);
+			}
+			else {
+				compareKeyedRecords(expectedReader, actualReader);
+			}
+			return new XmlRecordDiff(details, differenceCount, expectedReader.getRecordCount(), actualReader.getRecordCount(),
+					matchedRecords, spilledRecords);
+		}
+		finally {
+			expectedIn.close();
+			if (actualIn != null) {
+				actualIn.close();
+			}
+		}
+	}
+
+	private void compareNodes(DocumentSource expected, DocumentSource actual) throws XMLStreamException, IOException {
+		InputStream expectedIn = expected.open();
+		InputStream actualIn = null;
+		try {
+			actualIn = actual.open();
+			RecordStreamReader expectedReader = createReader(expectedIn);
+			RecordStreamReader actualReader = createReader(actualIn);
+			NodeItem e = expectedReader.nextNode();
+			NodeItem a = actualReader.nextNode();
+			while (e != null && a != null) {
+				if (e.locator.equals(a.locator)) {
+					if (!e.value.equals(a.value)) {
+						report(e.value, a.value, e.classifier, DiffDetailType.DIFFERENT, e.locator, a.locator);
+					}
+					e = expectedReader.nextNode();
+					a = actualReader.nextNode();
+				}
+				else if (!"element".equals(e.classifier)) {
+					// attribute or text only exists in the expected document
+					report(e.value, null, e.classifier, DiffDetailType.MISSING, e.locator, null);
+					e = expectedReader.nextNode();
+				}
+				else if (!"element".equals(a.classifier)) {
+					report(null, a.value, a.classifier, DiffDetailType.UNEXPECTED, null, a.locator);
+					a = actualReader.nextNode();
+				}
+				else {
+					// the element structure diverges, so all further nodes would be reported as different
+					report(e.value, a.value, e.classifier, DiffDetailType.DIFFERENT, e.locator, a.locator);
+					return;
+				}
+			}
+			for (; e != null; e = expectedReader.nextNode()) {
+				report(e.value, null, e.classifier, DiffDetailType.MISSING, e.locator, null);
+			}
+			for (; a != null; a = actualReader.nextNode()) {
+				report(null, a.value, a.classifier, DiffDetailType.UNEXPECTED, null, a.locator);
+			}
+		}
+		finally {
+			expectedIn.close();
+			if (actualIn != null) {
+				actualIn.close();
+			}
+		}
+	}
+
+	private void compareOrderedRecords(RecordStreamReader expectedReader, RecordStreamReader actualReader)
+			throws XMLStreamException {
+		Record e = expectedReader.nextRecord();
+		Record a = actualReader.nextRecord();
+		while (e != null || a != null) {
+			if (e != null && a != null) {
+				compareRecords(e, a);
+			}
+			else if (e != null) {
+				report(e.content, null, "record", DiffDetailType.MISSING, locator(e), null);
+			}
+			else {
+				report(null, a.content, "record", DiffDetailType.UNEXPECTED, null, locator(a));
+			}
+			e = e == null ? null : expectedReader.nextRecord();
+			a = a == null ? null : actualReader.nextRecord();
+		}
+	}
+
+	private void compareKeyedRecords(RecordStreamReader expectedReader, RecordStreamReader actualReader)
+			throws XMLStreamException, IOException {
+		PendingRecords expectedPending = new PendingRecords();
+		PendingRecords actualPending = new PendingRecords();
+		RecordSpillIndex index = null;
+		try {
+			Record e = expectedReader.nextRecord();
+			Record a = actualReader.nextRecord();
+			while (e != null || a != null) {
+				if (e != null) {
+					match(withKey(e), expectedPending, actualPending, true);
+					e = expectedReader.nextRecord();
+				}
+				if (a != null) {
+					match(withKey(a), actualPending, expectedPending, false);
+					a = actualReader.nextRecord();
+				}
+				if (expectedPending.size + actualPending.size > memoryLimit) {
+					if (index == null) {
+						index = new RecordSpillIndex(Files.createTempDirectory("xml-record-diff").toFile(), PARTITIONS, 0);
+					}
+					spill(expectedPending, index, RecordSpillIndex.EXPECTED);
+					spill(actualPending, index, RecordSpillIndex.ACTUAL);
+				}
+			}
+
+			if (index == null) {
+				reportUnmatched(expectedPending.records, actualPending.records);
+			}
+			else {
+				spill(expectedPending, index, RecordSpillIndex.EXPECTED);
+				spill(actualPending, index, RecordSpillIndex.ACTUAL);
+				spilledRecords = index.getCount();
+				index.finishWriting();
+				for (int i = 0; i < index.getPartitions(); i++) {
+					matchPartition(index, i);
+				}
+			}
+		}
+		finally {
+			if (index != null) {
+				index.delete();
+			}
+		}
+	}
+
+	/** Matches a record with the pending records of the other document, or adds it to the pending records of its own. */
+	private void match(Record record, PendingRecords own, PendingRecords other, boolean expected) {
+		Record counterpart = other.remove(record.key);
+		if (counterpart == null) {
+			own.add(record);
+		}
+		else if (expected) {
+			compareRecords(record, counterpart);
+		}
+		else {
+			compareRecords(counterpart, record);
+		}
+	}
+
+	private void spill(PendingRecords pending, RecordSpillIndex index, int side) throws IOException {
+		for (Deque<Record> records : pending.records.values()) {
+			for (Record record : records) {
+				index.add(side, record);
+			}
+		}
+		pending.clear();
+	}
+
+	private void matchPartition(RecordSpillIndex index, int partition) throws IOException {
+		if (index.getSize(RecordSpillIndex.EXPECTED, partition) * 2 > memoryLimit && index.getLevel() < MAX_LEVEL) {
+			// too large to be matched in memory: distribute across a new index with another hash function
+			File dir = Files.createTempDirectory("xml-record-diff").toFile();
+			RecordSpillIndex subIndex = new RecordSpillIndex(dir, PARTITIONS, index.getLevel() + 1);
+			try {
+				copy(index, partition, RecordSpillIndex.EXPECTED, subIndex);
+				copy(index, partition, RecordSpillIndex.ACTUAL, subIndex);
+				subIndex.finishWriting();
+				for (int i = 0; i < subIndex.getPartitions(); i++) {
+					matchPartition(subIndex, i);
+				}
+			}
+			finally {
+				subIndex.delete();
+			}
+			return;
+		}
+
+		PendingRecords expectedRecords = new PendingRecords();
+		PartitionReader reader = index.open(RecordSpillIndex.EXPECTED, partition);
+		try {
+			for (Record record = reader.next(); record != null; record = reader.next()) {
+				expectedRecords.add(record);
+			}
+		}
+		finally {
+			reader.close();
+		}
+
+		reader = index.open(RecordSpillIndex.ACTUAL, partition);
+		try {
+			for (Record record = reader.next(); record != null; record = reader.next()) {
+				Record counterpart = expectedRecords.remove(record.key);
+				if (counterpart != null) {
+					compareRecords(counterpart, record);
+				}
+				else {
+					report(null, record.content, "record", DiffDetailType.UNEXPECTED, null, locator(record));
+				}
+			}
+		}
+		finally {
+			reader.close();
+		}
+		reportUnmatched(expectedRecords.records, Collections.<String, Deque<Record>> emptyMap());
+	}
+
+	private static void copy(RecordSpillIndex source, int partition, int side, RecordSpillIndex target) throws IOException {
+		PartitionReader reader = source.open(side, partition);
+		try {
+			for (Record record = reader.next(); record != null; record = reader.next()) {
+				target.add(side, record);
+			}
+		}
+		finally {
+			reader.close();
+		}
+	}
+
+	private void reportUnmatched(Map<String, Deque<Record>> expected, Map<String, Deque<Record>> actual) {
+		for (Deque<Record> records : expected.values()) {
+			for (Record record : records) {
+				report(record.content, null, "record", DiffDetailType.MISSING, locator(record), null);
+			}
+		}
+		for (Deque<Record> records : actual.values()) {
+			for (Record record : records) {
+				report(null, record.content, "record", DiffDetailType.UNEXPECTED, null, locator(record));
+			}
+		}
+	}
+
+	private void compareRecords(Record expected, Record actual) {
+		matchedRecords++;
+		if (!expected.content.equals(actual.content)) {
+			report(expected.content, actual.content, "record", DiffDetailType.DIFFERENT, locator(expected), locator(actual));
+		}
+	}
+
+	private void report(Object expected, Object actual, String classifier, DiffDetailType type, String locatorOfExpected,
+			String locatorOfActual) {
+		differenceCount++;
+		if (details.size() < settings.getMaxDetails()) {
+			details.add(new DatabeneXmlDiffDetail(expected, actual, classifier, type, locatorOfExpected, locatorOfActual));
+		}
+	}
+
+	private String locator(Record record) {
+		if (settings.getKeyPath() == null) {
+			return "(" + settings.getRecordPath() + ")[" + record.ordinal + "]";
+		}
+		return settings.getRecordPath() + "[" + settings.getKeyPath() + "='" + record.key + "']";
+	}
+
+	private RecordStreamReader createReader(InputStream in) throws XMLStreamException {
+		return new RecordStreamReader(in, settings.getRecordPath(), settings.getKeyPath(), settings.isWhitespaceRelevant());
+	}
+
+	/** Records without key are matched by their order. */
+	private static Record withKey(Record record) {
+		return record.key != null ? record : new Record("", record.ordinal, record.content);
+	}
+
+	/** Provides the stream of a document to compare. */
+	interface DocumentSource {
+
+		/**
+		 * @return A new stream providing the document. It is closed by the caller.
+		 * @throws IOException
+		 *             If the document could not be opened.
+		 */
+		InputStream open() throws IOException;
+
+	}
+
+	/** Records waiting for their counterpart, by key, with their estimated heap size. */
+	private static final class PendingRecords {
+
+		/** Linked, so unmatched records are reported in document order */
+		private final Map<String, Deque<Record>> records = new LinkedHashMap<String, Deque<Record>>();
+
+		private long size;
+
+		private void add(Record record) {
+			Deque<Record> queue = records.get(record.key);
+			if (queue == null) {
+				queue = new ArrayDeque<Record>(1);
+				records.put(record.key, queue);
+			}
+			queue.add(record);
+			size += record.size() * 2L;
+		}
+
+		/** Removes the first pending record with the given key. */
+		private Record remove(String key) {
+			Deque<Record> queue = records.get(key);
+			if (queue == null) {
+				return null;
+			}
+			Record record = queue.poll();
+			if (queue.isEmpty()) {
+				records.remove(key);
+			}
+			size -= record.size() * 2L;
+			return record;
+		}
+
+		private void clear() {
+			records.clear();
+			size = 0;
+		}
+	}
+
+}
@@ -0,0 +1,521 @@
+/*
+ * Copyright (C) 2015 Hamburg Sud and the contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aludratest.service.xmlfile.impl;
+
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.List;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Evaluates a streamable subset of XPath over a StAX stream, without building a document tree. Evaluation stops reading as
+ * soon as the result is known, so checking a node near the beginning of a huge file only reads the beginning of the file.
+ * <br>
+ * Supported are absolute location paths consisting of
+ * <ul>
+ * <li>child (<code>/</code>) and descendant (<code>//</code>) steps with element names or <code>*</code>,</li>
+ * <li>attribute predicates like <code>[@id]</code> or <code>[@id='value']</code>, and a trailing position predicate like
+ * <code>[2]</code>,</li>
+ * <li>an optional final <code>@attribute</code> or <code>text()</code> step.</li>
+ * </ul>
+ * Prefixed names are not supported, as their evaluation depends on the namespace context.
+ */
+final class StreamingXPath {
+
+	private static final XMLInputFactory INPUT_FACTORY = createInputFactory();
+
+	private final List<Step> steps;
+
+	/** Name of the final attribute step, or <code>null</code> */
+	private final String attributeName;
+
+	/** If <code>true</code>, the expression ends with a <code>text()</code> step */
+	private final boolean text;
+
+	/**
+	 * If <code>true</code>, the final attribute or text step is a descendant step, so it applies to the elements matched by
+	 * the element steps and all their descendants
+	 */
+	private final boolean finalDescendant;
+
+	private StreamingXPath(List<Step> steps, String attributeName, boolean text, boolean finalDescendant) {
+		this.steps = steps;
+		this.attributeName = attributeName;
+		this.text = text;
+		this.finalDescendant = finalDescendant;
+	}
+
+	/**
+	 * Compiles an XPath expression for streaming evaluation.
+	 *
+	 * @param xpath
+	 *            XPath expression to compile.
+	 * @return The compiled expression, or <code>null</code> if the expression is not in the supported subset.
+	 */
+	static StreamingXPath compile(String xpath) {
+		return new Parser(xpath.trim()).parse();
+	}
+
+	/**
+	 * Checks if the expression selects at least one node of the given document.
+	 *
+	 * @param in
+	 *            Stream providing the document.
+	 * @return <code>true</code> if a node is selected, <code>false</code> otherwise.
+	 * @throws XMLStreamException
+	 *             If the document is not well-formed XML.
+	 */
+	boolean exists(InputStream in) throws XMLStreamException {
+		return evaluate(in, false) != null;
+	}
+
+	/**
+	 * Evaluates the expression to the string value of the first selected node, like XPath's <code>string()</code> function.
+	 *
+	 * @param in
+	 *            Stream providing the document.
+	 * @return The string value of the first selected node, or an empty string if no node is selected.
+	 * @throws XMLStreamException
+	 *             If the document is not well-formed XML.
+	 */
+	String stringValue(InputStream in) throws XMLStreamException {
+		String result = evaluate(in, true);
+		return result == null ? "" : result;
+	}
+
+	/** @return The string value of the first selected node, a non-null dummy if not requested, or null if none is selected. */
+	private String evaluate(InputStream in, boolean stringValue) throws XMLStreamException {
+		XMLStreamReader reader = INPUT_FACTORY.createXMLStreamReader(in);
+		try {
+			Deque<Frame> stack = new ArrayDeque<Frame>();
+			stack.push(initialFrame());
+			ReaderAttributes attributes = new ReaderAttributes(reader);
+
+			while (reader.hasNext()) {
+				int event = reader.next();
+				switch (event) {
+					case XMLStreamConstants.START_ELEMENT:
+						Frame frame = enter(stack.peek(), name(reader.getNamespaceURI(), reader.getLocalName()), attributes);
+						if (frame.matched && !text) {
+							if (attributeName == null) {
+								return stringValue ? readElementText(reader) : "";
+							}
+							String value = attributeValue(reader, attributeName);
+							if (value != null) {
+								return value;
+							}
+						}
+						stack.push(frame);
+						break;
+					case XMLStreamConstants.END_ELEMENT:
+						stack.pop();
+						break;
+					case XMLStreamConstants.CHARACTERS:
+					case XMLStreamConstants.CDATA:
+					case XMLStreamConstants.SPACE:
+						if (text && stack.peek().matched) {
+							return stringValue ? readText(reader) : "";
+						}
+						break;
+					default:
+						break;
+				}
+			}
+			return null;
+		}
+		finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * Creates a matcher which tracks the nodes selected by this expression while a document is traversed.
+	 *
+	 * @return A new matcher, positioned before the document element.
+	 */
+	Matcher matcher() {
+		return new Matcher();
+	}
+
+	private static Frame initialFrame() {
+		BitSet initial = new BitSet();
+		initial.set(0);
+		return new Frame(initial, false);
+	}
+
+	/** Computes the matching state of an element which has just been started. */
+	private Frame enter(Frame parent, String name, Attributes attributes) {
+		BitSet states = new BitSet();
+		BitSet parentStates = parent.states;
+		for (int i = parentStates.nextSetBit(0); i >= 0 && i < steps.size(); i = parentStates.nextSetBit(i + 1)) {
+			Step step = steps.get(i);
+			if (step.descendant) {
+				states.set(i);
+			}
+			if (step.matches(name, attributes) && (step.position == 0 || parent.count(i, steps.size()) == step.position)) {
+				states.set(i + 1);
+			}
+		}
+		// the document itself is matched by an empty list of element steps
+		boolean parentMatched = parent.matched || parent.states.get(steps.size());
+		return new Frame(states, states.get(steps.size()) || (finalDescendant && parentMatched));
+	}
+
+	/** Reads the text content of the current element, leaving the reader at its end. */
+	private static String readElementText(XMLStreamReader reader) throws XMLStreamException {
+		StringBuilder sb = new StringBuilder();
+		int depth = 1;
+		while (depth > 0) {
+			int event = reader.next();
+			if (event == XMLStreamConstants.START_ELEMENT) {
+				depth++;
+			}
+			else if (event == XMLStreamConstants.END_ELEMENT) {
+				depth--;
+			}
+			else if (isText(event)) {
+				sb.append(reader.getText());
+			}
+		}
+		return sb.toString();
+	}
+
+	/** Reads the current text node, which may be reported as multiple consecutive events. */
+	private static String readText(XMLStreamReader reader) throws XMLStreamException {
+		StringBuilder sb = new StringBuilder(reader.getText());
+		while (isText(reader.next())) {
+			sb.append(reader.getText());
+		}
+		return sb.toString();
+	}
+
+	private static boolean isText(int event) {
+		return event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA
+				|| event == XMLStreamConstants.SPACE;
+	}
+
+	private static String attributeValue(XMLStreamReader reader, String name) {
+		for (int i = 0; i < reader.getAttributeCount(); i++) {
+			if (name.equals(name(reader.getAttributeNamespace(i), reader.getAttributeLocalName(i)))) {
+				return reader.getAttributeValue(i);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return The name to match against the unprefixed name tests of an expression: the local name of a node in no namespace,
+	 *         or <code>null</code> for a node in a namespace, which no unprefixed name test selects.
+	 */
+	static String name(String namespaceUri, String localName) {
+		return namespaceUri == null || namespaceUri.length() == 0 ? localName : null;
+	}
+
+	private static XMLInputFactory createInputFactory() {
+		XMLInputFactory factory = XMLInputFactory.newInstance();
+		factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+		factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+		return factory;
+	}
+
+	/** Provides the attribute values of the current element. */
+	interface Attributes {
+
+		/**
+		 * @param qualifiedName
+		 *            Name of an attribute in no namespace.
+		 * @return The value of the attribute, or <code>null</code> if the element has no such attribute.
+		 */
+		String getValue(String qualifiedName);
+
+	}
+
+	/** Provides the attributes of the current element of a StAX reader. */
+	private static final class ReaderAttributes implements Attributes {
+
+		private final XMLStreamReader reader;
+
+		private ReaderAttributes(XMLStreamReader reader) {
+			this.reader = reader;
+		}
+
+		@Override
+		public String getValue(String qualifiedName) {
+			return attributeValue(reader, qualifiedName);
+		}
+	}
+
+	/**
+	 * Tracks the nodes selected by the expression during a traversal of a document, which may be driven by a StAX reader or
+	 * a DOM walk. The start and end of each element must be reported; after the start of an element, the matcher tells if
+	 * the element itself, some of its attributes or its text are selected.
+	 */
+	final class Matcher {
+
+		private final Deque<Frame> stack = new ArrayDeque<Frame>();
+
+		private Matcher() {
+			stack.push(initialFrame());
+		}
+
+		/**
+		 * Reports the start of an element.
+		 *
+		 * @param name
+		 *            Name of the element, or <code>null</code> if it is in a namespace.
+		 * @param attributes
+		 *            Attributes of the element.
+		 */
+		void startElement(String name, Attributes attributes) {
+			stack.push(enter(stack.peek(), name, attributes));
+		}
+
+		/** Reports the end of the current element. */
+		void endElement() {
+			stack.pop();
+		}
+
+		/** @return <code>true</code> if the current element is selected. */
+		boolean isElementSelected() {
+			return stack.peek().matched && attributeName == null && !text;
+		}
+
+		/**
+		 * @param qualifiedName
+		 *            Name of an attribute of the current element which is in no namespace.
+		 * @return <code>true</code> if the attribute is selected.
+		 */
+		boolean isAttributeSelected(String qualifiedName) {
+			return stack.peek().matched && qualifiedName.equals(attributeName);
+		}
+
+		/** @return <code>true</code> if the text children of the current element are selected. */
+		boolean isTextSelected() {
+			return stack.peek().matched && text;
+		}
+	}
+
+	/** Matching state of an open element. */
+	private static final class Frame {
+
+		/** Indices of the steps which may be matched by children of this element */
+		private final BitSet states;
+
+		/** If <code>true</code>, the final step applies to this element */
+		private final boolean matched;
+
+		/** Per state, the number of children which matched the step's name and attribute predicates */
+		private int[] counts;
+
+		private Frame(BitSet states, boolean matched) {
+			this.states = states;
+			this.matched = matched;
+		}
+
+		private int count(int state, int stateCount) {
+			if (counts == null) {
+				counts = new int[stateCount];
+			}
+			return ++counts[state];
+		}
+	}
+
+	/** An element step of the location path. */
+	private static final class Step {
+
+		private final boolean descendant;
+
+		/** Element name, or <code>*</code> */
+		private final String name;
+
+		private final List<String[]> attributePredicates;
+
+		/** One-based position, or 0 if not restricted */
+		private final int position;
+
+		private Step(boolean descendant, String name, List<String[]> attributePredicates, int position) {
+			this.descendant = descendant;
+			this.name = name;
+			this.attributePredicates = attributePredicates;
+			this.position = position;
+		}
+
+		private boolean matches(String elementName, Attributes attributes) {
+			if (!"*".equals(name) && !name.equals(elementName)) {
+				return false;
+			}
+			for (String[] predicate : attributePredicates) {
+				String value = attributes.getValue(predicate[0]);
+				if (value == null || (predicate[1] != null && !predicate[1].equals(value))) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+
+	/** Parser for the supported XPath subset. */
+	private static final class Parser {
+
+		private final String xpath;
+
+		private int pos;
+
+		private Parser(String xpath) {
+			this.xpath = xpath;
+		}
+
+		private StreamingXPath parse() {
+			if (!xpath.startsWith("/")) {
+				// relative paths require a context node
+				return null;
+			}
+			List<Step> steps = new ArrayList<Step>();
+			while (pos < xpath.length()) {
+				boolean descendant = xpath.startsWith("//", pos);
+				pos += descendant ? 2 : 1;
+
+				if (consume("@")) {
+					String name = readName();
+					return name == null || pos < xpath.length() ? null : finish(steps, name, false, descendant);
+				}
+				if (consume("text()")) {
+					return pos < xpath.length() ? null : finish(steps, null, true, descendant);
+				}
+
+				String name = consume("*") ? "*" : readName();
+				if (name == null) {
+					return null;
+				}
+				Step step = readPredicates(descendant, name);
+				if (step == null) {
+					return null;
+				}
+				steps.add(step);
+				if (pos < xpath.length() && xpath.charAt(pos) != '/') {
+					return null;
+				}
+			}
+			return steps.isEmpty() ? null : new StreamingXPath(steps, null, false, false);
+		}
+
+		private static StreamingXPath finish(List<Step> steps, String attributeName, boolean text, boolean descendant) {
+			// "/@a" and "/text()" would select nodes of the document node itself
+			return steps.isEmpty() && !descendant ? null : new StreamingXPath(steps, attributeName, text, descendant);
+		}
+
+		private Step readPredicates(boolean descendant, String name) {
+			List<String[]> attributePredicates = new ArrayList<String[]>();
+			int position = 0;
+			while (consume("[")) {
+				if (position > 0) {
+					// only a trailing position predicate is supported
+					return null;
+				}
+				skipWhitespace();
+				if (consume("@")) {
+					String attribute = readName();
+					if (attribute == null) {
+						return null;
+					}
+					skipWhitespace();
+					String value = null;
+					if (consume("=")) {
+						skipWhitespace();
+						value = readLiteral();
+						if (value == null) {
+							return null;
+						}
+						skipWhitespace();
+					}
+					attributePredicates.add(new String[] { attribute, value });
+				}
+				else {
+					position = readPosition();
+					if (position <= 0) {
+						return null;
+					}
+					skipWhitespace();
+				}
+				if (!consume("]")) {
+					return null;
+				}
+			}
+			return new Step(descendant, name, attributePredicates, position);
+		}
+
+		private String readName() {
+			int start = pos;
+			while (pos < xpath.length()) {
+				char c = xpath.charAt(pos);
+				if (!Character.isLetterOrDigit(c) && c != '_' && c != '-' && c != '.') {
+					break;
+				}
+				pos++;
+			}
+			if (pos == start || !Character.isLetter(xpath.charAt(start)) && xpath.charAt(start) != '_') {
+				return null;
+			}
+			return xpath.substring(start, pos);
+		}
+
+		private String readLiteral() {
+			if (pos >= xpath.length() || (xpath.charAt(pos) != '\'' && xpath.charAt(pos) != '"')) {
+				return null;
+			}
+			int end = xpath.indexOf(xpath.charAt(pos), pos + 1);
+			if (end < 0) {
+				return null;
+			}
+			String literal = xpath.substring(pos + 1, end);
+			pos = end + 1;
+			return literal;
+		}
+
+		private int readPosition() {
+			int start = pos;
+			while (pos < xpath.length() && Character.isDigit(xpath.charAt(pos))) {
+				pos++;
+			}
+			if (pos == start || pos - start > 9) {
+				return -1;
+			}
+			return Integer.parseInt(xpath.substring(start, pos));
+		}
+
+		private boolean consume(String token) {
+			if (xpath.startsWith(token, pos)) {
+				pos += token.length();
+				return true;
+			}
+			return false;
+		}
+
+		private void skipWhitespace() {
+			while (pos < xpath.length() && Character.isWhitespace(xpath.charAt(pos))) {
+				pos++;
+			}
+		}
+	}
+
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright (C) 2015 Hamburg Sud and the contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aludratest.service.xmlfile.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.MalformedURLException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import freemarker.template.Configuration;
+import freemarker.template.Template;
+
+/**
+ * Bounded cache of compiled FreeMarker templates, keyed by template URI and template encoding. Templates are looked up on the
+ * classpath first, and in the file system if not found there. Optionally, the modification time of a template is checked on
+ * each lookup, and modified templates are compiled again.
+ */
+public class TemplateCache {
+
+	private final int maxSize;
+
+	private final boolean checkModified;
+
+	private final Configuration configuration;
+
+	private final Map<String, CachedTemplate> templates;
+
+	private final AtomicLong hits = new AtomicLong();
+
+	private final AtomicLong misses = new AtomicLong();
+
+	/**
+	 * Creates a new template cache.
+	 *
+	 * @param maxSize
+	 *            Maximum number of compiled templates to keep. If <code>0</code>, templates are compiled on every use.
+	 * @param checkModified
+	 *            If <code>true</code>, the modification time of a cached template's source is checked on each lookup.
+	 */
+	public TemplateCache(final int maxSize, boolean checkModified) {
+		this.maxSize = Math.max(0, maxSize);
+		this.checkModified = checkModified;
+		// 2.3.0 compatibility keeps the template semantics of the unversioned default configuration
+		this.configuration = new Configuration(Configuration.VERSION_2_3_0);
+		this.configuration.setLocalizedLookup(false);
+		this.templates = new LinkedHashMap<String, CachedTemplate>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, CachedTemplate> eldest) {
+				return size() > TemplateCache.this.maxSize;
+			}
+		};
+	}
+
+	/**
+	 * Returns the compiled template with the given URI, compiling it if it is not cached yet or if it has been modified.
+	 *
+	 * @param templateUri
+	 *            URI of the template, relative to the classpath, or a file path.
+	 * @param templateEncoding
+	 *            Encoding of the template file.
+	 * @return The compiled template. Compiled templates are thread-safe.
+	 *
+	 * @throws IOException
+	 *             If the template could not be found or read, or is syntactically invalid.
+	 */
+	public Template getTemplate(String templateUri, String templateEncoding) throws IOException {
+		String key = templateUri + "|" + templateEncoding;
+		CachedTemplate entry;
+		synchronized (this) {
+			entry = templates.get(key);
+		}
+
+		if (entry != null && (!checkModified || entry.lastModified == lastModified(entry.url))) {
+			hits.incrementAndGet();
+			return entry.template;
+		}
+
+		misses.incrementAndGet();
+		URL url = resolve(templateUri);
+		long lastModified = checkModified ? lastModified(url) : 0;
+		Reader reader = new InputStreamReader(url.openStream(), templateEncoding);
+		Template template;
+		try {
+			template = new Template(templateUri, reader, configuration, templateEncoding);
+		}
+		finally {
+			reader.close();
+		}
+
+		if (maxSize > 0) {
+			synchronized (this) {
+				templates.put(key, new CachedTemplate(template, url, lastModified));
+			}
+		}
+		return template;
+	}
+
+	/** @return The number of template lookups which could be served from the cache. */
+	public long getHitCount() {
+		return hits.get();
+	}
+
+	/** @return The number of template lookups which required compiling the template. */
+	public long getMissCount() {
+		return misses.get();
+	}
+
+	/** @return The number of currently cached templates. */
+	public synchronized int size() {
+		return templates.size();
+	}
+
+	/** Removes all cached templates. */
+	public synchronized void clear() {
+		templates.clear();
+	}
+
+	private static URL resolve(String templateUri) throws IOException {
+		ClassLoader loader = Thread.currentThread().getContextClassLoader();
+		URL url = loader == null ? null : loader.getResource(templateUri);
+		if (url == null) {
+			url = TemplateCache.class.getClassLoader().getResource(templateUri);
+		}
+		if (url == null) {
+			File file = new File(templateUri);
+			if (file.isFile()) {
+				try {
+					url = file.toURI().toURL();
+				}
+				catch (MalformedURLException e) {
+					throw new IOException("Invalid template file path: " + templateUri, e);
+				}
+			}
+		}
+		if (url == null) {
+			throw new IOException("Template not found: " + templateUri);
+		}
+		return url;
+	}
+
+	private static long lastModified(URL url) throws IOException {
+		if ("file".equals(url.getProtocol())) {
+			try {
+				return new File(url.toURI()).lastModified();
+			}
+			catch (URISyntaxException e) {
+				// fall back to URLConnection
+			}
+		}
+		return url.openConnection().getLastModified();
+	}
+
+	private static final class CachedTemplate {
+
+		private final Template template;
+
+		private final URL url;
+
+		private final long lastModified;
+
+		private CachedTemplate(Template template, URL url, long lastModified) {
+			this.template = template;
+			this.url = url;
+			this.lastModified = lastModified;
+		}
+	}
+
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2015 Hamburg Sud and the contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aludratest.service.xmlfile.impl;
+
+import java.io.IOException;
+import java.io.Writer;
+
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+
+import org.w3c.dom.Node;
+
+/**
+ * Provides identity {@link Transformer}s for serializing DOM nodes. The {@link TransformerFactory} is looked up only once, and
+ * each thread reuses its own Transformer, as Transformers must not be used concurrently.
+ */
+public class TransformerPool {
+
+	/** Guarded by itself, as TransformerFactory implementations are not required to be thread-safe */
+	private final TransformerFactory factory;
+
+	private final ThreadLocal<Transformer> transformers = new ThreadLocal<Transformer>();
+
+	/** Creates a new pool, looking up the default {@link TransformerFactory}. */
+	public TransformerPool() {
+		this.factory = TransformerFactory.newInstance();
+	}
+
+	/**
+	 * Returns the identity Transformer of the current thread, in its initial state.
+	 *
+	 * @return The identity Transformer of the current thread.
+	 *
+	 * @throws TransformerException
+	 *             If no Transformer could be created.
+	 */
+	public Transformer getTransformer() throws TransformerException {
+		Transformer transformer = transformers.get();
+		if (transformer == null) {
+			synchronized (factory) {
+				transformer = factory.newTransformer();
+			}
+			transformers.set(transformer);
+		}
+		else {
+			transformer.reset();
+		}
+		return transformer;
+	}
+
+	/**
+	 * Serializes the given node to the given writer, using the Transformer of the current thread.
+	 *
+	 * @param node
+	 *            Node to serialize.
+	 * @param writer
+	 *            Writer to serialize the node to.
+	 *
+	 * @throws IOException
+	 *             If the node could not be serialized or written.
+	 */
+	public void transform(Node node, Writer writer) throws IOException {
+		try {
+			getTransformer().transform(new DOMSource(node), new StreamResult(writer));
+		}
+		catch (TransformerException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+
+			throw new IOException("Could not write XML", e);
+		}
+	}
+
+}
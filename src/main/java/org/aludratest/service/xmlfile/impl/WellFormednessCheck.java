@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2015 Hamburg Sud and the contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aludratest.service.xmlfile.impl;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Checks XML data for well-formedness using a StAX parser, so no document tree is built and memory usage does not depend on
+ * the size of the data.
+ */
+final class WellFormednessCheck {
+
+	private static final XMLInputFactory INPUT_FACTORY = createInputFactory();
+
+	private WellFormednessCheck() {
+	}
+
+	/**
+	 * Checks the given stream for well-formed XML, reading it completely.
+	 *
+	 * @param in
+	 *            Stream to check.
+	 * @throws XMLStreamException
+	 *             If the data is not well-formed XML.
+	 * @throws IOException
+	 *             If the stream could not be read.
+	 */
+	static void check(InputStream in) throws XMLStreamException, IOException {
+		XMLStreamReader reader = INPUT_FACTORY.createXMLStreamReader(in);
+		try {
+			while (reader.hasNext()) {
+				reader.next();
+			}
+		}
+		finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * Checks the given stream for well-formed XML, reading it only until the document element is closed. Anything after the
+	 * document element, like trailing comments, is not read.
+	 *
+	 * @param in
+	 *            Stream to check.
+	 * @throws XMLStreamException
+	 *             If the data is not well-formed XML, or ends before the document element is closed.
+	 * @throws IOException
+	 *             If the stream could not be read.
+	 */
+	static void checkDocumentElement(InputStream in) throws XMLStreamException, IOException {
+		XMLStreamReader reader = INPUT_FACTORY.createXMLStreamReader(in);
+		try {
+			int depth = 0;
+			while (reader.hasNext()) {
+				int event = reader.next();
+				if (event == XMLStreamConstants.START_ELEMENT) {
+					depth++;
+				}
+				else if (event == XMLStreamConstants.END_ELEMENT && --depth == 0) {
+					return;
+				}
+			}
+			throw new XMLStreamException("Document element is not closed");
+		}
+		finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * Copies all data from the given input stream to the given output stream, checking it for well-formed XML on the fly.
+	 *
+	 * @param in
+	 *            Stream to copy and check.
+	 * @param out
+	 *            Stream to copy the data to.
+	 * @throws XMLStreamException
+	 *             If the data is not well-formed XML.
+	 * @throws IOException
+	 *             If the data could not be read or written.
+	 */
+	static void copyChecked(InputStream in, OutputStream out) throws XMLStreamException, IOException {
+		TeeInputStream tee = new TeeInputStream(in, out);
+		check(tee);
+		// copy anything the parser did not need to read, e.g. trailing whitespace
+		byte[] buffer = new byte[8192];
+		while (tee.read(buffer, 0, buffer.length) != -1) {
+			// copied by the tee
+		}
+	}
+
+	private static XMLInputFactory createInputFactory() {
+		XMLInputFactory factory = XMLInputFactory.newInstance();
+		factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+		factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.FALSE);
+		return factory;
+	}
+
+	/** Copies all data read from the underlying stream to an output stream. */
+	private static final class TeeInputStream extends FilterInputStream {
+
+		private final OutputStream out;
+
+		private TeeInputStream(InputStream in, OutputStream out) {
+			super(in);
+			this.out = out;
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = super.read();
+			if (b != -1) {
+				out.write(b);
+			}
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int read = super.read(b, off, len);
+			if (read > 0) {
+				out.write(b, off, read);
+			}
+			return read;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			// skipped data must be copied as well
+			byte[] buffer = new byte[(int) Math.min(n, 8192)];
+			int read = read(buffer, 0, buffer.length);
+			return Math.max(read, 0);
+		}
+
+		@Override
+		public boolean markSupported() {
+			return false;
+		}
+
+		@Override
+		public void close() {
+			// the underlying stream is closed by its owner, as the parser may close its input early
+		}
+	}
+
+}
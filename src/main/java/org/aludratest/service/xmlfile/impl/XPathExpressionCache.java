@@ -0,0 +1,209 @@
+/*
+ * Copyright (C) 2015 Hamburg Sud and the contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aludratest.service.xmlfile.impl;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.xml.namespace.NamespaceContext;
+import javax.xml.namespace.QName;
+import javax.xml.xpath.XPath;
+import javax.xml.xpath.XPathExpression;
+import javax.xml.xpath.XPathExpressionException;
+import javax.xml.xpath.XPathFactory;
+
+import org.aludratest.exception.AutomationException;
+
+/**
+ * Bounded, thread-safe cache of compiled XPath expressions, keyed by expression string and namespace context. As compiled
+ * expressions are not thread-safe, each thread has its own cache, so concurrent evaluations of the same expression never wait
+ * for each other. The least recently used expression of a thread is evicted when its cache is full. A cache size of
+ * <code>0</code> disables caching, so every expression is compiled on each use.
+ */
+public class XPathExpressionCache {
+
+	private final int maxSize;
+
+	private final ThreadLocal<ThreadCache> threadCaches = new ThreadLocal<ThreadCache>() {
+		@Override
+		protected ThreadCache initialValue() {
+			return new ThreadCache();
+		}
+	};
+
+	/** Incremented by {@link #clear()}, which makes each thread discard its cache on its next lookup */
+	private final AtomicInteger generation = new AtomicInteger();
+
+	private final AtomicLong hits = new AtomicLong();
+
+	private final AtomicLong misses = new AtomicLong();
+
+	/**
+	 * Creates a new cache.
+	 *
+	 * @param maxSize
+	 *            Maximum number of compiled expressions to keep per thread.
+	 */
+	public XPathExpressionCache(final int maxSize) {
+		this.maxSize = Math.max(0, maxSize);
+	}
+
+	/**
+	 * Returns the compiled form of the given expression, compiling and caching it for the calling thread if required.
+	 *
+	 * @param expression
+	 *            XPath expression to compile.
+	 * @param namespaceContext
+	 *            Namespace context to resolve prefixes in the expression with, or <code>null</code>.
+	 * @return The compiled expression. Note that compiled expressions are not thread-safe, so the expression must only be
+	 *         used by the calling thread.
+	 */
+	public XPathExpression getExpression(String expression, NamespaceContext namespaceContext) {
+		ThreadCache cache = getThreadCache();
+		Key key = new Key(expression, namespaceContext);
+		XPathExpression compiled = cache.expressions.get(key);
+		if (compiled != null) {
+			hits.incrementAndGet();
+			return compiled;
+		}
+
+		misses.incrementAndGet();
+		// setNamespaceContext() rejects null, while reset() restores the initial state without a namespace context
+		cache.xpath.reset();
+		if (namespaceContext != null) {
+			cache.xpath.setNamespaceContext(namespaceContext);
+		}
+		try {
+			compiled = cache.xpath.compile(expression);
+		}
+		catch (XPathExpressionException e) {
+			throw new AutomationException("Invalid XPath expression: " + expression, e);
+		}
+		if (maxSize > 0) {
+			cache.expressions.put(key, compiled);
+		}
+		return compiled;
+	}
+
+	/**
+	 * Evaluates the given expression on the given item, using a cached compiled expression if available.
+	 *
+	 * @param item
+	 *            Node or document to evaluate the expression on.
+	 * @param expression
+	 *            XPath expression to evaluate.
+	 * @param namespaceContext
+	 *            Namespace context to resolve prefixes in the expression with, or <code>null</code>.
+	 * @param returnType
+	 *            One of the {@link javax.xml.xpath.XPathConstants} return types.
+	 * @return The evaluation result.
+	 */
+	public Object evaluate(Object item, String expression, NamespaceContext namespaceContext, QName returnType) {
+		XPathExpression compiled = getExpression(expression, namespaceContext);
+		try {
+			return compiled.evaluate(item, returnType);
+		}
+		catch (XPathExpressionException e) {
+			throw new AutomationException("Could not evaluate XPath expression: " + expression, e);
+		}
+	}
+
+	/** @return The number of lookups which could be served from the cache. */
+	public long getHitCount() {
+		return hits.get();
+	}
+
+	/** @return The number of lookups which required compiling the expression. */
+	public long getMissCount() {
+		return misses.get();
+	}
+
+	/** @return The number of expressions currently cached for the calling thread. */
+	public int size() {
+		return getThreadCache().expressions.size();
+	}
+
+	/** @return The maximum number of cached expressions per thread. */
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	/** Removes all cached expressions of all threads. The hit and miss counters are not reset. */
+	public void clear() {
+		generation.incrementAndGet();
+	}
+
+	private ThreadCache getThreadCache() {
+		ThreadCache cache = threadCaches.get();
+		int currentGeneration = generation.get();
+		if (cache.generation != currentGeneration) {
+			cache.expressions.clear();
+			cache.generation = currentGeneration;
+		}
+		return cache;
+	}
+
+	/** The compiled expressions of one thread, and the XPath object to compile them with */
+	private final class ThreadCache {
+
+		private final XPath xpath = XPathFactory.newInstance().newXPath();
+
+		private final Map<Key, XPathExpression> expressions = new LinkedHashMap<Key, XPathExpression>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Key, XPathExpression> eldest) {
+				return size() > maxSize;
+			}
+		};
+
+		private int generation = XPathExpressionCache.this.generation.get();
+
+	}
+
+	private static final class Key {
+
+		private final String expression;
+
+		private final NamespaceContext namespaceContext;
+
+		private Key(String expression, NamespaceContext namespaceContext) {
+			this.expression = expression;
+			this.namespaceContext = namespaceContext;
+		}
+
+		@Override
+		public int hashCode() {
+			return expression.hashCode() * 31 + (namespaceContext == null ? 0 : namespaceContext.hashCode());
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) {
+				return true;
+			}
+			if (!(obj instanceof Key)) {
+				return false;
+			}
+			Key other = (Key) obj;
+			return expression.equals(other.expression) && (namespaceContext == null ? other.namespaceContext == null
+					: namespaceContext.equals(other.namespaceContext));
+		}
+	}
+
+}
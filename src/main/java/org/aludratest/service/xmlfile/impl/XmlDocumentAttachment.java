@@ -0,0 +1,227 @@
+/*
+ * Copyright (C) 2015 Hamburg Sud and the contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aludratest.service.xmlfile.impl;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+
+import org.aludratest.testcase.event.attachment.Attachment;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+/**
+ * Attachment which renders an XML document only when its contents are requested, i.e. when a report actually consumes the
+ * attachment. Documents exceeding the configured maximum size are truncated, and a summary of the document (root element, node
+ * counts) is prepended as an XML comment. <br>
+ * Note that the document is rendered in the state it has when the attachment is consumed.
+ */
+public class XmlDocumentAttachment implements Attachment {
+
+	private final String label;
+
+	private final Document document;
+
+	private final TransformerPool transformers;
+
+	private final int maxSize;
+
+	private final XmlFileMetrics metrics;
+
+	private byte[] fileData;
+
+	private String fileExtension = "xml";
+
+	/**
+	 * Creates a new attachment for the given document.
+	 *
+	 * @param label
+	 *            Label of the attachment.
+	 * @param document
+	 *            Document to render.
+	 * @param transformers
+	 *            Transformers to render the document with.
+	 * @param maxSize
+	 *            Maximum number of characters to render. If <code>0</code> or less, the document is never truncated.
+	 */
+	public XmlDocumentAttachment(String label, Document document, TransformerPool transformers, int maxSize) {
+		this(label, document, transformers, maxSize, new XmlFileMetrics(false));
+	}
+
+	/**
+	 * Creates a new attachment for the given document, recording the rendering time in the given metrics.
+	 *
+	 * @param label
+	 *            Label of the attachment.
+	 * @param document
+	 *            Document to render.
+	 * @param transformers
+	 *            Transformers to render the document with.
+	 * @param maxSize
+	 *            Maximum number of characters to render. If <code>0</code> or less, the document is never truncated.
+	 * @param metrics
+	 *            Metrics to record the rendering in.
+	 */
+	public XmlDocumentAttachment(String label, Document document, TransformerPool transformers, int maxSize,
+			XmlFileMetrics metrics) {
+		this.label = label;
+		this.document = document;
+		this.transformers = transformers;
+		this.maxSize = maxSize;
+		this.metrics = metrics;
+	}
+
+	@Override
+	public String getLabel() {
+		return label;
+	}
+
+	@Override
+	public synchronized String getFileExtension() {
+		return fileExtension;
+	}
+
+	@Override
+	public synchronized byte[] getFileData() {
+		if (fileData == null) {
+			XmlFileMetrics.Timer timer = metrics.start(XmlFileMetrics.Operation.ATTACHMENT);
+			try {
+				fileData = toBytes(render());
+			}
+			finally {
+				timer.stop();
+			}
+		}
+		return fileData;
+	}
+
+	private String render() {
+		StringWriter sw = new StringWriter();
+		LimitedWriter writer = new LimitedWriter(sw, maxSize);
+		try {
+			transformers.transform(document, writer);
+		}
+		catch (IOException e) {
+			if (!writer.isLimitReached()) {
+				fileExtension = "txt";
+				return renderError(e);
+			}
+		}
+
+		if (!writer.isLimitReached()) {
+			return sw.toString();
+		}
+		return createSummary() + sw.toString();
+	}
+
+	private String createSummary() {
+		int[] counts = new int[2];
+		countNodes(document.getDocumentElement(), counts);
+
+		Element root = document.getDocumentElement();
+		return "<!-- Document truncated to " + maxSize + " characters. Root element: " + root.getNodeName() + ", elements: "
+				+ counts[0] + ", attributes: " + counts[1] + " -->\n";
+	}
+
+	private static void countNodes(Node node, int[] counts) {
+		// iterative traversal, as documents of this size can be arbitrarily deep
+		Node current = node;
+		while (current != null) {
+			if (current.getNodeType() == Node.ELEMENT_NODE) {
+				counts[0]++;
+				counts[1] += current.getAttributes().getLength();
+			}
+			if (current.getFirstChild() != null) {
+				current = current.getFirstChild();
+			}
+			else {
+				while (current != null && current != node && current.getNextSibling() == null) {
+					current = current.getParentNode();
+				}
+				current = (current == null || current == node) ? null : current.getNextSibling();
+			}
+		}
+	}
+
+	private static String renderError(IOException e) {
+		StringWriter sw = new StringWriter();
+		sw.append("Error when serializing XML").append("\n");
+		e.printStackTrace(new PrintWriter(sw));
+		return sw.toString();
+	}
+
+	private static byte[] toBytes(String contents) {
+		try {
+			return contents.getBytes("UTF-8");
+		}
+		catch (UnsupportedEncodingException e) {
+			// UTF-8 is always supported
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/** Writer which aborts writing with an IOException as soon as a maximum number of characters has been written. */
+	private static class LimitedWriter extends Writer {
+
+		private final Writer delegate;
+
+		private final int limit;
+
+		private int written;
+
+		private boolean limitReached;
+
+		private LimitedWriter(Writer delegate, int limit) {
+			this.delegate = delegate;
+			this.limit = limit;
+		}
+
+		boolean isLimitReached() {
+			return limitReached;
+		}
+
+		@Override
+		public void write(char[] cbuf, int off, int len) throws IOException {
+			if (limit <= 0) {
+				delegate.write(cbuf, off, len);
+				return;
+			}
+			int remaining = limit - written;
+			if (len > remaining) {
+				delegate.write(cbuf, off, remaining);
+				written = limit;
+				limitReached = true;
+				throw new IOException("Attachment size limit of " + limit + " characters reached");
+			}
+			delegate.write(cbuf, off, len);
+			written += len;
+		}
+
+		@Override
+		public void flush() throws IOException {
+			delegate.flush();
+		}
+
+		@Override
+		public void close() throws IOException {
+			delegate.close();
+		}
+	}
+
+}
@@ -15,52 +15,171 @@
  */
 package org.aludratest.service.xmlfile.impl;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
 import java.io.IOException;
-import java.io.PrintWriter;
-import java.io.StringWriter;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveTask;
 
 import javax.xml.namespace.QName;
-import javax.xml.transform.Transformer;
-import javax.xml.transform.TransformerException;
-import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.dom.DOMSource;
-import javax.xml.transform.stream.StreamResult;
+import javax.xml.stream.XMLStreamException;
 import javax.xml.xpath.XPathConstants;
 
 import org.aludratest.content.xml.AggregateXmlDiff;
 import org.aludratest.content.xml.XmlComparisonSettings;
 import org.aludratest.content.xml.XmlContent;
+import org.aludratest.content.xml.XmlDiffDetail;
 import org.aludratest.exception.AutomationException;
 import org.aludratest.exception.FunctionalFailure;
+import org.aludratest.exception.PerformanceFailure;
 import org.aludratest.service.SystemConnector;
 import org.aludratest.service.file.FileService;
+import org.aludratest.service.xmlfile.XmlFileComparisonResult;
+import org.aludratest.service.xmlfile.XmlFileComparisonSettings;
 import org.aludratest.service.xmlfile.XmlFileCondition;
 import org.aludratest.service.xmlfile.XmlFileInteraction;
+import org.aludratest.service.xmlfile.XmlFilePairResult;
 import org.aludratest.service.xmlfile.XmlFileVerification;
+import org.aludratest.service.xmlfile.XmlKeyedDiff;
+import org.aludratest.service.xmlfile.XmlRecordDiff;
+import org.aludratest.service.xmlfile.XmlRecordDiffSettings;
+import org.aludratest.service.xmlfile.impl.PipedFileWriter.ProducerPipe;
+import org.aludratest.service.xmlfile.impl.XmlFileMetrics.Operation;
+import org.aludratest.service.xmlfile.impl.XmlFileMetrics.Timer;
 import org.aludratest.testcase.event.attachment.Attachment;
-import org.aludratest.testcase.event.attachment.StringAttachment;
 import org.databene.commons.Validator;
 import org.w3c.dom.Document;
-import org.w3c.dom.NodeList;
+import org.w3c.dom.Node;
+
+import freemarker.template.Template;
+import freemarker.template.TemplateException;
 
 public class XmlFileAction implements XmlFileInteraction, XmlFileCondition, XmlFileVerification {
 
+	/** Time between two checks of a file which is waited for, in milliseconds */
+	private static final long POLL_INTERVAL_MILLIS = 100;
+
 	private FileService fileService;
 
 	private XmlContent contentHandler;
 
 	private String encoding;
 
-	public XmlFileAction(XmlContent contentHandler, FileService fileService, String encoding) {
+	private XPathExpressionCache xpathCache;
+
+	private int maxAttachmentSize;
+
+	private ReferenceDocumentCache referenceCache;
+
+	private TemplateCache templateCache;
+
+	/** Executor for parallel file processing */
+	private ForkJoinPool executor;
+
+	/** Memory limit of streaming file comparisons, in bytes */
+	private long diffMemory;
+
+	/** Transformers for rendering XML attachments, reused per thread */
+	private TransformerPool transformers = new TransformerPool();
+
+	/** Event based waiting for files, or <code>null</code> if the files are not accessible locally */
+	private LocalFileWatcher fileWatcher;
+
+	/** Maximum time to wait for files when using the file watcher, in milliseconds */
+	private long watchTimeout;
+
+	/** If comparisons stop at the first difference, where the settings permit */
+	private boolean failFast;
+
+	/** Number of differences reported by failed document assertions */
+	private int failureDetails;
+
+	/** Cache of canonical hashes of reference files, or <code>null</code> if comparing by hashes is disabled */
+	private CanonicalHashCache hashCache;
+
+	/** Namespace prefixes which can be used in XPath expressions */
+	private NamespaceRegistry namespaces = NamespaceRegistry.EMPTY;
+
+	/** Per-operation metrics, disabled unless configured otherwise */
+	private XmlFileMetrics metrics = new XmlFileMetrics(false);
+
+	public XmlFileAction(XmlContent contentHandler, FileService fileService, String encoding, XPathExpressionCache xpathCache,
+			int maxAttachmentSize, ReferenceDocumentCache referenceCache, TemplateCache templateCache,
+			ForkJoinPool executor, long diffMemory) {
 		this.fileService = fileService;
 		this.contentHandler = contentHandler;
 		this.encoding = encoding;
+		this.xpathCache = xpathCache;
+		this.maxAttachmentSize = maxAttachmentSize;
+		this.referenceCache = referenceCache;
+		this.templateCache = templateCache;
+		this.executor = executor;
+		this.diffMemory = diffMemory;
+	}
+
+	/**
+	 * Makes waits for files use file system events of a local directory instead of polling the file service.
+	 * 
+	 * @param baseDir
+	 *            Local directory which corresponds to the root of the file service.
+	 * @param timeoutMillis
+	 *            Maximum time to wait for a file, in milliseconds.
+	 */
+	void enableFileWatch(File baseDir, long timeoutMillis) {
+		this.fileWatcher = new LocalFileWatcher(baseDir);
+		this.watchTimeout = timeoutMillis;
+	}
+
+	/**
+	 * Configures how documents are compared.
+	 * 
+	 * @param failFast
+	 *            If <code>true</code>, comparisons with {@link org.aludratest.service.xmlfile.XmlFileComparisonSettings} stop
+	 *            at the first difference which is not tolerated.
+	 * @param failureDetails
+	 *            Number of differences to report in the failure message of a document assertion. If <code>0</code>, a generic
+	 *            message is used.
+	 * @param hashCache
+	 *            Cache of the canonical hashes of reference files, or <code>null</code> to disable comparing documents by
+	 *            their canonical hashes.
+	 */
+	void configureComparison(boolean failFast, int failureDetails, CanonicalHashCache hashCache) {
+		this.failFast = failFast;
+		this.failureDetails = failureDetails;
+		this.hashCache = hashCache;
+	}
+
+	/**
+	 * Sets the namespace prefixes which can be used in XPath expressions on documents.
+	 * 
+	 * @param namespaces
+	 *            Registry of namespace prefixes.
+	 */
+	void configureNamespaces(NamespaceRegistry namespaces) {
+		this.namespaces = namespaces;
+	}
+
+	/**
+	 * Sets the metrics to record the operations of this action in.
+	 * 
+	 * @param metrics
+	 *            Metrics to use.
+	 */
+	void configureMetrics(XmlFileMetrics metrics) {
+		this.metrics = metrics;
 	}
 
 	@Override
@@ -72,14 +191,21 @@ public class XmlFileAction implements XmlFileInteraction, XmlFileCondition, XmlF
 	@Override
 	public List<Attachment> createAttachments(Object object, String title) {
 		if (object instanceof Document) {
-			StringWriter sw = new StringWriter();
-			try {
-				documentToXml((Document) object, sw);
-				return Collections.<Attachment> singletonList(new StringAttachment(title, sw.toString(), "xml"));
-			}
-			catch (IOException e) {
-				return Collections.singletonList(createErrorAttachment("Error when serializing XML", e));
+			// rendered lazily, as most attachments of large documents are never opened
+			return Collections.<Attachment> singletonList(new XmlDocumentAttachment(title, (Document) object, transformers,
+					maxAttachmentSize, metrics));
+		}
+		if (object instanceof List<?>) {
+			List<Attachment> attachments = new ArrayList<Attachment>();
+			int index = 1;
+			for (Object element : (List<?>) object) {
+				if (element instanceof Document) {
+					attachments.add(new XmlDocumentAttachment(title + " " + index, (Document) element, transformers,
+							maxAttachmentSize, metrics));
+				}
+				index++;
 			}
+			return attachments.isEmpty() ? null : attachments;
 		}
 
 		return null;
@@ -92,7 +218,13 @@ public class XmlFileAction implements XmlFileInteraction, XmlFileCondition, XmlF
 
 	@Override
 	public void assertDocumentsEqual(String elementType, String elementName, Document expected, Document actual, XmlComparisonSettings settings) {
-		if (!contentHandler.isEqual(expected, actual, settings)) {
+		if (failureDetails > 0) {
+			List<XmlDiffDetail> differences = firstDifferences(expected, actual, settings, failureDetails);
+			if (!differences.isEmpty()) {
+				throw new FunctionalFailure("The two XML documents do not match. " + describe(differences));
+			}
+		}
+		else if (!areDocumentsEqual(elementType, elementName, expected, actual, settings)) {
 			throw new FunctionalFailure("The two XML documents do not match.");
 		}
 	}
@@ -105,7 +237,71 @@ public class XmlFileAction implements XmlFileInteraction, XmlFileCondition, XmlF
 	@Override
 	public boolean areDocumentsEqual(String elementType, String elementName, Document expected, Document actual,
 			XmlComparisonSettings settings) {
-		return contentHandler.isEqual(expected, actual, settings);
+		Timer timer = metrics.start(Operation.COMPARE);
+		try {
+			if (failFast && FastDocumentComparator.isApplicable(settings)
+					&& !new FastDocumentComparator(settings, xpathCache, 1).compare(expected, actual).isEmpty()) {
+				return false;
+			}
+			if (haveEqualHashes(expected, actual, settings)) {
+				return true;
+			}
+			// no difference found so far, which is only proven by the content handler
+			return contentHandler.isEqual(expected, actual, settings);
+		}
+		finally {
+			timer.stop();
+		}
+	}
+
+	/** Checks if the canonical hashes of both documents are equal, which implies their equality. */
+	private boolean haveEqualHashes(Document expected, Document actual, XmlComparisonSettings settings) {
+		CanonicalDocumentHash hashFunction = hashCache == null ? null : CanonicalDocumentHash.create(settings);
+		return hashFunction != null && hashFunction.hash(expected).equals(hashFunction.hash(actual));
+	}
+
+	/** Determines up to <code>max</code> differences, stopping early if the settings permit. */
+	private List<XmlDiffDetail> firstDifferences(Document expected, Document actual, XmlComparisonSettings settings, int max) {
+		Timer timer = metrics.start(Operation.COMPARE);
+		try {
+			return collectDifferences(expected, actual, settings, max);
+		}
+		finally {
+			timer.stop();
+		}
+	}
+
+	private List<XmlDiffDetail> collectDifferences(Document expected, Document actual, XmlComparisonSettings settings, int max) {
+		if (failFast && FastDocumentComparator.isApplicable(settings)) {
+			List<XmlDiffDetail> differences = new FastDocumentComparator(settings, xpathCache, max).compare(expected, actual);
+			if (!differences.isEmpty()) {
+				return differences;
+			}
+		}
+		if (haveEqualHashes(expected, actual, settings)) {
+			return Collections.emptyList();
+		}
+		List<XmlDiffDetail> differences = contentHandler.compare(expected, actual, settings).getXmlDetails();
+		return differences.size() > max ? differences.subList(0, max) : differences;
+	}
+
+	private static String describe(List<XmlDiffDetail> differences) {
+		StringBuilder sb = new StringBuilder("First ").append(differences.size()).append(" difference(s):");
+		for (XmlDiffDetail difference : differences) {
+			String locator = difference.getLocatorOfExpected() != null ? difference.getLocatorOfExpected() : difference
+					.getLocatorOfActual();
+			sb.append("\n").append(difference.getXmlDiffType()).append(' ').append(difference.getObjectClassifier())
+					.append(" at ").append(locator).append(": expected ").append(describeValue(difference.getExpected()))
+					.append(", actual ").append(describeValue(difference.getActual()));
+		}
+		return sb.toString();
+	}
+
+	private static String describeValue(Object value) {
+		if (value instanceof Node) {
+			return "<" + ((Node) value).getNodeName() + ">";
+		}
+		return value == null ? "none" : "'" + value + "'";
 	}
 
 	@Override
@@ -130,38 +326,491 @@ public class XmlFileAction implements XmlFileInteraction, XmlFileCondition, XmlF
 		}
 	}
 
+	@Override
+	public void assertNodesMatch(String elementType, String elementName, Document document, Map<String, String> xpaths,
+			Map<String, Validator<String>> validators) {
+		Map<String, String> mismatches = findMismatches(document, xpaths, validators);
+		if (!mismatches.isEmpty()) {
+			StringBuilder sb = new StringBuilder().append(mismatches.size()).append(" node(s) do not match validator:");
+			for (Map.Entry<String, String> mismatch : mismatches.entrySet()) {
+				sb.append("\n").append(mismatch.getKey()).append(" (").append(xpaths.get(mismatch.getKey())).append("): ")
+						.append(describeValue(mismatch.getValue()));
+			}
+			throw new FunctionalFailure(sb.toString());
+		}
+	}
+
 	@Override
 	public boolean nodeExists(String elementType, String elementName, Document document, String xpath) {
-		NodeList nl = (NodeList) contentHandler.queryXPath(document, xpath, XPathConstants.NODESET);
-		return nl != null && nl.getLength() > 0;
+		// evaluating to a single NODE lets the XPath engine stop at the first match instead of collecting the full NODESET
+		return evaluate(document, xpath, XPathConstants.NODE) != null;
 	}
 
 	@Override
 	public boolean nodeMatches(String elementType, String elementName, Document document, String xpath,
 			Validator<String> validator) {
-		String str = (String) contentHandler.queryXPath(document, xpath, XPathConstants.STRING);
+		String str = (String) evaluate(document, xpath, XPathConstants.STRING);
 		return str != null && validator.valid(str);
 	}
 
+	@Override
+	public boolean nodesMatch(String elementType, String elementName, Document document, Map<String, String> xpaths,
+			Map<String, Validator<String>> validators) {
+		return findMismatches(document, xpaths, validators).isEmpty();
+	}
+
+	/** @return The values of the nodes which do not match their validators, by the names of their XPath expressions. */
+	private Map<String, String> findMismatches(Document document, Map<String, String> xpaths,
+			Map<String, Validator<String>> validators) {
+		for (String name : validators.keySet()) {
+			if (!xpaths.containsKey(name)) {
+				throw new AutomationException("No XPath expression for validator " + name);
+			}
+		}
+		Map<String, String> mismatches = new LinkedHashMap<String, String>();
+		for (Map.Entry<String, String> entry : queryXmlBatch(null, null, document, xpaths).entrySet()) {
+			Validator<String> validator = validators.get(entry.getKey());
+			if (validator != null && !validator.valid(entry.getValue())) {
+				mismatches.put(entry.getKey(), entry.getValue());
+			}
+		}
+		return mismatches;
+	}
+
+	@Override
+	public boolean nodeExistsInFile(String elementType, String elementName, String filePath, String xpath) {
+		StreamingXPath expression = StreamingXPath.compile(xpath);
+		if (expression == null) {
+			return nodeExists(elementType, elementName, readDocument(elementType, elementName, filePath), xpath);
+		}
+		Timer timer = metrics.start(Operation.XPATH);
+		InputStream in = fileService.perform().getInputStreamForBinaryFile(filePath);
+		try {
+			return expression.exists(metrics.countRead(in));
+		}
+		catch (XMLStreamException e) {
+			throw notWellFormed(filePath, e);
+		}
+		finally {
+			closeQuietly(in);
+			timer.stop();
+		}
+	}
+
+	@Override
+	public boolean nodeMatchesInFile(String elementType, String elementName, String filePath, String xpath,
+			Validator<String> validator) {
+		return validator.valid(queryXmlInFile(elementType, elementName, filePath, xpath));
+	}
+
+	@Override
+	public void assertNodeExistsInFile(String elementType, String elementName, String filePath, String xpath) {
+		if (!nodeExistsInFile(elementType, elementName, filePath, xpath)) {
+			throw new FunctionalFailure("Node " + xpath + " does not exist in file " + filePath + " although expected");
+		}
+	}
+
+	@Override
+	public void assertNodeMatchesInFile(String elementType, String elementName, String filePath, String xpath,
+			Validator<String> validator) {
+		if (!nodeMatchesInFile(elementType, elementName, filePath, xpath, validator)) {
+			throw new FunctionalFailure("Node " + xpath + " in file " + filePath + " does not match validator");
+		}
+	}
+
+	@Override
+	public String queryXmlInFile(String elementType, String elementName, String filePath, String xpathQuery) {
+		StreamingXPath expression = StreamingXPath.compile(xpathQuery);
+		if (expression == null) {
+			Document document = readDocument(elementType, elementName, filePath);
+			return (String) evaluate(document, xpathQuery, XPathConstants.STRING);
+		}
+		Timer timer = metrics.start(Operation.XPATH);
+		InputStream in = fileService.perform().getInputStreamForBinaryFile(filePath);
+		try {
+			return expression.stringValue(metrics.countRead(in));
+		}
+		catch (XMLStreamException e) {
+			throw notWellFormed(filePath, e);
+		}
+		finally {
+			closeQuietly(in);
+			timer.stop();
+		}
+	}
+
+	private static FunctionalFailure notWellFormed(String filePath, XMLStreamException e) {
+		return new FunctionalFailure("File " + filePath + " is not well-formed XML: " + e.getMessage());
+	}
+
+	@Override
+	public boolean canonicalHashesMatch(String elementType, String elementName, final String referenceFileName,
+			String actualFileName, XmlComparisonSettings settings) {
+		final CanonicalDocumentHash hashFunction = hashCache == null ? null : CanonicalDocumentHash.create(settings);
+		if (hashFunction == null) {
+			return false;
+		}
+		Timer timer = metrics.start(Operation.COMPARE);
+		try {
+			return hashesMatch(referenceFileName, actualFileName, hashFunction);
+		}
+		finally {
+			timer.stop();
+		}
+	}
+
+	private boolean hashesMatch(final String referenceFileName, String actualFileName,
+			final CanonicalDocumentHash hashFunction) {
+		Future<String> reference = executor.submit(new Callable<String>() {
+			@Override
+			public String call() {
+				try {
+					return hashCache.getReferenceHash(referenceFileName, hashFunction);
+				}
+				catch (XMLStreamException e) {
+					// reported by the full comparison
+					return null;
+				}
+			}
+		});
+
+		String actualHash;
+		try {
+			actualHash = hashFile(actualFileName, hashFunction);
+		}
+		catch (RuntimeException e) {
+			// do not leave the reference hashing running in the background
+			await(reference);
+			throw e;
+		}
+		String referenceHash = getResult(reference, referenceFileName);
+		return actualHash != null && actualHash.equals(referenceHash);
+	}
+
+	@Override
+	public String canonicalHash(String elementType, String elementName, String filePath, XmlComparisonSettings settings) {
+		CanonicalDocumentHash hashFunction = CanonicalDocumentHash.create(settings);
+		if (hashFunction == null) {
+			return null;
+		}
+		Timer timer = metrics.start(Operation.COMPARE);
+		String hash;
+		try {
+			hash = hashFile(filePath, hashFunction);
+		}
+		finally {
+			timer.stop();
+		}
+		if (hash == null) {
+			throw new FunctionalFailure("File " + filePath + " is not well-formed XML");
+		}
+		return hash;
+	}
+
+	/** @return The canonical hash of the file, or <code>null</code> if it is not well-formed XML. */
+	private String hashFile(String filePath, CanonicalDocumentHash hashFunction) {
+		InputStream in = fileService.perform().getInputStreamForBinaryFile(filePath);
+		try {
+			return hashFunction.hash(metrics.countRead(in));
+		}
+		catch (XMLStreamException e) {
+			return null;
+		}
+		finally {
+			closeQuietly(in);
+		}
+	}
+
 	@Override
 	public Object queryXml(String elementType, String elementName, Document document, String xpathQuery, QName returnType) {
-		return contentHandler.queryXPath(document, xpathQuery, returnType);
+		return evaluate(document, xpathQuery, returnType);
+	}
+
+	@Override
+	public Map<String, String> queryXmlBatch(String elementType, String elementName, Document document,
+			Map<String, String> xpathQueries) {
+		Timer timer = metrics.start(Operation.XPATH);
+		try {
+			return new BatchXPathEvaluator(xpathCache, namespaces).evaluate(document, xpathQueries);
+		}
+		finally {
+			timer.stop();
+		}
+	}
+
+	private Object evaluate(Document document, String xpath, QName returnType) {
+		Timer timer = metrics.start(Operation.XPATH);
+		try {
+			return xpathCache.evaluate(document, xpath, namespaces, returnType);
+		}
+		finally {
+			timer.stop();
+		}
 	}
 
 	@Override
 	public AggregateXmlDiff diff(String elementType, String elementName, Document expected, Document actual,
 			XmlComparisonSettings settings) {
-		return contentHandler.compare(expected, actual, settings);
+		Timer timer = metrics.start(Operation.COMPARE);
+		try {
+			return contentHandler.compare(expected, actual, settings);
+		}
+		finally {
+			timer.stop();
+		}
+	}
+
+	@Override
+	public XmlKeyedDiff diffByKeys(String elementType, String elementName, Document expected, Document actual,
+			Map<String, String> keyExpressions, XmlComparisonSettings settings) {
+		checkKeyedSettings(keyExpressions, settings);
+		// the matcher removes and reorders elements, so it works on private copies
+		return compareByKeys((Document) expected.cloneNode(true), (Document) actual.cloneNode(true), keyExpressions, settings);
+	}
+
+	@Override
+	public void assertDocumentsEqualByKeys(String elementType, String elementName, Document expected, Document actual,
+			Map<String, String> keyExpressions, XmlComparisonSettings settings) {
+		XmlKeyedDiff diff = diffByKeys(elementType, elementName, expected, actual, keyExpressions, settings);
+		if (!diff.isEqual()) {
+			throw new FunctionalFailure("The two XML documents do not match: " + diff);
+		}
+	}
+
+	/**
+	 * Compares two documents matching keyed elements through a hash index. Both documents may be modified. Settings other
+	 * than {@link XmlFileComparisonSettings} are only accepted without key expressions, see
+	 * {@link #checkKeyedSettings(Map, XmlComparisonSettings)}; they are passed to the content handler as they are.
+	 */
+	private XmlKeyedDiff compareByKeys(Document expected, Document actual, Map<String, String> keyExpressions,
+			XmlComparisonSettings settings) {
+		Timer timer = metrics.start(Operation.COMPARE);
+		try {
+			if (!(settings instanceof XmlFileComparisonSettings)) {
+				return new XmlKeyedDiff(contentHandler.compare(expected, actual, settings),
+						Collections.<XmlDiffDetail> emptyList(), 0, 0, 0);
+			}
+			XmlFileComparisonSettings fileSettings = (XmlFileComparisonSettings) settings;
+			Map<String, String> allKeyExpressions = new LinkedHashMap<String, String>(fileSettings.getKeyExpressions());
+			allKeyExpressions.putAll(keyExpressions);
+			KeyedElementMatcher matcher = new KeyedElementMatcher(allKeyExpressions, xpathCache, namespaces, fileSettings);
+			matcher.align(expected, actual);
+			return new XmlKeyedDiff(contentHandler.compare(expected, actual, fileSettings.copyWithoutKeyExpressions()),
+					matcher.getDetails(), matcher.getMatchedKeys(), matcher.getMissingKeys(), matcher.getExtraKeys());
+		}
+		finally {
+			timer.stop();
+		}
+	}
+
+	/**
+	 * Key expressions can only be matched by the service if it knows the tolerances of the settings, and handing them to the
+	 * content handler would modify settings which may be shared by parallel comparisons.
+	 */
+	private static void checkKeyedSettings(Map<String, String> keyExpressions, XmlComparisonSettings settings) {
+		if (!keyExpressions.isEmpty() && !(settings instanceof XmlFileComparisonSettings)) {
+			throw new AutomationException("Matching elements by key requires " + XmlFileComparisonSettings.class.getName());
+		}
+	}
+
+	@Override
+	public XmlFileComparisonResult compareFiles(String elementType, String elementName,
+			Map<String, String> referenceFilesByActualFile, Map<String, String> keyExpressions, XmlComparisonSettings settings) {
+		checkKeyedSettings(keyExpressions, settings);
+		List<FilePairComparison> comparisons = new ArrayList<FilePairComparison>();
+		for (Map.Entry<String, String> entry : referenceFilesByActualFile.entrySet()) {
+			comparisons.add(new FilePairComparison(entry.getKey(), entry.getValue(), keyExpressions, settings));
+		}
+		return runComparisons(comparisons, Collections.<XmlFilePairResult> emptyList());
+	}
+
+	@Override
+	public XmlFileComparisonResult compareDirectories(String elementType, String elementName, String actualDirectory,
+			String referenceDirectory, Map<String, String> keyExpressions, XmlComparisonSettings settings) {
+		checkKeyedSettings(keyExpressions, settings);
+		Map<String, String> actualFiles = listFilesByName(actualDirectory);
+		Map<String, String> referenceFiles = listFilesByName(referenceDirectory);
+
+		List<FilePairComparison> comparisons = new ArrayList<FilePairComparison>();
+		List<XmlFilePairResult> unmatched = new ArrayList<XmlFilePairResult>();
+		for (Map.Entry<String, String> entry : actualFiles.entrySet()) {
+			String referenceFile = referenceFiles.get(entry.getKey());
+			if (referenceFile == null) {
+				unmatched.add(new XmlFilePairResult(entry.getValue(), null, "No reference file found"));
+			}
+			else {
+				comparisons.add(new FilePairComparison(entry.getValue(), referenceFile, keyExpressions, settings));
+			}
+		}
+		for (Map.Entry<String, String> entry : referenceFiles.entrySet()) {
+			if (!actualFiles.containsKey(entry.getKey())) {
+				unmatched.add(new XmlFilePairResult(null, entry.getValue(), "No actual file found"));
+			}
+		}
+
+		return runComparisons(comparisons, unmatched);
+	}
+
+	@Override
+	public XmlRecordDiff diffFiles(String elementType, String elementName, String expectedFile, String actualFile,
+			XmlRecordDiffSettings settings) {
+		Timer timer = metrics.start(Operation.COMPARE);
+		try {
+			return new StreamingRecordDiffer(settings, diffMemory).diff(fileSource(expectedFile), fileSource(actualFile));
+		}
+		catch (XMLStreamException e) {
+			throw new FunctionalFailure("Files " + expectedFile + " and " + actualFile + " cannot be compared, as they are "
+					+ "not well-formed XML: " + e.getMessage());
+		}
+		catch (IOException e) {
+			throw new AutomationException("Could not compare " + expectedFile + " and " + actualFile, e);
+		}
+		finally {
+			timer.stop();
+		}
+	}
+
+	@Override
+	public void assertFilesEqual(String elementType, String elementName, String expectedFile, String actualFile,
+			XmlRecordDiffSettings settings) {
+		XmlRecordDiff diff = diffFiles(elementType, elementName, expectedFile, actualFile, settings);
+		if (!diff.isEqual()) {
+			throw new FunctionalFailure("The XML files do not match: " + diff);
+		}
+	}
+
+	private StreamingRecordDiffer.DocumentSource fileSource(final String filePath) {
+		return new StreamingRecordDiffer.DocumentSource() {
+			@Override
+			public InputStream open() {
+				return metrics.countRead(fileService.perform().getInputStreamForBinaryFile(filePath));
+			}
+		};
+	}
+
+	@Override
+	public void assertComparisonPassed(String elementType, String elementName, XmlFileComparisonResult result) {
+		if (!result.isPassed()) {
+			throw new FunctionalFailure("The XML files do not match. " + result);
+		}
+	}
+
+	private XmlFileComparisonResult runComparisons(List<FilePairComparison> comparisons, List<XmlFilePairResult> unmatched) {
+		for (FilePairComparison comparison : comparisons) {
+			executor.execute(comparison);
+		}
+		List<XmlFilePairResult> results = new ArrayList<XmlFilePairResult>(comparisons.size() + unmatched.size());
+		for (FilePairComparison comparison : comparisons) {
+			results.add(comparison.join());
+		}
+		results.addAll(unmatched);
+		return new XmlFileComparisonResult(results);
+	}
+
+	/** Lists the files of a directory, mapped and sorted by their names. */
+	private Map<String, String> listFilesByName(String directory) {
+		Map<String, String> result = new TreeMap<String, String>();
+		for (String path : fileService.perform().getChildren(directory)) {
+			if (!fileService.check().isDirectory(path)) {
+				result.put(path.substring(path.lastIndexOf('/') + 1), path);
+			}
+		}
+		return result;
 	}
 
 	@Override
 	public void waitUntilExists(String elementType, String elementName, String filePath) {
-		fileService.perform().waitUntilExists(elementType, filePath);
+		if (!watch(filePath, true)) {
+			fileService.perform().waitUntilExists(elementType, filePath);
+		}
 	}
 
 	@Override
 	public void waitUntilNotExists(String elementType, String elementName, String filePath) {
-		fileService.perform().waitUntilNotExists(filePath);
+		if (!watch(filePath, false)) {
+			fileService.perform().waitUntilNotExists(filePath);
+		}
+	}
+
+	@Override
+	public void waitUntilComplete(String elementType, String elementName, String filePath, long timeout) {
+		GrowingFileInputStream in = new GrowingFileInputStream(fileService, filePath, timeout);
+		try {
+			WellFormednessCheck.checkDocumentElement(in);
+		}
+		catch (XMLStreamException e) {
+			if (in.isTimedOut()) {
+				throw notCompleted(filePath, timeout, in);
+			}
+			throw notWellFormed(filePath, e);
+		}
+		catch (IOException e) {
+			if (in.isTimedOut()) {
+				throw notCompleted(filePath, timeout, in);
+			}
+			throw new AutomationException("Could not read " + filePath, e);
+		}
+		finally {
+			closeQuietly(in);
+		}
+	}
+
+	@Override
+	public void waitUntilNodeMatches(String elementType, String elementName, String filePath, String xpath,
+			Validator<String> validator, long timeout) {
+		PolledDocument file = new PolledDocument(fileService, filePath,
+				fileWatcher != null ? fileWatcher.resolve(filePath) : null, contentHandler);
+		long deadline = System.currentTimeMillis() + timeout;
+		while (true) {
+			Document document = file.pollChanged();
+			if (document != null && nodeMatches(elementType, elementName, document, xpath, validator)) {
+				return;
+			}
+			long remaining = deadline - System.currentTimeMillis();
+			if (remaining <= 0) {
+				throw new PerformanceFailure("Node " + xpath + " of file " + filePath + " did not match within " + timeout
+						+ " ms");
+			}
+			try {
+				Thread.sleep(Math.min(remaining, POLL_INTERVAL_MILLIS));
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new AutomationException("Interrupted while waiting for " + filePath, e);
+			}
+		}
+	}
+
+	private static PerformanceFailure notCompleted(String filePath, long timeout, GrowingFileInputStream in) {
+		return new PerformanceFailure("File " + filePath + " was not completed within " + timeout + " ms, stopped at "
+				+ in.getPosition() + " bytes");
+	}
+
+	/**
+	 * Waits for a file using the file watcher, if configured.
+	 * 
+	 * @return <code>true</code> if the file reached the requested state, <code>false</code> if the file service has to be
+	 *         polled instead.
+	 */
+	private boolean watch(String filePath, boolean exists) {
+		if (fileWatcher == null) {
+			return false;
+		}
+		try {
+			if (!fileWatcher.await(filePath, exists, watchTimeout)) {
+				throw new PerformanceFailure("File " + (exists ? "did not appear" : "did not disappear") + " within "
+						+ watchTimeout + " ms: " + filePath);
+			}
+			return true;
+		}
+		catch (IOException e) {
+			// directory cannot be watched, e.g. because it does not exist yet
+			return false;
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new AutomationException("Interrupted while waiting for " + filePath, e);
+		}
 	}
 
 	@Override
@@ -170,58 +819,336 @@ public class XmlFileAction implements XmlFileInteraction, XmlFileCondition, XmlF
 	}
 
 	@Override
-	public void writeXml(String elementType, String elementName, Document document, String filePath, boolean overwrite) {
-		ByteArrayOutputStream baos = new ByteArrayOutputStream();
-		contentHandler.writeDocument(document, this.encoding, baos);
-		fileService.perform().writeBinaryFile(filePath, baos.toByteArray(), overwrite);
+	public void writeXml(String elementType, String elementName, final Document document, String filePath, boolean overwrite) {
+		Timer timer = metrics.start(Operation.WRITE);
+		try {
+			// serialize directly into the target file instead of buffering the complete serialized document
+			PipedFileWriter.write(fileService, filePath, overwrite, new PipedFileWriter.ContentProducer() {
+				@Override
+				public void writeTo(OutputStream out) {
+					contentHandler.writeDocument(document, encoding, metrics.countWritten(out));
+				}
+			});
+		}
+		finally {
+			timer.stop();
+		}
 	}
 
 	@Override
 	public Document createDocument(String elementType, String elementName, String templateUri, String templateEncoding, Map<String, Object> variables) {
-		if (variables == null) {
-			variables = Collections.emptyMap();
+		final Map<String, Object> templateVariables = (variables == null ? Collections.<String, Object> emptyMap() : variables);
+		Timer timer = metrics.start(Operation.TEMPLATE);
+		try {
+			final Template template = templateCache.getTemplate(templateUri, templateEncoding);
+			// template output is parsed while it is rendered, so it is never held in memory besides the document
+			ProducerPipe rendered = ProducerPipe.start(new PipedFileWriter.ContentProducer() {
+				@Override
+				public void writeTo(OutputStream out) throws Exception {
+					renderTemplate(template, templateVariables, out);
+				}
+			});
+			Document document = null;
+			Exception parseError = null;
+			try {
+				document = contentHandler.readDocument(rendered.getInputStream());
+			}
+			catch (Exception e) {
+				parseError = e;
+			}
+			finally {
+				rendered.close();
+			}
+			Throwable error = renderingError(rendered, parseError);
+			if (error != null) {
+				throw new AutomationException("Could not create XML document from template", error);
+			}
+			return document;
 		}
+		catch (IOException e) {
+			throw new AutomationException("Could not create XML document from template", e);
+		}
+		finally {
+			timer.stop();
+		}
+	}
+
+	@Override
+	public void writeDocumentFromTemplate(String elementType, String elementName, String templateUri,
+			String templateEncoding, Map<String, Object> variables, String filePath, boolean overwrite) {
+		final Map<String, Object> templateVariables = (variables == null ? Collections.<String, Object> emptyMap() : variables);
+		final Template template;
 		try {
-			return contentHandler.createDocument(templateUri, templateEncoding, variables);
+			template = templateCache.getTemplate(templateUri, templateEncoding);
 		}
-		catch (Exception e) {
+		catch (IOException e) {
 			throw new AutomationException("Could not create XML document from template", e);
 		}
+
+		Timer timer = metrics.start(Operation.TEMPLATE);
+		try {
+			// template output flows through a well-formedness check into the file, without ever building a DOM
+			PipedFileWriter.write(fileService, filePath, overwrite, new PipedFileWriter.ContentProducer() {
+				@Override
+				public void writeTo(OutputStream out) {
+					ProducerPipe rendered = ProducerPipe.start(new PipedFileWriter.ContentProducer() {
+						@Override
+						public void writeTo(OutputStream renderOut) throws Exception {
+							renderTemplate(template, templateVariables, renderOut);
+						}
+					});
+					Exception checkError = null;
+					try {
+						WellFormednessCheck.copyChecked(rendered.getInputStream(), metrics.countWritten(out));
+					}
+					catch (Exception e) {
+						checkError = e;
+					}
+					finally {
+						rendered.close();
+					}
+
+					Throwable error = renderingError(rendered, checkError);
+					if (error != null) {
+						throw new AutomationException(error == checkError ? "Template output is not well-formed XML"
+								: "Could not create XML document from template", error);
+					}
+				}
+			});
+		}
+		finally {
+			timer.stop();
+		}
 	}
 
 	@Override
 	public Document readDocument(String elementType, String elementName, String fileName) {
-		byte[] data = fileService.perform().readBinaryFile(fileName);
-		ByteArrayInputStream bais = new ByteArrayInputStream(data);
-		return contentHandler.readDocument(bais);
+		// parse directly from the file service stream to avoid holding a full byte[] copy next to the DOM
+		Timer timer = metrics.start(Operation.PARSE);
+		InputStream in = fileService.perform().getInputStreamForBinaryFile(fileName);
+		try {
+			return contentHandler.readDocument(metrics.countRead(in));
+		}
+		finally {
+			closeQuietly(in);
+			timer.stop();
+		}
+	}
+
+	@Override
+	public Document readCompactDocument(String elementType, String elementName, String fileName) {
+		Timer timer = metrics.start(Operation.PARSE);
+		InputStream in = fileService.perform().getInputStreamForBinaryFile(fileName);
+		try {
+			return CompactDocument.parse(metrics.countRead(in));
+		}
+		catch (XMLStreamException e) {
+			throw new AutomationException("Could not read " + fileName, e);
+		}
+		finally {
+			closeQuietly(in);
+			timer.stop();
+		}
 	}
 
-	private static void documentToXml(Document document, Writer writer) throws IOException {
-		DOMSource src = new DOMSource(document);
-		StreamResult res = new StreamResult(writer);
+	@Override
+	public List<Document> readDocuments(final String elementType, final String elementName, List<String> fileNames) {
+		List<Future<Document>> futures = new ArrayList<Future<Document>>(fileNames.size());
+		for (final String fileName : fileNames) {
+			futures.add(executor.submit(new Callable<Document>() {
+				@Override
+				public Document call() {
+					return readDocument(elementType, elementName, fileName);
+				}
+			}));
+		}
+
+		List<Document> documents = new ArrayList<Document>(fileNames.size());
+		List<String> failedFiles = new ArrayList<String>();
+		List<Throwable> errors = new ArrayList<Throwable>();
+		for (int i = 0; i < futures.size(); i++) {
+			try {
+				documents.add(futures.get(i).get());
+			}
+			catch (ExecutionException e) {
+				documents.add(null);
+				failedFiles.add(fileNames.get(i));
+				errors.add(e.getCause());
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new AutomationException("Interrupted while reading XML documents", e);
+			}
+		}
+
+		if (!errors.isEmpty()) {
+			throw createBatchFailure("Could not read " + errors.size() + " of " + fileNames.size() + " XML documents",
+					failedFiles, errors);
+		}
+		return documents;
+	}
 
-		TransformerFactory factory = TransformerFactory.newInstance();
+	@Override
+	public Document readReferenceDocument(String elementType, String elementName, String fileName) {
+		Timer timer = metrics.start(Operation.PARSE);
 		try {
-			Transformer tf = factory.newTransformer();
-			tf.transform(src, res);
+			return referenceCache.getDocument(fileName);
+		}
+		finally {
+			timer.stop();
 		}
-		catch (TransformerException e) {
-			if (e.getCause() instanceof IOException) {
-				throw (IOException) e.getCause();
+	}
+
+	@Override
+	public List<Document> readDocumentPair(String elementType, String elementName, final String referenceFileName,
+			String actualFileName) {
+		Future<Document> reference = executor.submit(new Callable<Document>() {
+			@Override
+			public Document call() {
+				return referenceCache.getDocument(referenceFileName);
 			}
+		});
 
-			throw new IOException("Could not write XML", e);
+		Document actual;
+		try {
+			actual = readDocument(elementType, elementName, actualFileName);
+		}
+		catch (RuntimeException e) {
+			// do not leave the reference read running in the background
+			await(reference);
+			throw e;
 		}
+		return Arrays.asList(getResult(reference, referenceFileName), actual);
 	}
 
-	private static Attachment createErrorAttachment(String message, IOException e) {
-		StringWriter sw = new StringWriter();
-		sw.append(message).append("\n");
-		e.printStackTrace(new PrintWriter(sw));
+	private static void await(Future<?> future) {
+		try {
+			future.get();
+		}
+		catch (ExecutionException e) {
+			// the caller reports its own failure
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
 
-		return new StringAttachment(message, sw.toString(), "txt");
+	private static <T> T getResult(Future<T> future, String fileName) {
+		try {
+			return future.get();
+		}
+		catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw new AutomationException("Could not read " + fileName, cause);
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new AutomationException("Interrupted while reading " + fileName, e);
+		}
 	}
 
+	/** Reads, parses and compares one pair of files. Failures are reported in the result instead of being thrown. */
+	private class FilePairComparison extends RecursiveTask<XmlFilePairResult> {
+
+		private static final long serialVersionUID = 1L;
 
+		private final String actualFile;
+
+		private final String referenceFile;
+
+		private final Map<String, String> keyExpressions;
+
+		private final XmlComparisonSettings settings;
+
+		private FilePairComparison(String actualFile, String referenceFile, Map<String, String> keyExpressions,
+				XmlComparisonSettings settings) {
+			this.actualFile = actualFile;
+			this.referenceFile = referenceFile;
+			this.keyExpressions = keyExpressions;
+			this.settings = settings;
+		}
+
+		@Override
+		protected XmlFilePairResult compute() {
+			try {
+				Document expected = referenceCache.getDocument(referenceFile);
+				Document actual = readDocument(null, null, actualFile);
+				if (keyExpressions.isEmpty()) {
+					Timer timer = metrics.start(Operation.COMPARE);
+					try {
+						return new XmlFilePairResult(actualFile, referenceFile, contentHandler.compare(expected, actual,
+								settings));
+					}
+					finally {
+						timer.stop();
+					}
+				}
+				// both documents are private copies, so they may be modified by the matcher
+				return new XmlFilePairResult(actualFile, referenceFile, compareByKeys(expected, actual, keyExpressions, settings));
+			}
+			catch (RuntimeException e) {
+				return new XmlFilePairResult(actualFile, referenceFile, e.getMessage() == null ? e.toString() : e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Creates one exception reporting the failures of a batch operation per file. If any failure is not a functional one, an
+	 * {@link AutomationException} is created, with the first such failure as cause.
+	 */
+	private static RuntimeException createBatchFailure(String message, List<String> fileNames, List<Throwable> errors) {
+		StringBuilder sb = new StringBuilder(message).append(":");
+		Throwable technicalError = null;
+		for (int i = 0; i < errors.size(); i++) {
+			Throwable error = errors.get(i);
+			sb.append("\n").append(fileNames.get(i)).append(": ").append(error.getMessage());
+			if (technicalError == null && !(error instanceof FunctionalFailure)) {
+				technicalError = error;
+			}
+		}
+
+		if (technicalError != null) {
+			return new AutomationException(sb.toString(), technicalError);
+		}
+		return new FunctionalFailure(sb.toString());
+	}
+
+	/**
+	 * @return The error to report for a template which was rendered into a consumer, or <code>null</code> if neither failed.
+	 *         A failing template also causes the consumer to fail, so the template error comes first, unless the template
+	 *         only failed to write because the consumer had already failed and closed the pipe.
+	 */
+	private static Throwable renderingError(ProducerPipe rendered, Exception consumerError) {
+		Throwable templateError = rendered.getError();
+		if (templateError == null || (consumerError != null && templateError instanceof IOException)) {
+			return consumerError;
+		}
+		return templateError;
+	}
+
+	/** Renders the template in the encoding of its XML declaration, which the parsers of the output expect. */
+	private static void renderTemplate(Template template, Map<String, Object> variables, OutputStream out)
+			throws IOException, TemplateException {
+		Writer writer = new DeclaredEncodingWriter(out);
+		template.process(variables, writer);
+		writer.flush();
+	}
+
+	private static void closeQuietly(Closeable closeable) {
+		if (closeable != null) {
+			try {
+				closeable.close();
+			}
+			catch (IOException e) {
+				// ignore
+			}
+		}
+	}
 
 }
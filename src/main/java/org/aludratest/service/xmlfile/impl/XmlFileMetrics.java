@@ -0,0 +1,452 @@
+/*
+ * Copyright (C) 2015 Hamburg Sud and the contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aludratest.service.xmlfile.impl;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Per-operation counters and latency histograms of an XmlFileService instance. Operations are measured with a {@link Timer}
+ * obtained from {@link #start(Operation)}; the durations are recorded in histograms with power-of-two buckets, so recording
+ * is lock-free and needs no memory. The allocations of the calling thread are recorded as well, if supported by the JVM.
+ * Nested operations, e.g. parsing a file for an XPath query which cannot be streamed, are measured independently, so their
+ * durations overlap. <br>
+ * Disabled metrics return a shared timer which does nothing, and do not wrap streams, so they cost close to nothing.
+ */
+public class XmlFileMetrics implements XmlFileMetricsMXBean {
+
+	/** The kinds of measured operations. */
+	public enum Operation {
+
+		/** Reading and parsing a document. */
+		PARSE,
+
+		/** Serializing a document into a file. */
+		WRITE,
+
+		/** Evaluating an XPath expression, on a document or while streaming a file. */
+		XPATH,
+
+		/** Comparing two documents or files, including their canonical hashes. */
+		COMPARE,
+
+		/** Rendering a template. */
+		TEMPLATE,
+
+		/** Rendering a document attachment for the test report. */
+		ATTACHMENT
+
+	}
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(XmlFileMetrics.class);
+
+	/** Bucket <code>i</code> counts the durations of <code>i</code> significant bits, i.e. below <code>2^i</code> ns */
+	private static final int BUCKETS = 64;
+
+	private static final Timer NO_TIMER = new Timer(null, null, 0, 0);
+
+	/** The metrics currently registered at the MBean server, to not unregister the MBean of a newer service instance */
+	private static final ConcurrentMap<ObjectName, XmlFileMetrics> REGISTERED =
+			new ConcurrentHashMap<ObjectName, XmlFileMetrics>();
+
+	private final boolean enabled;
+
+	/** Thread MXBean measuring allocations, or <code>null</code> if not supported */
+	private final com.sun.management.ThreadMXBean allocationBean;
+
+	private final Histogram[] histograms;
+
+	private final AtomicLong bytesRead = new AtomicLong();
+
+	private final AtomicLong bytesWritten = new AtomicLong();
+
+	private final List<XmlFileMetricsListener> listeners = new CopyOnWriteArrayList<XmlFileMetricsListener>();
+
+	private ObjectName objectName;
+
+	/**
+	 * Creates new metrics.
+	 * 
+	 * @param enabled
+	 *            If <code>false</code>, nothing is measured.
+	 */
+	public XmlFileMetrics(boolean enabled) {
+		this.enabled = enabled;
+		this.allocationBean = enabled ? findAllocationBean() : null;
+		this.histograms = new Histogram[Operation.values().length];
+		for (int i = 0; i < histograms.length; i++) {
+			histograms[i] = new Histogram();
+		}
+	}
+
+	@Override
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Starts measuring an operation.
+	 * 
+	 * @param operation
+	 *            The kind of operation.
+	 * @return The timer to stop when the operation has completed, usually in a <code>finally</code> block.
+	 */
+	public Timer start(Operation operation) {
+		if (!enabled) {
+			return NO_TIMER;
+		}
+		return new Timer(this, operation, System.nanoTime(), allocatedBytes());
+	}
+
+	/**
+	 * Counts the bytes read from the given stream as bytes read from the file service.
+	 * 
+	 * @param in
+	 *            Stream provided by the file service.
+	 * @return A stream counting the bytes read, or the given stream if the metrics are disabled.
+	 */
+	public InputStream countRead(InputStream in) {
+		return enabled ? new CountingInputStream(in, bytesRead) : in;
+	}
+
+	/**
+	 * Counts the bytes written to the given stream as bytes written to the file service.
+	 * 
+	 * @param out
+	 *            Stream whose contents are written to the file service.
+	 * @return A stream counting the bytes written, or the given stream if the metrics are disabled.
+	 */
+	public OutputStream countWritten(OutputStream out) {
+		return enabled ? new CountingOutputStream(out, bytesWritten) : out;
+	}
+
+	/**
+	 * Adds a listener which is notified of each completed operation.
+	 * 
+	 * @param listener
+	 *            Listener to add.
+	 */
+	public void addListener(XmlFileMetricsListener listener) {
+		listeners.add(listener);
+	}
+
+	/**
+	 * Removes a listener.
+	 * 
+	 * @param listener
+	 *            Listener to remove.
+	 */
+	public void removeListener(XmlFileMetricsListener listener) {
+		listeners.remove(listener);
+	}
+
+	@Override
+	public long getBytesRead() {
+		return bytesRead.get();
+	}
+
+	@Override
+	public long getBytesWritten() {
+		return bytesWritten.get();
+	}
+
+	/**
+	 * Returns the statistics of one kind of operation.
+	 * 
+	 * @param operation
+	 *            The kind of operation.
+	 * @return A snapshot of the statistics.
+	 */
+	public OperationStatistics getStatistics(Operation operation) {
+		return histograms[operation.ordinal()].snapshot(operation.name(), allocationBean != null);
+	}
+
+	@Override
+	public List<OperationStatistics> getOperationStatistics() {
+		List<OperationStatistics> result = new ArrayList<OperationStatistics>();
+		for (Operation operation : Operation.values()) {
+			result.add(getStatistics(operation));
+		}
+		return result;
+	}
+
+	@Override
+	public void reset() {
+		for (Histogram histogram : histograms) {
+			histogram.reset();
+		}
+		bytesRead.set(0);
+		bytesWritten.set(0);
+	}
+
+	/**
+	 * Registers these metrics at the platform MBean server. An MBean of a previous service instance with the same name is
+	 * replaced.
+	 * 
+	 * @param instanceName
+	 *            Name of the service instance.
+	 */
+	synchronized void registerMBean(String instanceName) {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		try {
+			ObjectName name = new ObjectName("org.aludratest:type=XmlFileService,name=" + ObjectName.quote(instanceName));
+			try {
+				server.registerMBean(this, name);
+			}
+			catch (InstanceAlreadyExistsException e) {
+				server.unregisterMBean(name);
+				server.registerMBean(this, name);
+			}
+			objectName = name;
+			REGISTERED.put(name, this);
+		}
+		catch (JMException e) {
+			LOGGER.warn("Could not register XmlFileService metrics in JMX", e);
+		}
+	}
+
+	/** Unregisters these metrics from the platform MBean server, if registered. */
+	synchronized void unregisterMBean() {
+		if (objectName == null || !REGISTERED.remove(objectName, this)) {
+			objectName = null;
+			return;
+		}
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			if (server.isRegistered(objectName)) {
+				server.unregisterMBean(objectName);
+			}
+		}
+		catch (JMException e) {
+			LOGGER.warn("Could not unregister XmlFileService metrics from JMX", e);
+		}
+		objectName = null;
+	}
+
+	private void record(Operation operation, long durationNanos, long allocated) {
+		histograms[operation.ordinal()].record(durationNanos, allocated);
+		for (XmlFileMetricsListener listener : listeners) {
+			try {
+				listener.operationCompleted(operation, durationNanos, allocated);
+			}
+			catch (RuntimeException e) {
+				LOGGER.warn("XmlFileService metrics listener failed", e);
+			}
+		}
+	}
+
+	private long allocatedBytes() {
+		return allocationBean == null ? -1 : allocationBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+	private static com.sun.management.ThreadMXBean findAllocationBean() {
+		ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (bean instanceof com.sun.management.ThreadMXBean) {
+			com.sun.management.ThreadMXBean allocationBean = (com.sun.management.ThreadMXBean) bean;
+			if (allocationBean.isThreadAllocatedMemorySupported() && allocationBean.isThreadAllocatedMemoryEnabled()) {
+				return allocationBean;
+			}
+		}
+		return null;
+	}
+
+	/** Measures one operation. */
+	public static final class Timer {
+
+		private final XmlFileMetrics metrics;
+
+		private final Operation operation;
+
+		private final long startNanos;
+
+		private final long startAllocated;
+
+		private Timer(XmlFileMetrics metrics, Operation operation, long startNanos, long startAllocated) {
+			this.metrics = metrics;
+			this.operation = operation;
+			this.startNanos = startNanos;
+			this.startAllocated = startAllocated;
+		}
+
+		/** Records the duration and allocations since the timer was started. */
+		public void stop() {
+			if (metrics == null) {
+				return;
+			}
+			long duration = System.nanoTime() - startNanos;
+			long allocated = startAllocated < 0 ? -1 : metrics.allocatedBytes() - startAllocated;
+			metrics.record(operation, Math.max(0, duration), allocated);
+		}
+	}
+
+	private static final class Histogram {
+
+		private final AtomicLong count = new AtomicLong();
+
+		private final AtomicLong totalNanos = new AtomicLong();
+
+		private final AtomicLong maxNanos = new AtomicLong();
+
+		private final AtomicLong allocatedBytes = new AtomicLong();
+
+		private final AtomicLong[] buckets = new AtomicLong[BUCKETS];
+
+		private Histogram() {
+			for (int i = 0; i < BUCKETS; i++) {
+				buckets[i] = new AtomicLong();
+			}
+		}
+
+		private void record(long nanos, long allocated) {
+			buckets[BUCKETS - Long.numberOfLeadingZeros(nanos)].incrementAndGet();
+			count.incrementAndGet();
+			totalNanos.addAndGet(nanos);
+			if (allocated > 0) {
+				allocatedBytes.addAndGet(allocated);
+			}
+			long max = maxNanos.get();
+			while (nanos > max && !maxNanos.compareAndSet(max, nanos)) {
+				max = maxNanos.get();
+			}
+		}
+
+		private void reset() {
+			for (AtomicLong bucket : buckets) {
+				bucket.set(0);
+			}
+			count.set(0);
+			totalNanos.set(0);
+			maxNanos.set(0);
+			allocatedBytes.set(0);
+		}
+
+		private OperationStatistics snapshot(String operation, boolean allocationSupported) {
+			long[] counts = new long[BUCKETS];
+			long total = 0;
+			for (int i = 0; i < BUCKETS; i++) {
+				counts[i] = buckets[i].get();
+				total += counts[i];
+			}
+			long max = maxNanos.get();
+			return new OperationStatistics(operation, count.get(), totalNanos.get(), max, percentile(counts, total, 0.5, max),
+					percentile(counts, total, 0.9, max), percentile(counts, total, 0.99, max),
+					allocationSupported ? allocatedBytes.get() : -1);
+		}
+
+		/** @return The upper bound of the bucket containing the percentile, limited by the maximum. */
+		private static long percentile(long[] counts, long total, double fraction, long max) {
+			if (total == 0) {
+				return 0;
+			}
+			long rank = (long) Math.ceil(total * fraction);
+			long cumulated = 0;
+			for (int i = 0; i < counts.length; i++) {
+				cumulated += counts[i];
+				if (cumulated >= rank) {
+					return i == BUCKETS - 1 ? max : Math.min((1L << i) - 1, max);
+				}
+			}
+			return max;
+		}
+	}
+
+	/** Counts the bytes read from the underlying stream. */
+	private static final class CountingInputStream extends FilterInputStream {
+
+		private final AtomicLong counter;
+
+		private CountingInputStream(InputStream in, AtomicLong counter) {
+			super(in);
+			this.counter = counter;
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = super.read();
+			if (b != -1) {
+				counter.incrementAndGet();
+			}
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int read = super.read(b, off, len);
+			if (read > 0) {
+				counter.addAndGet(read);
+			}
+			return read;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			long skipped = super.skip(n);
+			if (skipped > 0) {
+				counter.addAndGet(skipped);
+			}
+			return skipped;
+		}
+
+		@Override
+		public boolean markSupported() {
+			// re-read data would be counted twice
+			return false;
+		}
+	}
+
+	/** Counts the bytes written to the underlying stream. */
+	private static final class CountingOutputStream extends FilterOutputStream {
+
+		private final AtomicLong counter;
+
+		private CountingOutputStream(OutputStream out, AtomicLong counter) {
+			super(out);
+			this.counter = counter;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			out.write(b);
+			counter.incrementAndGet();
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+			counter.addAndGet(len);
+		}
+	}
+
+}
@@ -0,0 +1,38 @@
+/*
+ * Copyright (C) 2015 Hamburg Sud and the contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aludratest.service.xmlfile.impl;
+
+/**
+ * Receives the measurements of {@link XmlFileMetrics}, e.g. to forward them to a monitoring system. Listeners are called
+ * synchronously in the thread which performed the operation, so they should return quickly. Classes configured as
+ * <code>metrics.listener</code> of the service must have a public no-argument constructor.
+ */
+public interface XmlFileMetricsListener {
+
+	/**
+	 * Called after an operation has completed, successfully or not.
+	 * 
+	 * @param operation
+	 *            The kind of operation.
+	 * @param durationNanos
+	 *            The duration of the operation, in nanoseconds.
+	 * @param allocatedBytes
+	 *            The number of bytes allocated by the calling thread during the operation, or <code>-1</code> if not supported
+	 *            by the JVM.
+	 */
+	void operationCompleted(XmlFileMetrics.Operation operation, long durationNanos, long allocatedBytes);
+
+}
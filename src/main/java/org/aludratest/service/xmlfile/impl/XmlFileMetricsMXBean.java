@@ -0,0 +1,42 @@
+/*
+ * Copyright (C) 2015 Hamburg Sud and the contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aludratest.service.xmlfile.impl;
+
+import java.util.List;
+
+/**
+ * JMX view of the {@link XmlFileMetrics} of an XmlFileService instance. Registered as
+ * <code>org.aludratest:type=XmlFileService,name=&lt;instance name&gt;</code> if metrics are enabled in the service
+ * configuration.
+ */
+public interface XmlFileMetricsMXBean {
+
+	/** @return <code>true</code> if operations are measured, <code>false</code> otherwise. */
+	boolean isEnabled();
+
+	/** @return The number of bytes read from the file service. */
+	long getBytesRead();
+
+	/** @return The number of bytes written to the file service. */
+	long getBytesWritten();
+
+	/** @return The statistics of all kinds of operations, including the ones which have not been performed yet. */
+	List<OperationStatistics> getOperationStatistics();
+
+	/** Resets all counters and histograms. */
+	void reset();
+
+}
@@ -15,8 +15,13 @@
  */
 package org.aludratest.service.xmlfile.impl;
 
+import java.io.File;
+import java.util.concurrent.ForkJoinPool;
+
 import org.aludratest.config.Preferences;
+import org.aludratest.content.xml.XmlComparisonSettings;
 import org.aludratest.content.xml.XmlContent;
+import org.aludratest.exception.AutomationException;
 import org.aludratest.service.AbstractConfigurableAludraService;
 import org.aludratest.service.ComponentId;
 import org.aludratest.service.Implementation;
@@ -38,6 +43,63 @@ public class XmlFileServiceImpl extends AbstractConfigurableAludraService implem
 	/** A copy of the encoding property from configuration. Used for XML writes */
 	private String encoding = "UTF-8";
 
+	/** Cache of compiled XPath expressions, shared by all actions of this service instance */
+	private XPathExpressionCache xpathCache;
+
+	/** Maximum number of characters of rendered XML attachments */
+	private int maxAttachmentSize;
+
+	/** Memory budget of the reference document cache, in bytes */
+	private long referenceCacheMemory;
+
+	/** Cache of compiled FreeMarker templates, shared by all actions of this service instance */
+	private TemplateCache templateCache;
+
+	/** Number of threads for parallel file processing */
+	private int parallelism;
+
+	/** Executor for parallel file processing, shared by all actions of this service instance */
+	private ForkJoinPool executor;
+
+	/** Memory limit of streaming file comparisons, in bytes */
+	private long diffMemory;
+
+	/** Local directory corresponding to the root of the file service, or <code>null</code> if not accessible locally */
+	private String watchBaseDir;
+
+	/** Maximum time to wait for files when watching the local directory, in milliseconds */
+	private long watchTimeout;
+
+	/** If document comparisons stop at the first difference, where the settings permit */
+	private boolean compareFailFast;
+
+	/** Number of differences reported by failed document assertions */
+	private int compareFailureDetails;
+
+	/** If documents are compared by their canonical hashes before comparing them in detail */
+	private boolean compareHash;
+
+	/** Local file to persist canonical hashes of reference files in, or <code>null</code> */
+	private String hashCacheFile;
+
+	/** Cache of canonical hashes of reference files, or <code>null</code> if comparing by hashes is disabled */
+	private CanonicalHashCache hashCache;
+
+	/** Namespace prefixes which can be used in XPath expressions, shared by all actions of this service instance */
+	private NamespaceRegistry namespaces;
+
+	/** If the durations, allocations and transferred bytes of the operations are recorded */
+	private boolean metricsEnabled;
+
+	/** If enabled metrics are published in JMX */
+	private boolean metricsJmx;
+
+	/** Class name of the metrics listener, or <code>null</code> */
+	private String metricsListener;
+
+	/** Metrics of the operations of this service instance */
+	private XmlFileMetrics metrics;
+
 	@Override
 	public String getPropertiesBaseName() {
 		return "xmlService";
@@ -46,13 +108,66 @@ public class XmlFileServiceImpl extends AbstractConfigurableAludraService implem
 	@Override
 	public void configure(Preferences preferences) {
 		encoding = preferences.getStringValue("encoding", "UTF-8");
+		xpathCache = new XPathExpressionCache(preferences.getIntValue("xpath.cache.size", 256));
+		maxAttachmentSize = preferences.getIntValue("attachment.max.size", 1024 * 1024);
+		referenceCacheMemory = preferences.getIntValue("reference.cache.memory", 64) * 1024L * 1024L;
+		templateCache = new TemplateCache(preferences.getIntValue("template.cache.size", 64),
+				preferences.getBooleanValue("template.cache.check.modified", false));
+		parallelism = preferences.getIntValue("parallel.threads", 0);
+		if (parallelism <= 0) {
+			parallelism = Runtime.getRuntime().availableProcessors();
+		}
+		diffMemory = preferences.getIntValue("diff.spill.memory", 32) * 1024L * 1024L;
+		watchBaseDir = preferences.getStringValue("watch.base.dir", null);
+		watchTimeout = preferences.getIntValue("watch.timeout", 30000);
+		compareFailFast = preferences.getBooleanValue("compare.fail.fast", false);
+		compareFailureDetails = preferences.getIntValue("compare.failure.details", 0);
+		compareHash = preferences.getBooleanValue("compare.hash", false);
+		hashCacheFile = preferences.getStringValue("hash.cache.file", null);
+		namespaces = NamespaceRegistry.parse(preferences.getStringValue("namespaces", null));
+		metricsEnabled = preferences.getBooleanValue("metrics.enabled", false);
+		metricsJmx = preferences.getBooleanValue("metrics.jmx", true);
+		metricsListener = preferences.getStringValue("metrics.listener", null);
 	}
 
 	@Override
 	public void initService() {
 		this.fileService = aludraServiceContext.getNonLoggingService(ComponentId.create(FileService.class, getInstanceName()));
 		XmlContent contentHandler = aludraServiceContext.newComponentInstance(XmlContent.class);
-		this.action = new XmlFileAction(contentHandler, fileService, encoding);
+		ReferenceDocumentCache referenceCache = new ReferenceDocumentCache(fileService, contentHandler, referenceCacheMemory);
+		this.executor = new ForkJoinPool(parallelism);
+		this.action = new XmlFileAction(contentHandler, fileService, encoding, xpathCache, maxAttachmentSize, referenceCache,
+				templateCache, executor, diffMemory);
+		if (compareHash) {
+			File storeFile = hashCacheFile != null && hashCacheFile.trim().length() > 0 ? new File(hashCacheFile.trim()) : null;
+			this.hashCache = new CanonicalHashCache(fileService, storeFile);
+		}
+		this.action.configureComparison(compareFailFast, compareFailureDetails, hashCache);
+		this.action.configureNamespaces(namespaces);
+		this.metrics = createMetrics();
+		this.action.configureMetrics(metrics);
+		if (watchBaseDir != null && watchBaseDir.trim().length() > 0) {
+			this.action.enableFileWatch(new File(watchBaseDir.trim()), watchTimeout);
+		}
+	}
+
+	private XmlFileMetrics createMetrics() {
+		XmlFileMetrics result = new XmlFileMetrics(metricsEnabled);
+		if (!metricsEnabled) {
+			return result;
+		}
+		if (metricsListener != null && metricsListener.trim().length() > 0) {
+			try {
+				result.addListener((XmlFileMetricsListener) Class.forName(metricsListener.trim()).newInstance());
+			}
+			catch (Exception e) {
+				throw new AutomationException("Could not create metrics listener " + metricsListener, e);
+			}
+		}
+		if (metricsJmx) {
+			result.registerMBean(getInstanceName());
+		}
+		return result;
 	}
 
 	@Override
@@ -67,6 +182,12 @@ public class XmlFileServiceImpl extends AbstractConfigurableAludraService implem
 
 	@Override
 	public void close() {
+		if (executor != null) {
+			executor.shutdownNow();
+		}
+		if (metrics != null) {
+			metrics.unregisterMBean();
+		}
 		fileService.close();
 	}
 
@@ -90,5 +211,56 @@ public class XmlFileServiceImpl extends AbstractConfigurableAludraService implem
 		return fileService;
 	}
 
+	@Override
+	public boolean isHashComparable(XmlComparisonSettings settings) {
+		return hashCache != null && CanonicalDocumentHash.create(settings) != null;
+	}
+
+	/**
+	 * Provides the cache of compiled XPath expressions used by this service, e.g. for querying its hit and miss counters.
+	 * 
+	 * @return The cache of compiled XPath expressions used by this service.
+	 */
+	public XPathExpressionCache getXPathExpressionCache() {
+		return xpathCache;
+	}
+
+	/**
+	 * Provides the cache of compiled FreeMarker templates used by this service, e.g. for querying its hit and miss counters.
+	 * 
+	 * @return The cache of compiled FreeMarker templates used by this service.
+	 */
+	public TemplateCache getTemplateCache() {
+		return templateCache;
+	}
+
+	/**
+	 * Provides the cache of canonical hashes of reference files used by this service, e.g. for querying its hit and miss
+	 * counters.
+	 * 
+	 * @return The cache of canonical hashes used by this service, or <code>null</code> if comparing by hashes is disabled.
+	 */
+	public CanonicalHashCache getCanonicalHashCache() {
+		return hashCache;
+	}
+
+	/**
+	 * Provides the namespace prefixes which can be used in XPath expressions of this service.
+	 * 
+	 * @return The namespace prefixes configured for this service.
+	 */
+	public NamespaceRegistry getNamespaceRegistry() {
+		return namespaces;
+	}
+
+	/**
+	 * Provides the per-operation metrics of this service, e.g. for querying its statistics or adding listeners.
+	 * 
+	 * @return The metrics of this service. If disabled in the configuration, nothing is recorded.
+	 */
+	public XmlFileMetrics getMetrics() {
+		return metrics;
+	}
+
 
 }
@@ -0,0 +1,36 @@
+/*
+ * Copyright (C) 2015 Hamburg Sud and the contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.aludratest.service.xmlfile;
+
+/**
+ * Implementation of the {@link XmlFileVerifier} class for testing, whose {@link XmlFileComparisonSettings} make the service
+ * match keyed elements through a hash index.
+ */
+
+public class MyKeyedXmlFileVerifier extends XmlFileVerifier<MyKeyedXmlFileVerifier>{
+
+	public MyKeyedXmlFileVerifier(String filePath, XmlFileService service) {
+		super(filePath, service, createSettings());
+	}
+
+	private static XmlFileComparisonSettings createSettings() {
+		XmlFileComparisonSettings settings = new XmlFileComparisonSettings();
+		settings.setWhitespaceRelevant(false);
+		return settings;
+	}
+
+}
@@ -28,4 +28,9 @@ public class MyXmlFileWriter extends XmlFileWriter<MyXmlData, MyXmlFileWriter>{
 		super(filePath, overwrite, templateUri, templateEncoding, service);
 	}
 
+	public MyXmlFileWriter(String filePath, boolean overwrite, String templateUri, String templateEncoding,
+			XmlFileService service, boolean streaming) {
+		super(filePath, overwrite, templateUri, templateEncoding, service, streaming);
+	}
+
 }
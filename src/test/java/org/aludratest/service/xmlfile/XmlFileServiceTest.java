@@ -22,9 +22,17 @@ import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.FileInputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
 import javax.xml.xpath.XPathConstants;
@@ -32,16 +40,20 @@ import javax.xml.xpath.XPathConstants;
 import org.aludratest.content.xml.AggregateXmlDiff;
 import org.aludratest.content.xml.XmlComparisonSettings;
 import org.aludratest.content.xml.XmlDiffDetail;
+import org.aludratest.content.xml.XmlDiffDetailType;
 import org.aludratest.content.xml.util.DatabeneXmlComparisonSettings;
 import org.aludratest.content.xml.util.DatabeneXmlDiffDetail;
 import org.aludratest.service.ComponentId;
 import org.aludratest.service.xmlfile.impl.XmlFileServiceImpl;
 import org.aludratest.testcase.TestStatus;
 import org.aludratest.util.validator.StartsWithValidator;
+import org.databene.commons.FileUtil;
 import org.databene.commons.IOUtil;
+import org.databene.commons.Validator;
 import org.databene.formats.compare.DiffDetailType;
 import org.junit.Test;
 import org.w3c.dom.Document;
+import org.w3c.dom.Node;
 
 public class XmlFileServiceTest extends AbstractXmlFileServiceTest {
 
@@ -88,6 +100,14 @@ public class XmlFileServiceTest extends AbstractXmlFileServiceTest {
 		assertEquals(TestStatus.PASSED, getLastTestStep().getTestStatus());
 	}
 
+	@Test
+	public void testCreateDocument_declaredEncodingDiffersFromTemplateEncoding() {
+		// the template file is UTF-8 encoded, but declares ISO-8859-1 for the XML document it renders
+		Document doc = service.perform().createDocument("doc", "test", "declared_latin1.xml", "UTF-8", null);
+		assertEquals(TestStatus.PASSED, getLastTestStep().getTestStatus());
+		assertEquals("Gr\u00fc\u00dfe", service.perform().queryXml("doc", "test", doc, "/doc/elem", XPathConstants.STRING));
+	}
+
 	@Test
 	public void testWriteDocument_success() throws Exception {
 		Document doc = service.perform().createDocument("doc", "test", "valid_novars.xml", "UTF-8", null);
@@ -125,6 +145,257 @@ public class XmlFileServiceTest extends AbstractXmlFileServiceTest {
 		assertEquals(TestStatus.FAILED, getLastTestStep().getTestStatus());
 	}
 
+	@Test
+	public void testWriteDocument_serializationFails() throws Exception {
+		// a document which fails while being serialized, after the file service has started writing the file
+		Document doc = (Document) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { Document.class },
+				new InvocationHandler() {
+					@Override
+					public Object invoke(Object proxy, Method method, Object[] args) {
+						if ("getNodeType".equals(method.getName())) {
+							return Short.valueOf(Node.DOCUMENT_NODE);
+						}
+						if ("toString".equals(method.getName())) {
+							return "[#document: broken]";
+						}
+						throw new IllegalStateException("Broken document");
+					}
+				});
+		fileOfName("test_broken.xml").delete();
+		service.perform().writeXml("doc", "test", doc, "test_broken.xml", true);
+		assertFalse(TestStatus.PASSED == getLastTestStep().getTestStatus());
+		assertFalse(fileOfName("test_broken.xml").exists());
+	}
+
+	@Test
+	public void testReadDocument() throws Exception {
+		FileUtil.copy(new File("target/test-classes/compare1.xml"), fileOfName("read_test.xml"), true);
+		Document doc = service.perform().readDocument("doc", "test", "read_test.xml");
+		assertEquals(TestStatus.PASSED, getLastTestStep().getTestStatus());
+		assertNotNull(doc);
+		assertEquals("Some other header", service.perform().queryXml("doc", "test", doc, "/doc/sect2/header", XPathConstants.STRING));
+	}
+
+	@Test
+	public void testReadCompactDocument() throws Exception {
+		FileUtil.copy(new File("target/test-classes/compare1.xml"), fileOfName("compact_test.xml"), true);
+		Document doc = service.perform().readCompactDocument("doc", "test", "compact_test.xml");
+		assertEquals(TestStatus.PASSED, getLastTestStep().getTestStatus());
+		assertEquals("Some other header",
+				service.perform().queryXml("doc", "test", doc, "/doc/sect2/header", XPathConstants.STRING));
+		service.verify().assertNodeMatches("doc", "test", doc, "//header", new StartsWithValidator("Some header"));
+		assertEquals(TestStatus.PASSED, getLastTestStep().getTestStatus());
+
+		Document reference = service.perform().createDocument("doc", "doc1", "compare1.xml", "UTF-8", null);
+		service.verify().assertDocumentsEqual("doc", "docs", reference, doc, new DatabeneXmlComparisonSettings());
+		assertEquals(TestStatus.PASSED, getLastTestStep().getTestStatus());
+	}
+
+	@Test
+	public void testReadDocuments() throws Exception {
+		FileUtil.copy(new File("target/test-classes/compare1.xml"), fileOfName("batch1.xml"), true);
+		FileUtil.copy(new File("target/test-classes/compare2.xml"), fileOfName("batch2.xml"), true);
+		List<Document> docs = service.perform().readDocuments("doc", "test", Arrays.asList("batch2.xml", "batch1.xml"));
+		assertEquals(TestStatus.PASSED, getLastTestStep().getTestStatus());
+		assertEquals(2, docs.size());
+		// documents must be returned in input order
+		assertEquals("2016-01-04 14:30:11", docs.get(0).getDocumentElement().getAttribute("timestamp"));
+		assertEquals("2016-01-04 14:30:10", docs.get(1).getDocumentElement().getAttribute("timestamp"));
+	}
+
+	@Test
+	public void testReadDocuments_missingFile() throws Exception {
+		FileUtil.copy(new File("target/test-classes/compare1.xml"), fileOfName("batch1.xml"), true);
+		service.perform().readDocuments("doc", "test", Arrays.asList("batch1.xml", "batch_missing.xml"));
+		assertFalse(TestStatus.PASSED == getLastTestStep().getTestStatus());
+	}
+
+	@Test
+	public void testReadReferenceDocument_returnsCopies() throws Exception {
+		FileUtil.copy(new File("target/test-classes/compare1.xml"), fileOfName("reference_test.xml"), true);
+		Document doc1 = service.perform().readReferenceDocument("doc", "test", "reference_test.xml");
+		assertEquals(TestStatus.PASSED, getLastTestStep().getTestStatus());
+		doc1.getDocumentElement().setAttribute("timestamp", "modified");
+
+		Document doc2 = service.perform().readReferenceDocument("doc", "test", "reference_test.xml");
+		assertEquals(TestStatus.PASSED, getLastTestStep().getTestStatus());
+		assertEquals("2016-01-04 14:30:10", doc2.getDocumentElement().getAttribute("timestamp"));
+
+		// a modified file must not be served from the cache
+		FileUtil.copy(new File("target/test-classes/compare2.xml"), fileOfName("reference_test.xml"), true);
+		Document doc3 = service.perform().readReferenceDocument("doc", "test", "reference_test.xml");
+		assertEquals(TestStatus.PASSED, getLastTestStep().getTestStatus());
+		assertFalse(service.check().nodeExists("doc", "test", doc3, "/doc/sect1/body/p[2]"));
+	}
+
+	@Test
+	public void testReadDocumentPair() throws Exception {
+		FileUtil.copy(new File("target/test-classes/compare1.xml"), fileOfName("pair_reference.xml"), true);
+		FileUtil.copy(new File("target/test-classes/compare2.xml"), fileOfName("pair_actual.xml"), true);
+		List<Document> documents = service.perform().readDocumentPair("doc", "test", "pair_reference.xml", "pair_actual.xml");
+		assertEquals(TestStatus.PASSED, getLastTestStep().getTestStatus());
+		assertEquals(2, documents.size());
+		assertTrue(service.check().nodeExists("doc", "test", documents.get(0), "/doc/sect1/body/p[2]"));
+		assertFalse(service.check().nodeExists("doc", "test", documents.get(1), "/doc/sect1/body/p[2]"));
+	}
+
+	@Test
+	public void testReadDocumentPair_missingReference() throws Exception {
+		FileUtil.copy(new File("target/test-classes/compare2.xml"), fileOfName("pair_actual.xml"), true);
+		service.perform().readDocumentPair("doc", "test", "pair_missing.xml", "pair_actual.xml");
+		assertFalse(TestStatus.PASSED == getLastTestStep().getTestStatus());
+	}
+
+	@Test
+	public void testWaitUntilComplete() throws Exception {
+		FileUtil.copy(new File("target/test-classes/compare1.xml"), fileOfName("complete.xml"), true);
+		service.perform().waitUntilComplete("doc", "test", "complete.xml", 1000);
+		assertEquals(TestStatus.PASSED, getLastTestStep().getTestStatus());
+	}
+
+	@Test
+	public void testWaitUntilComplete_timeout() throws Exception {
+		IOUtil.writeTextFile(fileOfName("incomplete.xml").getAbsolutePath(), "<doc><sect1>", "UTF-8");
+		service.perform().waitUntilComplete("doc", "test", "incomplete.xml", 300);
+		assertFalse(TestStatus.PASSED == getLastTestStep().getTestStatus());
+	}
+
+	@Test
+	public void testWaitUntilNodeMatches() throws Exception {
+		FileUtil.copy(new File("target/test-classes/compare2.xml"), fileOfName("status.xml"), true);
+		Thread updater = new Thread() {
+			@Override
+			public void run() {
+				try {
+					Thread.sleep(300);
+					FileUtil.copy(new File("target/test-classes/compare1.xml"), fileOfName("status.xml"), true);
+				}
+				catch (Exception e) {
+					// the test fails with a timeout
+				}
+			}
+		};
+		updater.start();
+		service.perform().waitUntilNodeMatches("doc", "test", "status.xml", "/doc/sect1/body/p[2]",
+				new StartsWithValidator("This is more"), 10000);
+		updater.join();
+		assertEquals(TestStatus.PASSED, getLastTestStep().getTestStatus());
+	}
+
+	@Test
+	public void testWaitUntilNodeMatches_timeout() throws Exception {
+		FileUtil.copy(new File("target/test-classes/compare2.xml"), fileOfName("status.xml"), true);
+		service.perform().waitUntilNodeMatches("doc", "test", "status.xml", "/doc/sect1/body/p[2]",
+				new StartsWithValidator("This is more"), 300);
+		assertFalse(TestStatus.PASSED == getLastTestStep().getTestStatus());
+	}
+
+	@Test
+	public void testNodeExistsInFile() throws Exception {
+		FileUtil.copy(new File("target/test-classes/compare1.xml"), fileOfName("query.xml"), true);
+		assertTrue(service.check().nodeExistsInFile("doc", "test", "query.xml", "/doc/sect1/body/p[2]"));
+		assertTrue(service.check().nodeExistsInFile("doc", "test", "query.xml", "//header[@style='bold']"));
+		assertFalse(service.check().nodeExistsInFile("doc", "test", "query.xml", "/doc/sect2/body"));
+		// not streamable, evaluated on the parsed document
+		assertTrue(service.check().nodeExistsInFile("doc", "test", "query.xml", "//p[contains(., 'more')]"));
+		assertEquals(TestStatus.PASSED, getLastTestStep().getTestStatus());
+	}
+
+	@Test
+	public void testQueryXmlInFile() throws Exception {
+		FileUtil.copy(new File("target/test-classes/compare1.xml"), fileOfName("query.xml"), true);
+		assertEquals("This is more text.", service.perform().queryXmlInFile("doc", "test", "query.xml", "//p[2]/text()"));
+		assertEquals("bold", service.perform().queryXmlInFile("doc", "test", "query.xml", "//header/@style"));
+		assertEquals("", service.perform().queryXmlInFile("doc", "test", "query.xml", "/doc/sect3"));
+		assertEquals(TestStatus.PASSED, getLastTestStep().getTestStatus());
+	}
+
+	@Test
+	public void testAssertNodeMatchesInFile_fail() throws Exception {
+		FileUtil.copy(new File("target/test-classes/compare1.xml"), fileOfName("query.xml"), true);
+		service.verify().assertNodeMatchesInFile("doc", "test", "query.xml", "//header", new StartsWithValidator("Some thing"));
+		assertEquals(TestStatus.FAILED, getLastFailedTestStep().getTestStatus());
+	}
+
+	@Test
+	public void testDiffFiles() throws Exception {
+		IOUtil.writeTextFile(fileOfName("records1.xml").getAbsolutePath(),
+				"<export><r id='1'>a</r><r id='2'>b</r><r id='3'>c</r></export>", "UTF-8");
+		IOUtil.writeTextFile(fileOfName("records2.xml").getAbsolutePath(),
+				"<export><r id='3'>c</r><r id='1'>x</r><r id='4'>d</r></export>", "UTF-8");
+		XmlRecordDiff diff = service.perform().diffFiles("doc", "test", "records1.xml", "records2.xml",
+				new XmlRecordDiffSettings("/export/r", "@id"));
+		assertEquals(TestStatus.PASSED, getLastTestStep().getTestStatus());
+		assertEquals(3, diff.getDifferenceCount());
+		assertEquals(2, diff.getMatchedRecords());
+		assertEquals(1, diff.getMissingRecords());
+		assertEquals(1, diff.getUnexpectedRecords());
+
+		service.verify().assertFilesEqual("doc", "test", "records1.xml", "records2.xml",
+				new XmlRecordDiffSettings("/export/r", "@id"));
+		assertEquals(TestStatus.FAILED, getLastFailedTestStep().getTestStatus());
+	}
+
+	@Test
+	public void testDiffByKeys() throws Exception {
+		IOUtil.writeTextFile(fileOfName("keyed1.xml").getAbsolutePath(),
+				"<doc><item id='1'>a</item><item id='2'>b</item><item id='3'>c</item></doc>", "UTF-8");
+		IOUtil.writeTextFile(fileOfName("keyed2.xml").getAbsolutePath(),
+				"<doc><item id='3'>c</item><item id='4'>d</item><item id='1'>x</item></doc>", "UTF-8");
+		Document expected = service.perform().readDocument("doc", "test", "keyed1.xml");
+		Document actual = service.perform().readDocument("doc", "test", "keyed2.xml");
+		Map<String, String> keyExpressions = new HashMap<String, String>();
+		keyExpressions.put("item", "@id");
+		XmlFileComparisonSettings settings = new XmlFileComparisonSettings();
+		settings.setWhitespaceRelevant(false);
+
+		XmlKeyedDiff diff = service.perform().diffByKeys("doc", "test", expected, actual, keyExpressions, settings);
+		assertEquals(TestStatus.PASSED, getLastTestStep().getTestStatus());
+		assertEquals(2, diff.getMatchedKeys());
+		assertEquals(1, diff.getMissingKeys());
+		assertEquals(1, diff.getExtraKeys());
+		// missing item 2, moved item 1, unexpected item 4 and the different text of item 1
+		assertEquals(4, diff.getXmlDetails().size());
+		// the given documents are not modified
+		assertEquals(3, actual.getDocumentElement().getElementsByTagName("item").getLength());
+
+		service.verify().assertDocumentsEqualByKeys("doc", "test", expected, actual, keyExpressions, settings);
+		assertEquals(TestStatus.FAILED, getLastFailedTestStep().getTestStatus());
+
+		// tolerated paths apply to the keyed elements as well
+		settings.tolerateAnyDiffAt("/doc/item[@id='2']");
+		settings.tolerateGenericDiff(XmlDiffDetailType.UNEXPECTED, "/doc/item[@id='4']");
+		settings.tolerateGenericDiff(XmlDiffDetailType.MOVED, "/doc/item");
+		diff = service.perform().diffByKeys("doc", "test", expected, actual, keyExpressions, settings);
+		assertEquals(1, diff.getXmlDetails().size());
+		assertEquals(XmlDiffDetailType.DIFFERENT, diff.getXmlDetails().get(0).getXmlDiffType());
+	}
+
+	@Test
+	public void testDiffByKeys_contentHandlerSettings() throws Exception {
+		IOUtil.writeTextFile(fileOfName("keyed1.xml").getAbsolutePath(),
+				"<doc><item id='1'>a</item><item id='2'>b</item><item id='3'>c</item></doc>", "UTF-8");
+		IOUtil.writeTextFile(fileOfName("keyed2.xml").getAbsolutePath(),
+				"<doc><item id='3'>c</item><item id='4'>d</item><item id='1'>x</item></doc>", "UTF-8");
+		Document expected = service.perform().readDocument("doc", "test", "keyed1.xml");
+		Document actual = service.perform().readDocument("doc", "test", "keyed2.xml");
+		Map<String, String> keyExpressions = new HashMap<String, String>();
+		keyExpressions.put("item", "@id");
+		XmlComparisonSettings settings = new DatabeneXmlComparisonSettings();
+		settings.setWhitespaceRelevant(false);
+
+		// the tolerances of these settings are unknown to the service, and the settings are not modified
+		service.perform().diffByKeys("doc", "test", expected, actual, keyExpressions, settings);
+		assertEquals(TestStatus.FAILEDAUTOMATION, getLastTestStep().getTestStatus());
+
+		// without key expressions, the content handler compares the elements by their position
+		XmlKeyedDiff diff = service.perform().diffByKeys("doc", "test", expected, actual,
+				Collections.<String, String> emptyMap(), settings);
+		assertEquals(TestStatus.PASSED, getLastTestStep().getTestStatus());
+		assertEquals(0, diff.getMatchedKeys());
+		assertFalse(diff.isEqual());
+	}
+
 	@Test
 	public void testDiff_success() {
 		Document doc1 = service.perform().createDocument("doc", "doc1", "compare1.xml", "UTF-8", null);
@@ -207,6 +478,16 @@ public class XmlFileServiceTest extends AbstractXmlFileServiceTest {
 		assertEquals(TestStatus.PASSED, getLastTestStep().getTestStatus());
 	}
 
+	@Test
+	public void testAssertNodeNotExists() {
+		Document doc = service.perform().createDocument("doc", "doc1", "compare1.xml", "UTF-8", null);
+		service.verify().assertNodeNotExists("doc", "test", doc, "/some/xpath");
+		assertEquals(TestStatus.PASSED, getLastTestStep().getTestStatus());
+		// matches more than one node
+		service.verify().assertNodeNotExists("doc", "test", doc, "//p");
+		assertEquals(TestStatus.FAILED, getLastTestStep().getTestStatus());
+	}
+
 	@Test
 	public void testAssertNodeMatches_fail() {
 		StartsWithValidator validator = new StartsWithValidator("Some thing");
@@ -223,6 +504,45 @@ public class XmlFileServiceTest extends AbstractXmlFileServiceTest {
 		assertEquals(TestStatus.PASSED, getLastTestStep().getTestStatus());
 	}
 
+	@Test
+	public void testQueryXmlBatch() {
+		Document doc = service.perform().createDocument("doc", "doc1", "compare1.xml", "UTF-8", null);
+		Map<String, String> xpaths = new LinkedHashMap<String, String>();
+		xpaths.put("timestamp", "/doc/@timestamp");
+		xpaths.put("second paragraph", "/doc/sect1/body/p[2]");
+		xpaths.put("other header", "//sect2/header/text()");
+		xpaths.put("paragraphs", "count(//p)");
+		xpaths.put("missing", "/some/xpath");
+		Map<String, String> result = service.perform().queryXmlBatch("doc", "test", doc, xpaths);
+		assertEquals(Arrays.asList("timestamp", "second paragraph", "other header", "paragraphs", "missing"),
+				new ArrayList<String>(result.keySet()));
+		assertEquals("2016-01-04 14:30:10", result.get("timestamp"));
+		assertEquals("This is more text.", result.get("second paragraph"));
+		assertEquals("Some other header", result.get("other header"));
+		assertEquals("2", result.get("paragraphs"));
+		assertEquals("", result.get("missing"));
+	}
+
+	@Test
+	public void testAssertNodesMatch() {
+		Document doc = service.perform().createDocument("doc", "doc1", "compare1.xml", "UTF-8", null);
+		Map<String, String> xpaths = new LinkedHashMap<String, String>();
+		xpaths.put("header", "//header");
+		xpaths.put("paragraph", "/doc/sect1/body/p[2]");
+		xpaths.put("timestamp", "/doc/@timestamp");
+		Map<String, Validator<String>> validators = new HashMap<String, Validator<String>>();
+		validators.put("header", new StartsWithValidator("Some header"));
+		validators.put("paragraph", new StartsWithValidator("This is more"));
+		assertTrue(service.check().nodesMatch("doc", "test", doc, xpaths, validators));
+		service.verify().assertNodesMatch("doc", "test", doc, xpaths, validators);
+		assertEquals(TestStatus.PASSED, getLastTestStep().getTestStatus());
+
+		validators.put("timestamp", new StartsWithValidator("2015"));
+		assertFalse(service.check().nodesMatch("doc", "test", doc, xpaths, validators));
+		service.verify().assertNodesMatch("doc", "test", doc, xpaths, validators);
+		assertEquals(TestStatus.FAILED, getLastTestStep().getTestStatus());
+	}
+
 	@Test
 	public void testAssertDocumentsEqual_success() {
 		Document doc1 = service.perform().createDocument("doc", "doc1", "compare1.xml", "UTF-8", null);
@@ -267,4 +587,76 @@ public class XmlFileServiceTest extends AbstractXmlFileServiceTest {
 		assertTrue(service.check().areDocumentsEqual("doc", "docs", doc1, doc2, settings));
 	}
 
+	@Test
+	public void testAreDocumentsEqual_failFast() {
+		Document doc1 = service.perform().createDocument("doc", "doc1", "compare1.xml", "UTF-8", null);
+		Document doc2 = service.perform().createDocument("doc", "doc2", "compare3.xml", "UTF-8", null);
+
+		XmlComparisonSettings settings = new XmlFileComparisonSettings();
+		settings.tolerateDifferentAt("/doc/@timestamp");
+		settings.tolerateAnyDiffAt("/doc/sect1/header/@style");
+
+		assertFalse(service.check().areDocumentsEqual("doc", "docs", doc1, doc2, settings));
+		service.verify().assertDocumentsEqual("doc", "docs", doc1, doc2, settings);
+		assertEquals(TestStatus.FAILED, getLastTestStep().getTestStatus());
+
+		settings.tolerateAnyDiffAt("//body");
+
+		assertTrue(service.check().areDocumentsEqual("doc", "docs", doc1, doc2, settings));
+		service.verify().assertDocumentsEqual("doc", "docs", doc1, doc2, settings);
+		assertEquals(TestStatus.PASSED, getLastTestStep().getTestStatus());
+	}
+
+	@Test
+	public void testAreDocumentsEqual_failFastAgreesWithContentHandler() throws Exception {
+		String expected = "<a:doc xmlns:a='urn:a' x='1' y='2'><a:p>one</a:p><!-- c --><a:p>two</a:p></a:doc>";
+		String[] actuals = { expected, "<b:doc xmlns:b='urn:a' x='1' y='2'><b:p>one</b:p><!-- c --><b:p>two</b:p></b:doc>",
+				"<doc xmlns='urn:a' y='2' x='1'>\n  <p> one </p>\n  <p>two</p>\n</doc>",
+				"<a:doc xmlns:a='urn:a' x='1' y='2'><a:p>one</a:p><a:p>two</a:p><a:p>three</a:p></a:doc>",
+				"<a:doc xmlns:a='urn:a' x='1' y='3'><a:p>one</a:p><a:p>two</a:p></a:doc>",
+				"<a:doc xmlns:a='urn:b' x='1' y='2'><a:p>one</a:p><a:p>two</a:p></a:doc>" };
+		IOUtil.writeTextFile(fileOfName("ff_expected.xml").getAbsolutePath(), expected, "UTF-8");
+		Document expectedDoc = service.perform().readDocument("doc", "test", "ff_expected.xml");
+		XmlFileComparisonSettings settings = new XmlFileComparisonSettings();
+		settings.setWhitespaceRelevant(false);
+		for (int i = 0; i < actuals.length; i++) {
+			IOUtil.writeTextFile(fileOfName("ff_actual.xml").getAbsolutePath(), actuals[i], "UTF-8");
+			Document actualDoc = service.perform().readDocument("doc", "test", "ff_actual.xml");
+			// diff is always determined by the content handler, while the fail-fast comparison may decide on its own
+			AggregateXmlDiff diff = service.perform().diff("doc", "test", expectedDoc, actualDoc, settings);
+			boolean equal = service.check().areDocumentsEqual("doc", "test", expectedDoc, actualDoc, settings);
+			assertEquals(actuals[i], Boolean.valueOf(diff.getXmlDetails().isEmpty()), Boolean.valueOf(equal));
+		}
+	}
+
+	@Test
+	public void testCanonicalHashesMatch() throws Exception {
+		IOUtil.writeTextFile(fileOfName("hash1.xml").getAbsolutePath(), "<doc ts='1'><a x='1' y='2'>t</a></doc>", "UTF-8");
+		IOUtil.writeTextFile(fileOfName("hash2.xml").getAbsolutePath(), "<doc ts='2'><a y='2' x='1'>t</a><!-- c --></doc>",
+				"UTF-8");
+		XmlFileComparisonSettings settings = new XmlFileComparisonSettings();
+		assertFalse(service.check().canonicalHashesMatch("doc", "test", "hash1.xml", "hash2.xml", settings));
+
+		settings.tolerateAnyDiffAt("/doc/@ts");
+		assertTrue(service.check().canonicalHashesMatch("doc", "test", "hash1.xml", "hash2.xml", settings));
+		// served from the hash cache
+		assertTrue(service.check().canonicalHashesMatch("doc", "test", "hash1.xml", "hash2.xml", settings));
+		assertEquals(service.perform().canonicalHash("doc", "test", "hash1.xml", settings),
+				service.perform().canonicalHash("doc", "test", "hash2.xml", settings));
+		assertEquals(TestStatus.PASSED, getLastTestStep().getTestStatus());
+
+		// settings which cannot be applied to hashes
+		assertFalse(service.check().canonicalHashesMatch("doc", "test", "hash1.xml", "hash1.xml",
+				new DatabeneXmlComparisonSettings()));
+	}
+
+	@Test
+	public void testIsHashComparable() {
+		XmlFileComparisonSettings settings = new XmlFileComparisonSettings();
+		assertTrue(service.isHashComparable(settings));
+		assertFalse(service.isHashComparable(new DatabeneXmlComparisonSettings()));
+		settings.tolerateGenericDiff(XmlDiffDetailType.MISSING, "/doc/a");
+		assertFalse(service.isHashComparable(settings));
+	}
+
 }
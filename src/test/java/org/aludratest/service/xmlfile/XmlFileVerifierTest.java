@@ -19,10 +19,15 @@ package org.aludratest.service.xmlfile;
 import static org.junit.Assert.assertEquals;
 
 import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
 
+import org.aludratest.content.xml.XmlDiffDetailType;
+import org.aludratest.service.xmlfile.data.XmlKeyExpressionData;
 import org.aludratest.testcase.TestStatus;
 import org.aludratest.util.data.StringData;
 import org.databene.commons.FileUtil;
+import org.databene.commons.IOUtil;
 import org.junit.Before;
 import org.junit.Test;
 
@@ -46,6 +51,16 @@ public class XmlFileVerifierTest extends AbstractXmlFileServiceTest {
 		assertEquals(TestStatus.PASSED, getLastTestStep().getTestStatus());
 	}
 
+	@Test
+	public void testAssertDocumentsEqual_repeatedReference() throws Exception {
+		MyTolerantXmlFileVerifier verifier = new MyTolerantXmlFileVerifier("compare3.xml", service);
+		verifier.verifyWith(new StringData("compare1.xml"));
+		assertEquals(TestStatus.PASSED, getLastTestStep().getTestStatus());
+		// second verification is served from the reference document cache
+		verifier.verifyWith(new StringData("compare1.xml"));
+		assertEquals(TestStatus.PASSED, getLastTestStep().getTestStatus());
+	}
+
 	@Test
 	public void testAssertDocumentsEqual_fail() {
 		MyStrictXmlFileVerifier verifier = new MyStrictXmlFileVerifier("compare3.xml", service);
@@ -53,4 +68,73 @@ public class XmlFileVerifierTest extends AbstractXmlFileServiceTest {
 		assertEquals(TestStatus.FAILED, getLastFailedTestStep().getTestStatus());
 	}
 
+	@Test
+	public void testVerifyWith_keyExpression() throws Exception {
+		IOUtil.writeTextFile(fileOfName("keyed1.xml").getAbsolutePath(),
+				"<doc><item id='1'>a</item><item id='2'>b</item><item id='3'>c</item></doc>", "UTF-8");
+		IOUtil.writeTextFile(fileOfName("keyed2.xml").getAbsolutePath(),
+				"<doc><item id='3'>c</item><item id='1'>a</item><item id='2'>b</item></doc>", "UTF-8");
+		MyKeyedXmlFileVerifier verifier = new MyKeyedXmlFileVerifier("keyed2.xml", service);
+		verifier.addKeyExpression(new XmlKeyExpressionData("item", "@id"));
+		verifier.verifyWith(new StringData("keyed1.xml"));
+		// item 3 moved to the front
+		assertEquals(TestStatus.FAILED, getLastFailedTestStep().getTestStatus());
+
+		verifier.addToleratedDiff(XmlDiffDetailType.MOVED, "/doc/item");
+		verifier.verifyWith(new StringData("keyed1.xml"));
+		assertEquals(TestStatus.PASSED, getLastTestStep().getTestStatus());
+	}
+
+	@Test
+	public void testVerifyWith_keyExpressionAndExclusionPath() throws Exception {
+		IOUtil.writeTextFile(fileOfName("keyed1.xml").getAbsolutePath(),
+				"<doc><item id='1'>a</item><item id='2'>b</item><item id='3'>c</item></doc>", "UTF-8");
+		IOUtil.writeTextFile(fileOfName("keyed2.xml").getAbsolutePath(),
+				"<doc><item id='1'>a</item><item id='2'>b</item><item id='4'>d</item></doc>", "UTF-8");
+		MyKeyedXmlFileVerifier verifier = new MyKeyedXmlFileVerifier("keyed2.xml", service);
+		verifier.addKeyExpression(new XmlKeyExpressionData("item", "@id"));
+		verifier.addExclusionPath(new StringData("/doc/item[@id='3']"));
+		verifier.verifyWith(new StringData("keyed1.xml"));
+		// the unexpected item 4 is not excluded
+		assertEquals(TestStatus.FAILED, getLastFailedTestStep().getTestStatus());
+
+		verifier.addExclusionPath(new StringData("/doc/item[@id='4']"));
+		verifier.verifyWith(new StringData("keyed1.xml"));
+		assertEquals(TestStatus.PASSED, getLastTestStep().getTestStatus());
+	}
+
+	@Test
+	public void testVerifyAllWith_success() {
+		Map<String, String> referenceFilesByActualFile = new HashMap<String, String>();
+		referenceFilesByActualFile.put("compare3.xml", "compare1.xml");
+		referenceFilesByActualFile.put("compare1.xml", "compare1.xml");
+		MyTolerantXmlFileVerifier verifier = new MyTolerantXmlFileVerifier("compare3.xml", service);
+		verifier.verifyAllWith(referenceFilesByActualFile);
+		assertEquals(TestStatus.PASSED, getLastTestStep().getTestStatus());
+	}
+
+	@Test
+	public void testVerifyAllWith_fail() {
+		Map<String, String> referenceFilesByActualFile = new HashMap<String, String>();
+		referenceFilesByActualFile.put("compare3.xml", "compare1.xml");
+		referenceFilesByActualFile.put("compare1.xml", "missing.xml");
+		MyTolerantXmlFileVerifier verifier = new MyTolerantXmlFileVerifier("compare3.xml", service);
+		verifier.verifyAllWith(referenceFilesByActualFile);
+		assertEquals(TestStatus.FAILED, getLastFailedTestStep().getTestStatus());
+	}
+
+	@Test
+	public void testVerifyDirectoryWith() throws Exception {
+		FileUtil.copy(new File("target/test-classes/compare1.xml"), fileOfName("actual/compare.xml"), true);
+		FileUtil.copy(new File("target/test-classes/compare3.xml"), fileOfName("reference/compare.xml"), true);
+		MyTolerantXmlFileVerifier verifier = new MyTolerantXmlFileVerifier("actual", service);
+		verifier.verifyDirectoryWith(new StringData("reference"));
+		assertEquals(TestStatus.PASSED, getLastTestStep().getTestStatus());
+
+		// a file without counterpart fails the verification
+		FileUtil.copy(new File("target/test-classes/compare1.xml"), fileOfName("actual/extra.xml"), true);
+		verifier.verifyDirectoryWith(new StringData("reference"));
+		assertEquals(TestStatus.FAILED, getLastFailedTestStep().getTestStatus());
+	}
+
 }
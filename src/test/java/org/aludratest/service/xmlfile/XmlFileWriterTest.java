@@ -16,8 +16,11 @@
 package org.aludratest.service.xmlfile;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 import java.io.IOException;
+import java.nio.file.Files;
 import java.util.Arrays;
 
 import javax.xml.xpath.XPathConstants;
@@ -75,4 +78,43 @@ public class XmlFileWriterTest extends AbstractXmlFileServiceTest {
 		assertEquals(TestStatus.PASSED, getLastTestStep().getTestStatus());
 	}
 
+	@Test
+	public void testStreaming_success_withVars() throws IOException {
+		MyXmlData xmlData = new MyXmlData();
+		xmlData.setSomeText("Plain text.");
+		xmlData.setSomeElem("<elem comment=\"Some element.\" />.");
+		xmlData.setSomeList(Arrays.asList(new String[] { "23", "42", "4711" }));
+
+		String fileName = "xfwt-testStreaming_success.xml";
+		MyXmlFileWriter writer = new MyXmlFileWriter(fileName, true, "valid_vars.xml", "UTF-8", service, true);
+		writer.writeContentAndClose(xmlData);
+		assertEquals(TestStatus.PASSED, getLastTestStep().getTestStatus());
+
+		String filePath = fileOfName(fileName).getAbsolutePath();
+		Document doc = XMLUtil.parse(filePath);
+		assertEquals("4711", service.perform().queryXml("doc", "test", doc, "/doc/elem/item[3]", XPathConstants.STRING));
+	}
+
+	@Test
+	public void testStreaming_declaredEncodingDiffersFromTemplateEncoding() throws IOException {
+		// the template file is UTF-8 encoded, but declares ISO-8859-1 for the XML document it renders
+		String fileName = "xfwt-testStreaming_declaredEncoding.xml";
+		MyXmlFileWriter writer = new MyXmlFileWriter(fileName, true, "declared_latin1.xml", "UTF-8", service, true);
+		writer.writeContentAndClose(null);
+		assertEquals(TestStatus.PASSED, getLastTestStep().getTestStatus());
+
+		String content = new String(Files.readAllBytes(fileOfName(fileName).toPath()), "ISO-8859-1");
+		assertTrue(content.contains("<elem>Gr\u00fc\u00dfe</elem>"));
+	}
+
+	@Test
+	public void testStreaming_invalidFormat() {
+		String fileName = "xfwt-testStreaming_invalidFormat.xml";
+		MyXmlFileWriter writer = new MyXmlFileWriter(fileName, true, "invalid_format.xml", "UTF-8", service, true);
+		writer.writeContentAndClose(null);
+		assertEquals(TestStatus.FAILEDAUTOMATION, getLastFailedTestStep().getTestStatus());
+		// malformed output must not remain in the file system
+		assertFalse(fileOfName(fileName).exists());
+	}
+
 }
@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2015 Hamburg Sud and the contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aludratest.service.xmlfile.impl;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.xpath.XPathConstants;
+import javax.xml.xpath.XPathFactory;
+
+import org.junit.Test;
+import org.w3c.dom.Document;
+
+/**
+ * Tests the {@link BatchXPathEvaluator} against the results of the XPath engine.
+ */
+public class BatchXPathEvaluatorTest {
+
+	private static final String XML = "<doc a='1'><sect id='s1'><header style='bold'>Header <![CDATA[one]]></header>"
+			+ "<p>first</p><p>second</p></sect><sect id='s2'><header>Header two</header><p>third</p></sect>"
+			+ "<x:ext xmlns:x='urn:x' x:b='2'><x:p>namespaced</x:p></x:ext></doc>";
+
+	@Test
+	public void testBatchMatchesXPathEngine() throws Exception {
+		Document document = parse(XML);
+		Map<String, String> xpaths = new LinkedHashMap<String, String>();
+		xpaths.put("root attribute", "/doc/@a");
+		xpaths.put("second paragraph", "/doc/sect/p[2]");
+		xpaths.put("last paragraph", "//p[3]");
+		xpaths.put("keyed section", "/doc/sect[@id='s2']/header");
+		xpaths.put("header text", "/doc/sect/header/text()");
+		xpaths.put("bold style", "//header[@style='bold']/@style");
+		xpaths.put("missing", "/doc/sect/footer");
+		xpaths.put("whole section", "/doc/sect");
+		xpaths.put("not streamable", "count(//p)");
+		xpaths.put("namespaced element", "/doc/p");
+		xpaths.put("wildcard", "/doc/*/p");
+
+		Map<String, String> result = new BatchXPathEvaluator(new XPathExpressionCache(10), null).evaluate(document, xpaths);
+		assertEquals(new ArrayList<String>(xpaths.keySet()), new ArrayList<String>(result.keySet()));
+		for (Map.Entry<String, String> entry : xpaths.entrySet()) {
+			Object expected = XPathFactory.newInstance().newXPath().evaluate(entry.getValue(), document, XPathConstants.STRING);
+			assertEquals(entry.getKey(), expected, result.get(entry.getKey()));
+		}
+		assertEquals("Header one", result.get("header text"));
+		assertEquals("3", result.get("not streamable"));
+		assertEquals("", result.get("missing"));
+	}
+
+	@Test
+	public void testDefaultNamespace() throws Exception {
+		Document document = parse("<doc xmlns='urn:doc'><p>text</p></doc>");
+		Map<String, String> xpaths = new LinkedHashMap<String, String>();
+		xpaths.put("unprefixed", "/doc/p");
+		xpaths.put("prefixed", "/d:doc/d:p");
+		xpaths.put("wildcard", "/*/*");
+
+		Map<String, String> mappings = new LinkedHashMap<String, String>();
+		mappings.put("d", "urn:doc");
+		Map<String, String> result = new BatchXPathEvaluator(new XPathExpressionCache(10), NamespaceRegistry.of(mappings))
+				.evaluate(document, xpaths);
+		List<String> values = new ArrayList<String>(result.values());
+		assertEquals("", values.get(0));
+		assertEquals("text", values.get(1));
+		assertEquals("text", values.get(2));
+	}
+
+	private static Document parse(String xml) throws Exception {
+		DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+		factory.setNamespaceAware(true);
+		return factory.newDocumentBuilder().parse(new ByteArrayInputStream(xml.getBytes("UTF-8")));
+	}
+
+}
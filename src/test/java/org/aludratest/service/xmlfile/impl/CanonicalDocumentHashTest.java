@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2015 Hamburg Sud and the contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aludratest.service.xmlfile.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayInputStream;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.aludratest.content.xml.XmlDiffDetailType;
+import org.aludratest.content.xml.util.DatabeneXmlComparisonSettings;
+import org.aludratest.service.xmlfile.XmlFileComparisonSettings;
+import org.junit.Test;
+
+/**
+ * Tests the {@link CanonicalDocumentHash}.
+ */
+public class CanonicalDocumentHashTest {
+
+	@Test
+	public void testCanonicalForm() throws Exception {
+		CanonicalDocumentHash hash = CanonicalDocumentHash.create(new XmlFileComparisonSettings());
+		String reference = hash("<r a='1' b='2'><x>t</x><!-- c --></r>", hash);
+		assertEquals(reference, hash("<r b=\"2\" a=\"1\"><x>t</x></r>", hash));
+		assertEquals(reference, hash("<r a='1' b='2'><x><![CDATA[t]]></x></r>", hash));
+		assertFalse(reference.equals(hash("<r a='1' b='2'><x>t </x></r>", hash)));
+		assertFalse(reference.equals(hash("<r a='1'><x>t</x></r>", hash)));
+		assertFalse(reference.equals(hash("<r a='1' b='2'><x>t</x><?p d?></r>", hash)));
+	}
+
+	@Test
+	public void testWhitespaceIrrelevant() throws Exception {
+		XmlFileComparisonSettings settings = new XmlFileComparisonSettings();
+		settings.setWhitespaceRelevant(false);
+		CanonicalDocumentHash hash = CanonicalDocumentHash.create(settings);
+		assertEquals(hash("<r><x>t</x></r>", hash), hash("<r>\n  <x> t </x>\n</r>", hash));
+	}
+
+	@Test
+	public void testTolerances() throws Exception {
+		XmlFileComparisonSettings settings = new XmlFileComparisonSettings();
+		settings.tolerateAnyDiffAt("//skip");
+		settings.tolerateAnyDiffAt("/r/@ts");
+		settings.tolerateDifferentAt("/r/id");
+		settings.tolerateGenericDiff(XmlDiffDetailType.DIFFERENT, "/r/@v");
+		CanonicalDocumentHash hash = CanonicalDocumentHash.create(settings);
+		String reference = hash("<r ts='1' v='a'><id>1</id><skip><x/></skip></r>", hash);
+		assertEquals(reference, hash("<r v='b'><id>2</id><skip>other</skip></r>", hash));
+		assertEquals(reference, hash("<r ts='2' v='c'><id>3</id></r>", hash));
+		// values may differ, but not be missing
+		assertFalse(reference.equals(hash("<r v='a'><id/></r>", hash)));
+	}
+
+	@Test
+	public void testDocumentAndStreamAgree() throws Exception {
+		XmlFileComparisonSettings settings = new XmlFileComparisonSettings();
+		settings.tolerateAnyDiffAt("/r/a[2]");
+		CanonicalDocumentHash hash = CanonicalDocumentHash.create(settings);
+		String xml = "<r x='1'><a>1</a><a>2</a>text<b y='2'/></r>";
+		assertEquals(hash(xml, hash), hash.hash(DocumentBuilderFactory.newInstance().newDocumentBuilder()
+				.parse(new ByteArrayInputStream(xml.getBytes("UTF-8")))));
+	}
+
+	@Test
+	public void testNamespaces() throws Exception {
+		XmlFileComparisonSettings settings = new XmlFileComparisonSettings();
+		settings.tolerateAnyDiffAt("/r/a");
+		settings.tolerateAnyDiffAt("/r/b/@v");
+		CanonicalDocumentHash hash = CanonicalDocumentHash.create(settings);
+		// unprefixed paths do not select nodes in a namespace, so their differences count
+		String reference = hash("<r xmlns='urn:x'><a>1</a></r>", hash);
+		assertFalse(reference.equals(hash("<r xmlns='urn:x'><a>2</a></r>", hash)));
+		reference = hash("<r><b xmlns:p='urn:p' p:v='1'/></r>", hash);
+		assertFalse(reference.equals(hash("<r><b xmlns:p='urn:p' p:v='2'/></r>", hash)));
+		assertEquals(hash("<r><a>1</a><b v='1'/></r>", hash), hash("<r><a>2</a><b v='2'/></r>", hash));
+
+		DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+		factory.setNamespaceAware(true);
+		String xml = "<r xmlns:p='urn:p'><p:a>1</p:a><b p:v='1' v='2'/></r>";
+		assertEquals(hash(xml, hash),
+				hash.hash(factory.newDocumentBuilder().parse(new ByteArrayInputStream(xml.getBytes("UTF-8")))));
+	}
+
+	@Test
+	public void testNotApplicable() {
+		assertNull(CanonicalDocumentHash.create(new DatabeneXmlComparisonSettings()));
+		XmlFileComparisonSettings settings = new XmlFileComparisonSettings();
+		settings.tolerateAnyDiffAt("/r/a[last()]");
+		assertNull(CanonicalDocumentHash.create(settings));
+		settings = new XmlFileComparisonSettings();
+		settings.tolerateGenericDiff(XmlDiffDetailType.MISSING, "/r/a");
+		assertNull(CanonicalDocumentHash.create(settings));
+	}
+
+	private static String hash(String xml, CanonicalDocumentHash hash) throws Exception {
+		return hash.hash(new ByteArrayInputStream(xml.getBytes("UTF-8")));
+	}
+
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2015 Hamburg Sud and the contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aludratest.service.xmlfile.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.StringWriter;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.xpath.XPath;
+import javax.xml.xpath.XPathFactory;
+
+import org.junit.Test;
+import org.w3c.dom.DOMException;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+/**
+ * Tests the {@link CompactDocument} against regular DOM documents.
+ */
+public class CompactDocumentTest {
+
+	private static final String XML = "<?xml version='1.0' encoding='UTF-8'?>\n<!-- top --><?pi data?>"
+			+ "<doc xmlns:x='urn:x' a='1' b='&amp;&lt;'>\n <sect id='s1'><header style='bold'>Header <![CDATA[one]]> end</header>"
+			+ "<p>first</p><p>second</p><!-- c --></sect><sect id='s2'><header>Header two</header><p>third &#x41;</p></sect>"
+			+ "<x:ext x:b='2'><x:p>namespaced</x:p></x:ext><d xmlns='urn:d'><e>def</e></d><empty/></doc>";
+
+	@Test
+	public void testXPath() throws Exception {
+		Document regular = parseRegular(XML);
+		Document compact = CompactDocument.parse(new ByteArrayInputStream(XML.getBytes("UTF-8")));
+		XPath xpath = XPathFactory.newInstance().newXPath();
+		xpath.setNamespaceContext(NamespaceRegistry.parse("x=urn:x"));
+
+		String[] expressions = { "/doc/@b", "//p[2]", "count(//node())", "count(//@*)", "//header/text()", "string(/doc)",
+				"//x:p", "/doc/x:ext/@x:b", "count(/doc/namespace::*)", "//comment()", "/processing-instruction('pi')",
+				"//p[preceding-sibling::p]", "//p/ancestor::sect/@id", "//*[namespace-uri()='urn:d']",
+				"//sect[@id='s2']/following::*[1]", "count(/descendant-or-self::node())", "count(//text())", "count(//sect/*)" };
+		for (String expression : expressions) {
+			assertEquals(expression, xpath.evaluate(expression, regular), xpath.evaluate(expression, compact));
+		}
+	}
+
+	@Test
+	public void testEqualToRegularDocument() throws Exception {
+		Document regular = parseRegular(XML);
+		Document compact = CompactDocument.parse(new ByteArrayInputStream(XML.getBytes("UTF-8")));
+		assertTrue(compact.isEqualNode(regular));
+		assertTrue(regular.isEqualNode(compact));
+		assertEquals(regular.getDocumentElement().getTextContent(), compact.getDocumentElement().getTextContent());
+		assertEquals(3, compact.getElementsByTagName("p").getLength());
+		assertEquals(2, compact.getElementsByTagNameNS("urn:d", "*").getLength());
+
+		StringWriter regularXml = new StringWriter();
+		StringWriter compactXml = new StringWriter();
+		TransformerPool transformers = new TransformerPool();
+		transformers.transform(regular, regularXml);
+		transformers.transform(compact, compactXml);
+		assertEquals(regularXml.toString(), compactXml.toString());
+	}
+
+	@Test
+	public void testNavigation() throws Exception {
+		Document compact = CompactDocument.parse(new ByteArrayInputStream(XML.getBytes("UTF-8")));
+		Element root = compact.getDocumentElement();
+		assertTrue(root.getParentNode() == compact);
+		assertTrue(root.getFirstChild() == root.getChildNodes().item(0));
+		assertEquals("empty", root.getLastChild().getNodeName());
+		Node second = compact.getElementsByTagName("p").item(1);
+		assertEquals("first", second.getPreviousSibling().getTextContent());
+		assertEquals(Node.DOCUMENT_POSITION_CONTAINS | Node.DOCUMENT_POSITION_PRECEDING, second.compareDocumentPosition(root));
+		assertEquals("&<", root.getAttribute("b"));
+		assertEquals("", root.getAttribute("c"));
+		assertNull(root.getAttributeNode("b").getParentNode());
+		assertTrue(root.getAttributeNode("b").getOwnerElement() == root);
+
+		Node e = compact.getElementsByTagNameNS("urn:d", "e").item(0);
+		assertEquals("urn:d", e.lookupNamespaceURI(null));
+		assertEquals("urn:x", e.lookupNamespaceURI("x"));
+		assertEquals("x", e.lookupPrefix("urn:x"));
+	}
+
+	@Test
+	public void testWideSiblingList() throws Exception {
+		int count = 50000;
+		StringBuilder xml = new StringBuilder("<r>");
+		for (int i = 0; i < count; i++) {
+			xml.append("\n  <record id='").append(i).append("'><v a='").append(i).append("'/></record>");
+		}
+		Document compact = CompactDocument.parse(new ByteArrayInputStream(xml.append("\n</r>").toString().getBytes("UTF-8")));
+
+		// walking backwards must not scan the siblings for each step
+		Element root = compact.getDocumentElement();
+		int nodes = 0;
+		for (Node node = root.getLastChild(); node != null; node = node.getPreviousSibling()) {
+			nodes++;
+		}
+		assertEquals(count * 2 + 1, nodes);
+		Element last = (Element) root.getLastChild().getPreviousSibling();
+		assertEquals(String.valueOf(count - 1), last.getAttribute("id"));
+		assertEquals("v", last.getLastChild().getNodeName());
+		assertNull(last.getLastChild().getLastChild());
+	}
+
+	@Test
+	public void testReadOnly() throws Exception {
+		Document compact = CompactDocument.parse(new ByteArrayInputStream(XML.getBytes("UTF-8")));
+		try {
+			compact.getDocumentElement().setAttribute("c", "3");
+			fail("Compact document was modified");
+		}
+		catch (DOMException e) {
+			assertEquals(DOMException.NO_MODIFICATION_ALLOWED_ERR, e.code);
+		}
+
+		Document copy = (Document) compact.cloneNode(true);
+		assertFalse(copy instanceof CompactDocument);
+		assertTrue(copy.isEqualNode(compact));
+		copy.getDocumentElement().setAttribute("c", "3");
+		assertEquals("", compact.getDocumentElement().getAttribute("c"));
+	}
+
+	private static Document parseRegular(String xml) throws Exception {
+		DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+		factory.setNamespaceAware(true);
+		return factory.newDocumentBuilder().parse(new ByteArrayInputStream(xml.getBytes("UTF-8")));
+	}
+
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) 2015 Hamburg Sud and the contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aludratest.service.xmlfile.impl;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Writer;
+
+import org.junit.Test;
+
+/**
+ * Tests the {@link DeclaredEncodingWriter}.
+ */
+public class DeclaredEncodingWriterTest {
+
+	@Test
+	public void testDeclaredEncoding() throws Exception {
+		String xml = "<?xml version='1.0' encoding='ISO-8859-1'?><doc>Gr\u00fc\u00dfe</doc>";
+		// the declaration is written in several parts, like by a template engine
+		assertArrayEquals(xml.getBytes("ISO-8859-1"), write(xml.substring(0, 10), xml.substring(10)));
+		xml = "\n<?xml version=\"1.0\" encoding=\"UTF-16\"?><doc>\u00fc</doc>";
+		assertArrayEquals(xml.getBytes("UTF-16"), write(xml));
+	}
+
+	@Test
+	public void testUndeclaredEncoding() throws Exception {
+		String xml = "<doc>Gr\u00fc\u00dfe</doc>";
+		assertArrayEquals(xml.getBytes("UTF-8"), write(xml));
+		xml = "<?xml version='1.0'?><doc>\u00fc</doc>";
+		assertArrayEquals(xml.getBytes("UTF-8"), write(xml));
+		// text which ends before the declaration is complete
+		assertArrayEquals("<?xml".getBytes("UTF-8"), write("<?xml"));
+	}
+
+	@Test
+	public void testEncodingName() {
+		assertEquals("ISO-8859-1", DeclaredEncodingWriter.declaredEncoding("<?xml version='1.0' encoding='ISO-8859-1'?><a/>"));
+		assertEquals("UTF-8", DeclaredEncodingWriter.declaredEncoding("<a encoding='ISO-8859-1'/>"));
+	}
+
+	private static byte[] write(String... parts) throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		Writer writer = new DeclaredEncodingWriter(out);
+		for (String part : parts) {
+			writer.write(part);
+		}
+		writer.flush();
+		return out.toByteArray();
+	}
+
+}
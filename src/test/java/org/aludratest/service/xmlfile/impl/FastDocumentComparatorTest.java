@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2015 Hamburg Sud and the contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aludratest.service.xmlfile.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.util.List;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.aludratest.content.xml.XmlDiffDetail;
+import org.aludratest.content.xml.XmlDiffDetailType;
+import org.aludratest.content.xml.util.DatabeneXmlComparisonSettings;
+import org.aludratest.service.xmlfile.XmlFileComparisonSettings;
+import org.junit.Test;
+import org.w3c.dom.Document;
+
+/**
+ * Tests the {@link FastDocumentComparator}.
+ */
+public class FastDocumentComparatorTest {
+
+	private static final String EXPECTED = "<doc ts='1'><h style='b'>Head</h><p>one</p><p>two</p><!-- c --></doc>";
+
+	@Test
+	public void testStopsAtMaxDifferences() throws Exception {
+		XmlFileComparisonSettings settings = new XmlFileComparisonSettings();
+		List<XmlDiffDetail> differences = compare(settings, 2, EXPECTED, "<doc ts='2'><h style='x'>Head</h><p>1</p></doc>");
+		assertEquals(2, differences.size());
+		assertEquals(XmlDiffDetailType.DIFFERENT, differences.get(0).getXmlDiffType());
+		assertEquals("/doc/@ts", differences.get(0).getLocatorOfExpected());
+		assertEquals("/doc/h[1]/@style", differences.get(1).getLocatorOfExpected());
+
+		differences = compare(settings, 10, EXPECTED, "<doc ts='1'><h style='b'>Head</h><p>one</p></doc>");
+		assertEquals(1, differences.size());
+		assertEquals(XmlDiffDetailType.MISSING, differences.get(0).getXmlDiffType());
+		assertEquals("/doc/p[2]", differences.get(0).getLocatorOfExpected());
+	}
+
+	@Test
+	public void testTolerances() throws Exception {
+		XmlFileComparisonSettings settings = new XmlFileComparisonSettings();
+		settings.tolerateDifferentAt("/doc/@ts");
+		settings.tolerateAnyDiffAt("//h/@style");
+		settings.tolerateGenericDiff(XmlDiffDetailType.MISSING, "/doc/p[2]");
+		String actual = "<doc ts='2'>\n  <h>  Head </h>\n  <p>one</p>\n</doc>";
+		assertTrue(compare(settings, 1, EXPECTED, actual).isEmpty());
+
+		settings.setWhitespaceRelevant(true);
+		assertFalse(compare(settings, 1, EXPECTED, actual).isEmpty());
+	}
+
+	@Test
+	public void testNamespaces() throws Exception {
+		XmlFileComparisonSettings settings = new XmlFileComparisonSettings();
+		String expected = "<a:doc xmlns:a='urn:a' a:ts='1'><a:p>one</a:p></a:doc>";
+		// only the prefixes differ
+		assertTrue(compare(settings, 1, expected, "<b:doc xmlns:b='urn:a' b:ts='1'><b:p>one</b:p></b:doc>").isEmpty());
+		assertTrue(compare(settings, 1, expected, "<doc xmlns='urn:a' xmlns:a='urn:a' a:ts='1'><p>one</p></doc>").isEmpty());
+		// same prefixes for different namespaces
+		List<XmlDiffDetail> differences = compare(settings, 1, expected,
+				"<a:doc xmlns:a='urn:a'><a:p xmlns:a='urn:b'>one</a:p></a:doc>");
+		assertEquals(1, differences.size());
+		assertEquals(XmlDiffDetailType.MISSING, differences.get(0).getXmlDiffType());
+		assertEquals("/a:doc/@a:ts", differences.get(0).getLocatorOfExpected());
+		assertFalse(compare(settings, 2, expected, "<a:doc xmlns:a='urn:a' a:ts='1'><a:p xmlns:a='urn:b'>one</a:p></a:doc>")
+				.isEmpty());
+	}
+
+	@Test
+	public void testApplicability() {
+		assertFalse(FastDocumentComparator.isApplicable(new DatabeneXmlComparisonSettings()));
+		XmlFileComparisonSettings settings = new XmlFileComparisonSettings();
+		assertTrue(FastDocumentComparator.isApplicable(settings));
+		settings.addKeyExpression("p", "@id");
+		assertFalse(FastDocumentComparator.isApplicable(settings));
+	}
+
+	private static List<XmlDiffDetail> compare(XmlFileComparisonSettings settings, int max, String expected, String actual)
+			throws Exception {
+		return new FastDocumentComparator(settings, new XPathExpressionCache(10), max).compare(parse(expected), parse(actual));
+	}
+
+	private static Document parse(String xml) throws Exception {
+		DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+		factory.setNamespaceAware(true);
+		return factory.newDocumentBuilder().parse(new ByteArrayInputStream(xml.getBytes("UTF-8")));
+	}
+
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright (C) 2015 Hamburg Sud and the contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aludratest.service.xmlfile.impl;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.aludratest.content.xml.XmlDiffDetail;
+import org.aludratest.content.xml.XmlDiffDetailType;
+import org.aludratest.service.xmlfile.XmlFileComparisonSettings;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+/**
+ * Tests the {@link KeyedElementMatcher}.
+ */
+public class KeyedElementMatcherTest {
+
+	@Test
+	public void testAlign() throws Exception {
+		Document expected = parse("<r><h>1</h><i id='a'>1</i><i id='b'>2</i><f/><i id='c'>3</i></r>");
+		Document actual = parse("<r><h>1</h><i id='c'>3</i><i id='x'>9</i><f/><i id='a'>1</i></r>");
+		KeyedElementMatcher matcher = matcher("i", "@id");
+		matcher.align(expected, actual);
+
+		assertEquals(2, matcher.getMatchedKeys());
+		assertEquals(1, matcher.getMissingKeys());
+		assertEquals(1, matcher.getExtraKeys());
+		assertEquals("h,a,f,c", childKeys(expected));
+		// matched elements take the positions of the matched actual elements, in expected order
+		assertEquals("h,a,f,c", childKeys(actual));
+
+		assertEquals(3, matcher.getDetails().size());
+		XmlDiffDetail missing = matcher.getDetails().get(0);
+		assertEquals(XmlDiffDetailType.MISSING, missing.getXmlDiffType());
+		assertEquals("/r/i[2]", missing.getLocatorOfExpected());
+		// c keeps its position relative to a, so only a counts as moved
+		XmlDiffDetail moved = matcher.getDetails().get(1);
+		assertEquals(XmlDiffDetailType.MOVED, moved.getXmlDiffType());
+		assertEquals("/r/i[1]", moved.getLocatorOfExpected());
+		assertEquals("/r/i[3]", moved.getLocatorOfActual());
+		XmlDiffDetail extra = matcher.getDetails().get(2);
+		assertEquals(XmlDiffDetailType.UNEXPECTED, extra.getXmlDiffType());
+		assertEquals("/r/i[2]", extra.getLocatorOfActual());
+	}
+
+	@Test
+	public void testToleratedPaths() throws Exception {
+		Document expected = parse("<r><i id='a'/><i id='b'/><i id='c'/><g><i id='d'/></g></r>");
+		Document actual = parse("<r><i id='c'/><i id='a'/><i id='x'/><g><i id='y'/></g></r>");
+		XmlFileComparisonSettings settings = new XmlFileComparisonSettings();
+		settings.tolerateAnyDiffAt("/r/i[@id='b']");
+		settings.tolerateGenericDiff(XmlDiffDetailType.UNEXPECTED, "//i[@id='x']");
+		settings.tolerateGenericDiff(XmlDiffDetailType.MOVED, "/r/i");
+		settings.tolerateAnyDiffAt("/r/g");
+		KeyedElementMatcher matcher = matcher("i", "@id", settings);
+		matcher.align(expected, actual);
+
+		assertEquals(0, matcher.getDetails().size());
+		assertEquals(2, matcher.getMatchedKeys());
+		assertEquals(1, matcher.getMissingKeys());
+		assertEquals(1, matcher.getExtraKeys());
+		// the elements below a tolerated element are not matched
+		assertEquals("d", ((Element) expected.getElementsByTagName("g").item(0).getFirstChild()).getAttribute("id"));
+		assertEquals("y", ((Element) actual.getElementsByTagName("g").item(0).getFirstChild()).getAttribute("id"));
+	}
+
+	@Test
+	public void testNestedAndDuplicateKeys() throws Exception {
+		Document expected = parse("<r><g><i id='a'/><i id='a'/></g><g><i id='b'/></g></r>");
+		Document actual = parse("<r><g><i id='a'/></g><g><i id='b'/><i id='b'/></g></r>");
+		KeyedElementMatcher matcher = matcher("i", "@id");
+		matcher.align(expected, actual);
+
+		assertEquals(2, matcher.getMatchedKeys());
+		assertEquals(1, matcher.getMissingKeys());
+		assertEquals(1, matcher.getExtraKeys());
+		assertEquals("/r/g[1]/i[2]", matcher.getDetails().get(0).getLocatorOfExpected());
+		assertEquals("/r/g[2]/i[2]", matcher.getDetails().get(1).getLocatorOfActual());
+	}
+
+	@Test
+	public void testXPathKeyExpression() throws Exception {
+		Document expected = parse("<r><i><k v='1'/>a</i><i><k v='2'/>b</i></r>");
+		Document actual = parse("<r><i><k v='2'/>b</i><i><k v='1'/>a</i></r>");
+		KeyedElementMatcher matcher = matcher("i", "k/@v");
+		matcher.align(expected, actual);
+
+		assertEquals(2, matcher.getMatchedKeys());
+		assertEquals("a", actual.getDocumentElement().getFirstChild().getTextContent());
+	}
+
+	@Test
+	public void testNamespacedKeyElement() throws Exception {
+		DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+		factory.setNamespaceAware(true);
+		Document expected = factory.newDocumentBuilder().parse(new ByteArrayInputStream(
+				"<r><i><id xmlns='urn:x'>1</id></i><i><id xmlns='urn:x'>2</id></i></r>".getBytes("UTF-8")));
+		Document actual = factory.newDocumentBuilder().parse(new ByteArrayInputStream(
+				"<r><i><id xmlns='urn:x'>2</id></i><i><id xmlns='urn:x'>1</id></i></r>".getBytes("UTF-8")));
+		KeyedElementMatcher matcher = matcher("i", "id");
+		matcher.align(expected, actual);
+
+		// the unprefixed key does not select the namespaced elements, so all keys are empty and keep their order
+		assertEquals(2, matcher.getMatchedKeys());
+		assertEquals("2", actual.getDocumentElement().getFirstChild().getTextContent());
+	}
+
+	@Test
+	public void testLargeSiblingList() throws Exception {
+		int count = 50000;
+		StringBuilder expectedXml = new StringBuilder("<r>");
+		StringBuilder actualXml = new StringBuilder("<r>");
+		for (int i = 0; i < count; i++) {
+			expectedXml.append("<i id='").append(i).append("'/>");
+			actualXml.append("<i id='").append(count - 1 - i).append("'/>");
+		}
+		Document expected = parse(expectedXml.append("</r>").toString());
+		Document actual = parse(actualXml.append("</r>").toString());
+		XmlFileComparisonSettings settings = new XmlFileComparisonSettings();
+		settings.tolerateGenericDiff(XmlDiffDetailType.MOVED, "/r/i");
+		KeyedElementMatcher matcher = matcher("i", "@id", settings);
+		matcher.align(expected, actual);
+
+		assertEquals(count, matcher.getMatchedKeys());
+		assertEquals(0, matcher.getDetails().size());
+		assertEquals("0", ((Element) actual.getDocumentElement().getFirstChild()).getAttribute("id"));
+	}
+
+	private static KeyedElementMatcher matcher(String elementName, String keyExpression) {
+		return matcher(elementName, keyExpression, null);
+	}
+
+	private static KeyedElementMatcher matcher(String elementName, String keyExpression, XmlFileComparisonSettings settings) {
+		Map<String, String> keyExpressions = new HashMap<String, String>();
+		keyExpressions.put(elementName, keyExpression);
+		return new KeyedElementMatcher(keyExpressions, new XPathExpressionCache(10), null, settings);
+	}
+
+	private static String childKeys(Document document) {
+		StringBuilder sb = new StringBuilder();
+		for (Node child = document.getDocumentElement().getFirstChild(); child != null; child = child.getNextSibling()) {
+			if (child.getNodeType() == Node.ELEMENT_NODE) {
+				Element element = (Element) child;
+				sb.append(sb.length() > 0 ? "," : "");
+				sb.append(element.hasAttribute("id") ? element.getAttribute("id") : element.getNodeName());
+			}
+		}
+		return sb.toString();
+	}
+
+	private static Document parse(String xml) throws Exception {
+		return DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(new ByteArrayInputStream(xml.getBytes("UTF-8")));
+	}
+
+}
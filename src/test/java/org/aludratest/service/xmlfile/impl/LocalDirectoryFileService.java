@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2015 Hamburg Sud and the contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aludratest.service.xmlfile.impl;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+import org.aludratest.exception.FunctionalFailure;
+import org.aludratest.service.file.FileCondition;
+import org.aludratest.service.file.FileInteraction;
+import org.aludratest.service.file.FileService;
+
+/**
+ * Minimal {@link FileService} on a local directory for unit tests of classes which only use a few file operations. It
+ * supports streamed writing, reading, moving and deleting files, and checking their existence; other operations fail.
+ */
+final class LocalDirectoryFileService {
+
+	private LocalDirectoryFileService() {
+	}
+
+	/**
+	 * @param dir
+	 *            The directory which file paths are relative to.
+	 * @return A file service working on the given directory.
+	 */
+	static FileService create(final File dir) {
+		final FileInteraction interaction = proxy(FileInteraction.class, new InvocationHandler() {
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				File file = new File(dir, (String) args[0]);
+				if ("writeBinaryFile".equals(method.getName()) && args[1] instanceof InputStream) {
+					checkOverwrite(file, ((Boolean) args[2]).booleanValue());
+					copy((InputStream) args[1], file);
+					return Boolean.TRUE;
+				}
+				if ("getInputStreamForBinaryFile".equals(method.getName())) {
+					return new FileInputStream(file);
+				}
+				if ("move".equals(method.getName())) {
+					File target = new File(dir, (String) args[1]);
+					boolean existed = target.exists();
+					checkOverwrite(target, ((Boolean) args[2]).booleanValue());
+					if ((existed && !target.delete()) || !file.renameTo(target)) {
+						throw new IllegalStateException("Could not move " + file + " to " + target);
+					}
+					return Boolean.valueOf(existed);
+				}
+				if ("delete".equals(method.getName())) {
+					file.delete();
+					return null;
+				}
+				throw new UnsupportedOperationException(method.getName());
+			}
+		});
+		final FileCondition condition = proxy(FileCondition.class, new InvocationHandler() {
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) {
+				if ("exists".equals(method.getName())) {
+					return Boolean.valueOf(new File(dir, (String) args[0]).exists());
+				}
+				throw new UnsupportedOperationException(method.getName());
+			}
+		});
+		return proxy(FileService.class, new InvocationHandler() {
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) {
+				if ("perform".equals(method.getName())) {
+					return interaction;
+				}
+				if ("check".equals(method.getName())) {
+					return condition;
+				}
+				throw new UnsupportedOperationException(method.getName());
+			}
+		});
+	}
+
+	private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+		return type.cast(Proxy.newProxyInstance(LocalDirectoryFileService.class.getClassLoader(), new Class<?>[] { type },
+				handler));
+	}
+
+	private static void checkOverwrite(File file, boolean overwrite) {
+		if (file.exists() && !overwrite) {
+			throw new FunctionalFailure("File already exists: " + file);
+		}
+	}
+
+	private static void copy(InputStream in, File file) throws IOException {
+		OutputStream out = new FileOutputStream(file);
+		try {
+			byte[] buffer = new byte[8192];
+			int read;
+			while ((read = in.read(buffer)) != -1) {
+				out.write(buffer, 0, read);
+			}
+		}
+		finally {
+			out.close();
+		}
+	}
+
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2015 Hamburg Sud and the contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aludratest.service.xmlfile.impl;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the {@link LocalFileWatcher}.
+ */
+public class LocalFileWatcherTest {
+
+	private File dir;
+
+	private LocalFileWatcher watcher;
+
+	@Before
+	public void setUp() {
+		dir = new File("target/watcher-test");
+		dir.mkdirs();
+		watcher = new LocalFileWatcher(dir);
+	}
+
+	@Test
+	public void testAwaitCreation() throws Exception {
+		final File file = new File(dir, "created.xml");
+		file.delete();
+		Thread creator = new Thread() {
+			@Override
+			public void run() {
+				try {
+					Thread.sleep(200);
+					file.createNewFile();
+				}
+				catch (Exception e) {
+					// the test fails with a timeout
+				}
+			}
+		};
+		creator.start();
+		assertTrue(watcher.await("created.xml", true, 10000));
+		creator.join();
+	}
+
+	@Test
+	public void testAwaitDeletion() throws Exception {
+		final File file = new File(dir, "deleted.xml");
+		file.createNewFile();
+		Thread deleter = new Thread() {
+			@Override
+			public void run() {
+				try {
+					Thread.sleep(200);
+				}
+				catch (InterruptedException e) {
+					// delete immediately
+				}
+				file.delete();
+			}
+		};
+		deleter.start();
+		assertTrue(watcher.await("deleted.xml", false, 10000));
+		deleter.join();
+	}
+
+	@Test
+	public void testTimeout() throws Exception {
+		new File(dir, "never.xml").delete();
+		assertFalse(watcher.await("never.xml", true, 100));
+	}
+
+	@Test(expected = IOException.class)
+	public void testNonExistingDirectory() throws Exception {
+		watcher.await("nonexisting/file.xml", true, 100);
+	}
+
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2015 Hamburg Sud and the contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aludratest.service.xmlfile.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.xpath.XPathConstants;
+
+import org.aludratest.exception.AutomationException;
+import org.junit.Test;
+import org.w3c.dom.Document;
+
+/**
+ * Tests the {@link NamespaceRegistry}.
+ */
+public class NamespaceRegistryTest {
+
+	@Test
+	public void testParse() {
+		NamespaceRegistry registry = NamespaceRegistry.parse(" soap = http://schemas.xmlsoap.org/soap/envelope/ ,doc=urn:doc,");
+		assertEquals(2, registry.getMappings().size());
+		assertEquals("http://schemas.xmlsoap.org/soap/envelope/", registry.getNamespaceURI("soap"));
+		assertEquals("urn:doc", registry.getNamespaceURI("doc"));
+		assertEquals("doc", registry.getPrefix("urn:doc"));
+		assertEquals(XMLConstants.NULL_NS_URI, registry.getNamespaceURI("other"));
+		assertEquals(XMLConstants.XML_NS_URI, registry.getNamespaceURI("xml"));
+		assertNull(registry.getPrefix("urn:other"));
+
+		assertTrue(NamespaceRegistry.parse(null).isEmpty());
+		assertTrue(NamespaceRegistry.parse(" ").isEmpty());
+		assertEquals(registry, NamespaceRegistry.parse("soap=http://schemas.xmlsoap.org/soap/envelope/,doc=urn:doc"));
+	}
+
+	@Test(expected = AutomationException.class)
+	public void testParse_missingUri() {
+		NamespaceRegistry.parse("soap");
+	}
+
+	@Test(expected = AutomationException.class)
+	public void testParse_duplicatePrefix() {
+		NamespaceRegistry.parse("a=urn:a,a=urn:b");
+	}
+
+	@Test
+	public void testEvaluate() throws Exception {
+		DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+		factory.setNamespaceAware(true);
+		String xml = "<e:Envelope xmlns:e='urn:env'><e:Body><Order xmlns='urn:order' id='42'/></e:Body></e:Envelope>";
+		Document document = factory.newDocumentBuilder().parse(new ByteArrayInputStream(xml.getBytes("UTF-8")));
+
+		XPathExpressionCache cache = new XPathExpressionCache(10);
+		// the prefixes of the registry differ from the ones of the document
+		NamespaceRegistry registry = NamespaceRegistry.parse("env=urn:env,o=urn:order");
+		assertEquals("42", cache.evaluate(document, "/env:Envelope/env:Body/o:Order/@id", registry, XPathConstants.STRING));
+		assertEquals("42", cache.evaluate(document, "/env:Envelope/env:Body/o:Order/@id",
+				NamespaceRegistry.parse("env=urn:env,o=urn:order"), XPathConstants.STRING));
+		assertEquals(1, cache.getHitCount());
+	}
+
+}
@@ -0,0 +1,205 @@
+/*
+ * Copyright (C) 2015 Hamburg Sud and the contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aludratest.service.xmlfile.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import org.aludratest.exception.AutomationException;
+import org.aludratest.exception.FunctionalFailure;
+import org.aludratest.service.file.FileService;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the {@link PipedFileWriter}.
+ */
+public class PipedFileWriterTest {
+
+	private File dir;
+
+	private FileService fileService;
+
+	@Before
+	public void setUp() {
+		dir = new File("target/piped-writer-test");
+		dir.mkdirs();
+		fileService = LocalDirectoryFileService.create(dir);
+	}
+
+	@Test
+	public void testWrite() throws Exception {
+		final byte[] data = new byte[PipedFileWriter.DEFAULT_BUFFER_SIZE * 3 + 17];
+		for (int i = 0; i < data.length; i++) {
+			data[i] = (byte) i;
+		}
+		PipedFileWriter.write(fileService, "written.xml", true, new PipedFileWriter.ContentProducer() {
+			@Override
+			public void writeTo(OutputStream out) throws IOException {
+				out.write(data);
+			}
+		});
+
+		File file = new File(dir, "written.xml");
+		assertEquals(data.length, file.length());
+		InputStream in = new FileInputStream(file);
+		try {
+			for (int i = 0; i < data.length; i++) {
+				assertEquals(data[i], (byte) in.read());
+			}
+		}
+		finally {
+			in.close();
+		}
+	}
+
+	@Test
+	public void testWrite_producerFails() throws Exception {
+		final IllegalStateException error = new IllegalStateException("Serialization failed");
+		try {
+			PipedFileWriter.write(fileService, "failed.xml", true, new PipedFileWriter.ContentProducer() {
+				@Override
+				public void writeTo(OutputStream out) throws IOException {
+					// more than the pipe buffer, so the file service has already written a part of the file
+					out.write(new byte[PipedFileWriter.DEFAULT_BUFFER_SIZE * 2]);
+					throw error;
+				}
+			});
+			fail("Producer failure was not propagated");
+		}
+		catch (IllegalStateException e) {
+			assertSame(error, e);
+		}
+		assertFalse(new File(dir, "failed.xml").exists());
+		assertNoTemporaryFiles();
+	}
+
+	@Test
+	public void testWrite_overwrite() throws Exception {
+		write("overwritten.xml", "<old/>");
+		PipedFileWriter.write(fileService, "overwritten.xml", true, new PipedFileWriter.ContentProducer() {
+			@Override
+			public void writeTo(OutputStream out) throws IOException {
+				out.write("<new/>".getBytes("UTF-8"));
+			}
+		});
+		assertEquals("<new/>", read("overwritten.xml"));
+		assertNoTemporaryFiles();
+	}
+
+	@Test
+	public void testWrite_producerFailsOnExistingFile() throws Exception {
+		write("existing.xml", "<old/>");
+		try {
+			PipedFileWriter.write(fileService, "existing.xml", true, new PipedFileWriter.ContentProducer() {
+				@Override
+				public void writeTo(OutputStream out) throws IOException {
+					out.write(new byte[PipedFileWriter.DEFAULT_BUFFER_SIZE * 2]);
+					throw new IllegalStateException("Serialization failed");
+				}
+			});
+			fail("Producer failure was not propagated");
+		}
+		catch (IllegalStateException e) {
+			// expected
+		}
+		// the pre-existing file is left as it is
+		assertEquals("<old/>", read("existing.xml"));
+		assertNoTemporaryFiles();
+	}
+
+	@Test
+	public void testWrite_noOverwrite() throws Exception {
+		write("kept.xml", "<old/>");
+		try {
+			PipedFileWriter.write(fileService, "kept.xml", false, new PipedFileWriter.ContentProducer() {
+				@Override
+				public void writeTo(OutputStream out) throws IOException {
+					out.write("<new/>".getBytes("UTF-8"));
+				}
+			});
+			fail("Existing file was overwritten");
+		}
+		catch (FunctionalFailure e) {
+			// expected
+		}
+		assertEquals("<old/>", read("kept.xml"));
+		assertNoTemporaryFiles();
+	}
+
+	@Test
+	public void testWrite_producerFailsWithCheckedException() throws Exception {
+		final IOException error = new IOException("Template failed");
+		try {
+			PipedFileWriter.write(fileService, "failed_checked.xml", true, new PipedFileWriter.ContentProducer() {
+				@Override
+				public void writeTo(OutputStream out) throws IOException {
+					out.write("<doc>".getBytes("UTF-8"));
+					throw error;
+				}
+			});
+			fail("Producer failure was not propagated");
+		}
+		catch (AutomationException e) {
+			assertSame(error, e.getCause());
+		}
+		assertFalse(new File(dir, "failed_checked.xml").exists());
+		assertNoTemporaryFiles();
+	}
+
+	private void assertNoTemporaryFiles() {
+		for (String name : dir.list()) {
+			assertFalse(name, name.endsWith(".tmp"));
+		}
+	}
+
+	private void write(String fileName, String content) throws IOException {
+		OutputStream out = new FileOutputStream(new File(dir, fileName));
+		try {
+			out.write(content.getBytes("UTF-8"));
+		}
+		finally {
+			out.close();
+		}
+	}
+
+	private String read(String fileName) throws IOException {
+		File file = new File(dir, fileName);
+		byte[] content = new byte[(int) file.length()];
+		InputStream in = new FileInputStream(file);
+		try {
+			int offset = 0;
+			int read;
+			while (offset < content.length && (read = in.read(content, offset, content.length - offset)) != -1) {
+				offset += read;
+			}
+		}
+		finally {
+			in.close();
+		}
+		return new String(content, "UTF-8");
+	}
+
+}
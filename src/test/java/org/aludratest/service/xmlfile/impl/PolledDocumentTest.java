@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2015 Hamburg Sud and the contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aludratest.service.xmlfile.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.aludratest.content.xml.XmlContent;
+import org.aludratest.service.file.FileService;
+import org.junit.Before;
+import org.junit.Test;
+import org.w3c.dom.Document;
+
+/**
+ * Tests the {@link PolledDocument}.
+ */
+public class PolledDocumentTest {
+
+	private File dir;
+
+	private FileService fileService;
+
+	private XmlContent contentHandler;
+
+	@Before
+	public void setUp() {
+		dir = new File("target/polled-document-test");
+		dir.mkdirs();
+		fileService = LocalDirectoryFileService.create(dir);
+		contentHandler = createContentHandler();
+	}
+
+	@Test
+	public void testUnchangedFile() throws Exception {
+		File file = write("unchanged.xml", "<doc>1</doc>");
+		file.setLastModified(System.currentTimeMillis() - 60000);
+		PolledDocument document = new PolledDocument(fileService, "unchanged.xml", file, contentHandler);
+
+		assertNotNull(document.pollChanged());
+		assertNull(document.pollChanged());
+		assertNull(document.pollChanged());
+		assertEquals(1, document.getParseCount());
+	}
+
+	@Test
+	public void testRewriteWithSameSizeAndModificationTime() throws Exception {
+		File file = write("rewritten.xml", "<doc>1</doc>");
+		long modified = file.lastModified();
+		PolledDocument document = new PolledDocument(fileService, "rewritten.xml", file, contentHandler);
+		assertEquals("1", document.pollChanged().getDocumentElement().getTextContent());
+
+		// a rewrite within the time stamp granularity of the file system
+		write("rewritten.xml", "<doc>2</doc>");
+		file.setLastModified(modified);
+
+		Document changed = document.pollChanged();
+		assertNotNull(changed);
+		assertEquals("2", changed.getDocumentElement().getTextContent());
+		assertEquals(2, document.getParseCount());
+	}
+
+	private File write(String fileName, String content) throws IOException {
+		File file = new File(dir, fileName);
+		OutputStream out = new FileOutputStream(file);
+		try {
+			out.write(content.getBytes("UTF-8"));
+		}
+		finally {
+			out.close();
+		}
+		return file;
+	}
+
+	/** Creates a content handler which only supports parsing documents. */
+	private static XmlContent createContentHandler() {
+		return (XmlContent) Proxy.newProxyInstance(PolledDocumentTest.class.getClassLoader(),
+				new Class<?>[] { XmlContent.class }, new InvocationHandler() {
+					@Override
+					public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+						if ("readDocument".equals(method.getName())) {
+							DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+							return factory.newDocumentBuilder().parse((InputStream) args[0]);
+						}
+						throw new UnsupportedOperationException(method.getName());
+					}
+				});
+	}
+
+}
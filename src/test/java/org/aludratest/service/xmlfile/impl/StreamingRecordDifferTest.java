@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2015 Hamburg Sud and the contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aludratest.service.xmlfile.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+
+import org.aludratest.content.xml.XmlDiffDetail;
+import org.aludratest.content.xml.XmlDiffDetailType;
+import org.aludratest.service.xmlfile.XmlRecordDiff;
+import org.aludratest.service.xmlfile.XmlRecordDiffSettings;
+import org.junit.Test;
+
+/**
+ * Tests the {@link StreamingRecordDiffer}.
+ */
+public class StreamingRecordDifferTest {
+
+	@Test
+	public void testOrderedRecords() throws Exception {
+		XmlRecordDiff diff = diff(createExport(10, -1, -1), createExport(10, 3, -1), new XmlRecordDiffSettings(
+				"/export/records/record", null), Long.MAX_VALUE);
+		assertEquals(1, diff.getDifferenceCount());
+		XmlDiffDetail detail = diff.getXmlDetails().get(0);
+		assertEquals(XmlDiffDetailType.DIFFERENT, detail.getXmlDiffType());
+		assertEquals("(/export/records/record)[7]", detail.getLocatorOfExpected());
+	}
+
+	@Test
+	public void testKeyedRecords() throws Exception {
+		XmlRecordDiff diff = diff(createExport(100, -1, -1), createExport(100, 42, 7), new XmlRecordDiffSettings(
+				"//record", "@id"), Long.MAX_VALUE);
+		assertEquals(2, diff.getDifferenceCount());
+		assertEquals(99, diff.getMatchedRecords());
+		assertEquals(1, diff.getMissingRecords());
+		assertEquals(0, diff.getSpilledRecords());
+		assertEquals("//record[@id='42']", diff.getXmlDetails().get(0).getLocatorOfActual());
+	}
+
+	@Test
+	public void testKeyedRecords_spilled() throws Exception {
+		// a tiny memory limit forces spilling and repartitioning
+		XmlRecordDiff diff = diff(createExport(500, -1, -1), createExport(500, 42, 7), new XmlRecordDiffSettings(
+				"/export/records/record", "key"), 100);
+		assertEquals(2, diff.getDifferenceCount());
+		assertEquals(499, diff.getMatchedRecords());
+		assertTrue(diff.getSpilledRecords() > 0);
+	}
+
+	@Test
+	public void testRecordsInNamespace() throws Exception {
+		// the unprefixed record path does not select the records, which are in the default namespace
+		String expected = createExport(10, -1, -1).replace("<export ", "<export xmlns='urn:x' ");
+		XmlRecordDiff diff = diff(expected, expected, new XmlRecordDiffSettings("/export/records/record", "@id"),
+				Long.MAX_VALUE);
+		assertEquals(0, diff.getDifferenceCount());
+		assertEquals(0, diff.getMatchedRecords());
+	}
+
+	@Test
+	public void testRecordsAtAnyDepth() throws Exception {
+		// namespaced elements outside of records do not match any path
+		String expected = createExport(10, -1, -1).replace("<records>", "<m:meta xmlns:m='urn:m'/><records>");
+		XmlRecordDiff diff = diff(expected, expected, new XmlRecordDiffSettings("//record", "@id"), Long.MAX_VALUE);
+		assertEquals(0, diff.getDifferenceCount());
+		assertEquals(10, diff.getMatchedRecords());
+
+		diff = diff(expected, expected, new XmlRecordDiffSettings("//records/record", "@id"), Long.MAX_VALUE);
+		assertEquals(10, diff.getMatchedRecords());
+		diff = diff(expected, expected, new XmlRecordDiffSettings("//other/record", "@id"), Long.MAX_VALUE);
+		assertEquals(0, diff.getMatchedRecords());
+	}
+
+	@Test
+	public void testRecordNamespaces() throws Exception {
+		String export = "<export><record id='1'><p:value xmlns:p='urn:a'>v</p:value></record></export>";
+		XmlRecordDiffSettings settings = new XmlRecordDiffSettings("/export/record", "@id");
+		// records are compared by namespace URIs, not by prefixes
+		XmlRecordDiff diff = diff(export, export.replace("p:", "q:").replace("xmlns:p", "xmlns:q"), settings,
+				Long.MAX_VALUE);
+		assertEquals(0, diff.getDifferenceCount());
+		assertEquals(1, diff.getMatchedRecords());
+		diff = diff(export, export.replace("urn:a", "urn:b"), settings, Long.MAX_VALUE);
+		assertEquals(1, diff.getDifferenceCount());
+	}
+
+	@Test
+	public void testContentOutsideRecords() throws Exception {
+		String actual = createExport(10, -1, -1).replace("<export date='1'>", "<export date='2'>");
+		XmlRecordDiffSettings settings = new XmlRecordDiffSettings("/export/records/record", "@id");
+		settings.setMaxDetails(0);
+		XmlRecordDiff diff = diff(createExport(10, -1, -1), actual, settings, Long.MAX_VALUE);
+		assertEquals(1, diff.getDifferenceCount());
+		assertEquals(0, diff.getXmlDetails().size());
+	}
+
+	private static XmlRecordDiff diff(String expected, String actual, XmlRecordDiffSettings settings, long memoryLimit)
+			throws Exception {
+		return new StreamingRecordDiffer(settings, memoryLimit).diff(source(expected), source(actual));
+	}
+
+	/** Creates an export with records in reverse order, with an optionally changed and an optionally missing record. */
+	private static String createExport(int count, int changed, int missing) {
+		StringBuilder sb = new StringBuilder("<export date='1'><records>");
+		for (int i = count - 1; i >= 0; i--) {
+			if (i != missing) {
+				sb.append("<record id='").append(i).append("'><key>k").append(i).append("</key><value>")
+						.append(i == changed ? "changed" : "v" + i).append("</value></record>");
+			}
+		}
+		return sb.append("</records></export>").toString();
+	}
+
+	private static StreamingRecordDiffer.DocumentSource source(final String xml) {
+		return new StreamingRecordDiffer.DocumentSource() {
+			@Override
+			public InputStream open() {
+				return new ByteArrayInputStream(xml.getBytes());
+			}
+		};
+	}
+
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2015 Hamburg Sud and the contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aludratest.service.xmlfile.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+
+import javax.xml.stream.XMLStreamException;
+
+import org.junit.Test;
+
+/**
+ * Tests the {@link StreamingXPath}.
+ */
+public class StreamingXPathTest {
+
+	private static final String XML = "<r><a id='1'>x<b>y</b>z</a><a id='2'><a id='3'>in</a>out</a><c><a>deep</a></c></r>";
+
+	@Test
+	public void testStringValue() throws Exception {
+		assertEquals("xyz", evaluate("/r/a"));
+		assertEquals("inout", evaluate("/r/a[2]"));
+		assertEquals("in", evaluate("//a[@id='3']"));
+		assertEquals("out", evaluate("//a[2]/text()"));
+		assertEquals("x", evaluate("//a/text()"));
+		assertEquals("2", evaluate("/r/a[2]/@id"));
+		assertEquals("1", evaluate("//@id"));
+		assertEquals("deep", evaluate("/r/*[3]/a"));
+		assertEquals("", evaluate("//x"));
+	}
+
+	@Test
+	public void testExists() throws Exception {
+		assertTrue(StreamingXPath.compile("//c/a").exists(stream(XML)));
+		assertFalse(StreamingXPath.compile("/r/c/@id").exists(stream(XML)));
+	}
+
+	@Test
+	public void testStopsAtFirstMatch() throws Exception {
+		// the stream fails when read beyond the header
+		InputStream in = new SequenceInputStream(stream("<r><header>h</header>"), new InputStream() {
+			@Override
+			public int read() throws IOException {
+				throw new IOException("Read beyond the header");
+			}
+		});
+		assertTrue(StreamingXPath.compile("/r/header").exists(in));
+	}
+
+	@Test
+	public void testNamespaces() throws Exception {
+		// unprefixed name tests only select nodes in no namespace, like in XPath 1.0
+		String xml = "<order xmlns='urn:x'><total a:cur='EUR' cur='USD' xmlns:a='urn:a'>3</total><n xmlns=''>4</n></order>";
+		assertFalse(StreamingXPath.compile("/order/total").exists(stream(xml)));
+		assertFalse(StreamingXPath.compile("//total").exists(stream(xml)));
+		assertEquals("4", StreamingXPath.compile("//n").stringValue(stream(xml)));
+		assertEquals("USD", StreamingXPath.compile("//*[@cur]/@cur").stringValue(stream(xml)));
+		assertEquals("", StreamingXPath.compile("//@a").stringValue(stream(xml.replace("a:cur", "a:a"))));
+	}
+
+	@Test
+	public void testUnsupported() {
+		assertNull(StreamingXPath.compile("a/b"));
+		assertNull(StreamingXPath.compile("/a/../b"));
+		assertNull(StreamingXPath.compile("//a[last()]"));
+		assertNull(StreamingXPath.compile("/a[contains(., 'x')]"));
+		assertNull(StreamingXPath.compile("/a | /b"));
+		assertNull(StreamingXPath.compile("//p:a"));
+	}
+
+	@Test(expected = XMLStreamException.class)
+	public void testNotWellFormed() throws Exception {
+		StreamingXPath.compile("//x").exists(stream("<r><a></r>"));
+	}
+
+	private static String evaluate(String xpath) throws XMLStreamException {
+		return StreamingXPath.compile(xpath).stringValue(stream(XML));
+	}
+
+	private static InputStream stream(String xml) {
+		return new ByteArrayInputStream(xml.getBytes());
+	}
+
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright (C) 2015 Hamburg Sud and the contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aludratest.service.xmlfile.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.io.IOException;
+
+import org.junit.Test;
+
+import freemarker.template.Template;
+
+/**
+ * Tests the {@link TemplateCache}.
+ */
+public class TemplateCacheTest {
+
+	@Test
+	public void testCachedTemplate() throws Exception {
+		TemplateCache cache = new TemplateCache(10, true);
+		Template template = cache.getTemplate("valid_vars.xml", "UTF-8");
+		assertSame(template, cache.getTemplate("valid_vars.xml", "UTF-8"));
+		// other encoding is another cache entry
+		assertNotSame(template, cache.getTemplate("valid_vars.xml", "ISO-8859-1"));
+
+		assertEquals(1, cache.getHitCount());
+		assertEquals(2, cache.getMissCount());
+		assertEquals(2, cache.size());
+	}
+
+	@Test
+	public void testCachingDisabled() throws Exception {
+		TemplateCache cache = new TemplateCache(0, false);
+		assertNotSame(cache.getTemplate("valid_novars.xml", "UTF-8"), cache.getTemplate("valid_novars.xml", "UTF-8"));
+		assertEquals(0, cache.getHitCount());
+		assertEquals(0, cache.size());
+	}
+
+	@Test(expected = IOException.class)
+	public void testNonExistingTemplate() throws Exception {
+		new TemplateCache(10, false).getTemplate("some/document", "UTF-8");
+	}
+
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2015 Hamburg Sud and the contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aludratest.service.xmlfile.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.xml.xpath.XPathConstants;
+import javax.xml.xpath.XPathExpression;
+
+import org.databene.commons.xml.XMLUtil;
+import org.junit.Test;
+import org.w3c.dom.Document;
+
+/**
+ * Tests the {@link XPathExpressionCache}.
+ */
+public class XPathExpressionCacheTest {
+
+	@Test
+	public void testHitsAndMisses() throws Exception {
+		XPathExpressionCache cache = new XPathExpressionCache(10);
+		Document doc = XMLUtil.parseString("<doc><item>1</item><item>2</item></doc>");
+
+		assertEquals("2", cache.evaluate(doc, "/doc/item[2]", null, XPathConstants.STRING));
+		assertEquals("2", cache.evaluate(doc, "/doc/item[2]", null, XPathConstants.STRING));
+		assertEquals("1", cache.evaluate(doc, "/doc/item[1]", null, XPathConstants.STRING));
+
+		assertEquals(1, cache.getHitCount());
+		assertEquals(2, cache.getMissCount());
+		assertEquals(2, cache.size());
+	}
+
+	@Test
+	public void testEviction() {
+		XPathExpressionCache cache = new XPathExpressionCache(2);
+		XPathExpression first = cache.getExpression("/a", null);
+		cache.getExpression("/b", null);
+		// touch /a, so /b is the least recently used expression
+		assertSame(first, cache.getExpression("/a", null));
+		cache.getExpression("/c", null);
+
+		assertEquals(2, cache.size());
+		assertSame(first, cache.getExpression("/a", null));
+		assertEquals(3, cache.getMissCount());
+
+		// /b must have been evicted
+		cache.getExpression("/b", null);
+		assertEquals(4, cache.getMissCount());
+		assertEquals(2, cache.getHitCount());
+	}
+
+	@Test
+	public void testConcurrentEvaluation() throws Exception {
+		final XPathExpressionCache cache = new XPathExpressionCache(10);
+		final Document doc = XMLUtil.parseString("<doc><item>1</item><item>2</item></doc>");
+		final XPathExpression mainExpression = cache.getExpression("/doc/item[2]", null);
+		final List<Object> results = Collections.synchronizedList(new ArrayList<Object>());
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int i = 0; i < 4; i++) {
+			threads.add(new Thread() {
+				@Override
+				public void run() {
+					// each thread compiles its own instance, which it does not share with other threads
+					if (cache.getExpression("/doc/item[2]", null) == mainExpression) {
+						results.add("shared expression");
+					}
+					for (int j = 0; j < 1000; j++) {
+						results.add(cache.evaluate(doc, "/doc/item[2]", null, XPathConstants.STRING));
+					}
+				}
+			});
+		}
+		for (Thread thread : threads) {
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		assertEquals(4000, results.size());
+		for (Object result : results) {
+			assertEquals("2", result);
+		}
+		assertEquals(5, cache.getMissCount());
+	}
+
+	@Test
+	public void testClear() {
+		XPathExpressionCache cache = new XPathExpressionCache(10);
+		XPathExpression expression = cache.getExpression("/a", null);
+		cache.clear();
+		assertEquals(0, cache.size());
+		assertNotSame(expression, cache.getExpression("/a", null));
+	}
+
+}
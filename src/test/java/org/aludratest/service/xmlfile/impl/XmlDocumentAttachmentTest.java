@@ -0,0 +1,51 @@
+/*
+ * Copyright (C) 2015 Hamburg Sud and the contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aludratest.service.xmlfile.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.databene.commons.xml.XMLUtil;
+import org.junit.Test;
+import org.w3c.dom.Document;
+
+/**
+ * Tests the {@link XmlDocumentAttachment}.
+ */
+public class XmlDocumentAttachmentTest {
+
+	private static final String XML = "<doc><item id=\"1\">first</item><item id=\"2\">second</item></doc>";
+
+	@Test
+	public void testCompleteDocument() throws Exception {
+		Document doc = XMLUtil.parseString(XML);
+		XmlDocumentAttachment attachment = new XmlDocumentAttachment("Doc", doc, new TransformerPool(), 0);
+		String contents = new String(attachment.getFileData(), "UTF-8");
+		assertTrue(contents.endsWith(XML));
+		assertEquals("xml", attachment.getFileExtension());
+	}
+
+	@Test
+	public void testTruncatedDocument() throws Exception {
+		Document doc = XMLUtil.parseString(XML);
+		XmlDocumentAttachment attachment = new XmlDocumentAttachment("Doc", doc, new TransformerPool(), 20);
+		String contents = new String(attachment.getFileData(), "UTF-8");
+		assertTrue(contents.startsWith("<!-- Document truncated to 20 characters. Root element: doc, elements: 3, attributes: 2 -->"));
+		assertFalse(contents.contains("second"));
+	}
+
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2015 Hamburg Sud and the contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aludratest.service.xmlfile.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.aludratest.service.xmlfile.impl.XmlFileMetrics.Operation;
+import org.junit.Test;
+
+/**
+ * Tests the {@link XmlFileMetrics}.
+ */
+public class XmlFileMetricsTest {
+
+	@Test
+	public void testRecordOperations() throws Exception {
+		XmlFileMetrics metrics = new XmlFileMetrics(true);
+		final List<Operation> notified = new ArrayList<Operation>();
+		metrics.addListener(new XmlFileMetricsListener() {
+			@Override
+			public void operationCompleted(Operation operation, long durationNanos, long allocatedBytes) {
+				notified.add(operation);
+			}
+		});
+
+		for (int i = 0; i < 10; i++) {
+			metrics.start(Operation.XPATH).stop();
+		}
+		XmlFileMetrics.Timer timer = metrics.start(Operation.COMPARE);
+		Thread.sleep(20);
+		timer.stop();
+
+		OperationStatistics xpath = metrics.getStatistics(Operation.XPATH);
+		assertEquals(10, xpath.getCount());
+		assertTrue(xpath.getPercentile50Nanos() <= xpath.getPercentile99Nanos());
+		assertTrue(xpath.getPercentile99Nanos() <= xpath.getMaxNanos());
+
+		OperationStatistics compare = metrics.getStatistics(Operation.COMPARE);
+		assertEquals(1, compare.getCount());
+		assertTrue(compare.getTotalNanos() >= 20000000L);
+		// a single value is its own percentile, limited by the maximum
+		assertEquals(compare.getMaxNanos(), compare.getPercentile50Nanos());
+
+		assertEquals(0, metrics.getStatistics(Operation.PARSE).getCount());
+		assertEquals(Operation.values().length, metrics.getOperationStatistics().size());
+		assertEquals(11, notified.size());
+
+		metrics.reset();
+		assertEquals(0, metrics.getStatistics(Operation.XPATH).getCount());
+	}
+
+	@Test
+	public void testCountBytes() throws Exception {
+		XmlFileMetrics metrics = new XmlFileMetrics(true);
+		InputStream in = metrics.countRead(new ByteArrayInputStream(new byte[1000]));
+		byte[] buffer = new byte[300];
+		while (in.read(buffer) != -1) {
+			// count only
+		}
+		OutputStream out = metrics.countWritten(new ByteArrayOutputStream());
+		out.write(new byte[42]);
+		out.write(1);
+
+		assertEquals(1000, metrics.getBytesRead());
+		assertEquals(43, metrics.getBytesWritten());
+	}
+
+	@Test
+	public void testDisabled() {
+		XmlFileMetrics metrics = new XmlFileMetrics(false);
+		InputStream in = new ByteArrayInputStream(new byte[1]);
+		assertSame(in, metrics.countRead(in));
+		metrics.start(Operation.PARSE).stop();
+		assertEquals(0, metrics.getStatistics(Operation.PARSE).getCount());
+	}
+
+}